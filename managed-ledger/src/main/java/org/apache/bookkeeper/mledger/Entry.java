@@ -59,6 +59,18 @@ public interface Entry {
      */
     long getEntryId();
 
+    /**
+     * @return the number of messages stored in the entry, as set in its message metadata, or -1 if the message
+     *         metadata can't be parsed
+     */
+    int getBatchSize();
+
+    /**
+     * @return the publish time set in the message metadata of the entry, or -1 if the message metadata can't be
+     *         parsed
+     */
+    long getPublishTime();
+
     /**
      * Release the resources (data) allocated for this entry and recycle if all the resources are deallocated (ref-count
      * of data reached to 0).
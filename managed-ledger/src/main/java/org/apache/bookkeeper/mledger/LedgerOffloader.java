@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger;
+
+import com.google.common.annotations.Beta;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.LedgerHandle;
+
+/**
+ * Interface for a storage that keeps a copy of closed ledgers, so that they can be deleted from BookKeeper while their
+ * entries are still readable.
+ *
+ * <p/>Offloaded ledgers are identified by the name of the managed ledger they belong to and by their ledger id.
+ */
+@Beta
+public interface LedgerOffloader {
+
+    /**
+     * Copy all the entries of a closed ledger to the offload storage.
+     *
+     * <p/>The returned future completes only once the copy is durable and can be opened with
+     * {@link #openOffloadedLedger(String, long)}. Offloading again a ledger that was already offloaded replaces the
+     * existing copy.
+     *
+     * @param managedLedgerName
+     *            the name of the managed ledger owning the ledger
+     * @param ledger
+     *            a handle to the closed ledger to copy
+     * @return a future that completes when the ledger has been copied
+     */
+    CompletableFuture<Void> offload(String managedLedgerName, LedgerHandle ledger);
+
+    /**
+     * Open an offloaded ledger for reading.
+     *
+     * @param managedLedgerName
+     *            the name of the managed ledger owning the ledger
+     * @param ledgerId
+     *            the id of the offloaded ledger
+     * @return a future with the opened ledger
+     */
+    CompletableFuture<OffloadedLedger> openOffloadedLedger(String managedLedgerName, long ledgerId);
+
+    /**
+     * Delete the copy of an offloaded ledger.
+     *
+     * @param managedLedgerName
+     *            the name of the managed ledger owning the ledger
+     * @param ledgerId
+     *            the id of the offloaded ledger
+     * @return a future that completes when the ledger has been deleted
+     */
+    CompletableFuture<Void> deleteOffloadedLedger(String managedLedgerName, long ledgerId);
+}
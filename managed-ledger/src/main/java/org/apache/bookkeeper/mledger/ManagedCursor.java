@@ -20,6 +20,7 @@ package org.apache.bookkeeper.mledger;
 
 import com.google.common.annotations.Beta;
 import com.google.common.base.Predicate;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -265,6 +266,33 @@ public interface ManagedCursor {
      */
     void asyncDelete(Position position, DeleteCallback callback, Object ctx);
 
+    /**
+     * Delete some of the messages stored in a single entry asynchronously.
+     *
+     * <p/>The indexes are added to the ones already deleted for the entry and are persisted together with the next
+     * acknowledged position, or when the cursor is closed. The entry itself is only deleted with
+     * {@link #asyncDelete(Position, DeleteCallback, Object)} once all the messages it contains are deleted.
+     *
+     * @param position
+     *            the position of the entry
+     * @param deletedIndexes
+     *            the indexes of the messages to be deleted within the entry
+     * @param callback
+     *            callback object
+     * @param ctx
+     *            opaque context
+     */
+    void asyncDeleteBatchIndexes(Position position, BitSet deletedIndexes, DeleteCallback callback, Object ctx);
+
+    /**
+     * Get the indexes of the messages that were deleted within a partially deleted entry.
+     *
+     * @param position
+     *            the position of the entry
+     * @return a copy of the deleted indexes or null if none of the messages of the entry was deleted
+     */
+    BitSet getDeletedBatchIndexes(Position position);
+
     /**
      * Get the read position. This points to the next message to be read from the cursor.
      *
@@ -368,6 +396,24 @@ public interface ManagedCursor {
     void asyncFindNewestMatching(FindPositionConstraint constraint, Predicate<Entry> condition,
             FindEntryCallback callback, Object ctx);
 
+    /**
+     * Find the newest entry published at or before the given timestamp.
+     *
+     * <p/>The publish time index of the managed ledger, when available, is used to restrict the search to the range of
+     * entries that contains the result, so that only a few entries have to be read.
+     *
+     * @param timestamp
+     *            the publish time to look for
+     * @param condition
+     *            predicate that reads an entry and returns true if it was published at or before the timestamp
+     * @param callback
+     *            callback object returning the resultant position
+     * @param ctx
+     *            opaque context
+     */
+    void asyncFindNewestMatchingPublishTime(FindPositionConstraint constraint, long timestamp,
+            Predicate<Entry> condition, FindEntryCallback callback, Object ctx);
+
     /**
      * reset the cursor to specified position to enable replay of messages.
      *
@@ -491,4 +537,23 @@ public interface ManagedCursor {
      */
     void setThrottleMarkDelete(double throttleMarkDelete);
 
+    /**
+     * Set the cursor in tailing mode.
+     *
+     * <p/>When a tailing cursor is waiting for new entries, an entry is pushed to the pending read in the same thread
+     * that completes its write, instead of waking up the cursor to read it from the cache. A tailing cursor that is
+     * lagging behind keeps on reading the entries as usual.
+     *
+     * @param tailing
+     *            whether the cursor should be in tailing mode
+     */
+    void setTailing(boolean tailing);
+
+    /**
+     * Checks if the cursor is in tailing mode.
+     *
+     * @return
+     */
+    boolean isTailing();
+
 }
@@ -24,6 +24,7 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks.AddEntryCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.CloseCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteCursorCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteLedgerCallback;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.OffloadCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.OpenCursorCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.TerminateCallback;
 
@@ -268,6 +269,31 @@ public interface ManagedLedger {
      */
     Position terminate() throws InterruptedException, ManagedLedgerException;
 
+    /**
+     * Offload the closed ledgers that precede the given position to the configured {@link LedgerOffloader} and delete
+     * them from BookKeeper. Their entries stay readable, and are served from the offloaded copy.
+     *
+     * @param pos
+     *            the ledgers that only contain entries before this position are offloaded
+     * @return the first position that was not offloaded
+     * @throws InterruptedException
+     * @throws ManagedLedgerException
+     */
+    Position offloadPrefix(Position pos) throws InterruptedException, ManagedLedgerException;
+
+    /**
+     * Offload the closed ledgers that precede the given position asynchronously.
+     *
+     * @see #offloadPrefix(Position)
+     * @param pos
+     *            the ledgers that only contain entries before this position are offloaded
+     * @param callback
+     *            callback object returning the first position that was not offloaded
+     * @param ctx
+     *            opaque context
+     */
+    void asyncOffloadPrefix(Position pos, OffloadCallback callback, Object ctx);
+
     /**
      * Close the ManagedLedger.
      *
@@ -50,6 +50,12 @@ public class ManagedLedgerConfig {
     private long retentionTimeMs = 0;
     private long retentionSizeInMB = 0;
     private boolean autoSkipNonRecoverableData;
+    private boolean unackedRangesBitSetEnabled = false;
+    private boolean unackedRangesSnapshotEnabled = false;
+    private int unackedRangesDeltasPerSnapshot = 100;
+    private int publishTimeIndexInterval = 0;
+    private LedgerOffloader ledgerOffloader = null;
+    private long offloadAutoTriggerSizeThresholdBytes = -1;
 
     private DigestType digestType = DigestType.MAC;
     private byte[] password = "".getBytes(Charsets.UTF_8);
@@ -411,4 +417,117 @@ public class ManagedLedgerConfig {
     public void setMaxUnackedRangesToPersistInZk(int maxUnackedRangesToPersistInZk) {
         this.maxUnackedRangesToPersistInZk = maxUnackedRangesToPersistInZk;
     }
+
+    /**
+     * @return whether the individually deleted messages of the cursors are tracked with per-ledger bitmaps
+     */
+    public boolean isUnackedRangesBitSetEnabled() {
+        return unackedRangesBitSetEnabled;
+    }
+
+    /**
+     * Track the individually deleted messages of the cursors with a bitmap of the deleted entries for each ledger,
+     * instead of a tree of ranges. This is much more compact when the subscriptions have many unacked holes.
+     *
+     * @param unackedRangesBitSetEnabled
+     *            whether to use per-ledger bitmaps
+     */
+    public ManagedLedgerConfig setUnackedRangesBitSetEnabled(boolean unackedRangesBitSetEnabled) {
+        this.unackedRangesBitSetEnabled = unackedRangesBitSetEnabled;
+        return this;
+    }
+
+    /**
+     * @return whether the full set of unacked ranges is persisted in the cursor ledger using snapshots and deltas
+     */
+    public boolean isUnackedRangesSnapshotEnabled() {
+        return unackedRangesSnapshotEnabled;
+    }
+
+    /**
+     * When the individually deleted messages of a cursor don't fit in a single entry of the cursor ledger (see
+     * {@link #getMaxUnackedRangesToPersist()}), persist all of them as a compressed snapshot split in multiple entries,
+     * followed by incremental deltas, instead of truncating them.
+     *
+     * @param unackedRangesSnapshotEnabled
+     *            whether to persist the unacked ranges with snapshots and deltas
+     */
+    public ManagedLedgerConfig setUnackedRangesSnapshotEnabled(boolean unackedRangesSnapshotEnabled) {
+        this.unackedRangesSnapshotEnabled = unackedRangesSnapshotEnabled;
+        return this;
+    }
+
+    /**
+     * @return the max number of delta entries written in the cursor ledger before taking a new snapshot of the unacked
+     *         ranges
+     */
+    public int getUnackedRangesDeltasPerSnapshot() {
+        return unackedRangesDeltasPerSnapshot;
+    }
+
+    /**
+     * @param unackedRangesDeltasPerSnapshot
+     *            the max number of delta entries written in the cursor ledger before taking a new snapshot of the
+     *            unacked ranges
+     */
+    public ManagedLedgerConfig setUnackedRangesDeltasPerSnapshot(int unackedRangesDeltasPerSnapshot) {
+        this.unackedRangesDeltasPerSnapshot = unackedRangesDeltasPerSnapshot;
+        return this;
+    }
+
+    /**
+     * @return the number of entries between two samples of the publish time index of a ledger, or 0 if the index is
+     *         disabled
+     */
+    public int getPublishTimeIndexInterval() {
+        return publishTimeIndexInterval;
+    }
+
+    /**
+     * Keep a sparse index of the publish time of the entries of each ledger, used to narrow down the range of entries
+     * to read when looking up a position by time.
+     *
+     * @param publishTimeIndexInterval
+     *            the number of entries between two samples of the index, or 0 to disable the index
+     */
+    public ManagedLedgerConfig setPublishTimeIndexInterval(int publishTimeIndexInterval) {
+        this.publishTimeIndexInterval = publishTimeIndexInterval;
+        return this;
+    }
+
+    /**
+     * @return the offloader used to move closed ledgers out of BookKeeper, or null if offloading is disabled
+     */
+    public LedgerOffloader getLedgerOffloader() {
+        return ledgerOffloader;
+    }
+
+    /**
+     * @param ledgerOffloader
+     *            the offloader used to move closed ledgers out of BookKeeper, or null to disable offloading
+     */
+    public ManagedLedgerConfig setLedgerOffloader(LedgerOffloader ledgerOffloader) {
+        this.ledgerOffloader = ledgerOffloader;
+        return this;
+    }
+
+    /**
+     * @return the size of the data kept in BookKeeper above which the oldest closed ledgers are automatically
+     *         offloaded, or a negative value if the automatic offload is disabled
+     */
+    public long getOffloadAutoTriggerSizeThresholdBytes() {
+        return offloadAutoTriggerSizeThresholdBytes;
+    }
+
+    /**
+     * Automatically offload the oldest closed ledgers, when a ledger is closed, until the size of the data kept in
+     * BookKeeper is below the threshold.
+     *
+     * @param offloadAutoTriggerSizeThresholdBytes
+     *            the threshold in bytes, or a negative value to disable the automatic offload
+     */
+    public ManagedLedgerConfig setOffloadAutoTriggerSizeThresholdBytes(long offloadAutoTriggerSizeThresholdBytes) {
+        this.offloadAutoTriggerSizeThresholdBytes = offloadAutoTriggerSizeThresholdBytes;
+        return this;
+    }
 }
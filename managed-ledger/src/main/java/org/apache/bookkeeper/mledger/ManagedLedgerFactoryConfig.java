@@ -26,6 +26,36 @@ public class ManagedLedgerFactoryConfig {
 
     private long maxCacheSize = 128 * MB;
     private double cacheEvictionWatermark = 0.90;
+    private boolean segmentedCacheEnabled = false;
+    private int cacheSegmentSize = (int) MB;
+    private CacheEvictionPolicy cacheEvictionPolicy = CacheEvictionPolicy.Default;
+    private int cacheEvictionReadAheadWindow = 1000;
+    private boolean readAheadEnabled = false;
+    private int readAheadMaxEntries = 1000;
+    private long readAheadMaxSize = 5 * MB;
+    private int maxConcurrentRecoveries = 0;
+
+    /**
+     * Policies used to choose which entries to remove from the cache, when the cache is full.
+     */
+    public enum CacheEvictionPolicy {
+        /**
+         * Evict the oldest entries from the bigger caches.
+         */
+        Default,
+
+        /**
+         * Evict first the entries that were already consumed by all the cursors and the entries that are not going to
+         * be read soon by any cursor.
+         */
+        CursorAware,
+
+        /**
+         * Evict first the caches of the least frequently read topics and don't admit new entries for them while the
+         * cache is under pressure.
+         */
+        FrequencyAware
+    }
 
     public long getMaxCacheSize() {
         return maxCacheSize;
@@ -56,4 +86,126 @@ public class ManagedLedgerFactoryConfig {
         return this;
     }
 
+    public boolean isSegmentedCacheEnabled() {
+        return segmentedCacheEnabled;
+    }
+
+    /**
+     * Use the segmented entry cache, which stores the entries of each ledger in append-ordered segments of direct
+     * memory, instead of keeping one cached object per entry.
+     *
+     * @param segmentedCacheEnabled
+     * @return
+     */
+    public ManagedLedgerFactoryConfig setSegmentedCacheEnabled(boolean segmentedCacheEnabled) {
+        this.segmentedCacheEnabled = segmentedCacheEnabled;
+        return this;
+    }
+
+    public int getCacheSegmentSize() {
+        return cacheSegmentSize;
+    }
+
+    /**
+     * Max size in bytes of each segment allocated by the segmented entry cache.
+     *
+     * @param cacheSegmentSize
+     * @return
+     */
+    public ManagedLedgerFactoryConfig setCacheSegmentSize(int cacheSegmentSize) {
+        this.cacheSegmentSize = cacheSegmentSize;
+        return this;
+    }
+
+    public CacheEvictionPolicy getCacheEvictionPolicy() {
+        return cacheEvictionPolicy;
+    }
+
+    /**
+     * The policy used to choose which entries to remove when the cache is full.
+     *
+     * @param cacheEvictionPolicy
+     * @return
+     */
+    public ManagedLedgerFactoryConfig setCacheEvictionPolicy(CacheEvictionPolicy cacheEvictionPolicy) {
+        this.cacheEvictionPolicy = cacheEvictionPolicy;
+        return this;
+    }
+
+    public int getCacheEvictionReadAheadWindow() {
+        return cacheEvictionReadAheadWindow;
+    }
+
+    /**
+     * Number of entries, after the read position of each cursor, that the cursor-aware eviction policy will try to
+     * keep in cache.
+     *
+     * @param cacheEvictionReadAheadWindow
+     * @return
+     */
+    public ManagedLedgerFactoryConfig setCacheEvictionReadAheadWindow(int cacheEvictionReadAheadWindow) {
+        this.cacheEvictionReadAheadWindow = cacheEvictionReadAheadWindow;
+        return this;
+    }
+
+    public boolean isReadAheadEnabled() {
+        return readAheadEnabled;
+    }
+
+    /**
+     * Prefetch in the cache the next entries for the cursors that are sequentially reading a backlog.
+     *
+     * @param readAheadEnabled
+     * @return
+     */
+    public ManagedLedgerFactoryConfig setReadAheadEnabled(boolean readAheadEnabled) {
+        this.readAheadEnabled = readAheadEnabled;
+        return this;
+    }
+
+    public int getReadAheadMaxEntries() {
+        return readAheadMaxEntries;
+    }
+
+    /**
+     * Max number of entries to prefetch ahead of the read position of a cursor.
+     *
+     * @param readAheadMaxEntries
+     * @return
+     */
+    public ManagedLedgerFactoryConfig setReadAheadMaxEntries(int readAheadMaxEntries) {
+        this.readAheadMaxEntries = readAheadMaxEntries;
+        return this;
+    }
+
+    public long getReadAheadMaxSize() {
+        return readAheadMaxSize;
+    }
+
+    /**
+     * Max size in bytes of the entries to prefetch ahead of the read position of a cursor.
+     *
+     * @param readAheadMaxSize
+     * @return
+     */
+    public ManagedLedgerFactoryConfig setReadAheadMaxSize(long readAheadMaxSize) {
+        this.readAheadMaxSize = readAheadMaxSize;
+        return this;
+    }
+
+    public int getMaxConcurrentRecoveries() {
+        return maxConcurrentRecoveries;
+    }
+
+    /**
+     * Max number of managed ledgers that can be recovered at the same time. Further open requests are queued until a
+     * recovery completes. Set to 0 to not limit the number of concurrent recoveries.
+     *
+     * @param maxConcurrentRecoveries
+     * @return
+     */
+    public ManagedLedgerFactoryConfig setMaxConcurrentRecoveries(int maxConcurrentRecoveries) {
+        this.maxConcurrentRecoveries = maxConcurrentRecoveries;
+        return this;
+    }
 }
@@ -61,4 +61,57 @@ public interface ManagedLedgerFactoryMXBean {
      * Get the number of cache evictions during the last minute.
      */
     long getNumberOfCacheEvictions();
+
+    /**
+     * Get the name of the policy used to evict entries from the cache.
+     */
+    String getCacheEvictionPolicy();
+
+    /**
+     * Get the ratio of entries read from the cache over the total number of entries read, during the last minute.
+     */
+    double getCacheHitRatio();
+
+    /**
+     * Get the number of entries per second that the eviction policy refused to insert in the cache.
+     */
+    double getCacheAdmissionRejectionsRate();
+
+    /**
+     * Get the number of entries per second that were not read from bookkeeper because a read of the same entries,
+     * issued for another cursor, was already in progress.
+     */
+    double getCoalescedReadsRate();
+
+    /**
+     * Get the amount of data in byte/s that was served from reads shared with other cursors.
+     */
+    double getCoalescedReadsThroughput();
+
+    /**
+     * Get the number of entries per second that were handed to the cursors waiting for them as soon as they were
+     * persisted, without being read from the cache.
+     */
+    double getBroadcastEntriesRate();
+
+    /**
+     * Get the number of managed ledgers waiting to start their recovery.
+     */
+    int getNumberOfPendingRecoveries();
+
+    /**
+     * Get the number of managed ledgers currently being recovered.
+     */
+    int getNumberOfActiveRecoveries();
+
+    /**
+     * Get the average time, in milliseconds, between the request to open a managed ledger and the managed ledger being
+     * ready to be used.
+     */
+    double getRecoveryTimeAverageMillis();
+
+    /**
+     * Get the distribution of the managed ledgers recovery time, in milliseconds.
+     */
+    long[] getRecoveryTimeBuckets();
 }
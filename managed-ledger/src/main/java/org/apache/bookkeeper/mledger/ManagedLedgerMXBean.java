@@ -107,4 +107,16 @@ public interface ManagedLedgerMXBean {
     StatsBuckets getInternalEntrySizeBuckets();
 
     PendingBookieOpsStats getPendingBookieOpsStats();
+
+    /**
+     * @return the time in milliseconds between the request to open the managed ledger and the managed ledger being
+     *         ready to be used, including the time spent waiting for other managed ledgers to be recovered
+     */
+    long getRecoveryTimeMillis();
+
+    /**
+     * @return the time in milliseconds that the managed ledger waited for other managed ledgers to be recovered before
+     *         starting its own recovery
+     */
+    long getRecoveryWaitTimeMillis();
 }
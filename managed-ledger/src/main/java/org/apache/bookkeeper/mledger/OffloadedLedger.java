@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger;
+
+import com.google.common.annotations.Beta;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+
+/**
+ * A read-only view of a ledger stored by a {@link LedgerOffloader}.
+ */
+@Beta
+public interface OffloadedLedger {
+
+    /**
+     * @return the id of the ledger
+     */
+    long getId();
+
+    /**
+     * @return the id of the last entry of the ledger
+     */
+    long getLastEntryId();
+
+    /**
+     * @return the total size in bytes of the entries of the ledger
+     */
+    long getLength();
+
+    /**
+     * Read a range of entries.
+     *
+     * @param firstEntry
+     *            the first entry to read (inclusive)
+     * @param lastEntry
+     *            the last entry to read (inclusive)
+     * @param callback
+     *            callback object notified with the entries, in order
+     * @param ctx
+     *            opaque context
+     */
+    void asyncReadEntries(long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx);
+
+    /**
+     * Release the resources used to read the ledger.
+     */
+    void close();
+}
@@ -0,0 +1,322 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.util.List;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
+import org.apache.pulsar.common.api.proto.PulsarApi.CompressionType;
+import org.apache.pulsar.common.compression.CompressionCodec;
+import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet;
+
+/**
+ * Format of the cursor ledger entries used to persist the individually deleted messages of a cursor when they don't
+ * fit in a single {@link PositionInfo} entry.
+ *
+ * <p/>The full set of ranges is written as a <i>snapshot</i>: the ranges are compressed and split into multiple
+ * <i>chunk</i> entries, followed by a snapshot entry that contains the mark-delete position, the cursor properties and
+ * the number of chunks that precede it. The following updates are written as <i>delta</i> entries, each containing
+ * the mark-delete position and all the ranges that were added since the snapshot they refer to.
+ *
+ * <p/>Every entry starts with a magic number, that can never be the first byte of a serialized {@link PositionInfo},
+ * followed by the entry type and the id of the snapshot:
+ *
+ * <pre>
+ * CHUNK:    [MAGIC] [TYPE] [SNAPSHOT_ID] [PAYLOAD...]
+ * SNAPSHOT: [MAGIC] [TYPE] [SNAPSHOT_ID] [NUM_CHUNKS] [COMPRESSION] [UNCOMPRESSED_SIZE] [POSITION_INFO...]
+ * DELTA:    [MAGIC] [TYPE] [SNAPSHOT_ID] [COMPRESSION] [UNCOMPRESSED_SIZE] [PAYLOAD_SIZE] [PAYLOAD] [POSITION_INFO...]
+ * </pre>
+ */
+final class AckStateFormat {
+
+    // A serialized PositionInfo always starts with the tag of the ledgerId field (0x08)
+    static final short MAGIC = 0x0e0c;
+
+    static final byte TYPE_CHUNK = 1;
+    static final byte TYPE_SNAPSHOT = 2;
+    static final byte TYPE_DELTA = 3;
+
+    // Max size of the compressed ranges stored in a single chunk entry
+    static final int MAX_CHUNK_SIZE = 512 * 1024;
+
+    private static final int HEADER_SIZE = 2 + 1 + 8;
+    private static final CompressionType COMPRESSION = CompressionType.LZ4;
+
+    /**
+     * A decoded cursor ledger entry.
+     */
+    static class AckStateEntry {
+        byte type;
+        long snapshotId;
+        int numChunks;
+        CompressionType compression;
+        int uncompressedSize;
+        byte[] payload;
+        PositionInfo positionInfo;
+    }
+
+    private AckStateFormat() {
+    }
+
+    /**
+     * @return the type of the entry, or 0 if the entry is a regular {@link PositionInfo}
+     */
+    static byte getType(byte[] data) {
+        if (data.length < HEADER_SIZE || (short) (((data[0] & 0xFF) << 8) | (data[1] & 0xFF)) != MAGIC) {
+            return 0;
+        }
+        return data[2];
+    }
+
+    static long getSnapshotId(byte[] data) {
+        return Unpooled.wrappedBuffer(data).getLong(3);
+    }
+
+    static AckStateEntry parse(byte[] data) throws IOException {
+        AckStateEntry entry = new AckStateEntry();
+        entry.type = getType(data);
+        if (entry.type != TYPE_CHUNK && entry.type != TYPE_SNAPSHOT && entry.type != TYPE_DELTA) {
+            throw new IOException("Invalid cursor ack-state entry type: " + entry.type);
+        }
+
+        ByteBuf buf = Unpooled.wrappedBuffer(data);
+        buf.skipBytes(3);
+        entry.snapshotId = buf.readLong();
+
+        switch (entry.type) {
+        case TYPE_CHUNK:
+            entry.payload = new byte[buf.readableBytes()];
+            buf.readBytes(entry.payload);
+            return entry;
+
+        case TYPE_SNAPSHOT:
+            entry.numChunks = buf.readInt();
+            entry.compression = readCompression(buf);
+            entry.uncompressedSize = buf.readInt();
+            break;
+
+        default:
+            entry.compression = readCompression(buf);
+            entry.uncompressedSize = buf.readInt();
+            entry.payload = new byte[buf.readInt()];
+            buf.readBytes(entry.payload);
+            break;
+        }
+
+        entry.positionInfo = PositionInfo.newBuilder()
+                .mergeFrom(data, buf.readerIndex(), buf.readableBytes()).build();
+        return entry;
+    }
+
+    /**
+     * Encodes a snapshot of the ranges into a list of chunk entries, followed by the snapshot entry.
+     */
+    static List<byte[]> encodeSnapshot(long snapshotId, PositionInfo positionInfo,
+            LongPairRangeSet<PositionImpl> ranges) {
+        return encodeSnapshot(snapshotId, positionInfo, ranges, MAX_CHUNK_SIZE);
+    }
+
+    static List<byte[]> encodeSnapshot(long snapshotId, PositionInfo positionInfo,
+            LongPairRangeSet<PositionImpl> ranges, int maxChunkSize) {
+        ByteBuf raw = encodeRanges(ranges);
+        int uncompressedSize = raw.readableBytes();
+        ByteBuf compressed = CompressionCodecProvider.getCompressionCodec(COMPRESSION).encode(raw);
+        raw.release();
+
+        try {
+            List<byte[]> entries = Lists.newArrayList();
+            while (compressed.isReadable()) {
+                int chunkSize = Math.min(maxChunkSize, compressed.readableBytes());
+                ByteBuf chunk = Unpooled.buffer(HEADER_SIZE + chunkSize);
+                writeHeader(chunk, TYPE_CHUNK, snapshotId);
+                chunk.writeBytes(compressed, chunkSize);
+                entries.add(toByteArray(chunk));
+            }
+
+            byte[] pi = positionInfo.toByteArray();
+            ByteBuf snapshot = Unpooled.buffer(HEADER_SIZE + 12 + pi.length);
+            writeHeader(snapshot, TYPE_SNAPSHOT, snapshotId);
+            snapshot.writeInt(entries.size());
+            snapshot.writeInt(COMPRESSION.getNumber());
+            snapshot.writeInt(uncompressedSize);
+            snapshot.writeBytes(pi);
+            entries.add(toByteArray(snapshot));
+            return entries;
+        } finally {
+            compressed.release();
+        }
+    }
+
+    /**
+     * Encodes a delta entry with the ranges added since the snapshot with the given id.
+     */
+    static byte[] encodeDelta(long snapshotId, PositionInfo positionInfo, LongPairRangeSet<PositionImpl> ranges) {
+        ByteBuf raw = encodeRanges(ranges);
+        int uncompressedSize = raw.readableBytes();
+        ByteBuf compressed = CompressionCodecProvider.getCompressionCodec(COMPRESSION).encode(raw);
+        raw.release();
+
+        try {
+            byte[] pi = positionInfo.toByteArray();
+            ByteBuf delta = Unpooled.buffer(HEADER_SIZE + 12 + compressed.readableBytes() + pi.length);
+            writeHeader(delta, TYPE_DELTA, snapshotId);
+            delta.writeInt(COMPRESSION.getNumber());
+            delta.writeInt(uncompressedSize);
+            delta.writeInt(compressed.readableBytes());
+            delta.writeBytes(compressed);
+            delta.writeBytes(pi);
+            return toByteArray(delta);
+        } finally {
+            compressed.release();
+        }
+    }
+
+    /**
+     * Adds to the set all the ranges contained in a snapshot.
+     *
+     * @param snapshot
+     *            the snapshot entry
+     * @param chunks
+     *            the chunk entries preceding the snapshot, in order
+     */
+    static void decodeSnapshot(AckStateEntry snapshot, List<AckStateEntry> chunks, RangeConsumer target)
+            throws IOException {
+        if (chunks.size() != snapshot.numChunks) {
+            throw new IOException("Expected " + snapshot.numChunks + " chunks but found " + chunks.size());
+        }
+
+        ByteBuf compressed = Unpooled.buffer();
+        for (AckStateEntry chunk : chunks) {
+            if (chunk.type != TYPE_CHUNK || chunk.snapshotId != snapshot.snapshotId) {
+                throw new IOException("Invalid chunk for snapshot " + snapshot.snapshotId);
+            }
+            compressed.writeBytes(chunk.payload);
+        }
+
+        decodeRanges(snapshot.compression, snapshot.uncompressedSize, compressed, target);
+    }
+
+    /**
+     * Adds to the set all the ranges contained in a delta.
+     */
+    static void decodeDelta(AckStateEntry delta, RangeConsumer target) throws IOException {
+        decodeRanges(delta.compression, delta.uncompressedSize, Unpooled.wrappedBuffer(delta.payload), target);
+    }
+
+    /**
+     * Receives the decoded ranges, each one as (lowerLedgerId:lowerEntryId, upperLedgerId:upperEntryId].
+     */
+    interface RangeConsumer {
+        void addOpenClosed(long lowerLedgerId, long lowerEntryId, long upperLedgerId, long upperEntryId);
+    }
+
+    private static void writeHeader(ByteBuf buf, byte type, long snapshotId) {
+        buf.writeShort(MAGIC);
+        buf.writeByte(type);
+        buf.writeLong(snapshotId);
+    }
+
+    private static byte[] toByteArray(ByteBuf buf) {
+        byte[] data = new byte[buf.readableBytes()];
+        buf.readBytes(data);
+        return data;
+    }
+
+    private static CompressionType readCompression(ByteBuf buf) throws IOException {
+        int number = buf.readInt();
+        CompressionType compression = CompressionType.valueOf(number);
+        if (compression == null) {
+            throw new IOException("Unknown compression type: " + number);
+        }
+        return compression;
+    }
+
+    /**
+     * Ranges are encoded as a sequence of var-longs, relative to the previous endpoint, since ranges in the set are
+     * sorted and disjoint: (lowerLedgerId - previousUpperLedgerId, lowerEntryId + 1, upperLedgerId - lowerLedgerId,
+     * upperEntryId - lowerEntryId) where the last one is (upperEntryId + 1) if the range spans multiple ledgers.
+     */
+    private static ByteBuf encodeRanges(LongPairRangeSet<PositionImpl> ranges) {
+        ByteBuf buf = Unpooled.buffer();
+        long[] previousLedgerId = { 0 };
+        ranges.forEach(range -> {
+            PositionImpl lower = range.lowerEndpoint();
+            PositionImpl upper = range.upperEndpoint();
+            writeVarLong(buf, lower.getLedgerId() - previousLedgerId[0]);
+            writeVarLong(buf, lower.getEntryId() + 1);
+            writeVarLong(buf, upper.getLedgerId() - lower.getLedgerId());
+            writeVarLong(buf, upper.getLedgerId() == lower.getLedgerId() ? upper.getEntryId() - lower.getEntryId()
+                    : upper.getEntryId() + 1);
+            previousLedgerId[0] = upper.getLedgerId();
+            return true;
+        });
+        return buf;
+    }
+
+    private static void decodeRanges(CompressionType compression, int uncompressedSize, ByteBuf compressed,
+            RangeConsumer target) throws IOException {
+        if (uncompressedSize == 0) {
+            return;
+        }
+
+        CompressionCodec codec = CompressionCodecProvider.getCompressionCodec(compression);
+        ByteBuf buf = codec.decode(compressed, uncompressedSize);
+        try {
+            long previousLedgerId = 0;
+            while (buf.isReadable()) {
+                long lowerLedgerId = previousLedgerId + readVarLong(buf);
+                long lowerEntryId = readVarLong(buf) - 1;
+                long upperLedgerId = lowerLedgerId + readVarLong(buf);
+                long upperEntryId = upperLedgerId == lowerLedgerId ? lowerEntryId + readVarLong(buf)
+                        : readVarLong(buf) - 1;
+                target.addOpenClosed(lowerLedgerId, lowerEntryId, upperLedgerId, upperEntryId);
+                previousLedgerId = upperLedgerId;
+            }
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void writeVarLong(ByteBuf buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuf buf) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buf.isReadable()) {
+                throw new IOException("Truncated ack-state ranges");
+            }
+            byte b = buf.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed var-long in ack-state ranges");
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Serialization of the indexes deleted within partially deleted entries, persisted in the cursor position.
+ *
+ * <p/>Each entry is stored as a sequence of varints followed by the words of its bitset, sorted by position:
+ *
+ * <pre>
+ * ([LEDGER_ID_DELTA] [ENTRY_ID] [NUM_WORDS] [WORD]...)...
+ * </pre>
+ *
+ * <p/>The words are written as fixed 64 bits little endian values, in the same order as {@link BitSet#toLongArray()}.
+ */
+class BatchDeletedIndexesFormat {
+
+    /**
+     * Encode at most maxEntries entries of the map, starting from the oldest position.
+     */
+    static ByteString encode(NavigableMap<PositionImpl, BitSet> batchDeletedIndexes, int maxEntries) {
+        try {
+            ByteString.Output out = ByteString.newOutput();
+            CodedOutputStream stream = CodedOutputStream.newInstance(out);
+            long previousLedgerId = 0;
+            int count = 0;
+            for (Map.Entry<PositionImpl, BitSet> e : batchDeletedIndexes.entrySet()) {
+                if (count++ >= maxEntries) {
+                    break;
+                }
+
+                PositionImpl position = e.getKey();
+                long[] words = e.getValue().toLongArray();
+                stream.writeRawVarint64(position.getLedgerId() - previousLedgerId);
+                stream.writeRawVarint64(position.getEntryId());
+                stream.writeRawVarint32(words.length);
+                for (long word : words) {
+                    stream.writeRawLittleEndian64(word);
+                }
+                previousLedgerId = position.getLedgerId();
+            }
+            stream.flush();
+            return out.toByteString();
+        } catch (IOException e) {
+            // Writing to a memory buffer
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void decode(ByteString data, NavigableMap<PositionImpl, BitSet> batchDeletedIndexes) throws IOException {
+        CodedInputStream stream = data.newCodedInput();
+        long ledgerId = 0;
+        while (!stream.isAtEnd()) {
+            ledgerId += stream.readRawVarint64();
+            long entryId = stream.readRawVarint64();
+            int numWords = stream.readRawVarint32();
+            if (numWords < 0 || numWords > MAX_WORDS) {
+                throw new IOException("Invalid number of words in batch deleted indexes: " + numWords);
+            }
+
+            long[] words = new long[numWords];
+            for (int i = 0; i < numWords; i++) {
+                words[i] = stream.readRawLittleEndian64();
+            }
+            batchDeletedIndexes.put(PositionImpl.get(ledgerId, entryId), BitSet.valueOf(words));
+        }
+    }
+
+    // Enough for batches of 1M messages
+    private static final int MAX_WORDS = 16 * 1024;
+}
@@ -21,6 +21,7 @@ package org.apache.bookkeeper.mledger.impl;
 import org.apache.bookkeeper.client.LedgerHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntryCallback;
+import org.apache.bookkeeper.mledger.OffloadedLedger;
 import org.apache.bookkeeper.mledger.util.Pair;
 
 /**
@@ -76,6 +77,17 @@ public interface EntryCache extends Comparable<EntryCache> {
      */
     Pair<Integer, Long> evictEntries(long sizeToFree);
 
+    /**
+     * Force the cache to drop the entries in a range of positions.
+     *
+     * @param firstPosition
+     *            the position of the first entry to be evicted (inclusive)
+     * @param lastPosition
+     *            the position of the last entry to be evicted (inclusive)
+     * @return a pair containing the number of entries evicted and their total size
+     */
+    Pair<Integer, Long> evictEntries(PositionImpl firstPosition, PositionImpl lastPosition);
+
     /**
      * Read entries from the cache or from bookkeeper.
      *
@@ -113,10 +125,52 @@ public interface EntryCache extends Comparable<EntryCache> {
      */
     void asyncReadEntry(LedgerHandle lh, PositionImpl position, ReadEntryCallback callback, Object ctx);
 
+    /**
+     * Read entries from bookkeeper ahead of the cursors, for them to be inserted in the cache.
+     *
+     * <p/>The read is shared with the reads of the same entries issued while it is in progress, so that the entries are
+     * only fetched once from the bookies.
+     *
+     * @param lh
+     *            the ledger handle
+     * @param firstEntry
+     *            the first entry to read (inclusive)
+     * @param lastEntry
+     *            the last entry to read (inclusive)
+     * @param callback
+     *            the callback object that will be notified when read is done
+     * @param ctx
+     *            the context object
+     */
+    void asyncPrefetchEntries(LedgerHandle lh, long firstEntry, long lastEntry, ReadEntriesCallback callback,
+            Object ctx);
+
+    /**
+     * Read entries from the cache or from a ledger that was offloaded from bookkeeper.
+     *
+     * @param ledger
+     *            the offloaded ledger
+     * @param firstEntry
+     *            the first entry to read (inclusive)
+     * @param lastEntry
+     *            the last entry to read (inclusive)
+     * @param callback
+     *            the callback object that will be notified when read is done
+     * @param ctx
+     *            the context object
+     */
+    void asyncReadEntry(OffloadedLedger ledger, long firstEntry, long lastEntry, ReadEntriesCallback callback,
+            Object ctx);
+
     /**
      * Get the total size in bytes of all the entries stored in this cache.
      *
      * @return the size of the entry cache
      */
     long getSize();
+
+    /**
+     * @return the managed ledger whose entries are stored in this cache
+     */
+    ManagedLedgerImpl getManagedLedger();
 }
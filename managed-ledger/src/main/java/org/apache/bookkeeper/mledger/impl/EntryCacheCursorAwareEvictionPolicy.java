@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Collections.reverseOrder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import java.util.List;
+import java.util.NavigableSet;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Eviction policy that uses the read positions of the cursors to decide which entries are not needed anymore.
+ *
+ * <p/>The eviction is done in multiple passes, stopping as soon as enough memory was freed:
+ * <ol>
+ * <li>Entries that were already read by all the active cursors are removed from all the caches</li>
+ * <li>Entries that are not within the read-ahead window of any cursor are removed, starting from the bigger caches</li>
+ * <li>Finally, if that is still not enough, the {@link EntryCacheDefaultEvictionPolicy} is applied</li>
+ * </ol>
+ */
+public class EntryCacheCursorAwareEvictionPolicy implements EntryCacheEvictionPolicy {
+
+    private final int readAheadWindow;
+    private final EntryCacheEvictionPolicy fallbackPolicy = new EntryCacheDefaultEvictionPolicy();
+
+    public EntryCacheCursorAwareEvictionPolicy(int readAheadWindow) {
+        checkArgument(readAheadWindow >= 0);
+        this.readAheadWindow = readAheadWindow;
+    }
+
+    @Override
+    public String getName() {
+        return "CursorAware";
+    }
+
+    @Override
+    public void doEviction(List<EntryCache> caches, long sizeToFree) {
+        checkArgument(sizeToFree > 0);
+        checkArgument(!caches.isEmpty());
+
+        int evictedEntries = 0;
+        long evictedSize = 0;
+
+        // 1. Remove the entries that were already read by all the active cursors
+        for (EntryCache entryCache : caches) {
+            ManagedLedgerImpl ml = entryCache.getManagedLedger();
+            if (ml == null || entryCache.getSize() == 0) {
+                continue;
+            }
+
+            PositionImpl slowestReadPosition = getSlowestReadPosition(ml);
+            PositionImpl lastPosition = slowestReadPosition == null ? PositionImpl.latest
+                    : PositionImpl.get(slowestReadPosition.getLedgerId(), slowestReadPosition.getEntryId() - 1);
+
+            Pair<Integer, Long> evicted = entryCache.evictEntries(PositionImpl.earliest, lastPosition);
+            evictedEntries += evicted.first;
+            evictedSize += evicted.second;
+        }
+
+        log.debug("Removed {} already consumed entries ({} bytes)", evictedEntries, evictedSize);
+
+        // 2. Remove the entries that are outside the read-ahead window of all the cursors
+        if (evictedSize < sizeToFree) {
+            List<EntryCache> sortedCaches = Lists.newArrayList(caches);
+            sortedCaches.sort(reverseOrder());
+
+            for (EntryCache entryCache : sortedCaches) {
+                ManagedLedgerImpl ml = entryCache.getManagedLedger();
+                if (ml == null || entryCache.getSize() == 0) {
+                    continue;
+                }
+
+                Pair<Integer, Long> evicted = evictOutsideReadAheadWindow(entryCache, ml);
+                evictedEntries += evicted.first;
+                evictedSize += evicted.second;
+
+                if (evictedSize >= sizeToFree) {
+                    break;
+                }
+            }
+        }
+
+        // 3. Fallback to the default policy on the caches that still have entries
+        if (evictedSize < sizeToFree) {
+            List<EntryCache> remainingCaches = Lists.newArrayList();
+            for (EntryCache entryCache : caches) {
+                if (entryCache.getSize() > 0) {
+                    remainingCaches.add(entryCache);
+                }
+            }
+
+            if (!remainingCaches.isEmpty()) {
+                log.debug("Freed {} bytes based on cursors positions. Falling back to default eviction", evictedSize);
+                fallbackPolicy.doEviction(remainingCaches, sizeToFree - evictedSize);
+                return;
+            }
+        }
+
+        log.info("Completed cache eviction. Removed {} entries from {} caches. ({} Mb)", evictedEntries, caches.size(),
+                evictedSize / EntryCacheManager.MB);
+    }
+
+    private Pair<Integer, Long> evictOutsideReadAheadWindow(EntryCache entryCache, ManagedLedgerImpl ml) {
+        NavigableSet<PositionImpl> readPositions = Sets.newTreeSet();
+        for (ManagedCursor cursor : ml.getCursors()) {
+            readPositions.add((PositionImpl) cursor.getReadPosition());
+        }
+        for (ManagedCursor cursor : ml.getActiveCursors()) {
+            readPositions.add((PositionImpl) cursor.getReadPosition());
+        }
+
+        int evictedEntries = 0;
+        long evictedSize = 0;
+
+        // Each cursor protects the entries in [readPosition, readPosition + readAheadWindow)
+        PositionImpl start = PositionImpl.earliest;
+        for (PositionImpl readPosition : readPositions) {
+            PositionImpl end = PositionImpl.get(readPosition.getLedgerId(), readPosition.getEntryId() - 1);
+            if (start.compareTo(end) <= 0) {
+                Pair<Integer, Long> evicted = entryCache.evictEntries(start, end);
+                evictedEntries += evicted.first;
+                evictedSize += evicted.second;
+            }
+
+            PositionImpl windowEnd = PositionImpl.get(readPosition.getLedgerId(),
+                    readPosition.getEntryId() + readAheadWindow);
+            if (windowEnd.compareTo(start) > 0) {
+                start = windowEnd;
+            }
+        }
+
+        Pair<Integer, Long> evicted = entryCache.evictEntries(start, PositionImpl.latest);
+        evictedEntries += evicted.first;
+        evictedSize += evicted.second;
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Removed {} entries ({} bytes) outside the read-ahead window of cursors at {}",
+                    entryCache.getName(), evictedEntries, evictedSize, readPositions);
+        }
+        return Pair.create(evictedEntries, evictedSize);
+    }
+
+    private static PositionImpl getSlowestReadPosition(ManagedLedgerImpl ml) {
+        PositionImpl slowestReadPosition = null;
+        for (ManagedCursor cursor : ml.getActiveCursors()) {
+            PositionImpl readPosition = (PositionImpl) cursor.getReadPosition();
+            if (slowestReadPosition == null || readPosition.compareTo(slowestReadPosition) < 0) {
+                slowestReadPosition = readPosition;
+            }
+        }
+
+        return slowestReadPosition;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(EntryCacheCursorAwareEvictionPolicy.class);
+}
@@ -39,6 +39,11 @@ public class EntryCacheDefaultEvictionPolicy implements EntryCacheEvictionPolicy
 
     private final static double PercentOfSizeToConsiderForEviction = 0.5;
 
+    @Override
+    public String getName() {
+        return "Default";
+    }
+
     @Override
     public void doEviction(List<EntryCache> caches, long sizeToFree) {
         checkArgument(sizeToFree > 0);
@@ -34,4 +34,36 @@ public interface EntryCacheEvictionPolicy {
      *            the minimum size in bytes to be freed
      */
     void doEviction(List<EntryCache> caches, long sizeToFree);
+
+    /**
+     * @return the name of the policy, used to report the cache stats
+     */
+    String getName();
+
+    /**
+     * Decide whether a new entry should be inserted in a cache. This is only called when the overall cache usage is
+     * above the eviction watermark, since below that every entry is admitted.
+     *
+     * @param cache
+     *            the cache where the entry would be inserted
+     * @param entrySize
+     *            the size of the entry
+     * @return whether the entry should be inserted
+     */
+    default boolean admit(EntryCache cache, long entrySize) {
+        return true;
+    }
+
+    /**
+     * Record a read operation done on a cache, whether the entries were found in cache or not.
+     *
+     * @param cache
+     *            the cache that was accessed
+     * @param entries
+     *            the number of entries that were read
+     * @param cacheHit
+     *            whether the entries were found in the cache
+     */
+    default void recordAccess(EntryCache cache, int entries, boolean cacheHit) {
+    }
 }
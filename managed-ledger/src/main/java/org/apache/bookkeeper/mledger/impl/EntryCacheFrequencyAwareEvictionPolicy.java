@@ -0,0 +1,252 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import org.apache.bookkeeper.mledger.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Eviction policy that keeps in memory the caches of the most frequently read topics, in the spirit of TinyLFU.
+ *
+ * <p/>The read frequency of each cache is approximated with a small count-min sketch, whose counters are periodically
+ * halved so that the frequencies reflect the recent history. When doing eviction, the caches with the lowest
+ * frequency, weighted by the hit ratio of their own reads, are evicted first: a cache read often but whose reads miss
+ * anyway, like the one of a topic with catching up readers, gains little from keeping its entries. While the cache is
+ * under pressure, the entries of caches that are read less frequently than the evicted caches are not admitted, so
+ * that they cannot push out the entries of hotter topics. That admission threshold is halved every few seconds
+ * without eviction, so that it does not keep out the entries of caches that became hot since.
+ */
+public class EntryCacheFrequencyAwareEvictionPolicy implements EntryCacheEvictionPolicy {
+
+    static final long AdmissionThresholdHalfLifeMillis = TimeUnit.SECONDS.toMillis(5);
+
+    private final FrequencySketch sketch;
+    private final LongSupplier clock;
+
+    // Hits and misses of the reads done on each cache, halved at every eviction cycle so that the hit ratios reflect
+    // the recent reads
+    private final ConcurrentMap<String, HitStats> hitStats = Maps.newConcurrentMap();
+
+    // Lowest score, the frequency weighted by the hit ratio, of the caches evicted by the last eviction cycle. Only
+    // caches read at least as frequently are admitted when the cache is above the eviction watermark. The hit ratio of
+    // the admitted cache is left out, since the entries it is not allowed to insert can only be missed
+    private volatile int admissionThreshold = 0;
+    private volatile long admissionThresholdTimestamp = 0;
+
+    public EntryCacheFrequencyAwareEvictionPolicy() {
+        this(FrequencySketch.DefaultWidth, System::currentTimeMillis);
+    }
+
+    EntryCacheFrequencyAwareEvictionPolicy(int sketchWidth, LongSupplier clock) {
+        this.sketch = new FrequencySketch(sketchWidth);
+        this.clock = clock;
+    }
+
+    @Override
+    public String getName() {
+        return "FrequencyAware";
+    }
+
+    @Override
+    public boolean admit(EntryCache cache, long entrySize) {
+        return sketch.frequency(cache.getName().hashCode()) >= getAdmissionThreshold();
+    }
+
+    @Override
+    public void recordAccess(EntryCache cache, int entries, boolean cacheHit) {
+        // Count read operations rather than entries, so that topics with big batches are not favored
+        sketch.increment(cache.getName().hashCode());
+        hitStats.computeIfAbsent(cache.getName(), name -> new HitStats()).record(cacheHit);
+    }
+
+    @Override
+    public void doEviction(List<EntryCache> caches, long sizeToFree) {
+        checkArgument(sizeToFree > 0);
+        checkArgument(!caches.isEmpty());
+
+        List<Pair<EntryCache, Double>> ranking = Lists.newArrayListWithCapacity(caches.size());
+        for (EntryCache entryCache : caches) {
+            ranking.add(Pair.create(entryCache, getFrequency(entryCache) * getHitRatio(entryCache)));
+        }
+
+        // Least frequently hit first and, with the same score, bigger caches first
+        ranking.sort(Comparator.<Pair<EntryCache, Double>> comparingDouble(p -> p.second)
+                .thenComparing(p -> p.first, Comparator.reverseOrder()));
+
+        int evictedEntries = 0;
+        long evictedSize = 0;
+        int evictedCaches = 0;
+        double minEvictedScore = Double.MAX_VALUE;
+
+        for (Pair<EntryCache, Double> p : ranking) {
+            if (evictedSize >= sizeToFree) {
+                break;
+            }
+
+            EntryCache entryCache = p.first;
+            long singleCacheSizeToFree = Math.min(entryCache.getSize(), sizeToFree - evictedSize);
+            if (singleCacheSizeToFree == 0) {
+                continue;
+            }
+
+            Pair<Integer, Long> evicted = entryCache.evictEntries(singleCacheSizeToFree);
+            evictedEntries += evicted.first;
+            evictedSize += evicted.second;
+            minEvictedScore = Math.min(minEvictedScore, p.second);
+            ++evictedCaches;
+
+            log.debug("Evicted {} bytes from cache {} with score {}", evicted.second, entryCache.getName(), p.second);
+        }
+
+        int threshold = evictedCaches > 0 ? (int) minEvictedScore : 0;
+        admissionThresholdTimestamp = clock.getAsLong();
+        admissionThreshold = threshold;
+
+        // Age the hit stats and forget the caches that are gone
+        Set<String> cacheNames = caches.stream().map(EntryCache::getName).collect(Collectors.toSet());
+        hitStats.keySet().retainAll(cacheNames);
+        hitStats.values().forEach(HitStats::halve);
+
+        log.info("Completed cache eviction. Removed {} entries from {} caches. ({} Mb) -- admission threshold: {}",
+                evictedEntries, evictedCaches, evictedSize / EntryCacheManager.MB, threshold);
+    }
+
+    /**
+     * @return the admission threshold, halved for every half-life elapsed since the last eviction cycle
+     */
+    int getAdmissionThreshold() {
+        long elapsed = clock.getAsLong() - admissionThresholdTimestamp;
+        long halvings = Math.max(0, elapsed) / AdmissionThresholdHalfLifeMillis;
+        return halvings >= Integer.SIZE ? 0 : admissionThreshold >>> halvings;
+    }
+
+    int getFrequency(EntryCache cache) {
+        return sketch.frequency(cache.getName().hashCode());
+    }
+
+    /**
+     * @return the ratio of the recent reads of the cache that were served from memory, 1 before any read
+     */
+    double getHitRatio(EntryCache cache) {
+        HitStats stats = hitStats.get(cache.getName());
+        return stats != null ? stats.hitRatio() : 1.0;
+    }
+
+    /**
+     * Hit and miss counts of the reads done on a single cache.
+     */
+    static class HitStats {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        void record(boolean cacheHit) {
+            (cacheHit ? hits : misses).incrementAndGet();
+        }
+
+        double hitRatio() {
+            long h = hits.get();
+            long total = h + misses.get();
+            return total > 0 ? (double) h / total : 1.0;
+        }
+
+        void halve() {
+            hits.updateAndGet(v -> v / 2);
+            misses.updateAndGet(v -> v / 2);
+        }
+    }
+
+    /**
+     * Count-min sketch with 4 rows of small counters. The counters are halved after a number of increments
+     * proportional to the width, to age the frequencies.
+     */
+    static class FrequencySketch {
+        static final int DefaultWidth = 4096;
+
+        private static final int Depth = 4;
+        private static final int MaxCount = 15;
+        private static final int[] Seeds = { 0x97cb3127, 0xb7a2d3b9, 0x8f3f9b47, 0xd43c6e1b };
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int resetThreshold;
+        private int additions = 0;
+
+        FrequencySketch(int width) {
+            checkArgument(width > 0);
+            int size = Integer.highestOneBit(width - 1) << 1;
+            size = Math.max(size, 1);
+            this.counters = new byte[Depth][size];
+            this.mask = size - 1;
+            this.resetThreshold = 10 * size;
+        }
+
+        synchronized void increment(int key) {
+            boolean added = false;
+            for (int i = 0; i < Depth; i++) {
+                int idx = index(key, i);
+                if (counters[i][idx] < MaxCount) {
+                    counters[i][idx]++;
+                    added = true;
+                }
+            }
+
+            if (added && ++additions >= resetThreshold) {
+                reset();
+            }
+        }
+
+        synchronized int frequency(int key) {
+            int frequency = MaxCount;
+            for (int i = 0; i < Depth; i++) {
+                frequency = Math.min(frequency, counters[i][index(key, i)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        private int index(int key, int row) {
+            int h = (key ^ Seeds[row]) * 0x9e3779b9;
+            h ^= h >>> 16;
+            return h & mask;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(EntryCacheFrequencyAwareEvictionPolicy.class);
+}
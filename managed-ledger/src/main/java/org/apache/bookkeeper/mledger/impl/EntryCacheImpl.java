@@ -24,17 +24,23 @@ import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManaged
 import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.primitives.Longs;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import java.util.Collection;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import org.apache.bookkeeper.client.AsyncCallback.ReadCallback;
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.LedgerEntry;
 import org.apache.bookkeeper.client.LedgerHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntryCallback;
+import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.OffloadedLedger;
 import org.apache.bookkeeper.mledger.util.Pair;
 import org.apache.bookkeeper.mledger.util.RangeCache;
 import org.apache.bookkeeper.mledger.util.RangeCache.Weighter;
@@ -46,10 +52,13 @@ import org.slf4j.LoggerFactory;
  */
 public class EntryCacheImpl implements EntryCache {
 
-    private final EntryCacheManager manager;
-    private final ManagedLedgerImpl ml;
+    protected final EntryCacheManager manager;
+    protected final ManagedLedgerImpl ml;
     private final RangeCache<PositionImpl, EntryImpl> entries;
 
+    // Reads in progress on bookkeeper, by ledger id. Guarded by the map itself
+    private final Map<Long, List<PendingRead>> pendingReads = Maps.newHashMap();
+
     private static final double MB = 1024 * 1024;
 
     private static final Weighter<EntryImpl> entryWeighter = EntryImpl::getLength;
@@ -83,11 +92,7 @@ public class EntryCacheImpl implements EntryCache {
 
     @Override
     public boolean insert(EntryImpl entry) {
-        if (!manager.hasSpaceInCache()) {
-            if (log.isDebugEnabled()) {
-                log.debug("[{}] Skipping cache while doing eviction: {} - size: {}", ml.getName(), entry.getPosition(),
-                        entry.getLength());
-            }
+        if (!prepareInsert(entry)) {
             return false;
         }
 
@@ -117,6 +122,7 @@ public class EntryCacheImpl implements EntryCache {
 
         PositionImpl position = entry.getPosition();
         EntryImpl cacheEntry = EntryImpl.create(position, cachedData);
+        cacheEntry.copyMessageMetadata(entry);
         cachedData.release();
         if (entries.put(position, cacheEntry)) {
             manager.entryAdded(entry.getLength());
@@ -128,6 +134,33 @@ public class EntryCacheImpl implements EntryCache {
         }
     }
 
+    /**
+     * Check whether an entry can be inserted in the cache and, if so, parse its message metadata once for all the
+     * readers of the cached entry. The cache engines must keep the parsed fields along with the cached data.
+     *
+     * @return true if the entry can be inserted
+     */
+    protected boolean prepareInsert(EntryImpl entry) {
+        if (!manager.hasSpaceInCache()) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Skipping cache while doing eviction: {} - size: {}", ml.getName(), entry.getPosition(),
+                        entry.getLength());
+            }
+            return false;
+        }
+
+        if (!manager.admitEntry(this, entry.getLength())) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Entry not admitted in cache by eviction policy: {} - size: {}", ml.getName(),
+                        entry.getPosition(), entry.getLength());
+            }
+            return false;
+        }
+
+        entry.parseMessageMetadata();
+        return true;
+    }
+
     @Override
     public void invalidateEntries(final PositionImpl lastPosition) {
         final PositionImpl firstPosition = PositionImpl.get(-1, 0);
@@ -159,42 +192,46 @@ public class EntryCacheImpl implements EntryCache {
         manager.entriesRemoved(sizeRemoved);
     }
 
+    @Override
+    public Pair<Integer, Long> evictEntries(PositionImpl firstPosition, PositionImpl lastPosition) {
+        Pair<Integer, Long> removed = entries.removeRange(firstPosition, lastPosition, true);
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Evicted entries from {} to {} - Entries removed: {} - Size removed: {}", ml.getName(),
+                    firstPosition, lastPosition, removed.first, removed.second);
+        }
+
+        manager.entriesRemoved(removed.second);
+        return removed;
+    }
+
     @Override
     public void asyncReadEntry(LedgerHandle lh, PositionImpl position, final ReadEntryCallback callback,
             final Object ctx) {
         if (log.isDebugEnabled()) {
             log.debug("[{}] Reading entry ledger {}: {}", ml.getName(), lh.getId(), position.getEntryId());
         }
-        EntryImpl entry = entries.get(position);
+        EntryImpl entry = getCachedEntry(position);
         if (entry != null) {
             EntryImpl cachedEntry = EntryImpl.create(entry);
             entry.release();
             manager.mlFactoryMBean.recordCacheHit(cachedEntry.getLength());
+            manager.recordCacheAccess(this, 1, true);
             callback.readEntryComplete(cachedEntry, ctx);
         } else {
-            lh.asyncReadEntries(position.getEntryId(), position.getEntryId(), (rc, ledgerHandle, sequence, obj) -> {
-                if (rc != BKException.Code.OK) {
-                    ml.invalidateLedgerHandle(ledgerHandle, rc);
-                    callback.readEntryFailed(createManagedLedgerException(rc), obj);
-                    return;
+            readFromBookKeeper(lh, position.getEntryId(), position.getEntryId(), new ReadEntriesCallback() {
+                @Override
+                public void readEntriesComplete(List<Entry> entries, Object obj) {
+                    if (entries.isEmpty()) {
+                        // got an empty sequence
+                        callback.readEntryFailed(new ManagedLedgerException("Could not read given position"), obj);
+                    } else {
+                        callback.readEntryComplete(entries.get(0), obj);
+                    }
                 }
 
-                if (sequence.hasMoreElements()) {
-                    LedgerEntry ledgerEntry = sequence.nextElement();
-                    EntryImpl returnEntry = EntryImpl.create(ledgerEntry);
-
-                    // The EntryImpl is now the owner of the buffer, so we can release the original one
-                    ledgerEntry.getEntryBuffer().release();
-
-                    manager.mlFactoryMBean.recordCacheMiss(1, returnEntry.getLength());
-                    ml.mbean.addReadEntriesSample(1, returnEntry.getLength());
-
-                    ml.getExecutor().submitOrdered(ml.getName(), safeRun(() -> {
-                        callback.readEntryComplete(returnEntry, obj);
-                    }));
-                } else {
-                    // got an empty sequence
-                    callback.readEntryFailed(new ManagedLedgerException("Could not read given position"), obj);
+                @Override
+                public void readEntriesFailed(ManagedLedgerException exception, Object obj) {
+                    callback.readEntryFailed(exception, obj);
                 }
             }, ctx);
         }
@@ -213,7 +250,7 @@ public class EntryCacheImpl implements EntryCache {
             log.debug("[{}] Reading entries range ledger {}: {} to {}", ml.getName(), ledgerId, firstEntry, lastEntry);
         }
 
-        Collection<EntryImpl> cachedEntries = entries.getRange(firstPosition, lastPosition);
+        Collection<EntryImpl> cachedEntries = getCachedEntries(firstPosition, lastPosition);
 
         if (cachedEntries.size() == entriesToRead) {
             long totalCachedSize = 0;
@@ -227,6 +264,7 @@ public class EntryCacheImpl implements EntryCache {
             }
 
             manager.mlFactoryMBean.recordCacheHits(entriesToReturn.size(), totalCachedSize);
+            manager.recordCacheAccess(this, entriesToReturn.size(), true);
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Ledger {} -- Found in cache entries: {}-{}", ml.getName(), ledgerId, firstEntry,
                         lastEntry);
@@ -240,46 +278,320 @@ public class EntryCacheImpl implements EntryCache {
             }
 
             // Read all the entries from bookkeeper
-            lh.asyncReadEntries(firstEntry, lastEntry, (rc, lh1, sequence, cb) -> {
+            readFromBookKeeper(lh, firstEntry, lastEntry, callback, ctx);
+        }
+    }
 
-                if (rc != BKException.Code.OK) {
-                    if (rc == BKException.Code.TooManyRequestsException) {
-                        callback.readEntriesFailed(createManagedLedgerException(rc), ctx);
-                    } else {
-                        ml.invalidateLedgerHandle(lh1, rc);
-                        ManagedLedgerException mlException = createManagedLedgerException(rc);
-                        callback.readEntriesFailed(mlException, ctx);
+    @Override
+    public void asyncPrefetchEntries(LedgerHandle lh, long firstEntry, long lastEntry, ReadEntriesCallback callback,
+            Object ctx) {
+        readFromBookKeeper(lh, firstEntry, lastEntry, callback, ctx);
+    }
+
+    /**
+     * Read a range of entries from bookkeeper.
+     *
+     * <p/>If a read on the same ledger that covers the first entry of the range is already in progress, because another
+     * cursor is reading the same entries, the request is attached to it instead of reading the entries again. Only the
+     * entries past the end of the pending read, if any, are read with a new request.
+     */
+    private void readFromBookKeeper(LedgerHandle lh, long firstEntry, long lastEntry, ReadEntriesCallback callback,
+            Object ctx) {
+        final long ledgerId = lh.getId();
+        PendingRead pendingRead = null;
+        SplitRead splitRead = null;
+        boolean attached = false;
+        long lastAttachedEntry;
+
+        synchronized (pendingReads) {
+            List<PendingRead> ledgerReads = pendingReads.get(ledgerId);
+            if (ledgerReads != null) {
+                for (PendingRead read : ledgerReads) {
+                    if (read.firstEntry <= firstEntry && firstEntry <= read.lastEntry) {
+                        pendingRead = read;
+                        attached = true;
+                        break;
                     }
-                    return;
                 }
+            }
+
+            if (pendingRead == null) {
+                pendingRead = new PendingRead(firstEntry, lastEntry);
+                if (ledgerReads == null) {
+                    ledgerReads = Lists.newArrayListWithExpectedSize(2);
+                    pendingReads.put(ledgerId, ledgerReads);
+                }
+                ledgerReads.add(pendingRead);
+            }
+
+            lastAttachedEntry = Math.min(lastEntry, pendingRead.lastEntry);
+            if (lastAttachedEntry == lastEntry) {
+                pendingRead.listeners.add(new ReadListener(firstEntry, lastEntry, callback, ctx));
+            } else {
+                // The pending read only covers the beginning of the range
+                splitRead = new SplitRead(callback, ctx);
+                pendingRead.listeners.add(new ReadListener(firstEntry, lastAttachedEntry, splitRead, null));
+            }
+        }
+
+        if (splitRead != null) {
+            // Read the rest of the range, possibly attaching to another pending read
+            readFromBookKeeper(lh, lastAttachedEntry + 1, lastEntry, splitRead, splitRead);
+        }
+
+        if (attached) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Ledger {} -- Attached read of entries {}-{} to pending read {}-{}", ml.getName(),
+                        ledgerId, firstEntry, lastAttachedEntry, pendingRead.firstEntry, pendingRead.lastEntry);
+            }
+        } else {
+            lh.asyncReadEntries(pendingRead.firstEntry, pendingRead.lastEntry, pendingRead, null);
+        }
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void asyncReadEntry(OffloadedLedger ledger, long firstEntry, long lastEntry,
+            final ReadEntriesCallback callback, Object ctx) {
+        final long ledgerId = ledger.getId();
+        final int entriesToRead = (int) (lastEntry - firstEntry) + 1;
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Reading entries range of offloaded ledger {}: {} to {}", ml.getName(), ledgerId,
+                    firstEntry, lastEntry);
+        }
+
+        Collection<EntryImpl> cachedEntries = getCachedEntries(PositionImpl.get(ledgerId, firstEntry),
+                PositionImpl.get(ledgerId, lastEntry));
+
+        if (cachedEntries.size() == entriesToRead) {
+            long totalCachedSize = 0;
+            final List<EntryImpl> entriesToReturn = Lists.newArrayListWithExpectedSize(entriesToRead);
+            for (EntryImpl entry : cachedEntries) {
+                entriesToReturn.add(EntryImpl.create(entry));
+                totalCachedSize += entry.getLength();
+                entry.release();
+            }
+
+            manager.mlFactoryMBean.recordCacheHits(entriesToReturn.size(), totalCachedSize);
+            manager.recordCacheAccess(this, entriesToReturn.size(), true);
+            callback.readEntriesComplete((List) entriesToReturn, ctx);
+            return;
+        }
+
+        cachedEntries.forEach(entry -> entry.release());
+
+        // Read all the entries from the offloaded ledger
+        ledger.asyncReadEntries(firstEntry, lastEntry, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                long totalSize = 0;
+                for (Entry entry : entries) {
+                    totalSize += entry.getLength();
+                }
+
+                manager.mlFactoryMBean.recordCacheMiss(entries.size(), totalSize);
+                manager.recordCacheAccess(EntryCacheImpl.this, entries.size(), false);
+                ml.getMBean().addReadEntriesSample(entries.size(), totalSize);
 
-                checkNotNull(ml.getName());
-                checkNotNull(ml.getExecutor());
                 ml.getExecutor().submitOrdered(ml.getName(), safeRun(() -> {
-                    // We got the entries, we need to transform them to a List<> type
-                    long totalSize = 0;
-                    final List<EntryImpl> entriesToReturn = Lists.newArrayListWithExpectedSize(entriesToRead);
-                    while (sequence.hasMoreElements()) {
-                        // Insert the entries at the end of the list (they will be unsorted for now)
-                        LedgerEntry ledgerEntry = sequence.nextElement();
-                        EntryImpl entry = EntryImpl.create(ledgerEntry);
-                        ledgerEntry.getEntryBuffer().release();
+                    callback.readEntriesComplete(entries, ctx);
+                }));
+            }
 
-                        entriesToReturn.add(entry);
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                callback.readEntriesFailed(exception, ctx);
+            }
+        }, ctx);
+    }
+
+    private static class ReadListener {
+        final long firstEntry;
+        final long lastEntry;
+        final ReadEntriesCallback callback;
+        final Object ctx;
+
+        ReadListener(long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx) {
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+            this.callback = callback;
+            this.ctx = ctx;
+        }
+    }
 
-                        totalSize += entry.getLength();
+    /**
+     * A read in progress on bookkeeper, whose entries are shared by all the readers attached to it.
+     */
+    private class PendingRead implements ReadCallback {
+        final long firstEntry;
+        final long lastEntry;
 
+        // Guarded by pendingReads, and not modified anymore once the read is complete
+        final List<ReadListener> listeners = Lists.newArrayListWithExpectedSize(1);
+
+        PendingRead(long firstEntry, long lastEntry) {
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+        }
+
+        @Override
+        public void readComplete(int rc, LedgerHandle lh, Enumeration<LedgerEntry> sequence, Object ctx) {
+            synchronized (pendingReads) {
+                List<PendingRead> ledgerReads = pendingReads.get(lh.getId());
+                ledgerReads.remove(this);
+                if (ledgerReads.isEmpty()) {
+                    pendingReads.remove(lh.getId());
+                }
+            }
+
+            if (rc != BKException.Code.OK) {
+                if (rc != BKException.Code.TooManyRequestsException) {
+                    ml.invalidateLedgerHandle(lh, rc);
+                }
+                ManagedLedgerException mlException = createManagedLedgerException(rc);
+                for (ReadListener listener : listeners) {
+                    listener.callback.readEntriesFailed(mlException, listener.ctx);
+                }
+                return;
+            }
+
+            checkNotNull(ml.getName());
+            checkNotNull(ml.getExecutor());
+            ml.getExecutor().submitOrdered(ml.getName(), safeRun(() -> {
+                // We got the entries, we need to transform them to a List<> type
+                long totalSize = 0;
+                final List<EntryImpl> entries = Lists.newArrayListWithExpectedSize((int) (lastEntry - firstEntry + 1));
+                while (sequence.hasMoreElements()) {
+                    LedgerEntry ledgerEntry = sequence.nextElement();
+                    EntryImpl entry = EntryImpl.create(ledgerEntry);
+                    ledgerEntry.getEntryBuffer().release();
+                    if (listeners.size() > 1) {
+                        // Parse the message metadata once for all the readers sharing the entry
+                        entry.parseMessageMetadata();
                     }
 
-                    manager.mlFactoryMBean.recordCacheMiss(entriesToReturn.size(), totalSize);
-                    ml.getMBean().addReadEntriesSample(entriesToReturn.size(), totalSize);
+                    entries.add(entry);
+                    totalSize += entry.getLength();
+                }
 
-                    callback.readEntriesComplete((List) entriesToReturn, ctx);
-                }));
-            }, callback);
+                manager.mlFactoryMBean.recordCacheMiss(entries.size(), totalSize);
+
+                // Each reader gets its own references on the shared buffers
+                for (int i = 0; i < listeners.size(); i++) {
+                    ReadListener listener = listeners.get(i);
+                    List<Entry> entriesToReturn = Lists.newArrayListWithExpectedSize(
+                            (int) (listener.lastEntry - listener.firstEntry + 1));
+                    long size = 0;
+                    int end = (int) Math.min(listener.lastEntry - firstEntry + 1, entries.size());
+                    for (int j = (int) (listener.firstEntry - firstEntry); j < end; j++) {
+                        EntryImpl entry = entries.get(j);
+                        entriesToReturn.add(EntryImpl.create(entry));
+                        size += entry.getLength();
+                    }
+
+                    if (i > 0) {
+                        manager.mlFactoryMBean.recordCoalescedReads(entriesToReturn.size(), size);
+                    }
+                    manager.recordCacheAccess(EntryCacheImpl.this, entriesToReturn.size(), false);
+                    ml.getMBean().addReadEntriesSample(entriesToReturn.size(), size);
+
+                    listener.callback.readEntriesComplete(entriesToReturn, listener.ctx);
+                }
+
+                entries.forEach(EntryImpl::release);
+            }));
+        }
+    }
+
+    /**
+     * Joins the entries of a read that was split between a pending read and a new read.
+     */
+    private static class SplitRead implements ReadEntriesCallback {
+        private final ReadEntriesCallback callback;
+        private final Object ctx;
+
+        private List<Entry> firstPart = null;
+        private List<Entry> secondPart = null;
+        private boolean failed = false;
+
+        SplitRead(ReadEntriesCallback callback, Object ctx) {
+            this.callback = callback;
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void readEntriesComplete(List<Entry> entries, Object part) {
+            List<Entry> result;
+            synchronized (this) {
+                if (failed) {
+                    entries.forEach(Entry::release);
+                    return;
+                }
+
+                // The second part is read with this object as context
+                if (part == this) {
+                    secondPart = entries;
+                } else {
+                    firstPart = entries;
+                }
+
+                if (firstPart == null || secondPart == null) {
+                    return;
+                }
+
+                result = Lists.newArrayListWithExpectedSize(firstPart.size() + secondPart.size());
+                result.addAll(firstPart);
+                result.addAll(secondPart);
+            }
+
+            callback.readEntriesComplete(result, ctx);
+        }
+
+        @Override
+        public void readEntriesFailed(ManagedLedgerException exception, Object part) {
+            synchronized (this) {
+                if (failed) {
+                    return;
+                }
+                failed = true;
+
+                if (firstPart != null) {
+                    firstPart.forEach(Entry::release);
+                }
+                if (secondPart != null) {
+                    secondPart.forEach(Entry::release);
+                }
+            }
+
+            callback.readEntriesFailed(exception, ctx);
         }
     }
 
+    /**
+     * Lookup a single entry in the cache.
+     *
+     * @param position
+     *            the position of the entry
+     * @return the cached entry, with a reference retained on behalf of the caller, or null if not cached
+     */
+    protected EntryImpl getCachedEntry(PositionImpl position) {
+        return entries.get(position);
+    }
+
+    /**
+     * Lookup all the cached entries in a range of positions within the same ledger.
+     *
+     * @param firstPosition
+     *            the first position of the range (inclusive)
+     * @param lastPosition
+     *            the last position of the range (inclusive)
+     * @return the entries found in cache, each with a reference retained on behalf of the caller
+     */
+    protected Collection<EntryImpl> getCachedEntries(PositionImpl firstPosition, PositionImpl lastPosition) {
+        return entries.getRange(firstPosition, lastPosition);
+    }
+
     @Override
     public void clear() {
         long removedSize = entries.clear();
@@ -291,6 +603,11 @@ public class EntryCacheImpl implements EntryCache {
         return entries.getSize();
     }
 
+    @Override
+    public ManagedLedgerImpl getManagedLedger() {
+        return ml;
+    }
+
     @Override
     public int compareTo(EntryCache other) {
         return Longs.compare(getSize(), other.getSize());
@@ -25,6 +25,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Longs;
 import io.netty.buffer.ByteBuf;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
@@ -38,6 +39,9 @@ import org.apache.bookkeeper.client.LedgerHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.OffloadedLedger;
 import org.apache.bookkeeper.mledger.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +55,8 @@ public class EntryCacheManager {
     private final AtomicLong currentSize = new AtomicLong(0);
     private final ConcurrentMap<String, EntryCache> caches = Maps.newConcurrentMap();
     private final EntryCacheEvictionPolicy evictionPolicy;
+    private final boolean segmentedCacheEnabled;
+    private final int cacheSegmentSize;
 
     private final AtomicBoolean evictionInProgress = new AtomicBoolean(false);
 
@@ -68,11 +74,26 @@ public class EntryCacheManager {
         this.maxSize = factory.getConfig().getMaxCacheSize();
         this.evictionTriggerThreshold = (long) (maxSize * evictionTriggerThresholdPercent);
         this.cacheEvictionWatermak = factory.getConfig().getCacheEvictionWatermark();
-        this.evictionPolicy = new EntryCacheDefaultEvictionPolicy();
+        this.evictionPolicy = createEvictionPolicy(factory.getConfig());
+        this.segmentedCacheEnabled = factory.getConfig().isSegmentedCacheEnabled();
+        this.cacheSegmentSize = factory.getConfig().getCacheSegmentSize();
         this.mlFactory = factory;
         this.mlFactoryMBean = factory.mbean;
 
-        log.info("Initialized managed-ledger entry cache of {} Mb", maxSize / MB);
+        log.info("Initialized managed-ledger entry cache of {} Mb -- segmented: {} -- eviction policy: {}",
+                maxSize / MB, segmentedCacheEnabled, evictionPolicy.getName());
+    }
+
+    private static EntryCacheEvictionPolicy createEvictionPolicy(ManagedLedgerFactoryConfig config) {
+        switch (config.getCacheEvictionPolicy()) {
+        case CursorAware:
+            return new EntryCacheCursorAwareEvictionPolicy(config.getCacheEvictionReadAheadWindow());
+        case FrequencyAware:
+            return new EntryCacheFrequencyAwareEvictionPolicy();
+        case Default:
+        default:
+            return new EntryCacheDefaultEvictionPolicy();
+        }
     }
 
     public EntryCache getEntryCache(ManagedLedgerImpl ml) {
@@ -81,7 +102,8 @@ public class EntryCacheManager {
             return new EntryCacheDisabled(ml);
         }
 
-        EntryCache newEntryCache = new EntryCacheImpl(this, ml);
+        EntryCache newEntryCache = segmentedCacheEnabled ? new EntryCacheSegmentedImpl(this, ml, cacheSegmentSize)
+                : new EntryCacheImpl(this, ml);
         EntryCache currentEntryCache = caches.putIfAbsent(ml.getName(), newEntryCache);
         if (currentEntryCache != null) {
             return currentEntryCache;
@@ -135,6 +157,27 @@ public class EntryCacheManager {
         return currentSize < maxSize;
     }
 
+    /**
+     * Check with the eviction policy whether an entry should be inserted in the cache. Entries are always admitted
+     * while the cache usage is below the eviction watermark.
+     */
+    boolean admitEntry(EntryCache cache, long entrySize) {
+        if (currentSize.get() <= (long) (maxSize * cacheEvictionWatermak)) {
+            return true;
+        }
+
+        if (evictionPolicy.admit(cache, entrySize)) {
+            return true;
+        }
+
+        mlFactoryMBean.recordCacheAdmissionRejected();
+        return false;
+    }
+
+    void recordCacheAccess(EntryCache cache, int entries, boolean cacheHit) {
+        evictionPolicy.recordAccess(cache, entries, cacheHit);
+    }
+
     void entryAdded(long size) {
         currentSize.addAndGet(size);
     }
@@ -151,6 +194,10 @@ public class EntryCacheManager {
         return maxSize;
     }
 
+    public EntryCacheEvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
     public void clear() {
         caches.values().forEach(cache -> cache.clear());
     }
@@ -189,6 +236,11 @@ public class EntryCacheManager {
             return Pair.create(0, (long) 0);
         }
 
+        @Override
+        public Pair<Integer, Long> evictEntries(PositionImpl firstPosition, PositionImpl lastPosition) {
+            return Pair.create(0, (long) 0);
+        }
+
         @Override
         public void asyncReadEntry(LedgerHandle lh, long firstEntry, long lastEntry, boolean isSlowestReader,
                 final ReadEntriesCallback callback, Object ctx) {
@@ -219,6 +271,37 @@ public class EntryCacheManager {
             }, null);
         }
 
+        @Override
+        public void asyncPrefetchEntries(LedgerHandle lh, long firstEntry, long lastEntry,
+                ReadEntriesCallback callback, Object ctx) {
+            // Nothing can be cached
+            callback.readEntriesComplete(Collections.emptyList(), ctx);
+        }
+
+        @Override
+        public void asyncReadEntry(OffloadedLedger ledger, long firstEntry, long lastEntry,
+                final ReadEntriesCallback callback, Object ctx) {
+            ledger.asyncReadEntries(firstEntry, lastEntry, new ReadEntriesCallback() {
+                @Override
+                public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                    long totalSize = 0;
+                    for (Entry entry : entries) {
+                        totalSize += entry.getLength();
+                    }
+
+                    mlFactoryMBean.recordCacheMiss(entries.size(), totalSize);
+                    ml.mbean.addReadEntriesSample(entries.size(), totalSize);
+
+                    callback.readEntriesComplete(entries, ctx);
+                }
+
+                @Override
+                public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                    callback.readEntriesFailed(exception, ctx);
+                }
+            }, ctx);
+        }
+
         @Override
         public void asyncReadEntry(LedgerHandle lh, PositionImpl position, AsyncCallbacks.ReadEntryCallback callback,
                 Object ctx) {
@@ -229,6 +312,11 @@ public class EntryCacheManager {
             return 0;
         }
 
+        @Override
+        public ManagedLedgerImpl getManagedLedger() {
+            return ml;
+        }
+
         @Override
         public int compareTo(EntryCache other) {
             return Longs.compare(getSize(), other.getSize());
@@ -0,0 +1,501 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.bookkeeper.mledger.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entry cache that stores the entries of each ledger in append-ordered segments of direct memory.
+ *
+ * <p/>Instead of keeping an {@link EntryImpl} and a skip-list node for each cached entry, the payloads of consecutive
+ * entries are copied one after the other into a few large buffers. Each segment keeps a primitive index with the
+ * offset of every entry, so looking up a range of entries is just offset arithmetic and the {@link EntryImpl} objects
+ * are only materialized, as slices of the segment, when they are read.
+ *
+ * <p/>Eviction always releases whole segments, starting from the oldest ones. The size reported by this cache is the
+ * amount of direct memory allocated for the segments.
+ */
+public class EntryCacheSegmentedImpl extends EntryCacheImpl {
+
+    // Size of the first segment allocated by a cache. Following segments will double in size, up to the max segment
+    // size, so that the caches of topics with low traffic will not pin large buffers
+    private static final int InitialSegmentSize = 64 * 1024;
+    private static final int InitialIndexSize = 64;
+
+    private static final double MB = 1024 * 1024;
+
+    private final int maxSegmentSize;
+    private int nextSegmentSize;
+
+    // Map from ledger id to the segments of that ledger, sorted by the id of the first entry in each segment
+    private final NavigableMap<Long, NavigableMap<Long, Segment>> ledgers = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong size = new AtomicLong(0);
+
+    public EntryCacheSegmentedImpl(EntryCacheManager manager, ManagedLedgerImpl ml, int maxSegmentSize) {
+        super(manager, ml);
+        checkArgument(maxSegmentSize > 0);
+        this.maxSegmentSize = maxSegmentSize;
+        this.nextSegmentSize = Math.min(InitialSegmentSize, maxSegmentSize);
+    }
+
+    @Override
+    public boolean insert(EntryImpl entry) {
+        if (!prepareInsert(entry)) {
+            return false;
+        }
+
+        final long ledgerId = entry.getLedgerId();
+        final long entryId = entry.getEntryId();
+        final int entrySize = entry.getLength();
+
+        lock.writeLock().lock();
+        try {
+            NavigableMap<Long, Segment> segments = ledgers.computeIfAbsent(ledgerId, k -> new TreeMap<>());
+            Map.Entry<Long, Segment> floor = segments.floorEntry(entryId);
+            Segment segment = floor != null ? floor.getValue() : null;
+
+            if (segment != null && entryId <= segment.getLastEntryId()) {
+                // Entry is either already cached or it was already invalidated
+                return false;
+            }
+
+            if (segment == null || !segment.canAppend(entryId, entrySize)) {
+                segment = allocateSegment(ledgerId, entryId, entrySize);
+                if (segment == null) {
+                    if (segments.isEmpty()) {
+                        ledgers.remove(ledgerId);
+                    }
+                    return false;
+                }
+                segments.put(entryId, segment);
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Adding entry to cache: {} - size: {}", ml.getName(), entry.getPosition(), entrySize);
+            }
+
+            segment.append(entry);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Segment allocateSegment(long ledgerId, long firstEntryId, int entrySize) {
+        int capacity = Math.max(entrySize, nextSegmentSize);
+        ByteBuf data;
+        try {
+            data = ALLOCATOR.directBuffer(capacity, capacity);
+        } catch (Throwable t) {
+            log.warn("[{}] Failed to allocate segment for entry cache: {}", ml.getName(), t.getMessage(), t);
+            return null;
+        }
+
+        nextSegmentSize = (int) Math.min(maxSegmentSize, nextSegmentSize * 2L);
+        size.addAndGet(capacity);
+        manager.entryAdded(capacity);
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Allocated cache segment for ledger {} starting at {} - size: {}", ml.getName(), ledgerId,
+                    firstEntryId, capacity);
+        }
+        return new Segment(ledgerId, firstEntryId, data);
+    }
+
+    @Override
+    protected EntryImpl getCachedEntry(PositionImpl position) {
+        lock.readLock().lock();
+        try {
+            Segment segment = getSegment(position.getLedgerId(), position.getEntryId());
+            return segment != null ? segment.getEntry(position.getEntryId()) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected Collection<EntryImpl> getCachedEntries(PositionImpl firstPosition, PositionImpl lastPosition) {
+        checkArgument(firstPosition.getLedgerId() == lastPosition.getLedgerId());
+        final long ledgerId = firstPosition.getLedgerId();
+        final long lastEntryId = lastPosition.getEntryId();
+
+        lock.readLock().lock();
+        try {
+            List<EntryImpl> entries = Lists.newArrayList();
+            long entryId = firstPosition.getEntryId();
+            while (entryId <= lastEntryId) {
+                Segment segment = getSegment(ledgerId, entryId);
+                if (segment == null) {
+                    // The caller only uses the cached entries if the whole range was found. Stop at the first gap.
+                    break;
+                }
+
+                long lastInSegment = Math.min(lastEntryId, segment.getLastEntryId());
+                for (; entryId <= lastInSegment; entryId++) {
+                    entries.add(segment.getEntry(entryId));
+                }
+            }
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the segment that contains a valid entry. Needs to be called with the lock held.
+     */
+    private Segment getSegment(long ledgerId, long entryId) {
+        NavigableMap<Long, Segment> segments = ledgers.get(ledgerId);
+        if (segments == null) {
+            return null;
+        }
+
+        Map.Entry<Long, Segment> floor = segments.floorEntry(entryId);
+        if (floor == null || !floor.getValue().contains(entryId)) {
+            return null;
+        }
+
+        return floor.getValue();
+    }
+
+    @Override
+    public void invalidateEntries(final PositionImpl lastPosition) {
+        long sizeRemoved = 0;
+        int entriesRemoved = 0;
+
+        lock.writeLock().lock();
+        try {
+            // Drop all the ledgers before the one of the last position
+            Iterator<NavigableMap<Long, Segment>> ledgersIterator = ledgers.headMap(lastPosition.getLedgerId(), false)
+                    .values().iterator();
+            while (ledgersIterator.hasNext()) {
+                for (Segment segment : ledgersIterator.next().values()) {
+                    entriesRemoved += segment.getValidEntriesCount();
+                    sizeRemoved += segment.release();
+                }
+                ledgersIterator.remove();
+            }
+
+            NavigableMap<Long, Segment> segments = ledgers.get(lastPosition.getLedgerId());
+            if (segments != null) {
+                Iterator<Segment> segmentsIterator = segments.values().iterator();
+                while (segmentsIterator.hasNext()) {
+                    Segment segment = segmentsIterator.next();
+                    if (segment.getFirstEntryId() > lastPosition.getEntryId()) {
+                        break;
+                    }
+
+                    if (segment.getLastEntryId() <= lastPosition.getEntryId()) {
+                        entriesRemoved += segment.getValidEntriesCount();
+                        sizeRemoved += segment.release();
+                        segmentsIterator.remove();
+                    } else {
+                        // The segment is only partially invalidated. The memory will be released when the whole
+                        // segment is dropped.
+                        entriesRemoved += segment.invalidateUpTo(lastPosition.getEntryId());
+                        break;
+                    }
+                }
+
+                if (segments.isEmpty()) {
+                    ledgers.remove(lastPosition.getLedgerId());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Invalidated entries up to {} - Entries removed: {} - Size removed: {}", ml.getName(),
+                    lastPosition, entriesRemoved, sizeRemoved);
+        }
+
+        size.addAndGet(-sizeRemoved);
+        manager.entriesRemoved(sizeRemoved);
+    }
+
+    @Override
+    public void invalidateAllEntries(long ledgerId) {
+        long sizeRemoved = 0;
+        int entriesRemoved = 0;
+
+        lock.writeLock().lock();
+        try {
+            NavigableMap<Long, Segment> segments = ledgers.remove(ledgerId);
+            if (segments != null) {
+                for (Segment segment : segments.values()) {
+                    entriesRemoved += segment.getValidEntriesCount();
+                    sizeRemoved += segment.release();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Invalidated all entries on ledger {} - Entries removed: {} - Size removed: {}",
+                    ml.getName(), ledgerId, entriesRemoved, sizeRemoved);
+        }
+
+        size.addAndGet(-sizeRemoved);
+        manager.entriesRemoved(sizeRemoved);
+    }
+
+    @Override
+    public void clear() {
+        long sizeRemoved = 0;
+
+        lock.writeLock().lock();
+        try {
+            for (NavigableMap<Long, Segment> segments : ledgers.values()) {
+                for (Segment segment : segments.values()) {
+                    sizeRemoved += segment.release();
+                }
+            }
+            ledgers.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        size.addAndGet(-sizeRemoved);
+        manager.entriesRemoved(sizeRemoved);
+    }
+
+    @Override
+    public long getSize() {
+        return size.get();
+    }
+
+    @Override
+    public Pair<Integer, Long> evictEntries(long sizeToFree) {
+        checkArgument(sizeToFree > 0);
+        long evictedSize = 0;
+        int evictedEntries = 0;
+
+        lock.writeLock().lock();
+        try {
+            // Release whole segments, starting from the oldest ledger
+            Iterator<NavigableMap<Long, Segment>> ledgersIterator = ledgers.values().iterator();
+            while (evictedSize < sizeToFree && ledgersIterator.hasNext()) {
+                NavigableMap<Long, Segment> segments = ledgersIterator.next();
+                Iterator<Segment> segmentsIterator = segments.values().iterator();
+                while (evictedSize < sizeToFree && segmentsIterator.hasNext()) {
+                    Segment segment = segmentsIterator.next();
+                    evictedEntries += segment.getValidEntriesCount();
+                    evictedSize += segment.release();
+                    segmentsIterator.remove();
+                }
+
+                if (segments.isEmpty()) {
+                    ledgersIterator.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        size.addAndGet(-evictedSize);
+
+        if (log.isDebugEnabled()) {
+            log.debug(
+                    "[{}] Doing cache eviction of at least {} Mb -- Deleted {} entries - Total size deleted: {} Mb "
+                            + " -- Current Size: {} Mb",
+                    ml.getName(), sizeToFree / MB, evictedEntries, evictedSize / MB, size.get() / MB);
+        }
+        manager.entriesRemoved(evictedSize);
+        return Pair.create(evictedEntries, evictedSize);
+    }
+
+    @Override
+    public Pair<Integer, Long> evictEntries(PositionImpl firstPosition, PositionImpl lastPosition) {
+        long evictedSize = 0;
+        int evictedEntries = 0;
+
+        lock.writeLock().lock();
+        try {
+            // Only the segments that are entirely included in the range can be released
+            Iterator<Map.Entry<Long, NavigableMap<Long, Segment>>> ledgersIterator = ledgers
+                    .subMap(firstPosition.getLedgerId(), true, lastPosition.getLedgerId(), true).entrySet().iterator();
+            while (ledgersIterator.hasNext()) {
+                Map.Entry<Long, NavigableMap<Long, Segment>> ledgerSegments = ledgersIterator.next();
+                long ledgerId = ledgerSegments.getKey();
+                Iterator<Segment> segmentsIterator = ledgerSegments.getValue().values().iterator();
+                while (segmentsIterator.hasNext()) {
+                    Segment segment = segmentsIterator.next();
+                    PositionImpl segmentStart = PositionImpl.get(ledgerId, segment.getFirstEntryId());
+                    PositionImpl segmentEnd = PositionImpl.get(ledgerId, segment.getLastEntryId());
+                    if (segmentEnd.compareTo(lastPosition) > 0) {
+                        break;
+                    }
+
+                    if (segmentStart.compareTo(firstPosition) >= 0) {
+                        evictedEntries += segment.getValidEntriesCount();
+                        evictedSize += segment.release();
+                        segmentsIterator.remove();
+                    }
+                }
+
+                if (ledgerSegments.getValue().isEmpty()) {
+                    ledgersIterator.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Evicted entries from {} to {} - Entries removed: {} - Size removed: {}", ml.getName(),
+                    firstPosition, lastPosition, evictedEntries, evictedSize);
+        }
+
+        size.addAndGet(-evictedSize);
+        manager.entriesRemoved(evictedSize);
+        return Pair.create(evictedEntries, evictedSize);
+    }
+
+    /**
+     * Return the ids of the first entry in each of the segments currently allocated for a ledger.
+     */
+    List<Long> getSegments(long ledgerId) {
+        lock.readLock().lock();
+        try {
+            NavigableMap<Long, Segment> segments = ledgers.get(ledgerId);
+            return segments == null ? Collections.emptyList() : Lists.newArrayList(segments.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A buffer holding the payloads of a contiguous sequence of entries of a single ledger.
+     *
+     * <p/>Segments are not thread-safe and are always accessed with the cache lock held.
+     */
+    private static final class Segment {
+        private final long ledgerId;
+        private final long firstEntryId;
+        private final ByteBuf data;
+
+        // offsets[i] is the offset in the data buffer of the entry (firstEntryId + i), followed by the message metadata
+        // fields already parsed for that entry
+        private int[] offsets = new int[InitialIndexSize];
+        private int[] batchSizes = new int[InitialIndexSize];
+        private long[] publishTimes = new long[InitialIndexSize];
+        private int count = 0;
+
+        // Index of the first entry that was not yet invalidated
+        private int firstValidIndex = 0;
+
+        Segment(long ledgerId, long firstEntryId, ByteBuf data) {
+            this.ledgerId = ledgerId;
+            this.firstEntryId = firstEntryId;
+            this.data = data;
+        }
+
+        long getFirstEntryId() {
+            return firstEntryId;
+        }
+
+        long getLastEntryId() {
+            return firstEntryId + count - 1;
+        }
+
+        int getValidEntriesCount() {
+            return count - firstValidIndex;
+        }
+
+        boolean contains(long entryId) {
+            return entryId >= firstEntryId + firstValidIndex && entryId <= getLastEntryId();
+        }
+
+        boolean canAppend(long entryId, int entrySize) {
+            return entryId == firstEntryId + count && data.writableBytes() >= entrySize;
+        }
+
+        void append(EntryImpl entry) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                batchSizes = Arrays.copyOf(batchSizes, count * 2);
+                publishTimes = Arrays.copyOf(publishTimes, count * 2);
+            }
+
+            ByteBuf payload = entry.getDataBuffer();
+            batchSizes[count] = entry.getBatchSize();
+            publishTimes[count] = entry.getPublishTime();
+            offsets[count++] = data.writerIndex();
+            data.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+        }
+
+        /**
+         * Create an entry backed by a slice of the segment. The entry will retain the segment buffer until released.
+         */
+        EntryImpl getEntry(long entryId) {
+            int index = (int) (entryId - firstEntryId);
+            int offset = offsets[index];
+            int end = index + 1 < count ? offsets[index + 1] : data.writerIndex();
+            EntryImpl entry = EntryImpl.create(ledgerId, entryId, data.slice(offset, end - offset));
+            entry.setMessageMetadata(batchSizes[index], publishTimes[index]);
+            return entry;
+        }
+
+        /**
+         * Mark all the entries up to entryId (inclusive) as not available anymore.
+         *
+         * @return the number of entries that were invalidated
+         */
+        int invalidateUpTo(long entryId) {
+            int newFirstValidIndex = (int) Math.min(count, entryId - firstEntryId + 1);
+            int invalidated = Math.max(0, newFirstValidIndex - firstValidIndex);
+            firstValidIndex = Math.max(firstValidIndex, newFirstValidIndex);
+            return invalidated;
+        }
+
+        /**
+         * Release the cache reference on the segment buffer. Entries that were already read from this segment will
+         * still be valid until they get released.
+         *
+         * @return the size of the memory that was allocated for the segment
+         */
+        long release() {
+            long capacity = data.capacity();
+            data.release();
+            return capacity;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(EntryCacheSegmentedImpl.class);
+}
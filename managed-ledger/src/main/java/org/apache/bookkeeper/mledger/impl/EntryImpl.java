@@ -27,6 +27,8 @@ import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCounted;
 import org.apache.bookkeeper.client.LedgerEntry;
 import org.apache.bookkeeper.mledger.Entry;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 
 public final class EntryImpl extends AbstractReferenceCounted implements Entry, Comparable<EntryImpl>, ReferenceCounted {
 
@@ -42,6 +44,11 @@ public final class EntryImpl extends AbstractReferenceCounted implements Entry,
     private long entryId;
     ByteBuf data;
 
+    // Fields of the message metadata, parsed at most once and carried over to the copies of the entry
+    private boolean metadataParsed = false;
+    private int batchSize;
+    private long publishTime;
+
     public static EntryImpl create(LedgerEntry ledgerEntry) {
         EntryImpl entry = RECYCLER.get();
         entry.ledgerId = ledgerEntry.getLedgerId();
@@ -87,6 +94,7 @@ public final class EntryImpl extends AbstractReferenceCounted implements Entry,
         entry.ledgerId = other.ledgerId;
         entry.entryId = other.entryId;
         entry.data = other.data.retainedDuplicate();
+        entry.copyMessageMetadata(other);
         entry.setRefCnt(1);
         return entry;
     }
@@ -135,6 +143,60 @@ public final class EntryImpl extends AbstractReferenceCounted implements Entry,
         return entryId;
     }
 
+    @Override
+    public int getBatchSize() {
+        parseMessageMetadata();
+        return batchSize;
+    }
+
+    @Override
+    public long getPublishTime() {
+        parseMessageMetadata();
+        return publishTime;
+    }
+
+    /**
+     * Parse the message metadata stored in the entry data, if not done already. The copies of the entry created
+     * afterwards get the parsed fields without having to parse the data again.
+     */
+    public void parseMessageMetadata() {
+        if (metadataParsed) {
+            return;
+        }
+
+        // The indexes are left unchanged when parsing fails too
+        int readerIndex = data.readerIndex();
+        int writerIndex = data.writerIndex();
+        MessageMetadata metadata = null;
+        try {
+            metadata = Commands.parseMessageMetadata(data);
+            batchSize = metadata.getNumMessagesInBatch();
+            publishTime = metadata.getPublishTime();
+        } catch (Throwable t) {
+            // The entry data is corrupted
+            batchSize = -1;
+            publishTime = -1;
+        } finally {
+            data.setIndex(readerIndex, writerIndex);
+            if (metadata != null) {
+                metadata.recycle();
+            }
+        }
+        metadataParsed = true;
+    }
+
+    void copyMessageMetadata(EntryImpl other) {
+        metadataParsed = other.metadataParsed;
+        batchSize = other.batchSize;
+        publishTime = other.publishTime;
+    }
+
+    void setMessageMetadata(int batchSize, long publishTime) {
+        this.metadataParsed = true;
+        this.batchSize = batchSize;
+        this.publishTime = publishTime;
+    }
+
     @Override
     public int compareTo(EntryImpl other) {
         return ComparisonChain.start().compare(ledgerId, other.ledgerId).compare(entryId, other.entryId).result();
@@ -152,6 +214,7 @@ public final class EntryImpl extends AbstractReferenceCounted implements Entry,
         data = null;
         ledgerId = -1;
         entryId = -1;
+        metadataParsed = false;
         recyclerHandle.recycle(this);
     }
 
@@ -0,0 +1,432 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.LedgerOffloader;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.OffloadedLedger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LedgerOffloader} that stores each ledger in a single file on a local or mounted filesystem.
+ *
+ * <p/>The entries are grouped in blocks of about {@code blockSize} bytes, and the file ends with an index of the
+ * blocks, so that a range of entries can be read with a single positional read:
+ *
+ * <pre>
+ * [MAGIC] [VERSION] [LEDGER_ID]
+ * [ENTRY_ID] [LENGTH] [DATA] ...                      (blocks)
+ * [FIRST_ENTRY_ID] [OFFSET] [SIZE] ...                (index, one per block)
+ * [NUM_BLOCKS] [INDEX_OFFSET] [LAST_ENTRY_ID] [LENGTH] [MAGIC]
+ * </pre>
+ *
+ * <p/>Readers keep a read-ahead buffer of {@code readAheadSize} bytes, so that sequential reads of small batches of
+ * entries only hit the filesystem once every few blocks.
+ */
+public class FileSystemLedgerOffloader implements LedgerOffloader {
+
+    static final int MAGIC = 0x4f464c44;
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int ENTRY_HEADER_SIZE = 8 + 4;
+    private static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+    private static final int TRAILER_SIZE = 4 + 8 + 8 + 8 + 4;
+
+    // Number of entries fetched from BookKeeper in a single read while offloading
+    private static final int ReadBatchSize = 100;
+
+    private final File baseDir;
+    private final int blockSize;
+    private final int readAheadSize;
+    private final ExecutorService executor;
+
+    /**
+     * @param baseDir
+     *            the directory where the ledgers are stored
+     * @param blockSize
+     *            the approximate size of the blocks of entries in an offloaded ledger
+     * @param readAheadSize
+     *            the size of the data read at once when reading an offloaded ledger
+     * @param executor
+     *            the executor used for the filesystem operations
+     */
+    public FileSystemLedgerOffloader(String baseDir, int blockSize, int readAheadSize, ExecutorService executor) {
+        checkArgument(blockSize > 0, "Invalid block size: %s", blockSize);
+        this.baseDir = new File(baseDir);
+        this.blockSize = blockSize;
+        this.readAheadSize = Math.max(readAheadSize, blockSize);
+        this.executor = executor;
+    }
+
+    File getLedgerFile(String managedLedgerName, long ledgerId) {
+        return new File(new File(baseDir, managedLedgerName), Long.toString(ledgerId));
+    }
+
+    @Override
+    public CompletableFuture<Void> offload(String managedLedgerName, LedgerHandle ledger) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                writeLedger(getLedgerFile(managedLedgerName, ledger.getId()), ledger);
+                future.complete(null);
+            } catch (Throwable t) {
+                log.warn("[{}] Failed to offload ledger {}: {}", managedLedgerName, ledger.getId(), t.getMessage());
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private void writeLedger(File file, LedgerHandle ledger) throws Exception {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Failed to create directory " + dir);
+        }
+
+        // Write to a temporary file, so that a ledger file is always complete
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        long lastEntryId = ledger.getLastAddConfirmed();
+        List<long[]> blocks = Lists.newArrayList();
+        long length = 0;
+
+        try (FileOutputStream fileStream = new FileOutputStream(tmpFile);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(ledger.getId());
+
+            long offset = HEADER_SIZE;
+            long[] currentBlock = null;
+            for (long firstEntry = 0; firstEntry <= lastEntryId; firstEntry += ReadBatchSize) {
+                long lastEntry = Math.min(firstEntry + ReadBatchSize - 1, lastEntryId);
+                Enumeration<LedgerEntry> entries = ledger.readEntries(firstEntry, lastEntry);
+                long expectedEntryId = firstEntry;
+                while (entries.hasMoreElements()) {
+                    LedgerEntry entry = entries.nextElement();
+                    ByteBuf data = entry.getEntryBuffer();
+                    try {
+                        if (entry.getEntryId() != expectedEntryId) {
+                            throw new IOException("Unexpected entry " + entry.getEntryId() + " while reading entry "
+                                    + expectedEntryId + " of ledger " + ledger.getId());
+                        }
+                        ++expectedEntryId;
+
+                        if (currentBlock == null || currentBlock[2] >= blockSize) {
+                            // { first entry id, offset, size }
+                            currentBlock = new long[] { entry.getEntryId(), offset, 0 };
+                            blocks.add(currentBlock);
+                        }
+
+                        int size = data.readableBytes();
+                        out.writeLong(entry.getEntryId());
+                        out.writeInt(size);
+                        data.getBytes(data.readerIndex(), out, size);
+
+                        currentBlock[2] += ENTRY_HEADER_SIZE + size;
+                        offset += ENTRY_HEADER_SIZE + size;
+                        length += size;
+                    } finally {
+                        data.release();
+                    }
+                }
+
+                if (expectedEntryId != lastEntry + 1) {
+                    throw new IOException("Missing entries " + expectedEntryId + "-" + lastEntry + " of ledger "
+                            + ledger.getId());
+                }
+            }
+
+            long indexOffset = offset;
+            for (long[] block : blocks) {
+                out.writeLong(block[0]);
+                out.writeLong(block[1]);
+                out.writeInt((int) block[2]);
+            }
+
+            out.writeInt(blocks.size());
+            out.writeLong(indexOffset);
+            out.writeLong(lastEntryId);
+            out.writeLong(length);
+            out.writeInt(MAGIC);
+            out.flush();
+            fileStream.getFD().sync();
+        } catch (Exception e) {
+            tmpFile.delete();
+            throw e;
+        }
+
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        if (log.isDebugEnabled()) {
+            log.debug("Offloaded ledger {} to {}: {} entries in {} blocks", ledger.getId(), file, lastEntryId + 1,
+                    blocks.size());
+        }
+    }
+
+    @Override
+    public CompletableFuture<OffloadedLedger> openOffloadedLedger(String managedLedgerName, long ledgerId) {
+        CompletableFuture<OffloadedLedger> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(new FileSystemOffloadedLedger(getLedgerFile(managedLedgerName, ledgerId), ledgerId));
+            } catch (Throwable t) {
+                log.warn("[{}] Failed to open offloaded ledger {}: {}", managedLedgerName, ledgerId, t.getMessage());
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteOffloadedLedger(String managedLedgerName, long ledgerId) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                Files.deleteIfExists(getLedgerFile(managedLedgerName, ledgerId).toPath());
+                future.complete(null);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private class FileSystemOffloadedLedger implements OffloadedLedger {
+        private final long ledgerId;
+        private final FileChannel channel;
+        private final long lastEntryId;
+        private final long length;
+        private final long indexOffset;
+
+        // Sorted first entry id and file offset of each block
+        private final long[] blockFirstEntryIds;
+        private final long[] blockOffsets;
+
+        // Data read ahead, starting at readAheadOffset in the file
+        private ByteBuf readAheadBuffer = null;
+        private long readAheadOffset = -1;
+
+        FileSystemOffloadedLedger(File file, long ledgerId) throws IOException {
+            this.ledgerId = ledgerId;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            boolean success = false;
+            try {
+                long fileSize = channel.size();
+                if (fileSize < HEADER_SIZE + TRAILER_SIZE) {
+                    throw new IOException("Offloaded ledger file " + file + " is truncated");
+                }
+
+                ByteBuf header = read(0, HEADER_SIZE);
+                ByteBuf trailer = read(fileSize - TRAILER_SIZE, TRAILER_SIZE);
+                try {
+                    if (header.readInt() != MAGIC || trailer.getInt(TRAILER_SIZE - 4) != MAGIC) {
+                        throw new IOException("Invalid offloaded ledger file " + file);
+                    }
+                    int version = header.readInt();
+                    if (version != VERSION) {
+                        throw new IOException("Unsupported offloaded ledger version " + version + " in " + file);
+                    }
+                    if (header.readLong() != ledgerId) {
+                        throw new IOException("Offloaded ledger file " + file + " doesn't contain ledger " + ledgerId);
+                    }
+
+                    int numBlocks = trailer.readInt();
+                    this.indexOffset = trailer.readLong();
+                    this.lastEntryId = trailer.readLong();
+                    this.length = trailer.readLong();
+                    if (numBlocks < 0 || indexOffset + (long) numBlocks * INDEX_ENTRY_SIZE != fileSize - TRAILER_SIZE) {
+                        throw new IOException("Invalid index in offloaded ledger file " + file);
+                    }
+
+                    this.blockFirstEntryIds = new long[numBlocks];
+                    this.blockOffsets = new long[numBlocks];
+                    ByteBuf index = read(indexOffset, numBlocks * INDEX_ENTRY_SIZE);
+                    try {
+                        for (int i = 0; i < numBlocks; i++) {
+                            blockFirstEntryIds[i] = index.readLong();
+                            blockOffsets[i] = index.readLong();
+                            index.readInt();
+                        }
+                    } finally {
+                        index.release();
+                    }
+                } finally {
+                    header.release();
+                    trailer.release();
+                }
+                success = true;
+            } finally {
+                if (!success) {
+                    channel.close();
+                }
+            }
+        }
+
+        private ByteBuf read(long position, int size) throws IOException {
+            ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer(size, size);
+            try {
+                while (buffer.isWritable()) {
+                    int read = buffer.writeBytes(channel, position + buffer.writerIndex(), buffer.writableBytes());
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of offloaded ledger " + ledgerId);
+                    }
+                }
+                return buffer;
+            } catch (IOException e) {
+                buffer.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public long getId() {
+            return ledgerId;
+        }
+
+        @Override
+        public long getLastEntryId() {
+            return lastEntryId;
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public void asyncReadEntries(long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx) {
+            executor.execute(() -> {
+                List<Entry> entries;
+                try {
+                    entries = readEntries(firstEntry, lastEntry);
+                } catch (Throwable t) {
+                    log.warn("Failed to read entries {}-{} of offloaded ledger {}: {}", firstEntry, lastEntry,
+                            ledgerId, t.getMessage());
+                    callback.readEntriesFailed(new ManagedLedgerException(t), ctx);
+                    return;
+                }
+                callback.readEntriesComplete(entries, ctx);
+            });
+        }
+
+        private synchronized List<Entry> readEntries(long firstEntry, long lastEntry) throws IOException {
+            if (firstEntry < 0 || firstEntry > lastEntry || lastEntry > lastEntryId) {
+                throw new IOException("Invalid range " + firstEntry + "-" + lastEntry + " for offloaded ledger "
+                        + ledgerId + " with last entry " + lastEntryId);
+            }
+
+            List<Entry> entries = Lists.newArrayListWithExpectedSize((int) (lastEntry - firstEntry + 1));
+            try {
+                long position = blockOffsets[findBlock(firstEntry)];
+                long entryId = -1;
+                while (entryId < lastEntry) {
+                    ByteBuf entryHeader = slice(position, ENTRY_HEADER_SIZE);
+                    entryId = entryHeader.readLong();
+                    int size = entryHeader.readInt();
+                    entryHeader.release();
+
+                    if (entryId >= firstEntry) {
+                        ByteBuf data = slice(position + ENTRY_HEADER_SIZE, size);
+                        entries.add(EntryImpl.create(ledgerId, entryId, data));
+                        data.release();
+                    }
+                    position += ENTRY_HEADER_SIZE + size;
+                }
+                return entries;
+            } catch (IOException | RuntimeException e) {
+                entries.forEach(Entry::release);
+                throw e;
+            }
+        }
+
+        // Returns the index of the block containing the entry
+        private int findBlock(long entryId) {
+            int low = 0;
+            int high = blockFirstEntryIds.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (blockFirstEntryIds[mid] <= entryId) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        // Returns a retained slice of the file, refilling the read-ahead buffer if needed
+        private ByteBuf slice(long position, int size) throws IOException {
+            if (readAheadBuffer == null || position < readAheadOffset
+                    || position + size > readAheadOffset + readAheadBuffer.readableBytes()) {
+                if (position + size > indexOffset) {
+                    throw new IOException("Read past the end of the entries of offloaded ledger " + ledgerId);
+                }
+
+                int readSize = (int) Math.min(Math.max(readAheadSize, size), indexOffset - position);
+                ByteBuf buffer = read(position, readSize);
+                if (readAheadBuffer != null) {
+                    readAheadBuffer.release();
+                }
+                readAheadBuffer = buffer;
+                readAheadOffset = position;
+            }
+
+            return readAheadBuffer.retainedSlice((int) (position - readAheadOffset), size);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (readAheadBuffer != null) {
+                readAheadBuffer.release();
+                readAheadBuffer = null;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close offloaded ledger {}: {}", ledgerId, e.getMessage());
+            }
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(FileSystemLedgerOffloader.class);
+}
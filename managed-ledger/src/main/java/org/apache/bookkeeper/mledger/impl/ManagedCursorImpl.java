@@ -32,25 +32,28 @@ import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
 import com.google.common.collect.Sets;
-import com.google.common.collect.TreeRangeSet;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
+import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.function.BiConsumer;
 import org.apache.bookkeeper.client.AsyncCallback.CloseCallback;
 import org.apache.bookkeeper.client.AsyncCallback.DeleteCallback;
 import org.apache.bookkeeper.client.BKException;
@@ -78,8 +81,12 @@ import org.apache.bookkeeper.mledger.impl.MetaStore.Stat;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.LongProperty;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo.LedgerInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
 import org.apache.bookkeeper.mledger.util.Pair;
+import org.apache.bookkeeper.util.SafeRunnable;
+import org.apache.pulsar.common.util.collections.BitSetLongPairRangeSet;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -121,11 +128,30 @@ public class ManagedCursorImpl implements ManagedCursor {
     // Stat of the cursor z-node
     private volatile Stat cursorLedgerStat;
 
-    private final RangeSet<PositionImpl> individualDeletedMessages = TreeRangeSet.create();
+    private final LongPairRangeSet<PositionImpl> individualDeletedMessages;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
+    // Ranges added to the individually deleted messages since the last snapshot written in the cursor ledger. It's
+    // only used when the unacked ranges are persisted with snapshots and deltas (see AckStateFormat)
+    private final LongPairRangeSet<PositionImpl> individualDeletedMessagesDelta;
+    private final Object ackStateMutex = new Object();
+    private long ackStateSnapshotId = 0;
+    // Cursor ledger that contains the last snapshot, or -1 if a new snapshot has to be written
+    private long ackStateSnapshotLedgerId = -1;
+    private int ackStateDeltasSinceSnapshot = 0;
+
+    // Indexes of the messages deleted within the entries that were only partially deleted. The bitsets are guarded by
+    // the lock, the map is concurrent to check if it's empty without locking
+    private final ConcurrentSkipListMap<PositionImpl, BitSet> batchDeletedIndexes = new ConcurrentSkipListMap<>();
+
+    // Number of entries read at once when scanning the cursor ledger backward
+    private static final int CursorLedgerScanBatchSize = 100;
+
     private RateLimiter markDeleteLimiter;
 
+    // When set, new entries are pushed to the waiting read in the thread that completed the write
+    private volatile boolean tailing = false;
+
     class MarkDeleteEntry {
         final PositionImpl newPosition;
         final MarkDeleteCallback callback;
@@ -153,6 +179,8 @@ public class ManagedCursorImpl implements ManagedCursor {
     private volatile int pendingMarkDeletedSubmittedCount = 0;
     private long lastLedgerSwitchTimestamp;
 
+    private final ReadAheadManager.CursorState readAheadState = new ReadAheadManager.CursorState();
+
     enum State {
         Uninitialized, // Cursor is being initialized
         NoLedger, // There is no metadata ledger open for writing
@@ -183,6 +211,8 @@ public class ManagedCursorImpl implements ManagedCursor {
         RESET_CURSOR_IN_PROGRESS_UPDATER.set(this, FALSE);
         WAITING_READ_OP_UPDATER.set(this, null);
         this.lastLedgerSwitchTimestamp = System.currentTimeMillis();
+        this.individualDeletedMessages = createRangeSet(config);
+        this.individualDeletedMessagesDelta = config.isUnackedRangesSnapshotEnabled() ? createRangeSet(config) : null;
 
         if (config.getThrottleMarkDelete() > 0.0) {
             markDeleteLimiter = RateLimiter.create(config.getThrottleMarkDelete());
@@ -192,6 +222,21 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
+    @Override
+    public void setTailing(boolean tailing) {
+        this.tailing = tailing;
+    }
+
+    @Override
+    public boolean isTailing() {
+        return tailing;
+    }
+
+    private static LongPairRangeSet<PositionImpl> createRangeSet(ManagedLedgerConfig config) {
+        return config.isUnackedRangesBitSetEnabled() ? new BitSetLongPairRangeSet<>(PositionImpl::new)
+                : new LongPairRangeSet.DefaultRangeSet<>(PositionImpl::new);
+    }
+
     @Override
     public Map<String, Long> getProperties() {
         return lastMarkDeleteEntry.properties;
@@ -207,36 +252,7 @@ public class ManagedCursorImpl implements ManagedCursor {
         ledger.getStore().asyncGetCursorInfo(ledger.getName(), name, new MetaStoreCallback<ManagedCursorInfo>() {
             @Override
             public void operationComplete(ManagedCursorInfo info, Stat stat) {
-
-                cursorLedgerStat = stat;
-
-                if (info.getCursorsLedgerId() == -1L) {
-                    // There is no cursor ledger to read the last position from. It means the cursor has been properly
-                    // closed and the last mark-delete position is stored in the ManagedCursorInfo itself.s
-                    PositionImpl recoveredPosition = new PositionImpl(info.getMarkDeleteLedgerId(),
-                            info.getMarkDeleteEntryId());
-                    if (info.getIndividualDeletedMessagesCount() > 0) {
-                        recoverIndividualDeletedMessages(info.getIndividualDeletedMessagesList());
-                    }
-
-                    Map<String, Long> recoveredProperties = Collections.emptyMap();
-                    if (info.getPropertiesCount() > 0) {
-                        // Recover properties map
-                        recoveredProperties = Maps.newHashMap();
-                        for (int i = 0; i < info.getPropertiesCount(); i++) {
-                            LongProperty property = info.getProperties(i);
-                            recoveredProperties.put(property.getName(), property.getValue());
-                        }
-                    }
-
-                    recoveredCursor(recoveredPosition, recoveredProperties, null);
-                    callback.operationComplete();
-                } else {
-                    // Need to proceed and read the last entry in the specified ledger to find out the last position
-                    log.info("[{}] Consumer {} meta-data recover from ledger {}", ledger.getName(), name,
-                            info.getCursorsLedgerId());
-                    recoverFromLedger(info, callback);
-                }
+                recover(info, stat, callback);
             }
 
             @Override
@@ -246,6 +262,47 @@ public class ManagedCursorImpl implements ManagedCursor {
         });
     }
 
+    /**
+     * Performs the initial recovery starting from the cursor meta-data that was already read from the store.
+     */
+    void recover(final ManagedCursorInfo info, final Stat stat, final VoidCallback callback) {
+        cursorLedgerStat = stat;
+
+        if (info.getCursorsLedgerId() == -1L) {
+            // There is no cursor ledger to read the last position from. It means the cursor has been properly
+            // closed and the last mark-delete position is stored in the ManagedCursorInfo itself.s
+            PositionImpl recoveredPosition = new PositionImpl(info.getMarkDeleteLedgerId(),
+                    info.getMarkDeleteEntryId());
+            if (info.getIndividualDeletedMessagesCount() > 0) {
+                recoverIndividualDeletedMessages(info.getIndividualDeletedMessagesList());
+            }
+            try {
+                recoverBatchDeletedIndexes(info.getBatchDeletedIndexes());
+            } catch (IOException e) {
+                callback.operationFailed(new ManagedLedgerException(e));
+                return;
+            }
+
+            Map<String, Long> recoveredProperties = Collections.emptyMap();
+            if (info.getPropertiesCount() > 0) {
+                // Recover properties map
+                recoveredProperties = Maps.newHashMap();
+                for (int i = 0; i < info.getPropertiesCount(); i++) {
+                    LongProperty property = info.getProperties(i);
+                    recoveredProperties.put(property.getName(), property.getValue());
+                }
+            }
+
+            recoveredCursor(recoveredPosition, recoveredProperties, null);
+            callback.operationComplete();
+        } else {
+            // Need to proceed and read the last entry in the specified ledger to find out the last position
+            log.info("[{}] Consumer {} meta-data recover from ledger {}", ledger.getName(), name,
+                    info.getCursorsLedgerId());
+            recoverFromLedger(info, callback);
+        }
+    }
+
     protected void recoverFromLedger(final ManagedCursorInfo info, final VoidCallback callback) {
         // Read the acknowledged position from the metadata ledger, then create
         // a new ledger and write the position into it
@@ -288,46 +345,284 @@ public class ManagedCursorImpl implements ManagedCursor {
                 }
 
                 LedgerEntry entry = seq.nextElement();
-                PositionInfo positionInfo;
-                try {
-                    positionInfo = PositionInfo.parseFrom(entry.getEntry());
-                } catch (InvalidProtocolBufferException e) {
-                    callback.operationFailed(new ManagedLedgerException(e));
-                    return;
+                byte[] data = entry.getEntry();
+                if (AckStateFormat.getType(data) != 0) {
+                    recoverAckStateFromLedger(lh, entry.getEntryId(), data, callback);
+                } else {
+                    recoverFromPositionInfo(lh, data, callback);
                 }
+            }, null);
+        }, null);
+    }
 
-                Map<String, Long> recoveredProperties = Collections.emptyMap();
-                if (positionInfo.getPropertiesCount() > 0) {
-                    // Recover properties map
-                    recoveredProperties = Maps.newHashMap();
-                    for (int i = 0; i < positionInfo.getPropertiesCount(); i++) {
-                        LongProperty property = positionInfo.getProperties(i);
-                        recoveredProperties.put(property.getName(), property.getValue());
-                    }
+    private void recoverFromPositionInfo(LedgerHandle lh, byte[] data, VoidCallback callback) {
+        PositionInfo positionInfo;
+        try {
+            positionInfo = PositionInfo.parseFrom(data);
+        } catch (InvalidProtocolBufferException e) {
+            callback.operationFailed(new ManagedLedgerException(e));
+            return;
+        }
+
+        PositionImpl position = new PositionImpl(positionInfo);
+        if (positionInfo.getIndividualDeletedMessagesCount() > 0) {
+            recoverIndividualDeletedMessages(positionInfo.getIndividualDeletedMessagesList());
+        }
+        try {
+            recoverBatchDeletedIndexes(positionInfo.getBatchDeletedIndexes());
+        } catch (IOException e) {
+            callback.operationFailed(new ManagedLedgerException(e));
+            return;
+        }
+        recoveredCursor(position, getRecoveredProperties(positionInfo), lh);
+        callback.operationComplete();
+    }
+
+    private static Map<String, Long> getRecoveredProperties(PositionInfo positionInfo) {
+        Map<String, Long> recoveredProperties = Collections.emptyMap();
+        if (positionInfo.getPropertiesCount() > 0) {
+            // Recover properties map
+            recoveredProperties = Maps.newHashMap();
+            for (int i = 0; i < positionInfo.getPropertiesCount(); i++) {
+                LongProperty property = positionInfo.getProperties(i);
+                recoveredProperties.put(property.getName(), property.getValue());
+            }
+        }
+        return recoveredProperties;
+    }
+
+    /**
+     * Recovers the position and the individually deleted messages from an entry written with {@link AckStateFormat}.
+     *
+     * <p/>If the entry is a delta, the snapshot it refers to is searched backward in the cursor ledger and both are
+     * applied. If the last entry is a chunk, the last snapshot was not completely written and the previous state is
+     * recovered instead.
+     */
+    private void recoverAckStateFromLedger(final LedgerHandle lh, final long entryId, final byte[] data,
+            final VoidCallback callback) {
+        final AckStateFormat.AckStateEntry ackState;
+        try {
+            ackState = AckStateFormat.parse(data);
+        } catch (IOException e) {
+            callback.operationFailed(new ManagedLedgerException(e));
+            return;
+        }
+
+        switch (ackState.type) {
+        case AckStateFormat.TYPE_CHUNK:
+            scanCursorLedger(lh, entryId - 1, d -> AckStateFormat.getType(d) != AckStateFormat.TYPE_CHUNK,
+                    (previousEntryId, previousData) -> {
+                        if (previousData == null) {
+                            callback.operationFailed(new ManagedLedgerException(
+                                    "Couldn't find a complete cursor position in ledger " + lh.getId()));
+                        } else if (AckStateFormat.getType(previousData) != 0) {
+                            recoverAckStateFromLedger(lh, previousEntryId, previousData, callback);
+                        } else {
+                            recoverFromPositionInfo(lh, previousData, callback);
+                        }
+                    }, callback);
+            break;
+
+        case AckStateFormat.TYPE_SNAPSHOT:
+            recoverAckStateSnapshot(lh, entryId, ackState, new VoidCallback() {
+                @Override
+                public void operationComplete() {
+                    recoveredAckState(lh, ackState, callback);
                 }
 
-                PositionImpl position = new PositionImpl(positionInfo);
-                if (positionInfo.getIndividualDeletedMessagesCount() > 0) {
-                    recoverIndividualDeletedMessages(positionInfo.getIndividualDeletedMessagesList());
+                @Override
+                public void operationFailed(ManagedLedgerException exception) {
+                    callback.operationFailed(exception);
                 }
-                recoveredCursor(position, recoveredProperties, lh);
-                callback.operationComplete();
-            }, null);
+            });
+            break;
+
+        default:
+            // Stop at the first regular entry or at the first snapshot that is not newer than the one we need
+            scanCursorLedger(lh, entryId - 1, d -> AckStateFormat.getType(d) == 0
+                    || (AckStateFormat.getType(d) == AckStateFormat.TYPE_SNAPSHOT
+                            && AckStateFormat.getSnapshotId(d) <= ackState.snapshotId),
+                    (snapshotEntryId, snapshotData) -> {
+                        AckStateFormat.AckStateEntry snapshot = null;
+                        try {
+                            if (snapshotData != null && AckStateFormat.getType(snapshotData) != 0
+                                    && AckStateFormat.getSnapshotId(snapshotData) == ackState.snapshotId) {
+                                snapshot = AckStateFormat.parse(snapshotData);
+                            }
+                        } catch (IOException e) {
+                            callback.operationFailed(new ManagedLedgerException(e));
+                            return;
+                        }
+
+                        if (snapshot == null) {
+                            log.warn("[{}] [{}] Couldn't find snapshot {} of unacked ranges in ledger {}",
+                                    ledger.getName(), name, ackState.snapshotId, lh.getId());
+                            clearIndividualDeletedMessages();
+                            recoveredAckState(lh, ackState, callback);
+                            return;
+                        }
+
+                        recoverAckStateSnapshot(lh, snapshotEntryId, snapshot, new VoidCallback() {
+                            @Override
+                            public void operationComplete() {
+                                recoveredAckState(lh, ackState, callback);
+                            }
+
+                            @Override
+                            public void operationFailed(ManagedLedgerException exception) {
+                                callback.operationFailed(exception);
+                            }
+                        });
+                    }, callback);
+            break;
+        }
+    }
+
+    private void recoverAckStateSnapshot(LedgerHandle lh, long snapshotEntryId, AckStateFormat.AckStateEntry snapshot,
+            VoidCallback callback) {
+        clearIndividualDeletedMessages();
+        if (snapshot.numChunks == 0) {
+            callback.operationComplete();
+            return;
+        }
+
+        lh.asyncReadEntries(snapshotEntryId - snapshot.numChunks, snapshotEntryId - 1, (rc, lh1, seq, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                log.warn("[{}] Error reading unacked ranges snapshot from metadata ledger {} for consumer {}: {}",
+                        ledger.getName(), lh.getId(), name, BKException.getMessage(rc));
+                callback.operationFailed(createManagedLedgerException(rc));
+                return;
+            }
+
+            lock.writeLock().lock();
+            try {
+                List<AckStateFormat.AckStateEntry> chunks = Lists.newArrayList();
+                while (seq.hasMoreElements()) {
+                    chunks.add(AckStateFormat.parse(seq.nextElement().getEntry()));
+                }
+                AckStateFormat.decodeSnapshot(snapshot, chunks, this::addRecoveredRange);
+            } catch (IOException e) {
+                callback.operationFailed(new ManagedLedgerException(e));
+                return;
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            callback.operationComplete();
         }, null);
     }
 
+    private void recoveredAckState(LedgerHandle lh, AckStateFormat.AckStateEntry ackState, VoidCallback callback) {
+        PositionImpl position = new PositionImpl(ackState.positionInfo);
+        lock.writeLock().lock();
+        try {
+            if (ackState.type == AckStateFormat.TYPE_DELTA) {
+                AckStateFormat.decodeDelta(ackState, this::addRecoveredRange);
+            }
+            individualDeletedMessages.removeAtMost(position.getLedgerId(), position.getEntryId());
+            recoverBatchDeletedIndexes(ackState.positionInfo.getBatchDeletedIndexes());
+        } catch (IOException e) {
+            callback.operationFailed(new ManagedLedgerException(e));
+            return;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        log.info("[{}] [{}] Recovered {} unacked ranges from ledger {}", ledger.getName(), name,
+                individualDeletedMessages.size(), lh.getId());
+        recoveredCursor(position, getRecoveredProperties(ackState.positionInfo), lh);
+        callback.operationComplete();
+    }
+
+    /**
+     * Reads the cursor ledger backward, starting from lastEntryId, until an entry matching the predicate is found.
+     * The consumer receives the entry id and the content of the matching entry, or (-1, null) if no entry matched.
+     */
+    private void scanCursorLedger(LedgerHandle lh, long lastEntryId, Predicate<byte[]> predicate,
+            BiConsumer<Long, byte[]> consumer, VoidCallback callback) {
+        if (lastEntryId < 0) {
+            consumer.accept(-1L, null);
+            return;
+        }
+
+        long firstEntryId = Math.max(0, lastEntryId - CursorLedgerScanBatchSize + 1);
+        lh.asyncReadEntries(firstEntryId, lastEntryId, (rc, lh1, seq, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                log.warn("[{}] Error scanning metadata ledger {} for consumer {}: {}", ledger.getName(), lh.getId(),
+                        name, BKException.getMessage(rc));
+                callback.operationFailed(createManagedLedgerException(rc));
+                return;
+            }
+
+            List<LedgerEntry> entries = Collections.list(seq);
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                byte[] data = entries.get(i).getEntry();
+                if (predicate.apply(data)) {
+                    consumer.accept(entries.get(i).getEntryId(), data);
+                    return;
+                }
+            }
+
+            scanCursorLedger(lh, firstEntryId - 1, predicate, consumer, callback);
+        }, null);
+    }
+
+    private void clearIndividualDeletedMessages() {
+        lock.writeLock().lock();
+        try {
+            individualDeletedMessages.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void recoverBatchDeletedIndexes(ByteString data) throws IOException {
+        lock.writeLock().lock();
+        try {
+            batchDeletedIndexes.clear();
+            BatchDeletedIndexesFormat.decode(data, batchDeletedIndexes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     private void recoverIndividualDeletedMessages(List<MLDataFormats.MessageRange> individualDeletedMessagesList) {
         lock.writeLock().lock();
         try {
             individualDeletedMessages.clear();
-            individualDeletedMessagesList.forEach(messageRange -> individualDeletedMessages
-                    .add(Range.openClosed(new PositionImpl(messageRange.getLowerEndpoint()),
-                            new PositionImpl(messageRange.getUpperEndpoint()))));
+            individualDeletedMessagesList.forEach(messageRange -> addRecoveredRange(
+                    messageRange.getLowerEndpoint().getLedgerId(), messageRange.getLowerEndpoint().getEntryId(),
+                    messageRange.getUpperEndpoint().getLedgerId(), messageRange.getUpperEndpoint().getEntryId()));
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Add a recovered range of individually deleted messages.
+     *
+     * <p/>A range persisted by the {@link LongPairRangeSet.DefaultRangeSet} may span several ledgers. The bitmap range
+     * set only keeps ranges within a ledger and doesn't know where each ledger ends, so such a range is split at the
+     * ledger boundaries known by the managed ledger.
+     */
+    private void addRecoveredRange(long lowerLedgerId, long lowerEntryId, long upperLedgerId, long upperEntryId) {
+        if (lowerLedgerId == upperLedgerId || !config.isUnackedRangesBitSetEnabled()) {
+            individualDeletedMessages.addOpenClosed(lowerLedgerId, lowerEntryId, upperLedgerId, upperEntryId);
+            return;
+        }
+
+        for (LedgerInfo ledgerInfo : ledger.getLedgersInfo().subMap(lowerLedgerId, true, upperLedgerId, false)
+                .values()) {
+            long ledgerId = ledgerInfo.getLedgerId();
+            long lastEntryId = ledgerInfo.getEntries() - 1;
+            long fromEntryId = ledgerId == lowerLedgerId ? lowerEntryId : -1;
+            if (lastEntryId > fromEntryId) {
+                individualDeletedMessages.addOpenClosed(ledgerId, fromEntryId, ledgerId, lastEntryId);
+            }
+        }
+        individualDeletedMessages.addOpenClosed(upperLedgerId, -1, upperLedgerId, upperEntryId);
+    }
+
     private void recoveredCursor(PositionImpl position, Map<String, Long> properties,
                                  LedgerHandle recoveredFromCursorLedger) {
         // if the position was at a ledger that didn't exist (since it will be deleted if it was previously empty),
@@ -553,7 +848,8 @@ public class ManagedCursorImpl implements ManagedCursor {
             }
 
             // Check again for new entries again in 10ms, then if still no entries are available register to be notified
-            ledger.getScheduledExecutor().schedule(safeRun(() -> {
+            // Tailing cursors register right away, since new entries are pushed to them without any extra read
+            SafeRunnable registerForNotification = safeRun(() -> {
                 if (log.isDebugEnabled()) {
                     log.debug("[{}] [{}] Re-trying the read at position {}", ledger.getName(), name, op.readPosition);
                 }
@@ -597,7 +893,13 @@ public class ManagedCursorImpl implements ManagedCursor {
                     // If the managed ledger was indeed terminated, we need to notify the cursor
                     callback.readEntriesFailed(new NoMoreEntriesToReadException("Topic was terminated"), ctx);
                 }
-            }), 10, TimeUnit.MILLISECONDS);
+            });
+
+            if (tailing) {
+                registerForNotification.run();
+            } else {
+                ledger.getScheduledExecutor().schedule(registerForNotification, 10, TimeUnit.MILLISECONDS);
+            }
         }
     }
 
@@ -644,7 +946,7 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     @Override
     public int getTotalNonContiguousDeletedMessagesRange() {
-        return individualDeletedMessages.asRanges().size();
+        return individualDeletedMessages.size();
     }
 
     @Override
@@ -725,6 +1027,61 @@ public class ManagedCursorImpl implements ManagedCursor {
         op.find();
     }
 
+    @Override
+    public void asyncFindNewestMatchingPublishTime(FindPositionConstraint constraint, long timestamp,
+            Predicate<Entry> condition, FindEntryCallback callback, Object ctx) {
+        Range<PositionImpl> range = ledger.getPublishTimeSearchRange(timestamp);
+        PositionImpl startPosition;
+        switch (constraint) {
+        case SearchAllAvailableEntries:
+            startPosition = (PositionImpl) getFirstPosition();
+            break;
+        case SearchActiveEntries:
+            startPosition = ledger.getNextValidPosition(markDeletePosition);
+            break;
+        default:
+            startPosition = null;
+            break;
+        }
+
+        if (range == null || startPosition == null || range.lowerEndpoint().compareTo(startPosition) <= 0
+                || (range.hasUpperBound() && range.upperEndpoint().compareTo(startPosition) <= 0)) {
+            // The index doesn't allow to skip any entry
+            asyncFindNewestMatching(constraint, condition, callback, ctx);
+            return;
+        }
+
+        PositionImpl lowerBound = range.lowerEndpoint();
+        long max;
+        if (range.hasUpperBound()) {
+            max = ledger.getNumberOfEntries(range) - 1;
+        } else {
+            max = ledger.getNumberOfEntries(Range.closed(lowerBound, ledger.getLastPosition())) - 1;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] [{}] Searching publish time {} from {} within {} entries", ledger.getName(), name,
+                    timestamp, lowerBound, max);
+        }
+
+        new OpFindNewest(this, lowerBound, condition, max, new FindEntryCallback() {
+            @Override
+            public void findEntryComplete(Position position, Object ctx) {
+                if (position != null) {
+                    callback.findEntryComplete(position, ctx);
+                } else {
+                    // The sampled entry doesn't match the condition, fallback to a full search
+                    asyncFindNewestMatching(constraint, condition, callback, ctx);
+                }
+            }
+
+            @Override
+            public void findEntryFailed(ManagedLedgerException exception, Object ctx) {
+                callback.findEntryFailed(exception, ctx);
+            }
+        }, ctx).find();
+    }
+
     @Override
     public void setActive() {
         ledger.activateCursor(this);
@@ -789,6 +1146,10 @@ public class ManagedCursorImpl implements ManagedCursor {
                     lastMarkDeleteEntry = new MarkDeleteEntry(newMarkDeletePosition, Collections.emptyMap(),
                             null, null);
                     individualDeletedMessages.clear();
+                    if (individualDeletedMessagesDelta != null) {
+                        individualDeletedMessagesDelta.clear();
+                    }
+                    batchDeletedIndexes.clear();
 
                     PositionImpl oldReadPosition = readPosition;
                     if (oldReadPosition.compareTo(newPosition) >= 0) {
@@ -934,6 +1295,8 @@ public class ManagedCursorImpl implements ManagedCursor {
      * async and gives it to given ReadEntriesCallback c. returns all already-acked messages which are not replayed so,
      * those messages can be removed by caller(Dispatcher)'s replay-list and it won't try to replay it again
      *
+     * <p/>The positions to read are sorted and the contiguous ones are read with a single ranged read, so that
+     * replaying many messages results in a few sequential reads. The entries are returned in position order.
      */
     @Override
     public Set<? extends Position> asyncReplayEntries(final Set<? extends Position> positions,
@@ -941,47 +1304,79 @@ public class ManagedCursorImpl implements ManagedCursor {
         List<Entry> entries = Lists.newArrayListWithExpectedSize(positions.size());
         if (positions.isEmpty()) {
             callback.readEntriesComplete(entries, ctx);
+            return Collections.emptySet();
         }
 
         // filters out messages which are already acknowledged
         Set<Position> alreadyAcknowledgedPositions = Sets.newHashSet();
+        List<PositionImpl> positionsToRead = Lists.newArrayListWithExpectedSize(positions.size());
         lock.readLock().lock();
         try {
-            positions.stream()
-                    .filter(position -> individualDeletedMessages.contains((PositionImpl) position)
-                            || ((PositionImpl) position).compareTo(markDeletePosition) < 0)
-                    .forEach(alreadyAcknowledgedPositions::add);
+            for (Position p : positions) {
+                PositionImpl position = (PositionImpl) p;
+                if (individualDeletedMessages.contains(position.getLedgerId(), position.getEntryId())
+                        || position.compareTo(markDeletePosition) < 0) {
+                    alreadyAcknowledgedPositions.add(position);
+                } else {
+                    positionsToRead.add(position);
+                }
+            }
         } finally {
             lock.readLock().unlock();
         }
 
-        final int totalValidPositions = positions.size() - alreadyAcknowledgedPositions.size();
+        if (positionsToRead.isEmpty()) {
+            callback.readEntriesComplete(entries, ctx);
+            return alreadyAcknowledgedPositions;
+        }
+
+        // Merge the contiguous positions into ranges (ledgerId, firstEntry, lastEntry)
+        Collections.sort(positionsToRead);
+        List<long[]> ranges = Lists.newArrayList();
+        long[] currentRange = null;
+        for (PositionImpl position : positionsToRead) {
+            if (currentRange != null && currentRange[0] == position.getLedgerId()
+                    && currentRange[2] + 1 == position.getEntryId()) {
+                currentRange[2] = position.getEntryId();
+            } else {
+                currentRange = new long[] { position.getLedgerId(), position.getEntryId(), position.getEntryId() };
+                ranges.add(currentRange);
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}][{}] Replaying {} entries with {} reads", ledger.getName(), name, positionsToRead.size(),
+                    ranges.size());
+        }
+
         final AtomicReference<ManagedLedgerException> exception = new AtomicReference<>();
-        ReadEntryCallback cb = new ReadEntryCallback() {
-            int pendingCallbacks = totalValidPositions;
+        ReadEntriesCallback cb = new ReadEntriesCallback() {
+            int pendingCallbacks = ranges.size();
 
             @Override
-            public synchronized void readEntryComplete(Entry entry, Object ctx) {
+            public synchronized void readEntriesComplete(List<Entry> rangeEntries, Object ctx) {
                 if (exception.get() != null) {
-                    // if there is already a failure for a different position, we should release the entry straight away
-                    // and not add it to the list
-                    entry.release();
+                    // if there is already a failure for a different range, we should release the entries straight
+                    // away and not add them to the list
+                    rangeEntries.forEach(Entry::release);
                     if (--pendingCallbacks == 0) {
                         callback.readEntriesFailed(exception.get(), ctx);
                     }
                 } else {
-                    entries.add(entry);
+                    entries.addAll(rangeEntries);
                     if (--pendingCallbacks == 0) {
+                        entries.sort((e1, e2) -> ((PositionImpl) e1.getPosition())
+                                .compareTo((PositionImpl) e2.getPosition()));
                         callback.readEntriesComplete(entries, ctx);
                     }
                 }
             }
 
             @Override
-            public synchronized void readEntryFailed(ManagedLedgerException mle, Object ctx) {
+            public synchronized void readEntriesFailed(ManagedLedgerException mle, Object ctx) {
                 log.warn("[{}][{}] Error while replaying entries", ledger.getName(), name, mle);
                 if (exception.compareAndSet(null, mle)) {
-                    // release the entries just once, any further read success will release the entry straight away
+                    // release the entries just once, any further read success will release the entries straight away
                     entries.forEach(Entry::release);
                 }
                 if (--pendingCallbacks == 0) {
@@ -990,8 +1385,7 @@ public class ManagedCursorImpl implements ManagedCursor {
             }
         };
 
-        positions.stream().filter(position -> !alreadyAcknowledgedPositions.contains(position))
-                .forEach(p -> ledger.asyncReadEntry((PositionImpl) p, cb, ctx));
+        ranges.forEach(range -> ledger.asyncReadEntries(range[0], range[1], range[2], cb, ctx));
 
         return alreadyAcknowledgedPositions;
     }
@@ -1263,15 +1657,24 @@ public class ManagedCursorImpl implements ManagedCursor {
             if (newMarkDeletePosition.getLedgerId() == oldMarkDeletePosition.getLedgerId()
                     && newMarkDeletePosition.getEntryId() == oldMarkDeletePosition.getEntryId() + 1) {
                 // Mark-deleting the position next to current one
-                skippedEntries = individualDeletedMessages.contains(newMarkDeletePosition) ? 0 : 1;
+                skippedEntries = individualDeletedMessages.contains(newMarkDeletePosition.getLedgerId(),
+                        newMarkDeletePosition.getEntryId()) ? 0 : 1;
             } else {
                 skippedEntries = getNumberOfEntries(Range.openClosed(oldMarkDeletePosition, newMarkDeletePosition));
             }
             PositionImpl positionAfterNewMarkDelete = ledger.getNextValidPosition(newMarkDeletePosition);
-            if (individualDeletedMessages.contains(positionAfterNewMarkDelete)) {
-                Range<PositionImpl> rangeToBeMarkDeleted = individualDeletedMessages
-                        .rangeContaining(positionAfterNewMarkDelete);
+            Range<PositionImpl> rangeToBeMarkDeleted = individualDeletedMessages.rangeContaining(
+                    positionAfterNewMarkDelete.getLedgerId(), positionAfterNewMarkDelete.getEntryId());
+            while (rangeToBeMarkDeleted != null) {
                 newMarkDeletePosition = rangeToBeMarkDeleted.upperEndpoint();
+
+                // The bitmap range set splits the ranges at the ledger boundaries, continue in the next ledger
+                positionAfterNewMarkDelete = ledger.getNextValidPosition(newMarkDeletePosition);
+                if (positionAfterNewMarkDelete.getLedgerId() == newMarkDeletePosition.getLedgerId()) {
+                    break;
+                }
+                rangeToBeMarkDeleted = individualDeletedMessages.rangeContaining(
+                        positionAfterNewMarkDelete.getLedgerId(), positionAfterNewMarkDelete.getEntryId());
             }
 
             if (log.isDebugEnabled()) {
@@ -1283,7 +1686,10 @@ public class ManagedCursorImpl implements ManagedCursor {
 
         // markDelete-position and clear out deletedMsgSet
         markDeletePosition = PositionImpl.get(newMarkDeletePosition);
-        individualDeletedMessages.remove(Range.atMost(markDeletePosition));
+        individualDeletedMessages.removeAtMost(markDeletePosition.getLedgerId(), markDeletePosition.getEntryId());
+        if (!batchDeletedIndexes.isEmpty()) {
+            batchDeletedIndexes.headMap(markDeletePosition, true).clear();
+        }
 
         return newMarkDeletePosition;
     }
@@ -1399,7 +1805,12 @@ public class ManagedCursorImpl implements ManagedCursor {
                 // point.
                 lock.writeLock().lock();
                 try {
-                    individualDeletedMessages.remove(Range.atMost(mdEntry.newPosition));
+                    individualDeletedMessages.removeAtMost(mdEntry.newPosition.getLedgerId(),
+                            mdEntry.newPosition.getEntryId());
+                    if (individualDeletedMessagesDelta != null) {
+                        individualDeletedMessagesDelta.removeAtMost(mdEntry.newPosition.getLedgerId(),
+                                mdEntry.newPosition.getEntryId());
+                    }
                 } finally {
                     lock.writeLock().unlock();
                 }
@@ -1516,7 +1927,8 @@ public class ManagedCursorImpl implements ManagedCursor {
                         ledger.getName(), name, pos, individualDeletedMessages, markDeletePosition, previousPosition);
             }
 
-            if (individualDeletedMessages.contains(position) || position.compareTo(markDeletePosition) <= 0) {
+            if (individualDeletedMessages.contains(position.getLedgerId(), position.getEntryId())
+                    || position.compareTo(markDeletePosition) <= 0) {
                 if (log.isDebugEnabled()) {
                     log.debug("[{}] [{}] Position was already deleted {}", ledger.getName(), name, position);
                 }
@@ -1524,6 +1936,8 @@ public class ManagedCursorImpl implements ManagedCursor {
                 return;
             }
 
+            batchDeletedIndexes.remove(position);
+
             if (previousPosition.compareTo(markDeletePosition) == 0 && individualDeletedMessages.isEmpty()) {
                 if (log.isDebugEnabled()) {
                     log.debug("[{}][{}] Immediately mark-delete to position {}", ledger.getName(), name, position);
@@ -1533,7 +1947,12 @@ public class ManagedCursorImpl implements ManagedCursor {
             } else {
                 // Add a range (prev, pos] to the set. Adding the previous entry as an open limit to the range will make
                 // the RangeSet recognize the "continuity" between adjacent Positions
-                individualDeletedMessages.add(Range.openClosed(previousPosition, position));
+                individualDeletedMessages.addOpenClosed(previousPosition.getLedgerId(), previousPosition.getEntryId(),
+                        position.getLedgerId(), position.getEntryId());
+                if (individualDeletedMessagesDelta != null) {
+                    individualDeletedMessagesDelta.addOpenClosed(previousPosition.getLedgerId(),
+                            previousPosition.getEntryId(), position.getLedgerId(), position.getEntryId());
+                }
                 ++messagesConsumedCounter;
 
                 if (log.isDebugEnabled()) {
@@ -1544,7 +1963,7 @@ public class ManagedCursorImpl implements ManagedCursor {
                 // If the lower bound of the range set is the current mark delete position, then we can trigger a new
                 // mark
                 // delete to the upper bound of the first range segment
-                Range<PositionImpl> range = individualDeletedMessages.asRanges().iterator().next();
+                Range<PositionImpl> range = individualDeletedMessages.firstRange();
 
                 // Bug:7062188 - markDeletePosition can sometimes be stuck at the beginning of an empty ledger.
                 // If the lowerBound is ahead of MarkDelete, verify if there are any entries in-between
@@ -1574,6 +1993,69 @@ public class ManagedCursorImpl implements ManagedCursor {
             lock.writeLock().unlock();
         }
 
+        markDeleteAfterDelete(newMarkDeletePosition, callback, ctx);
+    }
+
+    @Override
+    public void asyncDeleteBatchIndexes(Position pos, BitSet deletedIndexes, final DeleteCallback callback,
+            Object ctx) {
+        checkArgument(pos instanceof PositionImpl);
+
+        if (STATE_UPDATER.get(this) == State.Closed) {
+            callback.deleteFailed(new ManagedLedgerException("Cursor was already closed"), ctx);
+            return;
+        }
+
+        PositionImpl position = (PositionImpl) pos;
+
+        lock.writeLock().lock();
+        try {
+            if (individualDeletedMessages.contains(position.getLedgerId(), position.getEntryId())
+                    || position.compareTo(markDeletePosition) <= 0) {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] [{}] Position was already deleted {}", ledger.getName(), name, position);
+                }
+                callback.deleteComplete(ctx);
+                return;
+            }
+
+            BitSet bitSet = batchDeletedIndexes.get(position);
+            if (bitSet == null) {
+                batchDeletedIndexes.put(position, (BitSet) deletedIndexes.clone());
+            } else {
+                bitSet.or(deletedIndexes);
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] [{}] Deleted batch indexes {} at {}", ledger.getName(), name, deletedIndexes,
+                        position);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // The deleted indexes are persisted along with the next mark-delete position instead of writing the cursor
+        // ledger for each of them. If they're lost, the messages are redelivered with the rest of their batch.
+        callback.deleteComplete(ctx);
+    }
+
+    @Override
+    public BitSet getDeletedBatchIndexes(Position position) {
+        if (batchDeletedIndexes.isEmpty()) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            BitSet bitSet = batchDeletedIndexes.get(position);
+            return bitSet != null ? (BitSet) bitSet.clone() : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void markDeleteAfterDelete(PositionImpl newMarkDeletePosition, final DeleteCallback callback,
+            Object ctx) {
         // Apply rate limiting to mark-delete operations
         if (markDeleteLimiter != null && !markDeleteLimiter.tryAcquire()) {
             lastMarkDeleteEntry = new MarkDeleteEntry(newMarkDeletePosition, Collections.emptyMap(), null, null);
@@ -1631,7 +2113,9 @@ public class ManagedCursorImpl implements ManagedCursor {
             } else {
                 // Remove from the entry list all the entries that were already marked for deletion
                 return Lists.newArrayList(Collections2.filter(entries, entry -> {
-                    boolean includeEntry = !individualDeletedMessages.contains((PositionImpl) entry.getPosition());
+                    PositionImpl position = (PositionImpl) entry.getPosition();
+                    boolean includeEntry = !individualDeletedMessages.contains(position.getLedgerId(),
+                            position.getEntryId());
                     if (!includeEntry) {
                         if (log.isDebugEnabled()) {
                             log.debug("[{}] [{}] Filtering entry at {} - already deleted", ledger.getName(), name,
@@ -1794,7 +2278,7 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     private boolean shouldPersistUnackRangesToLedger() {
         return cursorLedger != null && config.getMaxUnackedRangesToPersist() > 0
-                && individualDeletedMessages.asRanges().size() > config.getMaxUnackedRangesToPersistInZk();
+                && individualDeletedMessages.size() > config.getMaxUnackedRangesToPersistInZk();
     }
 
     private void persistPositionMetaStore(long cursorsLedgerId, PositionImpl position, Map<String, Long> properties,
@@ -1809,6 +2293,10 @@ public class ManagedCursorImpl implements ManagedCursor {
         info.addAllProperties(buildPropertiesMap(properties));
         if (persistIndividualDeletedMessageRanges) {
             info.addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges());
+            ByteString deletedIndexes = encodeBatchDeletedIndexes(config.getMaxUnackedRangesToPersistInZk());
+            if (deletedIndexes != null) {
+                info.setBatchDeletedIndexes(deletedIndexes);
+            }
         }
 
         if (log.isDebugEnabled()) {
@@ -2001,18 +2489,47 @@ public class ManagedCursorImpl implements ManagedCursor {
             MLDataFormats.NestedPositionInfo.Builder nestedPositionBuilder = MLDataFormats.NestedPositionInfo
                     .newBuilder();
             MLDataFormats.MessageRange.Builder messageRangeBuilder = MLDataFormats.MessageRange.newBuilder();
-            return individualDeletedMessages.asRanges().stream().limit(config.getMaxUnackedRangesToPersist())
-                    .map(positionRange -> {
-                        PositionImpl p = positionRange.lowerEndpoint();
-                        nestedPositionBuilder.setLedgerId(p.getLedgerId());
-                        nestedPositionBuilder.setEntryId(p.getEntryId());
-                        messageRangeBuilder.setLowerEndpoint(nestedPositionBuilder.build());
-                        p = positionRange.upperEndpoint();
-                        nestedPositionBuilder.setLedgerId(p.getLedgerId());
-                        nestedPositionBuilder.setEntryId(p.getEntryId());
-                        messageRangeBuilder.setUpperEndpoint(nestedPositionBuilder.build());
-                        return messageRangeBuilder.build();
-                    }).collect(Collectors.toList());
+            List<MLDataFormats.MessageRange> ranges = Lists.newArrayList();
+            individualDeletedMessages.forEach(positionRange -> {
+                if (ranges.size() >= config.getMaxUnackedRangesToPersist()) {
+                    return false;
+                }
+
+                PositionImpl p = positionRange.lowerEndpoint();
+                nestedPositionBuilder.setLedgerId(p.getLedgerId());
+                nestedPositionBuilder.setEntryId(p.getEntryId());
+                messageRangeBuilder.setLowerEndpoint(nestedPositionBuilder.build());
+                p = positionRange.upperEndpoint();
+                nestedPositionBuilder.setLedgerId(p.getLedgerId());
+                nestedPositionBuilder.setEntryId(p.getEntryId());
+                messageRangeBuilder.setUpperEndpoint(nestedPositionBuilder.build());
+                ranges.add(messageRangeBuilder.build());
+                return true;
+            });
+            return ranges;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void setBatchDeletedIndexes(PositionInfo.Builder piBuilder) {
+        ByteString deletedIndexes = encodeBatchDeletedIndexes(config.getMaxUnackedRangesToPersist());
+        if (deletedIndexes != null) {
+            piBuilder.setBatchDeletedIndexes(deletedIndexes);
+        }
+    }
+
+    /**
+     * @return the deleted indexes of at most maxEntries partially deleted entries, or null if there are none
+     */
+    private ByteString encodeBatchDeletedIndexes(int maxEntries) {
+        if (batchDeletedIndexes.isEmpty()) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            return BatchDeletedIndexesFormat.encode(batchDeletedIndexes, maxEntries);
         } finally {
             lock.readLock().unlock();
         }
@@ -2020,10 +2537,17 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     void persistPositionToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, final VoidCallback callback) {
         PositionImpl position = mdEntry.newPosition;
-        PositionInfo pi = PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
+        if (shouldPersistAckStateSnapshot()) {
+            persistAckStateToLedger(lh, mdEntry, callback);
+            return;
+        }
+
+        PositionInfo.Builder piBuilder = PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
                 .setEntryId(position.getEntryId())
                 .addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges())
-                .addAllProperties(buildPropertiesMap(mdEntry.properties)).build();
+                .addAllProperties(buildPropertiesMap(mdEntry.properties));
+        setBatchDeletedIndexes(piBuilder);
+        PositionInfo pi = piBuilder.build();
 
 
         if (log.isDebugEnabled()) {
@@ -2032,30 +2556,124 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
 
         checkNotNull(lh);
-        lh.asyncAddEntry(pi.toByteArray(), (rc, lh1, entryId, ctx) -> {
-            if (rc == BKException.Code.OK) {
-                if (log.isDebugEnabled()) {
-                    log.debug("[{}] Updated cursor {} position {} in meta-ledger {}", ledger.getName(), name, position,
-                            lh1.getId());
+        synchronized (ackStateMutex) {
+            // The next entries written with snapshots and deltas will need a new snapshot
+            ackStateSnapshotLedgerId = -1;
+
+            lh.asyncAddEntry(pi.toByteArray(), (rc, lh1, entryId, ctx) -> {
+                if (rc == BKException.Code.OK) {
+                    persistPositionToLedgerComplete(lh1, position, callback);
+                } else {
+                    persistPositionToLedgerFailed(lh1, position, rc, callback);
                 }
+            }, null);
+        }
+    }
 
-                if (shouldCloseLedger(lh1)) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("[{}] Need to create new metadata ledger for consumer {}", ledger.getName(), name);
-                    }
-                    startCreatingNewMetadataLedger();
+    private boolean shouldPersistAckStateSnapshot() {
+        if (individualDeletedMessagesDelta == null) {
+            return false;
+        }
+
+        lock.readLock().lock();
+        try {
+            return individualDeletedMessages.size() > config.getMaxUnackedRangesToPersist();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Persists the position together with all the individually deleted messages, either as a new snapshot split in
+     * multiple entries or as a delta of the ranges added since the last snapshot. See {@link AckStateFormat}.
+     */
+    private void persistAckStateToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, final VoidCallback callback) {
+        final PositionImpl position = mdEntry.newPosition;
+        PositionInfo.Builder piBuilder = PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
+                .setEntryId(position.getEntryId())
+                .addAllProperties(buildPropertiesMap(mdEntry.properties));
+        setBatchDeletedIndexes(piBuilder);
+        PositionInfo pi = piBuilder.build();
+
+        checkNotNull(lh);
+        // All the entries of a snapshot need to be contiguous in the cursor ledger
+        synchronized (ackStateMutex) {
+            boolean snapshot = ackStateSnapshotLedgerId != lh.getId()
+                    || ackStateDeltasSinceSnapshot >= config.getUnackedRangesDeltasPerSnapshot();
+            List<byte[]> entries;
+
+            lock.writeLock().lock();
+            try {
+                if (!snapshot && individualDeletedMessagesDelta.size() > config.getMaxUnackedRangesToPersist()) {
+                    snapshot = true;
                 }
 
-                callback.operationComplete();
+                if (snapshot) {
+                    entries = AckStateFormat.encodeSnapshot(++ackStateSnapshotId, pi, individualDeletedMessages);
+                    individualDeletedMessagesDelta.clear();
+                } else {
+                    entries = Collections.singletonList(
+                            AckStateFormat.encodeDelta(ackStateSnapshotId, pi, individualDeletedMessagesDelta));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            if (snapshot) {
+                ackStateSnapshotLedgerId = lh.getId();
+                ackStateDeltasSinceSnapshot = 0;
             } else {
-                log.warn("[{}] Error updating cursor {} position {} in meta-ledger {}: {}", ledger.getName(), name,
-                        position, lh1.getId(), BKException.getMessage(rc));
-                // If we've had a write error, the ledger will be automatically closed, we need to create a new one,
-                // in the meantime the mark-delete will be queued.
-                STATE_UPDATER.compareAndSet(ManagedCursorImpl.this, State.Open, State.NoLedger);
-                callback.operationFailed(createManagedLedgerException(rc));
+                ++ackStateDeltasSinceSnapshot;
             }
-        }, null);
+
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Cursor {} Appending {} {} entries to ledger={} position={}", ledger.getName(), name,
+                        entries.size(), snapshot ? "snapshot" : "delta", lh.getId(), position);
+            }
+
+            final AtomicInteger pendingEntries = new AtomicInteger(entries.size());
+            final AtomicBoolean failed = new AtomicBoolean(false);
+            for (byte[] data : entries) {
+                lh.asyncAddEntry(data, (rc, lh1, entryId, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        if (failed.compareAndSet(false, true)) {
+                            synchronized (ackStateMutex) {
+                                ackStateSnapshotLedgerId = -1;
+                            }
+                            persistPositionToLedgerFailed(lh1, position, rc, callback);
+                        }
+                    } else if (pendingEntries.decrementAndGet() == 0 && !failed.get()) {
+                        persistPositionToLedgerComplete(lh1, position, callback);
+                    }
+                }, null);
+            }
+        }
+    }
+
+    private void persistPositionToLedgerComplete(LedgerHandle lh, PositionImpl position, VoidCallback callback) {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Updated cursor {} position {} in meta-ledger {}", ledger.getName(), name, position,
+                    lh.getId());
+        }
+
+        if (shouldCloseLedger(lh)) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Need to create new metadata ledger for consumer {}", ledger.getName(), name);
+            }
+            startCreatingNewMetadataLedger();
+        }
+
+        callback.operationComplete();
+    }
+
+    private void persistPositionToLedgerFailed(LedgerHandle lh, PositionImpl position, int rc,
+            VoidCallback callback) {
+        log.warn("[{}] Error updating cursor {} position {} in meta-ledger {}: {}", ledger.getName(), name,
+                position, lh.getId(), BKException.getMessage(rc));
+        // If we've had a write error, the ledger will be automatically closed, we need to create a new one,
+        // in the meantime the mark-delete will be queued.
+        STATE_UPDATER.compareAndSet(ManagedCursorImpl.this, State.Open, State.NoLedger);
+        callback.operationFailed(createManagedLedgerException(rc));
     }
 
     boolean shouldCloseLedger(LedgerHandle lh) {
@@ -2129,6 +2747,45 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
+    /**
+     * Notify the cursor that the entry at its read position was persisted. If the cursor is still waiting for it, the
+     * entry is returned to the pending read without looking it up in the cache.
+     *
+     * @param entry
+     *            the added entry, owned by this method
+     */
+    void notifyEntryAdded(EntryImpl entry) {
+        OpReadEntry opReadEntry = WAITING_READ_OP_UPDATER.getAndSet(this, null);
+        if (opReadEntry == null) {
+            // No one is waiting to be notified. Ignore
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] [{}] Received notification but had no pending read operation", ledger.getName(), name);
+            }
+            entry.release();
+            return;
+        }
+
+        PENDING_READ_OPS_UPDATER.incrementAndGet(this);
+        opReadEntry.readPosition = (PositionImpl) getReadPosition();
+        if (!opReadEntry.readPosition.equals(entry.getPosition())) {
+            // The cursor was moved since it registered for the notification
+            entry.release();
+            ledger.asyncReadEntries(opReadEntry);
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] [{}] Received new entry {} from ml notification", ledger.getName(), name,
+                    entry.getPosition());
+        }
+        ledger.factory.mbean.recordBroadcastEntry(entry.getLength());
+        if (tailing) {
+            opReadEntry.pushedEntryComplete(entry);
+        } else {
+            opReadEntry.readEntriesComplete(Lists.newArrayList(entry), opReadEntry.ctx);
+        }
+    }
+
     void asyncCloseCursorLedger(final AsyncCallbacks.CloseCallback callback, final Object ctx) {
         LedgerHandle lh = cursorLedger;
         ledger.mbean.startCursorLedgerCloseOp();
@@ -2306,7 +2963,8 @@ public class ManagedCursorImpl implements ManagedCursor {
      * @return next available position
      */
     public PositionImpl getNextAvailablePosition(PositionImpl position) {
-        Range<PositionImpl> range = individualDeletedMessages.rangeContaining(position);
+        Range<PositionImpl> range = individualDeletedMessages.rangeContaining(position.getLedgerId(),
+                position.getEntryId());
         if (range != null) {
             PositionImpl nextPosition = range.upperEndpoint().getNext();
             return (nextPosition != null && nextPosition.compareTo(position) > 0) ? nextPosition : position.getNext();
@@ -2332,6 +2990,24 @@ public class ManagedCursorImpl implements ManagedCursor {
         return lastLedgerSwitchTimestamp;
     }
 
+    ReadAheadManager.CursorState getReadAheadState() {
+        return readAheadState;
+    }
+
+    /**
+     * @return the number of reads that were issued on entries already prefetched in the cache
+     */
+    public long getReadAheadHits() {
+        return readAheadState.getHits();
+    }
+
+    /**
+     * @return the number of sequential reads that were issued on entries that were not prefetched in the cache
+     */
+    public long getReadAheadMisses() {
+        return readAheadState.getMisses();
+    }
+
     public String getState() {
         return STATE_UPDATER.get(this).toString();
     }
@@ -20,6 +20,7 @@ package org.apache.bookkeeper.mledger.impl;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.bookkeeper.mledger.ManagedLedgerException.getManagedLedgerException;
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
 
 import com.google.common.base.Predicates;
 import com.google.common.collect.Maps;
@@ -27,14 +28,19 @@ import io.netty.util.concurrent.DefaultThreadFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.BookKeeper;
 import org.apache.bookkeeper.conf.ClientConfiguration;
@@ -84,6 +90,11 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
 
     protected final ConcurrentHashMap<String, CompletableFuture<ManagedLedgerImpl>> ledgers = new ConcurrentHashMap<>();
     private final EntryCacheManager entryCacheManager;
+    private final ReadAheadManager readAheadManager;
+
+    // Managed ledgers waiting to be recovered, when the number of concurrent recoveries is limited
+    private final Queue<PendingRecovery> pendingRecoveries = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeRecoveries = new AtomicInteger();
 
     private long lastStatTimestamp = System.nanoTime();
     private final ScheduledFuture<?> statsTask;
@@ -120,6 +131,7 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         this.config = config;
         this.mbean = new ManagedLedgerFactoryMBeanImpl(this);
         this.entryCacheManager = new EntryCacheManager(this);
+        this.readAheadManager = new ReadAheadManager(config, entryCacheManager);
         this.statsTask = executor.scheduleAtFixedRate(() -> refreshStats(), 0, StatsPeriodSeconds, TimeUnit.SECONDS);
     }
 
@@ -136,6 +148,7 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         this.config = config;
         this.mbean = new ManagedLedgerFactoryMBeanImpl(this);
         this.entryCacheManager = new EntryCacheManager(this);
+        this.readAheadManager = new ReadAheadManager(config, entryCacheManager);
         this.statsTask = executor.scheduleAtFixedRate(() -> refreshStats(), 0, StatsPeriodSeconds, TimeUnit.SECONDS);
     }
 
@@ -226,27 +239,63 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
             }
         }
 
-        // Ensure only one managed ledger is created and initialized
-        ledgers.computeIfAbsent(name, (mlName) -> {
-            // Create the managed ledger
-            CompletableFuture<ManagedLedgerImpl> future = new CompletableFuture<>();
-            final ManagedLedgerImpl newledger = new ManagedLedgerImpl(this, bookKeeper, store, config, executor,
-                    orderedExecutor, name);
-            newledger.initialize(new ManagedLedgerInitializeLedgerCallback() {
-                @Override
-                public void initializeComplete() {
-                    future.complete(newledger);
+        // Ensure only one managed ledger is created and initialized. The future is published in the map before the
+        // recovery is scheduled, so that a failed initialization can always remove it again
+        final CompletableFuture<ManagedLedgerImpl> future = new CompletableFuture<>();
+        final CompletableFuture<ManagedLedgerImpl> existing = ledgers.putIfAbsent(name, future);
+        if (existing == null) {
+            final long requestTimestamp = System.nanoTime();
+            scheduleRecovery(name, () -> {
+                final long startTimestamp = System.nanoTime();
+                // The cursors recovery might report more than one failure
+                final AtomicBoolean completed = new AtomicBoolean();
+                final ManagedLedgerImpl newledger;
+                try {
+                    newledger = new ManagedLedgerImpl(this, bookKeeper, store, config, executor, orderedExecutor,
+                            name);
+                } catch (Throwable t) {
+                    log.error("[{}] Failed to create managed ledger", name, t);
+                    recoveryCompleted();
+                    ledgers.remove(name, future);
+                    future.completeExceptionally(new ManagedLedgerException(t));
+                    return;
                 }
 
-                @Override
-                public void initializeFailed(ManagedLedgerException e) {
-                    // Clean the map if initialization fails
-                    ledgers.remove(name, future);
-                    future.completeExceptionally(e);
+                ManagedLedgerInitializeLedgerCallback initCallback = new ManagedLedgerInitializeLedgerCallback() {
+                    @Override
+                    public void initializeComplete() {
+                        if (completed.compareAndSet(false, true)) {
+                            long now = System.nanoTime();
+                            newledger.mbean.recordRecoveryTime(startTimestamp - requestTimestamp,
+                                    now - requestTimestamp, TimeUnit.NANOSECONDS);
+                            mbean.recordRecoveryTime(now - requestTimestamp, TimeUnit.NANOSECONDS);
+                            recoveryCompleted();
+                        }
+                        future.complete(newledger);
+                    }
+
+                    @Override
+                    public void initializeFailed(ManagedLedgerException e) {
+                        if (completed.compareAndSet(false, true)) {
+                            recoveryCompleted();
+                        }
+                        // Clean the map if initialization fails
+                        ledgers.remove(name, future);
+                        future.completeExceptionally(e);
+                    }
+                };
+
+                try {
+                    newledger.initialize(initCallback, null);
+                } catch (Throwable t) {
+                    // Release the recovery slot, otherwise the queued recoveries would wait forever
+                    log.error("[{}] Failed to initialize managed ledger", name, t);
+                    initCallback.initializeFailed(new ManagedLedgerException(t));
                 }
-            }, null);
-            return future;
-        }).thenAccept(ml -> {
+            }, future);
+        }
+
+        (existing != null ? existing : future).thenAccept(ml -> {
             callback.openLedgerComplete(ml, ctx);
         }).exceptionally(exception -> {
             callback.openLedgerFailed((ManagedLedgerException) exception.getCause(), ctx);
@@ -254,6 +303,73 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         });
     }
 
+    private void scheduleRecovery(String name, Runnable recovery, CompletableFuture<ManagedLedgerImpl> future) {
+        pendingRecoveries.add(new PendingRecovery(name, recovery, future));
+        startPendingRecoveries();
+    }
+
+    private void recoveryCompleted() {
+        activeRecoveries.decrementAndGet();
+        startPendingRecoveries();
+    }
+
+    /**
+     * Start the queued recoveries, as long as the max number of concurrent recoveries is not reached.
+     * <p>
+     * The recoveries are submitted to the executor rather than run inline, since this is called from the open
+     * requests and from the completion callbacks of the other recoveries.
+     */
+    private void startPendingRecoveries() {
+        final int maxRecoveries = config.getMaxConcurrentRecoveries();
+        while (!pendingRecoveries.isEmpty()) {
+            int active = activeRecoveries.get();
+            if (maxRecoveries > 0 && active >= maxRecoveries) {
+                // The next recovery will be started once one of the active ones completes
+                return;
+            }
+
+            if (!activeRecoveries.compareAndSet(active, active + 1)) {
+                continue;
+            }
+
+            PendingRecovery recovery = pendingRecoveries.poll();
+            if (recovery == null) {
+                // Another thread took the last pending recovery
+                activeRecoveries.decrementAndGet();
+                continue;
+            }
+
+            try {
+                executor.execute(safeRun(recovery.task));
+            } catch (RejectedExecutionException e) {
+                // The factory is shutting down
+                activeRecoveries.decrementAndGet();
+                ledgers.remove(recovery.name, recovery.future);
+                recovery.future.completeExceptionally(new ManagedLedgerException(e));
+            }
+        }
+    }
+
+    private static class PendingRecovery {
+        final String name;
+        final Runnable task;
+        final CompletableFuture<ManagedLedgerImpl> future;
+
+        PendingRecovery(String name, Runnable task, CompletableFuture<ManagedLedgerImpl> future) {
+            this.name = name;
+            this.task = task;
+            this.future = future;
+        }
+    }
+
+    int getNumberOfPendingRecoveries() {
+        return pendingRecoveries.size();
+    }
+
+    int getNumberOfActiveRecoveries() {
+        return activeRecoveries.get();
+    }
+
     void close(ManagedLedger ledger) {
         // Remove the ledger from the internal factory cache
         ledgers.remove(ledger.getName());
@@ -461,6 +577,10 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         return entryCacheManager;
     }
 
+    public ReadAheadManager getReadAheadManager() {
+        return readAheadManager;
+    }
+
     public ManagedLedgerFactoryMXBean getCacheStats() {
         return this.mbean;
     }
@@ -21,15 +21,23 @@ package org.apache.bookkeeper.mledger.impl;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactoryMXBean;
 import org.apache.bookkeeper.mledger.util.Rate;
+import org.apache.bookkeeper.mledger.util.StatsBuckets;
 
 @SuppressWarnings("checkstyle:javadoctype")
 public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean {
 
+    public static final long[] RECOVERY_TIME_BUCKETS_MS = { 10, 50, 100, 500, 1_000, 5_000, 10_000, 30_000,
+            60_000 };
+
     private final ManagedLedgerFactoryImpl factory;
 
     final Rate cacheHits = new Rate();
     final Rate cacheMisses = new Rate();
     final Rate cacheEvictions = new Rate();
+    final Rate cacheAdmissionRejections = new Rate();
+    final Rate coalescedReads = new Rate();
+    final Rate broadcastEntries = new Rate();
+    final StatsBuckets recoveryTimeMs = new StatsBuckets(RECOVERY_TIME_BUCKETS_MS);
 
     public ManagedLedgerFactoryMBeanImpl(ManagedLedgerFactoryImpl factory) throws Exception {
         this.factory = factory;
@@ -41,6 +49,10 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
         cacheHits.calculateRate(seconds);
         cacheMisses.calculateRate(seconds);
         cacheEvictions.calculateRate(seconds);
+        cacheAdmissionRejections.calculateRate(seconds);
+        coalescedReads.calculateRate(seconds);
+        broadcastEntries.calculateRate(seconds);
+        recoveryTimeMs.refresh();
     }
 
     public void recordCacheHit(long size) {
@@ -59,6 +71,22 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
         cacheEvictions.recordEvent();
     }
 
+    public void recordCacheAdmissionRejected() {
+        cacheAdmissionRejections.recordEvent();
+    }
+
+    public void recordCoalescedReads(int count, long totalSize) {
+        coalescedReads.recordMultipleEvents(count, totalSize);
+    }
+
+    public void recordBroadcastEntry(long size) {
+        broadcastEntries.recordEvent(size);
+    }
+
+    public void recordRecoveryTime(long time, TimeUnit unit) {
+        recoveryTimeMs.addValue(unit.toMillis(time));
+    }
+
     // //
 
     @Override
@@ -101,4 +129,56 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
         return cacheEvictions.getCount();
     }
 
+    @Override
+    public String getCacheEvictionPolicy() {
+        return factory.getEntryCacheManager().getEvictionPolicy().getName();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        double hits = cacheHits.getRate();
+        double total = hits + cacheMisses.getRate();
+        return total > 0 ? hits / total : 0;
+    }
+
+    @Override
+    public double getCacheAdmissionRejectionsRate() {
+        return cacheAdmissionRejections.getRate();
+    }
+
+    @Override
+    public double getCoalescedReadsRate() {
+        return coalescedReads.getRate();
+    }
+
+    @Override
+    public double getCoalescedReadsThroughput() {
+        return coalescedReads.getValueRate();
+    }
+
+    @Override
+    public double getBroadcastEntriesRate() {
+        return broadcastEntries.getRate();
+    }
+
+    @Override
+    public int getNumberOfPendingRecoveries() {
+        return factory.getNumberOfPendingRecoveries();
+    }
+
+    @Override
+    public int getNumberOfActiveRecoveries() {
+        return factory.getNumberOfActiveRecoveries();
+    }
+
+    @Override
+    public double getRecoveryTimeAverageMillis() {
+        return recoveryTimeMs.getCount() > 0 ? recoveryTimeMs.getAvg() : 0;
+    }
+
+    @Override
+    public long[] getRecoveryTimeBuckets() {
+        return recoveryTimeMs.getBuckets();
+    }
+
 }
@@ -31,6 +31,10 @@ import com.google.common.collect.Range;
 import com.google.common.util.concurrent.RateLimiter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -38,12 +42,16 @@ import java.util.NavigableMap;
 import java.util.Queue;
 import java.util.Random;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
@@ -56,10 +64,13 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks.AddEntryCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.CloseCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteCursorCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteLedgerCallback;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.OffloadCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.OpenCursorCallback;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntryCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.TerminateCallback;
 import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.LedgerOffloader;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedger;
 import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
@@ -72,10 +83,12 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException.MetaStoreException;
 import org.apache.bookkeeper.mledger.ManagedLedgerException.NonRecoverableLedgerException;
 import org.apache.bookkeeper.mledger.ManagedLedgerException.TooManyRequestsException;
 import org.apache.bookkeeper.mledger.ManagedLedgerMXBean;
+import org.apache.bookkeeper.mledger.OffloadedLedger;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl.VoidCallback;
 import org.apache.bookkeeper.mledger.impl.MetaStore.MetaStoreCallback;
 import org.apache.bookkeeper.mledger.impl.MetaStore.Stat;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo.LedgerInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.NestedPositionInfo;
@@ -104,9 +117,14 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
     private final MetaStore store;
 
     private final ConcurrentLongHashMap<CompletableFuture<LedgerHandle>> ledgerCache = new ConcurrentLongHashMap<>();
+    private final ConcurrentLongHashMap<CompletableFuture<OffloadedLedger>> offloadedLedgerCache =
+            new ConcurrentLongHashMap<>();
     private final NavigableMap<Long, LedgerInfo> ledgers = new ConcurrentSkipListMap<>();
     private volatile Stat ledgersStat;
 
+    // Meta-data of the existing cursors, read from the store while the ledgers are being recovered
+    private CompletableFuture<Map<String, Pair<ManagedCursorInfo, Stat>>> recoveringCursorsInfo;
+
     private final ManagedCursorContainer cursors = new ManagedCursorContainer();
     private final ManagedCursorContainer activeCursors = new ManagedCursorContainer();
 
@@ -142,8 +160,10 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
      */
     private final CallbackMutex ledgersListMutex = new CallbackMutex();
     private final CallbackMutex trimmerMutex = new CallbackMutex();
+    private final CallbackMutex offloadMutex = new CallbackMutex();
 
     private volatile LedgerHandle currentLedger;
+    private volatile PublishTimeIndex currentLedgerPublishTimeIndex;
     private long currentLedgerEntries = 0;
     private long currentLedgerSize = 0;
     private long lastLedgerCreatedTimestamp = 0;
@@ -197,6 +217,22 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
      */
     final Queue<OpAddEntry> pendingAddEntries = new UnboundArrayBlockingQueue<>();
 
+    /**
+     * Add operations submitted by the producers and not yet handed to the managed ledger. Producers only append to this
+     * lock-free queue, which is drained in order by the thread of the ordered executor assigned to this managed ledger.
+     */
+    private final Queue<OpAddEntry> incomingAddEntries = new ConcurrentLinkedQueue<>();
+
+    private static final int FALSE = 0;
+    private static final int TRUE = 1;
+    private static final AtomicIntegerFieldUpdater<ManagedLedgerImpl> ADD_DRAIN_SCHEDULED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ManagedLedgerImpl.class, "addDrainScheduled");
+    @SuppressWarnings("unused")
+    private volatile int addDrainScheduled = FALSE;
+
+    // Max number of queued add operations handled while holding the ledger monitor
+    private static final int MaxAddEntriesPerDrain = 1000;
+
     // //////////////////////////////////////////////////////////////////////
 
     public ManagedLedgerImpl(ManagedLedgerFactoryImpl factory, BookKeeper bookKeeper, MetaStore store,
@@ -232,6 +268,10 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             @Override
             public void operationComplete(ManagedLedgerInfo mlInfo, Stat stat) {
                 ledgersStat = stat;
+
+                // The cursors meta-data doesn't depend on the ledgers recovery, start reading it right away
+                recoveringCursorsInfo = readCursorsInfo();
+
                 if (mlInfo.hasTerminatedPosition()) {
                     state = State.Terminated;
                     lastConfirmedEntry = new PositionImpl(mlInfo.getTerminatedPosition());
@@ -242,8 +282,9 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                     ledgers.put(ls.getLedgerId(), ls);
                 }
 
-                // Last ledger stat may be zeroed, we must update it
-                if (ledgers.size() > 0) {
+                // Last ledger stat may be zeroed, we must update it. An offloaded ledger was already closed and is no
+                // longer in BookKeeper
+                if (ledgers.size() > 0 && !ledgers.lastEntry().getValue().getOffloaded()) {
                     final long id = ledgers.lastKey();
                     OpenCallback opencb = (rc, lh, ctx1) -> {
                         executor.submitOrdered(name, safeRun(() -> {
@@ -252,10 +293,14 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                                 log.debug("[{}] Opened ledger {}: ", name, id, BKException.getMessage(rc));
                             }
                             if (rc == BKException.Code.OK) {
-                                LedgerInfo info = LedgerInfo.newBuilder().setLedgerId(id)
+                                LedgerInfo.Builder info = LedgerInfo.newBuilder().setLedgerId(id)
                                         .setEntries(lh.getLastAddConfirmed() + 1).setSize(lh.getLength())
-                                        .setTimestamp(System.currentTimeMillis()).build();
-                                ledgers.put(id, info);
+                                        .setTimestamp(System.currentTimeMillis());
+                                LedgerInfo lastLedgerInfo = ledgers.get(id);
+                                if (lastLedgerInfo != null && lastLedgerInfo.hasPublishTimeIndex()) {
+                                    info.setPublishTimeIndex(lastLedgerInfo.getPublishTimeIndex());
+                                }
+                                ledgers.put(id, info.build());
                                 initializeBookKeeper(callback);
                             } else if (rc == BKException.Code.NoSuchLedgerExistsException) {
                                 log.warn("[{}] Ledger not found: {}", name, ledgers.lastKey());
@@ -344,6 +389,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                         log.info("[{}] Created ledger {}", name, lh.getId());
                         STATE_UPDATER.set(this, State.LedgerOpened);
                         lastLedgerCreatedTimestamp = System.currentTimeMillis();
+                        currentLedgerPublishTimeIndex = newPublishTimeIndex();
                         currentLedger = lh;
                         lastConfirmedEntry = new PositionImpl(lh.getId(), -1);
                         LedgerInfo info = LedgerInfo.newBuilder().setLedgerId(lh.getId()).setTimestamp(0).build();
@@ -355,50 +401,39 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                 }, null);
     }
 
-    private void initializeCursors(final ManagedLedgerInitializeLedgerCallback callback) {
-        if (log.isDebugEnabled()) {
-            log.debug("[{}] initializing cursors", name);
-        }
+    /**
+     * Read the list of cursors and the meta-data of each of them, issuing all the reads to the store concurrently.
+     */
+    private CompletableFuture<Map<String, Pair<ManagedCursorInfo, Stat>>> readCursorsInfo() {
+        CompletableFuture<Map<String, Pair<ManagedCursorInfo, Stat>>> future = new CompletableFuture<>();
         store.getCursors(name, new MetaStoreCallback<List<String>>() {
             @Override
             public void operationComplete(List<String> consumers, Stat s) {
-                // Load existing cursors
-                final AtomicInteger cursorCount = new AtomicInteger(consumers.size());
                 if (log.isDebugEnabled()) {
                     log.debug("[{}] Found {} cursors", name, consumers.size());
                 }
 
                 if (consumers.isEmpty()) {
-                    callback.initializeComplete();
+                    future.complete(Collections.emptyMap());
                     return;
                 }
 
+                final Map<String, Pair<ManagedCursorInfo, Stat>> cursorsInfo = new ConcurrentHashMap<>();
+                final AtomicInteger pendingReads = new AtomicInteger(consumers.size());
                 for (final String cursorName : consumers) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("[{}] Loading cursor {}", name, cursorName);
-                    }
-                    final ManagedCursorImpl cursor;
-                    cursor = new ManagedCursorImpl(bookKeeper, config, ManagedLedgerImpl.this, cursorName);
-
-                    cursor.recover(new VoidCallback() {
+                    store.asyncGetCursorInfo(name, cursorName, new MetaStoreCallback<ManagedCursorInfo>() {
                         @Override
-                        public void operationComplete() {
-                            log.info("[{}] Recovery for cursor {} completed. pos={} -- todo={}", name, cursorName,
-                                    cursor.getMarkDeletedPosition(), cursorCount.get() - 1);
-                            cursor.setActive();
-                            cursors.add(cursor);
-
-                            if (cursorCount.decrementAndGet() == 0) {
-                                // The initialization is now completed, register the jmx mbean
-                                callback.initializeComplete();
+                        public void operationComplete(ManagedCursorInfo info, Stat stat) {
+                            cursorsInfo.put(cursorName, Pair.create(info, stat));
+                            if (pendingReads.decrementAndGet() == 0) {
+                                future.complete(cursorsInfo);
                             }
                         }
 
                         @Override
-                        public void operationFailed(ManagedLedgerException exception) {
-                            log.warn("[{}] Recovery for cursor {} failed", name, cursorName, exception);
-                            cursorCount.set(-1);
-                            callback.initializeFailed(exception);
+                        public void operationFailed(MetaStoreException e) {
+                            log.warn("[{}] Failed to read the meta-data of cursor {}", name, cursorName, e);
+                            future.completeExceptionally(e);
                         }
                     });
                 }
@@ -407,9 +442,61 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             @Override
             public void operationFailed(MetaStoreException e) {
                 log.warn("[{}] Failed to get the cursors list", name, e);
-                callback.initializeFailed(new ManagedLedgerException(e));
+                future.completeExceptionally(e);
             }
         });
+        return future;
+    }
+
+    private void initializeCursors(final ManagedLedgerInitializeLedgerCallback callback) {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] initializing cursors", name);
+        }
+        recoveringCursorsInfo.whenComplete((cursorsInfo, ex) -> {
+            recoveringCursorsInfo = null;
+            if (ex != null) {
+                callback.initializeFailed(new ManagedLedgerException(ex));
+                return;
+            }
+
+            if (cursorsInfo.isEmpty()) {
+                callback.initializeComplete();
+                return;
+            }
+
+            // Load existing cursors
+            final AtomicInteger cursorCount = new AtomicInteger(cursorsInfo.size());
+            cursorsInfo.forEach((cursorName, cursorInfo) -> {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Loading cursor {}", name, cursorName);
+                }
+                final ManagedCursorImpl cursor;
+                cursor = new ManagedCursorImpl(bookKeeper, config, ManagedLedgerImpl.this, cursorName);
+
+                log.info("[{}] Recovering cursor {}", name, cursorName);
+                cursor.recover(cursorInfo.first, cursorInfo.second, new VoidCallback() {
+                    @Override
+                    public void operationComplete() {
+                        log.info("[{}] Recovery for cursor {} completed. pos={} -- todo={}", name, cursorName,
+                                cursor.getMarkDeletedPosition(), cursorCount.get() - 1);
+                        cursor.setActive();
+                        cursors.add(cursor);
+
+                        if (cursorCount.decrementAndGet() == 0) {
+                            // The initialization is now completed, register the jmx mbean
+                            callback.initializeComplete();
+                        }
+                    }
+
+                    @Override
+                    public void operationFailed(ManagedLedgerException exception) {
+                        log.warn("[{}] Recovery for cursor {} failed", name, cursorName, exception);
+                        cursorCount.set(-1);
+                        callback.initializeFailed(exception);
+                    }
+                });
+            });
+        });
     }
 
     @Override
@@ -470,7 +557,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
     }
 
     @Override
-    public synchronized void asyncAddEntry(ByteBuf buffer, AddEntryCallback callback, Object ctx) {
+    public void asyncAddEntry(ByteBuf buffer, AddEntryCallback callback, Object ctx) {
         if (log.isDebugEnabled()) {
             log.debug("[{}] asyncAddEntry size={} state={}", name, buffer.readableBytes(), state);
         }
@@ -487,6 +574,66 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         }
 
         OpAddEntry addOperation = OpAddEntry.create(this, buffer, callback, ctx);
+        incomingAddEntries.add(addOperation);
+
+        // Only one drain task is scheduled at a time, all the adds queued in the meantime will be handled by it
+        if (ADD_DRAIN_SCHEDULED_UPDATER.compareAndSet(this, FALSE, TRUE)) {
+            scheduleDrainIncomingAddEntries();
+        }
+    }
+
+    private void scheduleDrainIncomingAddEntries() {
+        try {
+            executor.submitOrdered(name, safeRun(this::drainIncomingAddEntries));
+        } catch (RejectedExecutionException e) {
+            // The executor is shutting down, nothing else would drain the queued adds so fail them. The flag is reset
+            // first, so that an add queued after the queue was emptied schedules its own drain
+            log.warn("[{}] Failed to schedule the queued add operations: {}", name, e.getMessage());
+            ADD_DRAIN_SCHEDULED_UPDATER.set(this, FALSE);
+            ManagedLedgerException mle = new ManagedLedgerException(e);
+            OpAddEntry addOperation;
+            while ((addOperation = incomingAddEntries.poll()) != null) {
+                failAddEntry(addOperation, mle);
+            }
+        }
+    }
+
+    /**
+     * Hands the queued add operations to the current ledger, in the same order they were submitted. This always runs
+     * in the thread of the ordered executor assigned to this managed ledger, so the ledger monitor is acquired once per
+     * batch of adds rather than once per add by each of the producer threads.
+     */
+    private void drainIncomingAddEntries() {
+        ADD_DRAIN_SCHEDULED_UPDATER.set(this, FALSE);
+
+        synchronized (this) {
+            OpAddEntry addOperation;
+            int count = 0;
+            while (count++ < MaxAddEntriesPerDrain && (addOperation = incomingAddEntries.poll()) != null) {
+                internalAsyncAddEntry(addOperation);
+            }
+        }
+
+        // Yield to the other tasks of this managed ledger (eg: add completions) before draining the next batch
+        if (!incomingAddEntries.isEmpty() && ADD_DRAIN_SCHEDULED_UPDATER.compareAndSet(this, FALSE, TRUE)) {
+            scheduleDrainIncomingAddEntries();
+        }
+    }
+
+    private synchronized void internalAsyncAddEntry(OpAddEntry addOperation) {
+        final State state = STATE_UPDATER.get(this);
+        if (state == State.Fenced) {
+            failAddEntry(addOperation, new ManagedLedgerFencedException());
+            return;
+        } else if (state == State.Terminated) {
+            failAddEntry(addOperation,
+                    new ManagedLedgerTerminatedException("Managed ledger was already terminated"));
+            return;
+        } else if (state == State.Closed) {
+            failAddEntry(addOperation, new ManagedLedgerException("Managed ledger was already closed"));
+            return;
+        }
+
         pendingAddEntries.add(addOperation);
 
         if (state == State.ClosingLedger || state == State.CreatingLedger) {
@@ -500,7 +647,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             if (now < lastLedgerCreationFailureTimestamp + WaitTimeAfterLedgerCreationFailureMs) {
                 // Deny the write request, since we haven't waited enough time since last attempt to create a new ledger
                 pendingAddEntries.remove(addOperation);
-                callback.addFailed(new ManagedLedgerException("Waiting for new ledger creation to complete"), ctx);
+                failAddEntry(addOperation, new ManagedLedgerException("Waiting for new ledger creation to complete"));
                 return;
             }
 
@@ -512,7 +659,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                 this.lastLedgerCreationInitiationTimestamp = System.nanoTime();
                 mbean.startDataLedgerCreateOp();
                 bookKeeper.asyncCreateLedger(config.getEnsembleSize(), config.getWriteQuorumSize(),
-                        config.getAckQuorumSize(), config.getDigestType(), config.getPassword(), this, ctx);
+                        config.getAckQuorumSize(), config.getDigestType(), config.getPassword(), this, null);
             }
         } else {
             checkArgument(state == State.LedgerOpened, "ledger=%s is not opened", state);
@@ -521,7 +668,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             addOperation.setLedger(currentLedger);
 
             ++currentLedgerEntries;
-            currentLedgerSize += buffer.readableBytes();
+            currentLedgerSize += addOperation.data.readableBytes();
 
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Write into current ledger lh={} entries={}", name, currentLedger.getId(),
@@ -541,6 +688,11 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         }
     }
 
+    private static void failAddEntry(OpAddEntry addOperation, ManagedLedgerException e) {
+        addOperation.data.release();
+        addOperation.failed(e);
+    }
+
     @Override
     public ManagedCursor openCursor(String cursorName) throws InterruptedException, ManagedLedgerException {
         final CountDownLatch counter = new CountDownLatch(1);
@@ -966,6 +1118,251 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         return result.lastPosition;
     }
 
+    @Override
+    public Position offloadPrefix(Position pos) throws InterruptedException, ManagedLedgerException {
+        final CountDownLatch counter = new CountDownLatch(1);
+        class Result {
+            Position firstUnoffloaded = null;
+            ManagedLedgerException exception = null;
+        }
+        final Result result = new Result();
+
+        asyncOffloadPrefix(pos, new OffloadCallback() {
+            @Override
+            public void offloadComplete(Position firstUnoffloaded, Object ctx) {
+                result.firstUnoffloaded = firstUnoffloaded;
+                counter.countDown();
+            }
+
+            @Override
+            public void offloadFailed(ManagedLedgerException exception, Object ctx) {
+                result.exception = exception;
+                counter.countDown();
+            }
+
+        }, null);
+
+        // Offloading copies whole ledgers, so there is no timeout on the operation
+        counter.await();
+
+        if (result.exception != null) {
+            log.error("[{}] Error offloading managed ledger", name, result.exception);
+            throw result.exception;
+        }
+
+        return result.firstUnoffloaded;
+    }
+
+    @Override
+    public void asyncOffloadPrefix(Position pos, OffloadCallback callback, Object ctx) {
+        final LedgerOffloader offloader = config.getLedgerOffloader();
+        final State state = STATE_UPDATER.get(this);
+        if (offloader == null) {
+            callback.offloadFailed(new ManagedLedgerException("No ledger offloader is configured"), ctx);
+            return;
+        } else if (state == State.Fenced) {
+            callback.offloadFailed(new ManagedLedgerFencedException(), ctx);
+            return;
+        } else if (state == State.Closed) {
+            callback.offloadFailed(new ManagedLedgerAlreadyClosedException("Managed ledger was already closed"), ctx);
+            return;
+        }
+
+        // Ensure only one offload operation is active
+        if (!offloadMutex.tryLock()) {
+            callback.offloadFailed(new ManagedLedgerException("An offload operation is already in progress"), ctx);
+            return;
+        }
+
+        final PositionImpl position = (PositionImpl) pos;
+        final Deque<LedgerInfo> ledgersToOffload = new ArrayDeque<>();
+        synchronized (this) {
+            for (LedgerInfo ls : ledgers.headMap(position.getLedgerId(), false).values()) {
+                // The current ledger is still open, and empty ledgers have nothing to offload
+                if (!ls.getOffloaded() && ls.getEntries() > 0 && ls.getLedgerId() != currentLedger.getId()) {
+                    ledgersToOffload.add(ls);
+                }
+            }
+        }
+
+        log.info("[{}] Offloading {} ledgers before {}", name, ledgersToOffload.size(), position);
+
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        offloadNextLedger(offloader, ledgersToOffload, promise);
+        promise.whenComplete((result, ex) -> {
+            offloadMutex.unlock();
+            if (ex != null) {
+                log.warn("[{}] Failed to offload ledgers before {}: {}", name, position, ex.getMessage());
+                callback.offloadFailed(ManagedLedgerException.getManagedLedgerException(ex), ctx);
+            } else {
+                callback.offloadComplete(getFirstPositionInBookKeeper(), ctx);
+            }
+        });
+    }
+
+    // Offload the ledgers one at a time, to bound the load put on the bookies and on the offloader
+    private void offloadNextLedger(LedgerOffloader offloader, Deque<LedgerInfo> ledgersToOffload,
+            CompletableFuture<Void> promise) {
+        LedgerInfo info = ledgersToOffload.poll();
+        if (info == null) {
+            promise.complete(null);
+            return;
+        }
+
+        final long ledgerId = info.getLedgerId();
+        if (!ledgers.containsKey(ledgerId)) {
+            // Ledger was trimmed in the meantime
+            offloadNextLedger(offloader, ledgersToOffload, promise);
+            return;
+        }
+
+        getLedgerHandle(ledgerId).thenCompose(lh -> offloader.offload(name, lh)).whenComplete((result, ex) -> {
+            if (ex != null) {
+                promise.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+                return;
+            }
+
+            CompletableFuture<Void> updateFuture = new CompletableFuture<>();
+            markLedgerOffloaded(ledgerId, updateFuture);
+            updateFuture.whenComplete((result1, ex1) -> {
+                if (ex1 != null) {
+                    promise.completeExceptionally(ex1);
+                } else {
+                    offloadNextLedger(offloader, ledgersToOffload, promise);
+                }
+            });
+        });
+    }
+
+    private void markLedgerOffloaded(long ledgerId, CompletableFuture<Void> future) {
+        if (!ledgersListMutex.tryLock()) {
+            // Defer update for later
+            scheduledExecutor.schedule(safeRun(() -> markLedgerOffloaded(ledgerId, future)), 100,
+                    TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        final LedgerInfo info;
+        synchronized (this) {
+            info = ledgers.get(ledgerId);
+            if (info == null) {
+                // Ledger was trimmed while being offloaded, the copy is not needed anymore
+                ledgersListMutex.unlock();
+                deleteOffloadedLedger(ledgerId);
+                future.complete(null);
+                return;
+            }
+
+            ledgers.put(ledgerId, info.toBuilder().setOffloaded(true).build());
+        }
+
+        store.asyncUpdateLedgerIds(name, getManagedLedgerInfo(), ledgersStat, new MetaStoreCallback<Void>() {
+            @Override
+            public void operationComplete(Void result, Stat stat) {
+                log.info("[{}] Offloaded ledger {} - size: {}", name, ledgerId, info.getSize());
+                ledgersStat = stat;
+                ledgersListMutex.unlock();
+
+                // Reads are now served from the offloaded copy, close the handle used to read the ledger from the
+                // bookies, once it is opened if the open is still in progress
+                CompletableFuture<LedgerHandle> ledgerHandle = ledgerCache.remove(ledgerId);
+                if (ledgerHandle != null) {
+                    ledgerHandle.thenAccept(lh -> lh.asyncClose((rc, lh1, ctx1) -> {
+                        if (rc != BKException.Code.OK) {
+                            log.warn("[{}] Failed to close the handle of offloaded ledger {}: {}", name, ledgerId,
+                                    BKException.getMessage(rc));
+                        }
+                    }, null));
+                }
+                asyncDeleteLedger(ledgerId);
+                future.complete(null);
+            }
+
+            @Override
+            public void operationFailed(MetaStoreException e) {
+                log.warn("[{}] Failed to update the list of ledgers after offloading ledger {}", name, ledgerId, e);
+                synchronized (ManagedLedgerImpl.this) {
+                    if (ledgers.containsKey(ledgerId)) {
+                        ledgers.put(ledgerId, info);
+                    }
+                }
+                ledgersListMutex.unlock();
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void offloadLedgersInBackground() {
+        if (config.getLedgerOffloader() == null || config.getOffloadAutoTriggerSizeThresholdBytes() < 0) {
+            return;
+        }
+
+        executor.submitOrdered(name, safeRun(() -> {
+            long threshold = config.getOffloadAutoTriggerSizeThresholdBytes();
+            PositionImpl offloadPosition = null;
+            synchronized (this) {
+                long sizeInBookKeeper = 0;
+                for (LedgerInfo ls : ledgers.values()) {
+                    if (!ls.getOffloaded()) {
+                        sizeInBookKeeper += ls.getSize();
+                    }
+                }
+
+                // Offload the oldest ledgers until the data left in BookKeeper is below the threshold
+                for (LedgerInfo ls : ledgers.values()) {
+                    if (sizeInBookKeeper <= threshold || ls.getLedgerId() == currentLedger.getId()) {
+                        break;
+                    }
+                    if (!ls.getOffloaded()) {
+                        sizeInBookKeeper -= ls.getSize();
+                    }
+                    Long nextLedgerId = ledgers.higherKey(ls.getLedgerId());
+                    if (nextLedgerId == null) {
+                        break;
+                    }
+                    offloadPosition = PositionImpl.get(nextLedgerId, 0);
+                }
+            }
+
+            if (offloadPosition == null) {
+                return;
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Size in BookKeeper over offload threshold of {} bytes, offloading up to {}", name,
+                        threshold, offloadPosition);
+            }
+            asyncOffloadPrefix(offloadPosition, new OffloadCallback() {
+                @Override
+                public void offloadComplete(Position pos, Object ctx) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] Automatic offload complete, first position in BookKeeper: {}", name, pos);
+                    }
+                }
+
+                @Override
+                public void offloadFailed(ManagedLedgerException exception, Object ctx) {
+                    log.warn("[{}] Automatic offload failed: {}", name, exception.getMessage());
+                }
+            }, null);
+        }));
+    }
+
+    // Returns the first position whose ledger is still stored in BookKeeper
+    private synchronized PositionImpl getFirstPositionInBookKeeper() {
+        for (LedgerInfo ls : ledgers.values()) {
+            if (!ls.getOffloaded()) {
+                return PositionImpl.get(ls.getLedgerId(), 0);
+            }
+        }
+        return PositionImpl.get(currentLedger.getId(), 0);
+    }
+
+    boolean isOffloaded(long ledgerId) {
+        LedgerInfo info = ledgers.get(ledgerId);
+        return info != null && info.getOffloaded();
+    }
+
     @Override
     public boolean isTerminated() {
         return state == State.Terminated;
@@ -1022,6 +1419,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
 
         factory.close(this);
         STATE_UPDATER.set(this, State.Closed);
+        closeOffloadedLedgers();
 
         LedgerHandle lh = currentLedger;
 
@@ -1087,6 +1485,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         } else {
             log.info("[{}] Created new ledger {}", name, lh.getId());
             ledgers.put(lh.getId(), LedgerInfo.newBuilder().setLedgerId(lh.getId()).setTimestamp(0).build());
+            currentLedgerPublishTimeIndex = newPublishTimeIndex();
             currentLedger = lh;
             currentLedgerEntries = 0;
             currentLedgerSize = 0;
@@ -1214,9 +1613,13 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             log.debug("[{}] Ledger has been closed id={} entries={}", name, lh.getId(), entriesInLedger);
         }
         if (entriesInLedger > 0) {
-            LedgerInfo info = LedgerInfo.newBuilder().setLedgerId(lh.getId()).setEntries(entriesInLedger)
-                    .setSize(lh.getLength()).setTimestamp(System.currentTimeMillis()).build();
-            ledgers.put(lh.getId(), info);
+            LedgerInfo.Builder info = LedgerInfo.newBuilder().setLedgerId(lh.getId()).setEntries(entriesInLedger)
+                    .setSize(lh.getLength()).setTimestamp(System.currentTimeMillis());
+            PublishTimeIndex publishTimeIndex = currentLedgerPublishTimeIndex;
+            if (publishTimeIndex != null && lh == currentLedger && !publishTimeIndex.isEmpty()) {
+                info.setPublishTimeIndex(publishTimeIndex.toByteString());
+            }
+            ledgers.put(lh.getId(), info.build());
         } else {
             // The last ledger was empty, so we can discard it
             ledgers.remove(lh.getId());
@@ -1228,6 +1631,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         }
 
         trimConsumedLedgersInBackground();
+        offloadLedgersInBackground();
 
         if (!pendingAddEntries.isEmpty()) {
             // Need to create a new ledger to write pending entries
@@ -1242,6 +1646,94 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         }
     }
 
+    private PublishTimeIndex newPublishTimeIndex() {
+        int interval = config.getPublishTimeIndexInterval();
+        return interval > 0 ? new PublishTimeIndex(interval) : null;
+    }
+
+    /**
+     * Add the publish time of a persisted entry to the index of the current ledger, if the entry is sampled.
+     */
+    void updatePublishTimeIndex(LedgerHandle lh, long entryId, ByteBuf data) {
+        PublishTimeIndex publishTimeIndex = currentLedgerPublishTimeIndex;
+        if (publishTimeIndex == null || lh != currentLedger || !publishTimeIndex.shouldSample(entryId)) {
+            return;
+        }
+
+        MessageMetadata msgMetadata = null;
+        try {
+            msgMetadata = Commands.parseMessageMetadata(data.duplicate());
+            publishTimeIndex.add(entryId, msgMetadata.getPublishTime());
+        } catch (Throwable t) {
+            // The entry doesn't contain a message, leave it out of the index
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Failed to parse publish time of entry {}:{}: {}", name, lh.getId(), entryId,
+                        t.getMessage());
+            }
+        } finally {
+            if (msgMetadata != null) {
+                msgMetadata.recycle();
+            }
+        }
+    }
+
+    private PublishTimeIndex getPublishTimeIndex(LedgerInfo ls, LedgerHandle currentLedger,
+            PublishTimeIndex currentLedgerPublishTimeIndex) {
+        if (ls.hasPublishTimeIndex()) {
+            try {
+                return PublishTimeIndex.parseFrom(ls.getPublishTimeIndex());
+            } catch (IOException e) {
+                log.warn("[{}] Invalid publish time index for ledger {}: {}", name, ls.getLedgerId(), e.getMessage());
+                return null;
+            }
+        } else if (currentLedger != null && ls.getLedgerId() == currentLedger.getId()) {
+            return currentLedgerPublishTimeIndex;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Use the publish time index of the ledgers to narrow down the range of positions that contains the newest entry
+     * published at or before the given timestamp, without reading any entry.
+     *
+     * <p/>Ledgers without an index, such as the ledgers written before the index was enabled, are simply included in
+     * the range when they are between two indexed ledgers.
+     *
+     * @param timestamp
+     *            the publish time to look up
+     * @return the range of positions to search, or null if no indexed entry was published at or before the timestamp
+     */
+    Range<PositionImpl> getPublishTimeSearchRange(long timestamp) {
+        LedgerHandle currentLedger = this.currentLedger;
+        PublishTimeIndex currentLedgerPublishTimeIndex = this.currentLedgerPublishTimeIndex;
+
+        // Lower bound of the ledgers that only contain entries published after the timestamp
+        PositionImpl upperBound = null;
+        for (LedgerInfo ls : ledgers.descendingMap().values()) {
+            PublishTimeIndex publishTimeIndex = getPublishTimeIndex(ls, currentLedger, currentLedgerPublishTimeIndex);
+            if (publishTimeIndex == null || publishTimeIndex.isEmpty()) {
+                continue;
+            }
+
+            long higherEntry = publishTimeIndex.higherEntry(timestamp);
+            if (higherEntry != -1) {
+                upperBound = PositionImpl.get(ls.getLedgerId(), higherEntry);
+            }
+
+            long floorEntry = publishTimeIndex.floorEntry(timestamp);
+            if (floorEntry != -1) {
+                PositionImpl lowerBound = PositionImpl.get(ls.getLedgerId(), floorEntry);
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Publish time {} is between {} and {}", name, timestamp, lowerBound, upperBound);
+                }
+                return upperBound != null ? Range.closedOpen(lowerBound, upperBound) : Range.atLeast(lowerBound);
+            }
+        }
+
+        return null;
+    }
+
     void clearPendingAddEntries(ManagedLedgerException e) {
         while (!pendingAddEntries.isEmpty()) {
             OpAddEntry op = pendingAddEntries.poll();
@@ -1276,6 +1768,19 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                 return;
             }
 
+            if (ledgerInfo.getOffloaded()) {
+                getOffloadedLedger(ledgerId).thenAccept(ledger -> {
+                    internalReadFromOffloadedLedger(ledger, opReadEntry);
+                }).exceptionally(ex -> {
+                    log.error("[{}] Error opening offloaded ledger for reading at position {} - {}", name,
+                            opReadEntry.readPosition, ex.getMessage());
+                    opReadEntry.readEntriesFailed(ManagedLedgerException.getManagedLedgerException(ex.getCause()),
+                            opReadEntry.ctx);
+                    return null;
+                });
+                return;
+            }
+
             // Get a ledger handle to read from
             getLedgerHandle(ledgerId).thenAccept(ledger -> {
                 internalReadFromLedger(ledger, opReadEntry);
@@ -1323,6 +1828,50 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         });
     }
 
+    CompletableFuture<OffloadedLedger> getOffloadedLedger(long ledgerId) {
+        CompletableFuture<OffloadedLedger> offloadedLedger = offloadedLedgerCache.get(ledgerId);
+        if (offloadedLedger != null) {
+            return offloadedLedger;
+        }
+
+        LedgerOffloader offloader = config.getLedgerOffloader();
+        if (offloader == null) {
+            CompletableFuture<OffloadedLedger> future = new CompletableFuture<>();
+            future.completeExceptionally(new ManagedLedgerException(
+                    "Ledger " + ledgerId + " was offloaded, but no ledger offloader is configured"));
+            return future;
+        }
+
+        // If not present try again and create if necessary
+        return offloadedLedgerCache.computeIfAbsent(ledgerId, lid -> {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Asynchronously opening offloaded ledger {} for read", name, ledgerId);
+            }
+            CompletableFuture<OffloadedLedger> future = new CompletableFuture<>();
+            offloader.openOffloadedLedger(name, ledgerId).whenComplete((ledger, ex) -> {
+                if (ex != null) {
+                    // Remove the ledger future from cache to give chance to reopen it later
+                    offloadedLedgerCache.remove(ledgerId, future);
+                    future.completeExceptionally(ManagedLedgerException.getManagedLedgerException(ex));
+                } else {
+                    future.complete(ledger);
+                }
+            });
+            return future;
+        });
+    }
+
+    private void closeOffloadedLedger(long ledgerId) {
+        CompletableFuture<OffloadedLedger> future = offloadedLedgerCache.remove(ledgerId);
+        if (future != null) {
+            future.thenAccept(OffloadedLedger::close);
+        }
+    }
+
+    private void closeOffloadedLedgers() {
+        offloadedLedgerCache.keys().forEach(this::closeOffloadedLedger);
+    }
+
     void invalidateLedgerHandle(LedgerHandle ledgerHandle, int rc) {
         long ledgerId = ledgerHandle.getId();
         if (ledgerId != currentLedger.getId()) {
@@ -1346,6 +1895,31 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         if (position.getLedgerId() == currentLedger.getId()) {
             LedgerHandle ledger = currentLedger;
             entryCache.asyncReadEntry(ledger, position, callback, ctx);
+        } else if (isOffloaded(position.getLedgerId())) {
+            getOffloadedLedger(position.getLedgerId()).thenAccept(ledger -> {
+                entryCache.asyncReadEntry(ledger, position.getEntryId(), position.getEntryId(),
+                        new ReadEntriesCallback() {
+                            @Override
+                            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                                if (entries.isEmpty()) {
+                                    callback.readEntryFailed(
+                                            new ManagedLedgerException("Could not read given position"), ctx);
+                                } else {
+                                    callback.readEntryComplete(entries.get(0), ctx);
+                                }
+                            }
+
+                            @Override
+                            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                                callback.readEntryFailed(exception, ctx);
+                            }
+                        }, ctx);
+            }).exceptionally(ex -> {
+                log.error("[{}] Error opening offloaded ledger for reading at position {} - {}", name, position,
+                        ex.getMessage());
+                callback.readEntryFailed(ManagedLedgerException.getManagedLedgerException(ex.getCause()), ctx);
+                return null;
+            });
         } else {
             getLedgerHandle(position.getLedgerId()).thenAccept(ledger -> {
                 entryCache.asyncReadEntry(ledger, position, callback, ctx);
@@ -1358,6 +1932,37 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
 
     }
 
+    /**
+     * Read a range of entries of a single ledger, regardless of the position of any cursor.
+     */
+    void asyncReadEntries(long ledgerId, long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx) {
+        LedgerHandle currentLedger = this.currentLedger;
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Reading entries from ledger {} - first={} last={}", name, ledgerId, firstEntry, lastEntry);
+        }
+        if (ledgerId == currentLedger.getId()) {
+            entryCache.asyncReadEntry(currentLedger, firstEntry, lastEntry, false, callback, ctx);
+        } else if (isOffloaded(ledgerId)) {
+            getOffloadedLedger(ledgerId).thenAccept(ledger -> {
+                entryCache.asyncReadEntry(ledger, firstEntry, lastEntry, callback, ctx);
+            }).exceptionally(ex -> {
+                log.error("[{}] Error opening offloaded ledger {} for reading entries {}-{} - {}", name, ledgerId,
+                        firstEntry, lastEntry, ex.getMessage());
+                callback.readEntriesFailed(ManagedLedgerException.getManagedLedgerException(ex.getCause()), ctx);
+                return null;
+            });
+        } else {
+            getLedgerHandle(ledgerId).thenAccept(ledger -> {
+                entryCache.asyncReadEntry(ledger, firstEntry, lastEntry, false, callback, ctx);
+            }).exceptionally(ex -> {
+                log.error("[{}] Error opening ledger {} for reading entries {}-{} - {}", name, ledgerId, firstEntry,
+                        lastEntry, ex.getMessage());
+                callback.readEntriesFailed(ManagedLedgerException.getManagedLedgerException(ex.getCause()), ctx);
+                return null;
+            });
+        }
+    }
+
     private void internalReadFromLedger(LedgerHandle ledger, OpReadEntry opReadEntry) {
 
         // Perform the read
@@ -1401,6 +2006,12 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         }
         entryCache.asyncReadEntry(ledger, firstEntry, lastEntry, false, opReadEntry, opReadEntry.ctx);
 
+        // While the entries are being read and dispatched, prefetch the next ones if the cursor is catching up
+        ReadAheadManager readAheadManager = factory.getReadAheadManager();
+        if (readAheadManager.isEnabled()) {
+            readAheadManager.onReadEntries(this, cursor, ledger, firstEntry, lastEntry, lastEntryInLedger);
+        }
+
         if (updateCursorRateLimit.tryAcquire()) {
             if (isCursorActive(cursor)) {
                 final PositionImpl lastReadPosition = PositionImpl.get(ledger.getId(), lastEntry);
@@ -1409,6 +2020,41 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         }
     }
 
+    private void internalReadFromOffloadedLedger(OffloadedLedger ledger, OpReadEntry opReadEntry) {
+        long firstEntry = opReadEntry.readPosition.getEntryId();
+        long lastEntryInLedger = ledger.getLastEntryId();
+
+        if (firstEntry > lastEntryInLedger) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] No more messages to read from offloaded ledger={} lastEntry={} readEntry={}", name,
+                        ledger.getId(), lastEntryInLedger, firstEntry);
+            }
+
+            // Cursor was placed past the end of the ledger, move it to the beginning of the next ledger
+            Long nextLedgerId = ledgers.ceilingKey(ledger.getId() + 1);
+            opReadEntry.updateReadPosition(new PositionImpl(nextLedgerId, 0));
+            opReadEntry.checkReadCompletion();
+            return;
+        }
+
+        long lastEntry = min(firstEntry + opReadEntry.getNumberOfEntriesToRead() - 1, lastEntryInLedger);
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Reading entries from offloaded ledger {} - first={} last={}", name, ledger.getId(),
+                    firstEntry, lastEntry);
+        }
+
+        // The offloaded ledger does its own read-ahead, so the ReadAheadManager is not involved here
+        entryCache.asyncReadEntry(ledger, firstEntry, lastEntry, opReadEntry, opReadEntry.ctx);
+
+        if (updateCursorRateLimit.tryAcquire()) {
+            if (isCursorActive(opReadEntry.cursor)) {
+                final PositionImpl lastReadPosition = PositionImpl.get(ledger.getId(), lastEntry);
+                discardEntriesFromCache(opReadEntry.cursor, lastReadPosition);
+            }
+        }
+    }
+
     @Override
     public ManagedLedgerMXBean getStats() {
         return mbean;
@@ -1464,13 +2110,51 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
     }
 
     void notifyCursors() {
+        notifyCursors(null);
+    }
+
+    /**
+     * Notify the cursors waiting for new entries.
+     *
+     * @param addedEntry
+     *            the entry that was just persisted, or null. The cursors waiting to read exactly this entry get it
+     *            directly, sharing its buffer, instead of each looking it up in the cache. Tailing cursors get it in
+     *            the current thread
+     */
+    void notifyCursors(EntryImpl addedEntry) {
+        List<ManagedCursorImpl> tailingCursors = null;
         while (true) {
             final ManagedCursorImpl waitingCursor = waitingCursors.poll();
             if (waitingCursor == null) {
                 break;
             }
 
-            executor.submit(safeRun(() -> waitingCursor.notifyEntriesAvailable()));
+            if (addedEntry != null && addedEntry.getPosition().equals(waitingCursor.getReadPosition())) {
+                if (waitingCursor.isTailing()) {
+                    if (tailingCursors == null) {
+                        tailingCursors = Lists.newArrayList();
+                    }
+                    tailingCursors.add(waitingCursor);
+                } else {
+                    final EntryImpl entry = EntryImpl.create(addedEntry);
+                    executor.submit(safeRun(() -> waitingCursor.notifyEntryAdded(entry)));
+                }
+            } else {
+                executor.submit(safeRun(() -> waitingCursor.notifyEntriesAvailable()));
+            }
+        }
+
+        if (tailingCursors != null) {
+            // Deliver only after draining the waiting cursors, since a tailing cursor can register again for
+            // notification from within its read callback
+            for (ManagedCursorImpl tailingCursor : tailingCursors) {
+                try {
+                    tailingCursor.notifyEntryAdded(EntryImpl.create(addedEntry));
+                } catch (Throwable t) {
+                    log.error("[{}] [{}] Failed to push entry {} to tailing cursor", name, tailingCursor.getName(),
+                            addedEntry.getPosition(), t);
+                }
+            }
         }
     }
 
@@ -1610,7 +2294,11 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
 
                     for (LedgerInfo ls : ledgersToDelete) {
                         log.info("[{}] Removing ledger {} - size: {}", name, ls.getLedgerId(), ls.getSize());
-                        asyncDeleteLedger(ls.getLedgerId());
+                        if (ls.getOffloaded()) {
+                            deleteOffloadedLedger(ls.getLedgerId());
+                        } else {
+                            asyncDeleteLedger(ls.getLedgerId());
+                        }
                     }
                 }
 
@@ -1727,6 +2415,24 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         }, null);
     }
 
+    private CompletableFuture<Void> deleteOffloadedLedger(long ledgerId) {
+        closeOffloadedLedger(ledgerId);
+
+        LedgerOffloader offloader = config.getLedgerOffloader();
+        if (offloader == null) {
+            log.warn("[{}] Cannot delete offloaded ledger {}, no ledger offloader is configured", name, ledgerId);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return offloader.deleteOffloadedLedger(name, ledgerId).whenComplete((result, ex) -> {
+            if (ex != null) {
+                log.warn("[{}] Failed to delete offloaded ledger {}: {}", name, ledgerId, ex.getMessage());
+            } else if (log.isDebugEnabled()) {
+                log.debug("[{}] Deleted offloaded ledger {}", name, ledgerId);
+            }
+        });
+    }
+
     @SuppressWarnings("checkstyle:fallthrough")
     private void deleteAllLedgers(DeleteLedgerCallback callback, Object ctx) {
         List<LedgerInfo> ledgers = Lists.newArrayList(ManagedLedgerImpl.this.ledgers.values());
@@ -1741,6 +2447,23 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Deleting ledger {}", name, ls);
             }
+            if (ls.getOffloaded()) {
+                deleteOffloadedLedger(ls.getLedgerId()).whenComplete((result, ex) -> {
+                    if (ex == null) {
+                        if (ledgersToDelete.decrementAndGet() == 0) {
+                            // All ledgers deleted, now remove ML metadata
+                            deleteMetadata(callback, ctx);
+                        }
+                    } else {
+                        int toDelete = ledgersToDelete.get();
+                        if (toDelete != -1 && ledgersToDelete.compareAndSet(toDelete, -1)) {
+                            // Trigger callback only once
+                            callback.deleteLedgerFailed(ManagedLedgerException.getManagedLedgerException(ex), ctx);
+                        }
+                    }
+                });
+                continue;
+            }
             bookKeeper.asyncDeleteLedger(ls.getLedgerId(), (rc, ctx1) -> {
                 switch (rc) {
                 case BKException.Code.NoSuchLedgerExistsException:
@@ -2170,7 +2893,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
     }
 
     public int getPendingAddEntriesCount() {
-        return pendingAddEntries.size();
+        return pendingAddEntries.size() + incomingAddEntries.size();
     }
 
     @Override
@@ -53,6 +53,9 @@ public class ManagedLedgerMBeanImpl implements ManagedLedgerMXBean {
     private final StatsBuckets ledgerSwitchLatencyStatsUsec = new StatsBuckets(ENTRY_LATENCY_BUCKETS_USEC);
     private final StatsBuckets entryStats = new StatsBuckets(ENTRY_SIZE_BUCKETS_BYTES);
 
+    private volatile long recoveryWaitTimeMs = 0;
+    private volatile long recoveryTimeMs = 0;
+
     public ManagedLedgerMBeanImpl(ManagedLedgerImpl managedLedger) {
         this.managedLedger = managedLedger;
     }
@@ -99,6 +102,11 @@ public class ManagedLedgerMBeanImpl implements ManagedLedgerMXBean {
         readEntriesOps.recordMultipleEvents(count, totalSize);
     }
 
+    public void recordRecoveryTime(long waitTime, long recoveryTime, TimeUnit unit) {
+        recoveryWaitTimeMs = unit.toMillis(waitTime);
+        recoveryTimeMs = unit.toMillis(recoveryTime);
+    }
+
     public void startDataLedgerOpenOp() {
         dataLedgerOpenOp.increment();
     }
@@ -283,4 +291,14 @@ public class ManagedLedgerMBeanImpl implements ManagedLedgerMXBean {
         return result;
     }
 
+    @Override
+    public long getRecoveryTimeMillis() {
+        return recoveryTimeMs;
+    }
+
+    @Override
+    public long getRecoveryWaitTimeMillis() {
+        return recoveryWaitTimeMs;
+    }
+
 }
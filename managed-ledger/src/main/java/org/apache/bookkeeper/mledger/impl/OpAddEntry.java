@@ -143,13 +143,16 @@ class OpAddEntry extends SafeRunnable implements AddCallback, CloseCallback {
 
         ManagedLedgerImpl.NUMBER_OF_ENTRIES_UPDATER.incrementAndGet(ml);
         ManagedLedgerImpl.TOTAL_SIZE_UPDATER.addAndGet(ml, dataLength);
+        ml.updatePublishTimeIndex(ledger, entryId, data);
+        EntryImpl addedEntry = null;
         if (ml.hasActiveCursors()) {
             // Avoid caching entries if no cursor has been created
-            EntryImpl entry = EntryImpl.create(ledger.getId(), entryId, data);
-            // EntryCache.insert: duplicates entry by allocating new entry and data. so, recycle entry after calling
-            // insert
-            ml.entryCache.insert(entry);
-            entry.release();
+            addedEntry = EntryImpl.create(ledger.getId(), entryId, data);
+            // Parse the message metadata once, at publish time, instead of on every dispatch of the entry
+            addedEntry.parseMessageMetadata();
+            // EntryCache.insert: duplicates entry by allocating new entry and data. The entry is kept until the
+            // waiting cursors are notified, to hand it to them directly
+            ml.entryCache.insert(addedEntry);
         }
 
         // We are done using the byte buffer
@@ -167,10 +170,14 @@ class OpAddEntry extends SafeRunnable implements AddCallback, CloseCallback {
             AddEntryCallback cb = callbackUpdater.getAndSet(this, null);
             if (cb != null) {
                 cb.addComplete(PositionImpl.get(ledger.getId(), entryId), ctx);
-                ml.notifyCursors();
+                ml.notifyCursors(addedEntry);
                 this.recycle();
             }
         }
+
+        if (addedEntry != null) {
+            addedEntry.release();
+        }
     }
 
     @Override
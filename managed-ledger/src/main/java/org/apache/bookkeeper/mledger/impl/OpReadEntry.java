@@ -23,6 +23,7 @@ import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
 import com.google.common.collect.Lists;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
+import java.util.Collections;
 import java.util.List;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.Entry;
@@ -77,6 +78,27 @@ class OpReadEntry implements ReadEntriesCallback {
         checkReadCompletion();
     }
 
+    /**
+     * Complete the read with the entry pushed by the managed ledger right after it was persisted. Unlike
+     * {@link #readEntriesComplete(List, Object)}, the callback is triggered in the current thread.
+     */
+    void pushedEntryComplete(Entry entry) {
+        final PositionImpl position = (PositionImpl) entry.getPosition();
+        List<Entry> filteredEntries = cursor.filterReadEntries(Collections.singletonList(entry));
+        if (filteredEntries.isEmpty()) {
+            // The entry was already individually deleted, continue with the regular read path
+            updateReadPosition(cursor.getNextAvailablePosition(position));
+            checkReadCompletion();
+            return;
+        }
+
+        entries.addAll(filteredEntries);
+        updateReadPosition(position.getNext());
+        cursor.readOperationCompleted();
+        callback.readEntriesComplete(entries, ctx);
+        recycle();
+    }
+
     @Override
     public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
         cursor.readOperationCompleted();
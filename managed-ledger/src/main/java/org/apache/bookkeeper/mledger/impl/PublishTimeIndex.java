@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sparse index of the publish time of the entries of a single ledger.
+ *
+ * <p/>One sample is taken every {@code interval} entries, starting from the first entry of the ledger. When the index
+ * reaches {@link #MAX_SAMPLES}, every other sample is dropped and the interval is doubled, so that the size of the
+ * index stored in the ledger metadata stays bounded regardless of the number of entries in the ledger.
+ *
+ * <p/>Each sample holds the highest publish time seen up to the sampled entry, which keeps the samples sorted even when
+ * multiple producers publish with slightly skewed clocks.
+ *
+ * <p/>The serialized form is a sequence of varints:
+ *
+ * <pre>
+ * [INTERVAL] [ENTRY_ID] [PUBLISH_TIME] ([ENTRY_ID_DELTA] [PUBLISH_TIME_DELTA])...
+ * </pre>
+ */
+class PublishTimeIndex {
+
+    static final int MAX_SAMPLES = 128;
+
+    private int interval;
+    private int size = 0;
+    private final long[] entryIds = new long[MAX_SAMPLES];
+    private final long[] publishTimes = new long[MAX_SAMPLES];
+
+    PublishTimeIndex(int interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * @return whether the publish time of the given entry should be added to the index
+     */
+    synchronized boolean shouldSample(long entryId) {
+        return entryId % interval == 0 && (size == 0 || entryId > entryIds[size - 1]);
+    }
+
+    synchronized void add(long entryId, long publishTime) {
+        if (size > 0) {
+            if (entryId <= entryIds[size - 1]) {
+                return;
+            }
+            publishTime = Math.max(publishTime, publishTimes[size - 1]);
+        }
+
+        if (size == MAX_SAMPLES) {
+            // Only keep the samples that are aligned with the doubled interval
+            interval *= 2;
+            int j = 0;
+            for (int i = 0; i < size; i++) {
+                if (entryIds[i] % interval == 0) {
+                    entryIds[j] = entryIds[i];
+                    publishTimes[j] = publishTimes[i];
+                    ++j;
+                }
+            }
+            size = j;
+
+            if (entryId % interval != 0) {
+                return;
+            }
+        }
+
+        entryIds[size] = entryId;
+        publishTimes[size] = publishTime;
+        ++size;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized long getFirstPublishTime() {
+        return size > 0 ? publishTimes[0] : -1;
+    }
+
+    /**
+     * @return the id of the newest sampled entry published at or before the given timestamp, or -1 if there is none
+     */
+    synchronized long floorEntry(long timestamp) {
+        int idx = search(timestamp);
+        return idx > 0 ? entryIds[idx - 1] : -1;
+    }
+
+    /**
+     * @return the id of the oldest sampled entry published after the given timestamp, or -1 if there is none
+     */
+    synchronized long higherEntry(long timestamp) {
+        int idx = search(timestamp);
+        return idx < size ? entryIds[idx] : -1;
+    }
+
+    // Returns the index of the first sample published after the timestamp
+    private int search(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (publishTimes[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    synchronized ByteString toByteString() {
+        try {
+            ByteString.Output out = ByteString.newOutput();
+            CodedOutputStream stream = CodedOutputStream.newInstance(out);
+            stream.writeRawVarint32(interval);
+            for (int i = 0; i < size; i++) {
+                stream.writeRawVarint64(i == 0 ? entryIds[i] : entryIds[i] - entryIds[i - 1]);
+                stream.writeRawVarint64(i == 0 ? publishTimes[i] : publishTimes[i] - publishTimes[i - 1]);
+            }
+            stream.flush();
+            return out.toByteString();
+        } catch (IOException e) {
+            // Writing to a memory buffer
+            throw new RuntimeException(e);
+        }
+    }
+
+    static PublishTimeIndex parseFrom(ByteString data) throws IOException {
+        CodedInputStream stream = data.newCodedInput();
+        PublishTimeIndex index = new PublishTimeIndex(stream.readRawVarint32());
+        if (index.interval <= 0) {
+            throw new IOException("Invalid publish time index interval: " + index.interval);
+        }
+
+        long entryId = 0;
+        long publishTime = 0;
+        while (!stream.isAtEnd()) {
+            if (index.size == MAX_SAMPLES) {
+                throw new IOException("Too many samples in publish time index");
+            }
+            entryId += stream.readRawVarint64();
+            publishTime += stream.readRawVarint64();
+            index.entryIds[index.size] = entryId;
+            index.publishTimes[index.size] = publishTime;
+            ++index.size;
+        }
+        return index;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("PublishTimeIndex(interval=%d, entries=%s, publishTimes=%s)", interval,
+                Arrays.toString(Arrays.copyOf(entryIds, size)), Arrays.toString(Arrays.copyOf(publishTimes, size)));
+    }
+}
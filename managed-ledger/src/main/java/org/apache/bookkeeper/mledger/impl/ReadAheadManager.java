@@ -0,0 +1,265 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prefetch entries in the cache for cursors that are sequentially reading a backlog.
+ *
+ * <p/>When a cursor issues a read that is contiguous to its previous one and there are more entries available after
+ * it in the same ledger, the next entries are read from bookkeeper in background and inserted in the cache, so that
+ * the following read of the cursor can be served from memory instead of waiting for a new round-trip to the bookies.
+ *
+ * <p/>The entries being prefetched, plus the entries already in the cache, are never allowed to go over the cache
+ * eviction watermark, so that prefetching will not trigger evictions of entries that were inserted by the writers.
+ */
+public class ReadAheadManager {
+
+    // Number of contiguous reads after which a cursor is considered to be sequentially reading
+    private static final int MinSequentialReads = 1;
+
+    private final EntryCacheManager cacheManager;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxSize;
+    private final long budget;
+
+    // Estimated size of the prefetch reads that are still outstanding
+    private final AtomicLong inflightSize = new AtomicLong(0);
+
+    public ReadAheadManager(ManagedLedgerFactoryConfig config, EntryCacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+        this.maxEntries = config.getReadAheadMaxEntries();
+        this.maxSize = config.getReadAheadMaxSize();
+        this.budget = (long) (config.getMaxCacheSize() * config.getCacheEvictionWatermark());
+        this.enabled = config.isReadAheadEnabled() && maxEntries > 0 && maxSize > 0 && budget > 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    long getInflightSize() {
+        return inflightSize.get();
+    }
+
+    /**
+     * Called when a cursor is reading the range [firstEntry, lastEntry] from a ledger.
+     *
+     * @param ml
+     *            the managed ledger
+     * @param cursor
+     *            the cursor that is reading
+     * @param lh
+     *            the handle of the ledger that is being read
+     * @param firstEntry
+     *            the first entry of the read
+     * @param lastEntry
+     *            the last entry of the read
+     * @param lastEntryInLedger
+     *            the last entry that is readable in the ledger
+     */
+    void onReadEntries(ManagedLedgerImpl ml, ManagedCursorImpl cursor, LedgerHandle lh, long firstEntry,
+            long lastEntry, long lastEntryInLedger) {
+        final CursorState state = cursor.getReadAheadState();
+        final long ledgerId = lh.getId();
+        final long start;
+        final long end;
+        final long estimatedSize;
+
+        synchronized (state) {
+            boolean sequential = (ledgerId == state.lastLedgerId && firstEntry == state.lastEntryId + 1)
+                    || (state.lastLedgerId != -1 && ledgerId > state.lastLedgerId && firstEntry == 0);
+            state.sequentialReads = sequential ? state.sequentialReads + 1 : 0;
+            state.lastLedgerId = ledgerId;
+            state.lastEntryId = lastEntry;
+
+            if (state.isPrefetched(ledgerId, firstEntry, lastEntry)) {
+                state.hits++;
+            } else if (state.sequentialReads > MinSequentialReads) {
+                state.misses++;
+            }
+
+            if (!sequential) {
+                state.reset();
+            }
+
+            if (state.sequentialReads < MinSequentialReads || lastEntry >= lastEntryInLedger) {
+                // Either the cursor is not reading sequentially or it has already reached the end of the ledger
+                return;
+            }
+
+            long alreadyRequested = state.requestedLedgerId == ledgerId
+                    ? Math.max(0, state.requestedUpTo - lastEntry) : 0;
+            if (alreadyRequested > maxEntries / 2) {
+                // There are still enough entries ahead of the cursor, wait for the next read to issue a bigger
+                // prefetch
+                return;
+            }
+
+            long numberOfEntries = ml.getNumberOfEntries();
+            long avgEntrySize = numberOfEntries > 0 ? Math.max(1, ml.getTotalSize() / numberOfEntries) : 0;
+            if (avgEntrySize == 0) {
+                return;
+            }
+
+            start = lastEntry + 1 + alreadyRequested;
+            long entriesToRead = Math.min(maxEntries - alreadyRequested, maxSize / avgEntrySize);
+            end = Math.min(start + entriesToRead - 1, lastEntryInLedger);
+            if (end < start) {
+                return;
+            }
+
+            estimatedSize = (end - start + 1) * avgEntrySize;
+            if (!reserve(estimatedSize)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] [{}] Skipping read-ahead of {} bytes, cache is full", ml.getName(),
+                            cursor.getName(), estimatedSize);
+                }
+                return;
+            }
+
+            state.requestedLedgerId = ledgerId;
+            state.requestedUpTo = end;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] [{}] Reading ahead entries from ledger {} - first={} last={}", ml.getName(),
+                    cursor.getName(), ledgerId, start, end);
+        }
+
+        // Go through the cache, so that a cursor reading these entries while they are being prefetched is attached to
+        // the prefetch instead of reading them again from bookkeeper
+        ml.entryCache.asyncPrefetchEntries(lh, start, end, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                inflightSize.addAndGet(-estimatedSize);
+
+                // Only consider prefetched the entries up to the first one that was not inserted in cache
+                long lastInserted = start - 1;
+                boolean inserting = true;
+                for (Entry entry : entries) {
+                    if (inserting && ml.entryCache.insert((EntryImpl) entry)) {
+                        lastInserted = entry.getEntryId();
+                    } else {
+                        inserting = false;
+                    }
+                    entry.release();
+                }
+
+                synchronized (state) {
+                    state.prefetched(ledgerId, start, lastInserted);
+                }
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                inflightSize.addAndGet(-estimatedSize);
+
+                log.warn("[{}] [{}] Failed to read ahead entries from ledger {} - first={} last={}: {}",
+                        ml.getName(), cursor.getName(), ledgerId, start, end, exception.getMessage());
+                synchronized (state) {
+                    if (state.requestedLedgerId == ledgerId) {
+                        state.requestedUpTo = Math.min(state.requestedUpTo, start - 1);
+                    }
+                }
+            }
+        }, null);
+    }
+
+    private boolean reserve(long size) {
+        while (true) {
+            long inflight = inflightSize.get();
+            if (cacheManager.getSize() + inflight + size > budget) {
+                return false;
+            }
+
+            if (inflightSize.compareAndSet(inflight, inflight + size)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Read-ahead state of a single cursor.
+     */
+    static class CursorState {
+        private long lastLedgerId = -1;
+        private long lastEntryId = -1;
+        private int sequentialReads = 0;
+
+        // Last entry for which a prefetch was issued
+        private long requestedLedgerId = -1;
+        private long requestedUpTo = -1;
+
+        // Range of entries that were prefetched in the cache
+        private long prefetchedLedgerId = -1;
+        private long prefetchedFirst = -1;
+        private long prefetchedLast = -1;
+
+        private long hits = 0;
+        private long misses = 0;
+
+        private boolean isPrefetched(long ledgerId, long firstEntry, long lastEntry) {
+            return ledgerId == prefetchedLedgerId && firstEntry >= prefetchedFirst && lastEntry <= prefetchedLast;
+        }
+
+        private void prefetched(long ledgerId, long firstEntry, long lastEntry) {
+            if (ledgerId != requestedLedgerId || lastEntry < firstEntry) {
+                // The cursor moved somewhere else in the meantime
+                return;
+            }
+
+            if (ledgerId == prefetchedLedgerId && firstEntry <= prefetchedLast + 1) {
+                prefetchedLast = Math.max(prefetchedLast, lastEntry);
+            } else {
+                prefetchedLedgerId = ledgerId;
+                prefetchedFirst = firstEntry;
+                prefetchedLast = lastEntry;
+            }
+        }
+
+        private void reset() {
+            requestedLedgerId = -1;
+            requestedUpTo = -1;
+            prefetchedLedgerId = -1;
+            prefetchedFirst = -1;
+            prefetchedLast = -1;
+        }
+
+        synchronized long getHits() {
+            return hits;
+        }
+
+        synchronized long getMisses() {
+            return misses;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(ReadAheadManager.class);
+}
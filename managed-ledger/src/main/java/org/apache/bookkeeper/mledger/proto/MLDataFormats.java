@@ -72,6 +72,14 @@ public final class MLDataFormats {
       // optional int64 timestamp = 4;
       boolean hasTimestamp();
       long getTimestamp();
+      
+      // optional bytes publishTimeIndex = 5;
+      boolean hasPublishTimeIndex();
+      com.google.protobuf.ByteString getPublishTimeIndex();
+      
+      // optional bool offloaded = 6;
+      boolean hasOffloaded();
+      boolean getOffloaded();
     }
     public static final class LedgerInfo extends
         com.google.protobuf.GeneratedMessage
@@ -142,11 +150,33 @@ public final class MLDataFormats {
         return timestamp_;
       }
       
+      // optional bytes publishTimeIndex = 5;
+      public static final int PUBLISHTIMEINDEX_FIELD_NUMBER = 5;
+      private com.google.protobuf.ByteString publishTimeIndex_;
+      public boolean hasPublishTimeIndex() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      public com.google.protobuf.ByteString getPublishTimeIndex() {
+        return publishTimeIndex_;
+      }
+      
+      // optional bool offloaded = 6;
+      public static final int OFFLOADED_FIELD_NUMBER = 6;
+      private boolean offloaded_;
+      public boolean hasOffloaded() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      public boolean getOffloaded() {
+        return offloaded_;
+      }
+      
       private void initFields() {
         ledgerId_ = 0L;
         entries_ = 0L;
         size_ = 0L;
         timestamp_ = 0L;
+        publishTimeIndex_ = com.google.protobuf.ByteString.EMPTY;
+        offloaded_ = false;
       }
       private byte memoizedIsInitialized = -1;
       public final boolean isInitialized() {
@@ -176,6 +206,12 @@ public final class MLDataFormats {
         if (((bitField0_ & 0x00000008) == 0x00000008)) {
           output.writeInt64(4, timestamp_);
         }
+        if (((bitField0_ & 0x00000010) == 0x00000010)) {
+          output.writeBytes(5, publishTimeIndex_);
+        }
+        if (((bitField0_ & 0x00000020) == 0x00000020)) {
+          output.writeBool(6, offloaded_);
+        }
         getUnknownFields().writeTo(output);
       }
       
@@ -201,6 +237,14 @@ public final class MLDataFormats {
           size += com.google.protobuf.CodedOutputStream
             .computeInt64Size(4, timestamp_);
         }
+        if (((bitField0_ & 0x00000010) == 0x00000010)) {
+          size += com.google.protobuf.CodedOutputStream
+            .computeBytesSize(5, publishTimeIndex_);
+        }
+        if (((bitField0_ & 0x00000020) == 0x00000020)) {
+          size += com.google.protobuf.CodedOutputStream
+            .computeBoolSize(6, offloaded_);
+        }
         size += getUnknownFields().getSerializedSize();
         memoizedSerializedSize = size;
         return size;
@@ -333,6 +377,10 @@ public final class MLDataFormats {
           bitField0_ = (bitField0_ & ~0x00000004);
           timestamp_ = 0L;
           bitField0_ = (bitField0_ & ~0x00000008);
+          publishTimeIndex_ = com.google.protobuf.ByteString.EMPTY;
+          bitField0_ = (bitField0_ & ~0x00000010);
+          offloaded_ = false;
+          bitField0_ = (bitField0_ & ~0x00000020);
           return this;
         }
         
@@ -387,6 +435,14 @@ public final class MLDataFormats {
             to_bitField0_ |= 0x00000008;
           }
           result.timestamp_ = timestamp_;
+          if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+            to_bitField0_ |= 0x00000010;
+          }
+          result.publishTimeIndex_ = publishTimeIndex_;
+          if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+            to_bitField0_ |= 0x00000020;
+          }
+          result.offloaded_ = offloaded_;
           result.bitField0_ = to_bitField0_;
           onBuilt();
           return result;
@@ -415,6 +471,12 @@ public final class MLDataFormats {
           if (other.hasTimestamp()) {
             setTimestamp(other.getTimestamp());
           }
+          if (other.hasPublishTimeIndex()) {
+            setPublishTimeIndex(other.getPublishTimeIndex());
+          }
+          if (other.hasOffloaded()) {
+            setOffloaded(other.getOffloaded());
+          }
           this.mergeUnknownFields(other.getUnknownFields());
           return this;
         }
@@ -470,6 +532,16 @@ public final class MLDataFormats {
                 timestamp_ = input.readInt64();
                 break;
               }
+              case 42: {
+                bitField0_ |= 0x00000010;
+                publishTimeIndex_ = input.readBytes();
+                break;
+              }
+              case 48: {
+                bitField0_ |= 0x00000020;
+                offloaded_ = input.readBool();
+                break;
+              }
             }
           }
         }
@@ -560,6 +632,51 @@ public final class MLDataFormats {
           return this;
         }
         
+        // optional bytes publishTimeIndex = 5;
+        private com.google.protobuf.ByteString publishTimeIndex_ = com.google.protobuf.ByteString.EMPTY;
+        public boolean hasPublishTimeIndex() {
+          return ((bitField0_ & 0x00000010) == 0x00000010);
+        }
+        public com.google.protobuf.ByteString getPublishTimeIndex() {
+          return publishTimeIndex_;
+        }
+        public Builder setPublishTimeIndex(com.google.protobuf.ByteString value) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          bitField0_ |= 0x00000010;
+          publishTimeIndex_ = value;
+          onChanged();
+          return this;
+        }
+        public Builder clearPublishTimeIndex() {
+          bitField0_ = (bitField0_ & ~0x00000010);
+          publishTimeIndex_ = getDefaultInstance().getPublishTimeIndex();
+          onChanged();
+          return this;
+        }
+        
+        // optional bool offloaded = 6;
+        private boolean offloaded_ ;
+        public boolean hasOffloaded() {
+          return ((bitField0_ & 0x00000020) == 0x00000020);
+        }
+        public boolean getOffloaded() {
+          return offloaded_;
+        }
+        public Builder setOffloaded(boolean value) {
+          bitField0_ |= 0x00000020;
+          offloaded_ = value;
+          onChanged();
+          return this;
+        }
+        public Builder clearOffloaded() {
+          bitField0_ = (bitField0_ & ~0x00000020);
+          offloaded_ = false;
+          onChanged();
+          return this;
+        }
+        
         // @@protoc_insertion_point(builder_scope:ManagedLedgerInfo.LedgerInfo)
       }
       
@@ -1276,6 +1393,10 @@ public final class MLDataFormats {
         getPropertiesOrBuilderList();
     org.apache.bookkeeper.mledger.proto.MLDataFormats.LongPropertyOrBuilder getPropertiesOrBuilder(
         int index);
+    
+    // optional bytes batchDeletedIndexes = 5;
+    boolean hasBatchDeletedIndexes();
+    com.google.protobuf.ByteString getBatchDeletedIndexes();
   }
   public static final class PositionInfo extends
       com.google.protobuf.GeneratedMessage
@@ -1368,11 +1489,22 @@ public final class MLDataFormats {
       return properties_.get(index);
     }
     
+    // optional bytes batchDeletedIndexes = 5;
+    public static final int BATCHDELETEDINDEXES_FIELD_NUMBER = 5;
+    private com.google.protobuf.ByteString batchDeletedIndexes_;
+    public boolean hasBatchDeletedIndexes() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    public com.google.protobuf.ByteString getBatchDeletedIndexes() {
+      return batchDeletedIndexes_;
+    }
+    
     private void initFields() {
       ledgerId_ = 0L;
       entryId_ = 0L;
       individualDeletedMessages_ = java.util.Collections.emptyList();
       properties_ = java.util.Collections.emptyList();
+      batchDeletedIndexes_ = com.google.protobuf.ByteString.EMPTY;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -1418,6 +1550,9 @@ public final class MLDataFormats {
       for (int i = 0; i < properties_.size(); i++) {
         output.writeMessage(4, properties_.get(i));
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBytes(5, batchDeletedIndexes_);
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -1443,6 +1578,10 @@ public final class MLDataFormats {
         size += com.google.protobuf.CodedOutputStream
           .computeMessageSize(4, properties_.get(i));
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(5, batchDeletedIndexes_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -1585,6 +1724,8 @@ public final class MLDataFormats {
         } else {
           propertiesBuilder_.clear();
         }
+        batchDeletedIndexes_ = com.google.protobuf.ByteString.EMPTY;
+        bitField0_ = (bitField0_ & ~0x00000010);
         return this;
       }
       
@@ -1649,6 +1790,10 @@ public final class MLDataFormats {
         } else {
           result.properties_ = propertiesBuilder_.build();
         }
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.batchDeletedIndexes_ = batchDeletedIndexes_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -1723,6 +1868,9 @@ public final class MLDataFormats {
             }
           }
         }
+        if (other.hasBatchDeletedIndexes()) {
+          setBatchDeletedIndexes(other.getBatchDeletedIndexes());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -1796,6 +1944,11 @@ public final class MLDataFormats {
               addProperties(subBuilder.buildPartial());
               break;
             }
+            case 42: {
+              bitField0_ |= 0x00000010;
+              batchDeletedIndexes_ = input.readBytes();
+              break;
+            }
           }
         }
       }
@@ -2216,6 +2369,30 @@ public final class MLDataFormats {
         return propertiesBuilder_;
       }
       
+      // optional bytes batchDeletedIndexes = 5;
+      private com.google.protobuf.ByteString batchDeletedIndexes_ = com.google.protobuf.ByteString.EMPTY;
+      public boolean hasBatchDeletedIndexes() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      public com.google.protobuf.ByteString getBatchDeletedIndexes() {
+        return batchDeletedIndexes_;
+      }
+      public Builder setBatchDeletedIndexes(com.google.protobuf.ByteString value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        bitField0_ |= 0x00000010;
+        batchDeletedIndexes_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearBatchDeletedIndexes() {
+        bitField0_ = (bitField0_ & ~0x00000010);
+        batchDeletedIndexes_ = getDefaultInstance().getBatchDeletedIndexes();
+        onChanged();
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:PositionInfo)
     }
     
@@ -3719,6 +3896,10 @@ public final class MLDataFormats {
         getPropertiesOrBuilderList();
     org.apache.bookkeeper.mledger.proto.MLDataFormats.LongPropertyOrBuilder getPropertiesOrBuilder(
         int index);
+    
+    // optional bytes batchDeletedIndexes = 6;
+    boolean hasBatchDeletedIndexes();
+    com.google.protobuf.ByteString getBatchDeletedIndexes();
   }
   public static final class ManagedCursorInfo extends
       com.google.protobuf.GeneratedMessage
@@ -3821,12 +4002,23 @@ public final class MLDataFormats {
       return properties_.get(index);
     }
     
+    // optional bytes batchDeletedIndexes = 6;
+    public static final int BATCHDELETEDINDEXES_FIELD_NUMBER = 6;
+    private com.google.protobuf.ByteString batchDeletedIndexes_;
+    public boolean hasBatchDeletedIndexes() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    public com.google.protobuf.ByteString getBatchDeletedIndexes() {
+      return batchDeletedIndexes_;
+    }
+    
     private void initFields() {
       cursorsLedgerId_ = 0L;
       markDeleteLedgerId_ = 0L;
       markDeleteEntryId_ = 0L;
       individualDeletedMessages_ = java.util.Collections.emptyList();
       properties_ = java.util.Collections.emptyList();
+      batchDeletedIndexes_ = com.google.protobuf.ByteString.EMPTY;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -3871,6 +4063,9 @@ public final class MLDataFormats {
       for (int i = 0; i < properties_.size(); i++) {
         output.writeMessage(5, properties_.get(i));
       }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeBytes(6, batchDeletedIndexes_);
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -3900,6 +4095,10 @@ public final class MLDataFormats {
         size += com.google.protobuf.CodedOutputStream
           .computeMessageSize(5, properties_.get(i));
       }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(6, batchDeletedIndexes_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -4044,6 +4243,8 @@ public final class MLDataFormats {
         } else {
           propertiesBuilder_.clear();
         }
+        batchDeletedIndexes_ = com.google.protobuf.ByteString.EMPTY;
+        bitField0_ = (bitField0_ & ~0x00000020);
         return this;
       }
       
@@ -4112,6 +4313,10 @@ public final class MLDataFormats {
         } else {
           result.properties_ = propertiesBuilder_.build();
         }
+        if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.batchDeletedIndexes_ = batchDeletedIndexes_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -4189,6 +4394,9 @@ public final class MLDataFormats {
             }
           }
         }
+        if (other.hasBatchDeletedIndexes()) {
+          setBatchDeletedIndexes(other.getBatchDeletedIndexes());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -4263,6 +4471,11 @@ public final class MLDataFormats {
               addProperties(subBuilder.buildPartial());
               break;
             }
+            case 50: {
+              bitField0_ |= 0x00000020;
+              batchDeletedIndexes_ = input.readBytes();
+              break;
+            }
           }
         }
       }
@@ -4704,6 +4917,30 @@ public final class MLDataFormats {
         return propertiesBuilder_;
       }
       
+      // optional bytes batchDeletedIndexes = 6;
+      private com.google.protobuf.ByteString batchDeletedIndexes_ = com.google.protobuf.ByteString.EMPTY;
+      public boolean hasBatchDeletedIndexes() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      public com.google.protobuf.ByteString getBatchDeletedIndexes() {
+        return batchDeletedIndexes_;
+      }
+      public Builder setBatchDeletedIndexes(com.google.protobuf.ByteString value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        bitField0_ |= 0x00000020;
+        batchDeletedIndexes_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearBatchDeletedIndexes() {
+        bitField0_ = (bitField0_ & ~0x00000020);
+        batchDeletedIndexes_ = getDefaultInstance().getBatchDeletedIndexes();
+        onChanged();
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:ManagedCursorInfo)
     }
     
@@ -4759,27 +4996,30 @@ public final class MLDataFormats {
       descriptor;
   static {
     java.lang.String[] descriptorData = {
-      "\n\"src/main/proto/MLDataFormats.proto\"\311\001\n" +
+      "\n\"src/main/proto/MLDataFormats.proto\"\366\001\n" +
       "\021ManagedLedgerInfo\0221\n\nledgerInfo\030\001 \003(\0132\035" +
       ".ManagedLedgerInfo.LedgerInfo\022/\n\022termina" +
-      "tedPosition\030\002 \001(\0132\023.NestedPositionInfo\032P" +
+      "tedPosition\030\002 \001(\0132\023.NestedPositionInfo\032}" +
       "\n\nLedgerInfo\022\020\n\010ledgerId\030\001 \002(\003\022\017\n\007entrie" +
       "s\030\002 \001(\003\022\014\n\004size\030\003 \001(\003\022\021\n\ttimestamp\030\004 \001(\003" +
-      "\"\206\001\n\014PositionInfo\022\020\n\010ledgerId\030\001 \002(\003\022\017\n\007e" +
-      "ntryId\030\002 \002(\003\0220\n\031individualDeletedMessage" +
-      "s\030\003 \003(\0132\r.MessageRange\022!\n\nproperties\030\004 \003" +
-      "(\0132\r.LongProperty\"7\n\022NestedPositionInfo\022",
-      "\020\n\010ledgerId\030\001 \002(\003\022\017\n\007entryId\030\002 \002(\003\"f\n\014Me" +
-      "ssageRange\022*\n\rlowerEndpoint\030\001 \002(\0132\023.Nest" +
-      "edPositionInfo\022*\n\rupperEndpoint\030\002 \002(\0132\023." +
-      "NestedPositionInfo\"+\n\014LongProperty\022\014\n\004na" +
-      "me\030\001 \002(\t\022\r\n\005value\030\002 \002(\003\"\270\001\n\021ManagedCurso" +
-      "rInfo\022\027\n\017cursorsLedgerId\030\001 \002(\003\022\032\n\022markDe" +
-      "leteLedgerId\030\002 \001(\003\022\031\n\021markDeleteEntryId\030" +
-      "\003 \001(\003\0220\n\031individualDeletedMessages\030\004 \003(\013" +
-      "2\r.MessageRange\022!\n\nproperties\030\005 \003(\0132\r.Lo" +
-      "ngPropertyB\'\n#org.apache.bookkeeper.mled",
-      "ger.protoH\001"
+      "\022\030\n\020publishTimeIndex\030\005 \001(\014\022\021\n\toffloaded\030" +
+      "\006 \001(\010\"\243\001\n\014PositionInfo\022\020\n\010ledgerId\030\001 \002(\003" +
+      "\022\017\n\007entryId\030\002 \002(\003\0220\n\031individualDeletedMe" +
+      "ssages\030\003 \003(\0132\r.MessageRange\022!\n\npropertie",
+      "s\030\004 \003(\0132\r.LongProperty\022\033\n\023batchDe" +
+      "letedIndexes\030\005 \001(\014\"7\n\022NestedPosition" +
+      "Info\022\020\n\010ledgerId\030\001 \002(\003\022\017\n\007entryId\030\002 \002(\003\"" +
+      "f\n\014MessageRange\022*\n\rlowerEndpoint\030\001 \002(\0132\023" +
+      ".NestedPositionInfo\022*\n\rupperEndpoint\030\002 \002" +
+      "(\0132\023.NestedPositionInfo\"+\n\014LongProperty\022" +
+      "\014\n\004name\030\001 \002(\t\022\r\n\005value\030\002 \002(\003\"\325\001\n\021Managed" +
+      "CursorInfo\022\027\n\017cursorsLedgerId\030\001 \002(\003\022\032\n\022m" +
+      "arkDeleteLedgerId\030\002 \001(\003\022\031\n\021markDeleteEnt" +
+      "ryId\030\003 \001(\003\0220\n\031individualDeletedMessages\030" +
+      "\004 \003(\0132\r.MessageRange\022!\n\nproperties\030\005 \003(\013",
+      "2\r.LongProperty\022\033\n\023batchDeletedIndexes\030\006 \001" +
+      "(\014B\'\n#org.apache.bookkeeper" +
+      ".mledger.protoH\001"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -4799,7 +5039,7 @@ public final class MLDataFormats {
           internal_static_ManagedLedgerInfo_LedgerInfo_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_ManagedLedgerInfo_LedgerInfo_descriptor,
-              new java.lang.String[] { "LedgerId", "Entries", "Size", "Timestamp", },
+              new java.lang.String[] { "LedgerId", "Entries", "Size", "Timestamp", "PublishTimeIndex", "Offloaded", },
               org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo.LedgerInfo.class,
               org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo.LedgerInfo.Builder.class);
           internal_static_PositionInfo_descriptor =
@@ -4807,7 +5047,7 @@ public final class MLDataFormats {
           internal_static_PositionInfo_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_PositionInfo_descriptor,
-              new java.lang.String[] { "LedgerId", "EntryId", "IndividualDeletedMessages", "Properties", },
+              new java.lang.String[] { "LedgerId", "EntryId", "IndividualDeletedMessages", "Properties", "BatchDeletedIndexes", },
               org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo.class,
               org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo.Builder.class);
           internal_static_NestedPositionInfo_descriptor =
@@ -4839,7 +5079,7 @@ public final class MLDataFormats {
           internal_static_ManagedCursorInfo_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_ManagedCursorInfo_descriptor,
-              new java.lang.String[] { "CursorsLedgerId", "MarkDeleteLedgerId", "MarkDeleteEntryId", "IndividualDeletedMessages", "Properties", },
+              new java.lang.String[] { "CursorsLedgerId", "MarkDeleteLedgerId", "MarkDeleteEntryId", "IndividualDeletedMessages", "Properties", "BatchDeletedIndexes", },
               org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo.class,
               org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo.Builder.class);
           return null;
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import org.apache.bookkeeper.mledger.impl.AckStateFormat.AckStateEntry;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.LongProperty;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet;
+import org.testng.annotations.Test;
+
+public class AckStateFormatTest {
+
+    private static final PositionInfo positionInfo = PositionInfo.newBuilder().setLedgerId(1).setEntryId(5)
+            .addProperties(LongProperty.newBuilder().setName("prop").setValue(7).build()).build();
+
+    @Test
+    public void snapshot() throws Exception {
+        LongPairRangeSet<PositionImpl> ranges = randomRanges();
+
+        List<byte[]> entries = AckStateFormat.encodeSnapshot(3, positionInfo, ranges, 64);
+        assertTrue(entries.size() > 2);
+
+        List<AckStateEntry> chunks = Lists.newArrayList();
+        for (int i = 0; i < entries.size() - 1; i++) {
+            assertEquals(AckStateFormat.getType(entries.get(i)), AckStateFormat.TYPE_CHUNK);
+            chunks.add(AckStateFormat.parse(entries.get(i)));
+        }
+
+        byte[] data = entries.get(entries.size() - 1);
+        assertEquals(AckStateFormat.getType(data), AckStateFormat.TYPE_SNAPSHOT);
+        assertEquals(AckStateFormat.getSnapshotId(data), 3);
+
+        AckStateEntry snapshot = AckStateFormat.parse(data);
+        assertEquals(snapshot.numChunks, entries.size() - 1);
+        assertEquals(snapshot.positionInfo, positionInfo);
+
+        LongPairRangeSet<PositionImpl> recovered = new LongPairRangeSet.DefaultRangeSet<>(PositionImpl::new);
+        AckStateFormat.decodeSnapshot(snapshot, chunks, recovered::addOpenClosed);
+        assertEquals(Lists.newArrayList(recovered.asRanges()), Lists.newArrayList(ranges.asRanges()));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void snapshotWithMissingChunk() throws Exception {
+        List<byte[]> entries = AckStateFormat.encodeSnapshot(1, positionInfo, randomRanges(), 64);
+
+        List<AckStateEntry> chunks = Lists.newArrayList();
+        for (int i = 1; i < entries.size() - 1; i++) {
+            chunks.add(AckStateFormat.parse(entries.get(i)));
+        }
+
+        AckStateEntry snapshot = AckStateFormat.parse(entries.get(entries.size() - 1));
+        LongPairRangeSet<PositionImpl> recovered = new LongPairRangeSet.DefaultRangeSet<>(PositionImpl::new);
+        AckStateFormat.decodeSnapshot(snapshot, chunks, recovered::addOpenClosed);
+    }
+
+    @Test
+    public void delta() throws Exception {
+        LongPairRangeSet<PositionImpl> ranges = randomRanges();
+
+        byte[] data = AckStateFormat.encodeDelta(5, positionInfo, ranges);
+        assertEquals(AckStateFormat.getType(data), AckStateFormat.TYPE_DELTA);
+        assertEquals(AckStateFormat.getSnapshotId(data), 5);
+
+        AckStateEntry delta = AckStateFormat.parse(data);
+        assertEquals(delta.positionInfo, positionInfo);
+
+        LongPairRangeSet<PositionImpl> recovered = new LongPairRangeSet.DefaultRangeSet<>(PositionImpl::new);
+        AckStateFormat.decodeDelta(delta, recovered::addOpenClosed);
+        assertEquals(Lists.newArrayList(recovered.asRanges()), Lists.newArrayList(ranges.asRanges()));
+
+        // An empty delta
+        delta = AckStateFormat.parse(AckStateFormat.encodeDelta(5, positionInfo,
+                new LongPairRangeSet.DefaultRangeSet<>(PositionImpl::new)));
+        recovered.clear();
+        AckStateFormat.decodeDelta(delta, recovered::addOpenClosed);
+        assertTrue(recovered.isEmpty());
+    }
+
+    @Test
+    public void positionInfoIsNotAckState() {
+        assertEquals(AckStateFormat.getType(positionInfo.toByteArray()), 0);
+        assertEquals(AckStateFormat.getType(new byte[0]), 0);
+    }
+
+    private static LongPairRangeSet<PositionImpl> randomRanges() {
+        LongPairRangeSet<PositionImpl> ranges = new LongPairRangeSet.DefaultRangeSet<>(PositionImpl::new);
+        Random random = new Random(0);
+        for (long ledgerId = 3; ledgerId < 6; ledgerId++) {
+            for (int i = 0; i < 100; i++) {
+                long entryId = random.nextInt(1000);
+                ranges.addOpenClosed(ledgerId, entryId - 1, ledgerId, entryId + random.nextInt(3));
+            }
+        }
+
+        // Range across multiple ledgers
+        ranges.addOpenClosed(5, 2000, 8, 10);
+        return ranges;
+    }
+}
@@ -21,14 +21,21 @@ package org.apache.bookkeeper.mledger.impl;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
+import com.google.common.collect.Lists;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig.CacheEvictionPolicy;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.EntryCacheFrequencyAwareEvictionPolicy.FrequencySketch;
 import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -236,6 +243,7 @@ public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
         assertEquals(cacheManager.mlFactoryMBean.getCacheHitsRate(), 10.0);
         assertEquals(cacheManager.mlFactoryMBean.getCacheMissesRate(), 0.0);
         assertEquals(cacheManager.mlFactoryMBean.getCacheHitsThroughput(), 70.0);
+        assertEquals(cacheManager.mlFactoryMBean.getCacheHitRatio(), 1.0);
         assertEquals(cacheManager.mlFactoryMBean.getNumberOfCacheEvictions(), 0);
 
         ledger.deactivateCursor(c1);
@@ -269,4 +277,180 @@ public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
         assertEquals(cacheManager.mlFactoryMBean.getCacheHitsThroughput(), 0.0);
         assertEquals(cacheManager.mlFactoryMBean.getNumberOfCacheEvictions(), 0);
     }
+
+    @Test
+    void cursorAwareEviction() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setCacheEvictionPolicy(CacheEvictionPolicy.CursorAware);
+        config.setCacheEvictionReadAheadWindow(2);
+
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        assertTrue(cacheManager.getEvictionPolicy() instanceof EntryCacheCursorAwareEvictionPolicy);
+        assertEquals(cacheManager.mlFactoryMBean.getCacheEvictionPolicy(), "CursorAware");
+
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("cursor-aware-ledger");
+        ManagedCursor c1 = ledger.openCursor("c1");
+        ManagedCursor c2 = ledger.openCursor("c2");
+
+        List<Position> positions = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            positions.add(ledger.addEntry(new byte[10]));
+        }
+
+        c1.seek(positions.get(2));
+        c2.seek(positions.get(6));
+
+        EntryCache cache = ledger.entryCache;
+        assertEquals(cache.getSize(), 100);
+
+        // Entries already read by all the cursors are evicted first
+        cacheManager.getEvictionPolicy().doEviction(Lists.newArrayList(cache), 1);
+        assertEquals(cache.getSize(), 80);
+
+        // Then the entries outside the window of both cursors: 4-5 and 8-9
+        cacheManager.getEvictionPolicy().doEviction(Lists.newArrayList(cache), 30);
+        assertEquals(cache.getSize(), 40);
+        assertEquals(cacheManager.getSize(), 40);
+
+        // Finally the entries within the read-ahead window are evicted, oldest first
+        cacheManager.getEvictionPolicy().doEviction(Lists.newArrayList(cache), 20);
+        assertEquals(cache.getSize(), 20);
+    }
+
+    @Test
+    void frequencyAwareEviction() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setMaxCacheSize(100);
+        config.setCacheEvictionWatermark(0.5);
+        config.setCacheEvictionPolicy(CacheEvictionPolicy.FrequencyAware);
+
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCacheFrequencyAwareEvictionPolicy policy = (EntryCacheFrequencyAwareEvictionPolicy) cacheManager
+                .getEvictionPolicy();
+        assertEquals(cacheManager.mlFactoryMBean.getCacheEvictionPolicy(), "FrequencyAware");
+
+        EntryCache cache1 = cacheManager.getEntryCache(ml1);
+        EntryCache cache2 = cacheManager.getEntryCache(ml2);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(cache1.insert(EntryImpl.create(1, i, new byte[10])));
+            assertTrue(cache2.insert(EntryImpl.create(2, i, new byte[10])));
+        }
+
+        policy.recordAccess(cache1, 1, true);
+        for (int i = 0; i < 3; i++) {
+            policy.recordAccess(cache2, 1, true);
+        }
+        assertEquals(policy.getFrequency(cache1), 1);
+        assertEquals(policy.getFrequency(cache2), 3);
+
+        // The least frequently read cache is evicted first
+        policy.doEviction(Lists.newArrayList(cache1, cache2), 30);
+        assertEquals(cache1.getSize(), 10);
+        assertEquals(cache2.getSize(), 40);
+        assertEquals(policy.getAdmissionThreshold(), 1);
+
+        // Above the watermark, entries of caches colder than the last evicted one are not admitted
+        assertTrue(cache2.insert(EntryImpl.create(2, 4, new byte[10])));
+        assertEquals(cacheManager.getSize(), 60);
+
+        EntryCache coldCache = mock(EntryCache.class);
+        when(coldCache.getName()).thenReturn("cold-cache");
+        assertFalse(policy.admit(coldCache, 10));
+        assertFalse(cacheManager.admitEntry(coldCache, 10));
+        assertTrue(cacheManager.admitEntry(cache1, 10));
+
+        cacheManager.mlFactoryMBean.refreshStats(1, TimeUnit.SECONDS);
+        assertEquals(cacheManager.mlFactoryMBean.getCacheAdmissionRejectionsRate(), 1.0);
+
+        // Below the watermark, every entry is admitted
+        cache2.clear();
+        assertTrue(cacheManager.admitEntry(coldCache, 10));
+    }
+
+    @Test
+    void frequencyAwareEvictionWithHitRatio() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setMaxCacheSize(100);
+        config.setCacheEvictionWatermark(0.5);
+        config.setCacheEvictionPolicy(CacheEvictionPolicy.FrequencyAware);
+
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCacheFrequencyAwareEvictionPolicy policy = (EntryCacheFrequencyAwareEvictionPolicy) cacheManager
+                .getEvictionPolicy();
+
+        EntryCache cache1 = cacheManager.getEntryCache(ml1);
+        EntryCache cache2 = cacheManager.getEntryCache(ml2);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(cache1.insert(EntryImpl.create(1, i, new byte[10])));
+            assertTrue(cache2.insert(EntryImpl.create(2, i, new byte[10])));
+        }
+
+        // Each cache has its own hit ratio
+        for (int i = 0; i < 4; i++) {
+            policy.recordAccess(cache1, 1, false);
+        }
+        policy.recordAccess(cache2, 1, true);
+        policy.recordAccess(cache2, 1, false);
+        assertEquals(policy.getFrequency(cache1), 4);
+        assertEquals(policy.getFrequency(cache2), 2);
+        assertEquals(policy.getHitRatio(cache1), 0.0);
+        assertEquals(policy.getHitRatio(cache2), 0.5);
+
+        // The cache read more frequently is evicted first, since none of its reads were served from memory
+        policy.doEviction(Lists.newArrayList(cache1, cache2), 30);
+        assertEquals(cache1.getSize(), 10);
+        assertEquals(cache2.getSize(), 40);
+        assertEquals(policy.getAdmissionThreshold(), 0);
+
+        // The hit stats are aged by every eviction cycle, and the ones of the removed caches are dropped
+        policy.recordAccess(cache1, 1, true);
+        policy.recordAccess(cache1, 1, true);
+        assertEquals(policy.getHitRatio(cache1), 0.5);
+        policy.doEviction(Lists.newArrayList(cache2), 10);
+        assertEquals(policy.getHitRatio(cache1), 1.0);
+    }
+
+    @Test
+    void frequencyAwareAdmissionThresholdDecay() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setMaxCacheSize(100);
+
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+
+        AtomicLong clock = new AtomicLong(0);
+        EntryCacheFrequencyAwareEvictionPolicy policy = new EntryCacheFrequencyAwareEvictionPolicy(
+                FrequencySketch.DefaultWidth, clock::get);
+
+        EntryCache hotCache = cacheManager.getEntryCache(ml1);
+        EntryCache newCache = cacheManager.getEntryCache(ml2);
+        assertTrue(hotCache.insert(EntryImpl.create(1, 0, new byte[10])));
+
+        for (int i = 0; i < 8; i++) {
+            policy.recordAccess(hotCache, 1, true);
+        }
+        policy.doEviction(Lists.newArrayList(hotCache), 10);
+        assertEquals(policy.getAdmissionThreshold(), 8);
+
+        policy.recordAccess(newCache, 1, true);
+        policy.recordAccess(newCache, 1, true);
+        assertFalse(policy.admit(newCache, 10));
+
+        // Without further eviction, the threshold is halved at every half-life
+        clock.addAndGet(EntryCacheFrequencyAwareEvictionPolicy.AdmissionThresholdHalfLifeMillis);
+        assertEquals(policy.getAdmissionThreshold(), 4);
+        assertFalse(policy.admit(newCache, 10));
+
+        clock.addAndGet(EntryCacheFrequencyAwareEvictionPolicy.AdmissionThresholdHalfLifeMillis);
+        assertEquals(policy.getAdmissionThreshold(), 2);
+        assertTrue(policy.admit(newCache, 10));
+
+        clock.addAndGet(100 * EntryCacheFrequencyAwareEvictionPolicy.AdmissionThresholdHalfLifeMillis);
+        assertEquals(policy.getAdmissionThreshold(), 0);
+    }
 }
@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import org.apache.bookkeeper.client.AsyncCallback.ReadCallback;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.Commands.ChecksumType;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class EntryCacheSegmentedTest extends MockedBookKeeperTestCase {
+
+    private ManagedLedgerImpl ml;
+
+    @BeforeMethod
+    public void setUp(Method method) throws Exception {
+        super.setUp(method);
+        ml = mock(ManagedLedgerImpl.class);
+        when(ml.getName()).thenReturn("name");
+        when(ml.getExecutor()).thenReturn(executor);
+        when(ml.getMBean()).thenReturn(new ManagedLedgerMBeanImpl(ml));
+
+        factory.shutdown();
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setSegmentedCacheEnabled(true);
+        config.setCacheSegmentSize(100);
+        factory = new ManagedLedgerFactoryImpl(bkc, zkc, config);
+    }
+
+    @Test(timeOut = 5000)
+    void testRead() throws Exception {
+        LedgerHandle lh = getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCache entryCache = factory.getEntryCacheManager().getEntryCache(ml);
+        assertTrue(entryCache instanceof EntryCacheSegmentedImpl);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(entryCache.insert(EntryImpl.create(0, i, new byte[] { (byte) i, (byte) i })));
+        }
+
+        // Inserting the same entry again should be rejected
+        assertFalse(entryCache.insert(EntryImpl.create(0, 5, new byte[2])));
+
+        final CountDownLatch counter = new CountDownLatch(1);
+
+        entryCache.asyncReadEntry(lh, 0, 9, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), 10);
+                for (int i = 0; i < 10; i++) {
+                    Entry entry = entries.get(i);
+                    assertEquals(entry.getEntryId(), i);
+                    assertEquals(entry.getDataAndRelease(), new byte[] { (byte) i, (byte) i });
+                }
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        }, null);
+        counter.await();
+
+        // Verify no entries were read from bookkeeper
+        verify(lh, never()).asyncReadEntries(anyLong(), anyLong(), any(ReadCallback.class), any());
+    }
+
+    @Test(timeOut = 5000)
+    void testReadMessageMetadata() throws Exception {
+        LedgerHandle lh = getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCache entryCache = factory.getEntryCacheManager().getEntryCache(ml);
+
+        MessageMetadata msgMetadata = MessageMetadata.newBuilder().setProducerName("prod-name").setSequenceId(0)
+                .setPublishTime(1000).setNumMessagesInBatch(5).build();
+        ByteBuf data = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, msgMetadata,
+                Unpooled.wrappedBuffer("payload".getBytes()));
+        msgMetadata.recycle();
+        int dataLength = data.readableBytes();
+        assertTrue(entryCache.insert(EntryImpl.create(0, 0, data)));
+        data.release();
+
+        // Not a valid message
+        assertTrue(entryCache.insert(EntryImpl.create(0, 1, new byte[10])));
+
+        final CountDownLatch counter = new CountDownLatch(1);
+
+        // The fields parsed on insert are kept in the segment index along with the offsets
+        entryCache.asyncReadEntry(lh, 0, 1, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), 2);
+                assertEquals(entries.get(0).getBatchSize(), 5);
+                assertEquals(entries.get(0).getPublishTime(), 1000);
+                assertEquals(entries.get(0).getLength(), dataLength);
+                assertEquals(entries.get(1).getBatchSize(), -1);
+                assertEquals(entries.get(1).getPublishTime(), -1);
+                assertEquals(entries.get(1).getLength(), 10);
+                entries.forEach(e -> e.release());
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        }, null);
+        counter.await();
+
+        verify(lh, never()).asyncReadEntries(anyLong(), anyLong(), any(ReadCallback.class), any());
+    }
+
+    @Test(timeOut = 5000)
+    void testReadMissingMiddle() throws Exception {
+        LedgerHandle lh = getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCache entryCache = factory.getEntryCacheManager().getEntryCache(ml);
+
+        byte[] data = new byte[10];
+        entryCache.insert(EntryImpl.create(0, 0, data));
+        entryCache.insert(EntryImpl.create(0, 1, data));
+        entryCache.insert(EntryImpl.create(0, 8, data));
+        entryCache.insert(EntryImpl.create(0, 9, data));
+
+        final CountDownLatch counter = new CountDownLatch(1);
+
+        entryCache.asyncReadEntry(lh, 0, 9, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), 10);
+                entries.forEach(e -> e.release());
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        }, null);
+        counter.await();
+
+        verify(lh, times(1)).asyncReadEntries(anyLong(), anyLong(), any(ReadCallback.class), any());
+    }
+
+    @Test
+    void testSegments() throws Exception {
+        EntryCacheSegmentedImpl entryCache = (EntryCacheSegmentedImpl) factory.getEntryCacheManager()
+                .getEntryCache(ml);
+
+        // Each segment can fit 10 entries
+        for (int i = 0; i < 25; i++) {
+            entryCache.insert(EntryImpl.create(1, i, new byte[10]));
+        }
+
+        assertEquals(entryCache.getSegments(1), Lists.newArrayList(0L, 10L, 20L));
+        assertEquals(entryCache.getSize(), 300);
+        assertEquals(factory.getEntryCacheManager().getSize(), 300);
+
+        // Non contiguous entries go in a new segment
+        entryCache.insert(EntryImpl.create(1, 40, new byte[10]));
+        assertEquals(entryCache.getSegments(1), Lists.newArrayList(0L, 10L, 20L, 40L));
+
+        // A partially invalidated segment is kept in memory
+        entryCache.invalidateEntries(PositionImpl.get(1, 14));
+        assertEquals(entryCache.getSegments(1), Lists.newArrayList(10L, 20L, 40L));
+        assertEquals(entryCache.getSize(), 300);
+
+        // Invalidated entries are not returned, nor inserted again
+        LedgerHandle lh = getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 1);
+        assertEquals(entryCache.getCachedEntries(PositionImpl.get(1, 12), PositionImpl.get(1, 16)).size(), 0);
+        assertFalse(entryCache.insert(EntryImpl.create(1, 12, new byte[10])));
+        List<EntryImpl> cached = Lists.newArrayList(entryCache.getCachedEntries(PositionImpl.get(1, 15),
+                PositionImpl.get(1, 24)));
+        assertEquals(cached.size(), 10);
+        cached.forEach(e -> e.release());
+
+        // Eviction drops whole segments, oldest first
+        assertEquals(entryCache.evictEntries(1).second.longValue(), 100);
+        assertEquals(entryCache.getSegments(1), Lists.newArrayList(20L, 40L));
+
+        entryCache.invalidateAllEntries(1);
+        assertEquals(entryCache.getSegments(1), Lists.newArrayList());
+        assertEquals(entryCache.getSize(), 0);
+        assertEquals(factory.getEntryCacheManager().getSize(), 0);
+    }
+
+    @Test
+    void testEntriesOutliveEviction() throws Exception {
+        EntryCacheSegmentedImpl entryCache = (EntryCacheSegmentedImpl) factory.getEntryCacheManager()
+                .getEntryCache(ml);
+
+        entryCache.insert(EntryImpl.create(1, 0, "hello".getBytes()));
+        EntryImpl entry = entryCache.getCachedEntry(PositionImpl.get(1, 0));
+
+        entryCache.clear();
+        assertEquals(entryCache.getSize(), 0);
+
+        // The entry still holds a reference to the segment memory
+        assertEquals(new String(entry.getDataAndRelease()), "hello");
+    }
+
+    private static LedgerHandle getLedgerHandle() {
+        final LedgerHandle lh = mock(LedgerHandle.class);
+        final LedgerEntry ledgerEntry = mock(LedgerEntry.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.doReturn(new byte[10]).when(ledgerEntry).getEntry();
+        Mockito.doReturn(Unpooled.wrappedBuffer(new byte[10])).when(ledgerEntry).getEntryBuffer();
+        Mockito.doReturn((long) 10).when(ledgerEntry).getLength();
+
+        doAnswer(invocation -> {
+            Object[] args = invocation.getArguments();
+            long firstEntry = (Long) args[0];
+            long lastEntry = (Long) args[1];
+            ReadCallback callback = (ReadCallback) args[2];
+            Object ctx = args[3];
+
+            Vector<LedgerEntry> entries = new Vector<LedgerEntry>();
+            for (int i = 0; i <= (lastEntry - firstEntry); i++) {
+                entries.add(ledgerEntry);
+            }
+            callback.readComplete(0, lh, entries.elements(), ctx);
+            return null;
+        }).when(lh).asyncReadEntries(anyLong(), anyLong(), any(ReadCallback.class), any());
+
+        return lh;
+    }
+}
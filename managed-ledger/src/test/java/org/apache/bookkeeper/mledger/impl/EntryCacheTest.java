@@ -20,14 +20,19 @@ package org.apache.bookkeeper.mledger.impl;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.assertEquals;
 
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.client.AsyncCallback.ReadCallback;
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.LedgerEntry;
@@ -36,6 +41,9 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.Commands.ChecksumType;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -89,6 +97,101 @@ public class EntryCacheTest extends MockedBookKeeperTestCase {
         verify(lh, never()).asyncReadEntries(anyLong(), anyLong(), any(ReadCallback.class), any());
     }
 
+    @Test(timeOut = 5000)
+    void testReadMessageMetadata() throws Exception {
+        LedgerHandle lh = getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache entryCache = cacheManager.getEntryCache(ml);
+
+        MessageMetadata msgMetadata = MessageMetadata.newBuilder().setProducerName("prod-name").setSequenceId(0)
+                .setPublishTime(1000).setNumMessagesInBatch(5).build();
+        ByteBuf data = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, msgMetadata,
+                Unpooled.wrappedBuffer("payload".getBytes()));
+        msgMetadata.recycle();
+        int dataLength = data.readableBytes();
+        entryCache.insert(EntryImpl.create(0, 0, data));
+        data.release();
+
+        // Not a valid message
+        entryCache.insert(EntryImpl.create(0, 1, new byte[10]));
+
+        final CountDownLatch counter = new CountDownLatch(1);
+
+        entryCache.asyncReadEntry(lh, 0, 1, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), 2);
+                assertEquals(entries.get(0).getBatchSize(), 5);
+                assertEquals(entries.get(0).getPublishTime(), 1000);
+                assertEquals(entries.get(0).getLength(), dataLength);
+                assertEquals(entries.get(1).getBatchSize(), -1);
+                assertEquals(entries.get(1).getPublishTime(), -1);
+                assertEquals(entries.get(1).getLength(), 10);
+                entries.forEach(e -> e.release());
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        }, null);
+        counter.await();
+    }
+
+    @Test(timeOut = 5000)
+    void testMessageMetadataParsedOnce() throws Exception {
+        LedgerHandle lh = getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache entryCache = cacheManager.getEntryCache(ml);
+
+        MessageMetadata msgMetadata = MessageMetadata.newBuilder().setProducerName("prod-name").setSequenceId(0)
+                .setPublishTime(1000).setNumMessagesInBatch(5).build();
+        ByteBuf data = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, msgMetadata,
+                Unpooled.wrappedBuffer("payload".getBytes()));
+        msgMetadata.recycle();
+        entryCache.insert(EntryImpl.create(0, 0, data));
+        data.release();
+
+        // Overwrite the data shared by the cached entry and its copies, from now on every parse of the message
+        // metadata fails
+        Entry firstRead = readEntry(entryCache, lh);
+        ByteBuf cachedData = firstRead.getDataBuffer();
+        cachedData.setZero(cachedData.readerIndex(), cachedData.readableBytes());
+        EntryImpl reparsedEntry = EntryImpl.create(0, 0, firstRead.getData());
+        assertEquals(reparsedEntry.getBatchSize(), -1);
+        reparsedEntry.release();
+        firstRead.release();
+
+        // Dispatching the entry to many subscriptions, each with its own read of the cache, never parses it again
+        final int numSubscriptions = 1000;
+        int reparsedEntries = 0;
+        for (int i = 0; i < numSubscriptions; i++) {
+            Entry entry = readEntry(entryCache, lh);
+            if (entry.getBatchSize() != 5 || entry.getPublishTime() != 1000) {
+                ++reparsedEntries;
+            }
+            entry.release();
+        }
+        assertEquals(reparsedEntries, 0);
+    }
+
+    private static Entry readEntry(EntryCache entryCache, LedgerHandle lh) throws Exception {
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        entryCache.asyncReadEntry(lh, 0, 0, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                future.complete(entries.get(0));
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null);
+        return future.get();
+    }
+
     @Test(timeOut = 5000)
     void testReadMissingBefore() throws Exception {
         LedgerHandle lh = getLedgerHandle();
@@ -238,6 +341,114 @@ public class EntryCacheTest extends MockedBookKeeperTestCase {
         counter.await();
     }
 
+    @Test(timeOut = 5000)
+    void testConcurrentReadsAreCoalesced() throws Exception {
+        final LedgerHandle lh = getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        // Hold the bookkeeper reads until all the requests are issued
+        final List<Object[]> pendingBkReads = new Vector<>();
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                pendingBkReads.add(invocation.getArguments());
+                return null;
+            }
+        }).when(lh).asyncReadEntries(anyLong(), anyLong(), any(ReadCallback.class), any());
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache entryCache = cacheManager.getEntryCache(ml);
+
+        final CountDownLatch counter = new CountDownLatch(3);
+        final List<Integer> results = new Vector<>();
+        ReadEntriesCallback callback = new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                results.add(entries.size());
+                entries.forEach(e -> e.release());
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        };
+
+        entryCache.asyncReadEntry(lh, 0, 9, false, callback, null);
+        entryCache.asyncReadEntry(lh, 0, 9, false, callback, null);
+        entryCache.asyncReadEntry(lh, 5, 14, false, callback, null);
+
+        // The second read is attached to the first one, the third one only reads the entries after the first read
+        verify(lh, times(1)).asyncReadEntries(eq(0L), eq(9L), any(ReadCallback.class), any());
+        verify(lh, times(1)).asyncReadEntries(eq(10L), eq(14L), any(ReadCallback.class), any());
+        assertEquals(pendingBkReads.size(), 2);
+
+        for (Object[] args : pendingBkReads) {
+            Vector<LedgerEntry> entries = new Vector<LedgerEntry>();
+            for (long i = (Long) args[0]; i <= (Long) args[1]; i++) {
+                LedgerEntry ledgerEntry = mock(LedgerEntry.class, Mockito.CALLS_REAL_METHODS);
+                doReturn(Unpooled.wrappedBuffer(new byte[10])).when(ledgerEntry).getEntryBuffer();
+                entries.add(ledgerEntry);
+            }
+            ((ReadCallback) args[2]).readComplete(0, lh, entries.elements(), args[3]);
+        }
+
+        counter.await();
+        results.sort(null);
+        assertEquals(results, Lists.newArrayList(10, 10, 10));
+        factory.mbean.refreshStats(1, TimeUnit.SECONDS);
+        assertEquals(factory.mbean.getCoalescedReadsRate(), 15.0);
+    }
+
+    @Test(timeOut = 5000)
+    void testReadAttachedToPrefetch() throws Exception {
+        final LedgerHandle lh = getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        // Hold the bookkeeper reads until all the requests are issued
+        final List<Object[]> pendingBkReads = new Vector<>();
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                pendingBkReads.add(invocation.getArguments());
+                return null;
+            }
+        }).when(lh).asyncReadEntries(anyLong(), anyLong(), any(ReadCallback.class), any());
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache entryCache = cacheManager.getEntryCache(ml);
+
+        final CountDownLatch counter = new CountDownLatch(2);
+        final List<Integer> results = new Vector<>();
+        ReadEntriesCallback callback = new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                results.add(entries.size());
+                entries.forEach(e -> e.release());
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        };
+
+        // A cursor reading entries that are being prefetched doesn't read them again from bookkeeper
+        entryCache.asyncPrefetchEntries(lh, 0, 9, callback, null);
+        entryCache.asyncReadEntry(lh, 2, 5, false, callback, null);
+        verify(lh, times(1)).asyncReadEntries(anyLong(), anyLong(), any(ReadCallback.class), any());
+        assertEquals(pendingBkReads.size(), 1);
+
+        Object[] args = pendingBkReads.get(0);
+        Vector<LedgerEntry> entries = new Vector<LedgerEntry>();
+        for (long i = 0; i <= 9; i++) {
+            LedgerEntry ledgerEntry = mock(LedgerEntry.class, Mockito.CALLS_REAL_METHODS);
+            doReturn(Unpooled.wrappedBuffer(new byte[10])).when(ledgerEntry).getEntryBuffer();
+            entries.add(ledgerEntry);
+        }
+        ((ReadCallback) args[2]).readComplete(0, lh, entries.elements(), args[3]);
+
+        counter.await();
+        results.sort(null);
+        assertEquals(results, Lists.newArrayList(4, 10));
+    }
+
     private static LedgerHandle getLedgerHandle() {
         final LedgerHandle lh = mock(LedgerHandle.class);
         final LedgerEntry ledgerEntry = mock(LedgerEntry.class, Mockito.CALLS_REAL_METHODS);
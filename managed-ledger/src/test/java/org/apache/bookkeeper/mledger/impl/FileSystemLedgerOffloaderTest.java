@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.OffloadedLedger;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FileSystemLedgerOffloaderTest extends MockedBookKeeperTestCase {
+
+    private static final int NumEntries = 100;
+
+    private File baseDir;
+
+    @BeforeMethod
+    public void setUpOffloadDir(Method method) throws Exception {
+        baseDir = Files.createTempDirectory("offloader").toFile();
+    }
+
+    @AfterMethod
+    public void deleteOffloadDir(Method method) throws Exception {
+        Files.walk(baseDir.toPath()).sorted(Comparator.reverseOrder()).map(p -> p.toFile()).forEach(File::delete);
+    }
+
+    @Test(timeOut = 20000)
+    public void offloadAndRead() throws Exception {
+        ExecutorService offloaderExecutor = Executors.newSingleThreadExecutor();
+        try {
+            // Small blocks and read-ahead, to have reads spanning multiple blocks
+            FileSystemLedgerOffloader offloader = new FileSystemLedgerOffloader(baseDir.getPath(), 100, 250,
+                    offloaderExecutor);
+            LedgerHandle lh = createLedger();
+
+            offloader.offload("my-ledger", lh).get();
+            assertTrue(offloader.getLedgerFile("my-ledger", lh.getId()).isFile());
+
+            OffloadedLedger ledger = offloader.openOffloadedLedger("my-ledger", lh.getId()).get();
+            assertEquals(ledger.getId(), lh.getId());
+            assertEquals(ledger.getLastEntryId(), NumEntries - 1);
+            assertEquals(ledger.getLength(), lh.getLength());
+
+            // Sequential reads
+            for (int i = 0; i < NumEntries; i += 7) {
+                int last = Math.min(i + 6, NumEntries - 1);
+                checkEntries(readEntries(ledger, i, last), lh.getId(), i, last);
+            }
+
+            // Random reads, going backward
+            checkEntries(readEntries(ledger, 90, 99), lh.getId(), 90, 99);
+            checkEntries(readEntries(ledger, 0, 0), lh.getId(), 0, 0);
+            checkEntries(readEntries(ledger, 42, 42), lh.getId(), 42, 42);
+            checkEntries(readEntries(ledger, 0, NumEntries - 1), lh.getId(), 0, NumEntries - 1);
+
+            try {
+                readEntries(ledger, 99, 100);
+                fail("Should have failed");
+            } catch (ExecutionException e) {
+                assertEquals(e.getCause().getClass(), ManagedLedgerException.class);
+            }
+
+            ledger.close();
+
+            offloader.deleteOffloadedLedger("my-ledger", lh.getId()).get();
+            assertFalse(offloader.getLedgerFile("my-ledger", lh.getId()).exists());
+
+            try {
+                offloader.openOffloadedLedger("my-ledger", lh.getId()).get();
+                fail("Should have failed");
+            } catch (ExecutionException e) {
+                // Expected
+            }
+        } finally {
+            offloaderExecutor.shutdown();
+        }
+    }
+
+    private LedgerHandle createLedger() throws Exception {
+        LedgerHandle lh = bkc.createLedger(DigestType.MAC, new byte[0]);
+        for (int i = 0; i < NumEntries; i++) {
+            lh.addEntry(("entry-" + i).getBytes());
+        }
+        lh.close();
+        return lh;
+    }
+
+    private static List<Entry> readEntries(OffloadedLedger ledger, long first, long last) throws Exception {
+        CompletableFuture<List<Entry>> future = new CompletableFuture<>();
+        ledger.asyncReadEntries(first, last, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                future.complete(entries);
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null);
+        return future.get();
+    }
+
+    private static void checkEntries(List<Entry> entries, long ledgerId, long first, long last) {
+        assertEquals(entries.size(), last - first + 1);
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            assertEquals(entry.getLedgerId(), ledgerId);
+            assertEquals(entry.getEntryId(), first + i);
+            assertEquals(new String(entry.getData()), "entry-" + (first + i));
+            entry.release();
+        }
+    }
+}
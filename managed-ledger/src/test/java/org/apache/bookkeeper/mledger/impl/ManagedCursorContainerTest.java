@@ -23,6 +23,7 @@ import static org.testng.Assert.*;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -155,6 +156,16 @@ public class ManagedCursorContainerTest {
         public void asyncDelete(Position position, DeleteCallback callback, Object ctx) {
         }
 
+        @Override
+        public void asyncDeleteBatchIndexes(Position position, BitSet deletedIndexes, DeleteCallback callback,
+                Object ctx) {
+        }
+
+        @Override
+        public BitSet getDeletedBatchIndexes(Position position) {
+            return null;
+        }
+
         @Override
         public void clearBacklog() throws InterruptedException, ManagedLedgerException {
         }
@@ -184,6 +195,11 @@ public class ManagedCursorContainerTest {
                 AsyncCallbacks.FindEntryCallback callback, Object ctx) {
         }
 
+        @Override
+        public void asyncFindNewestMatchingPublishTime(FindPositionConstraint constraint, long timestamp,
+                Predicate<Entry> condition, AsyncCallbacks.FindEntryCallback callback, Object ctx) {
+        }
+
         @Override
         public void asyncResetCursor(final Position position, AsyncCallbacks.ResetCursorCallback callback) {
 
@@ -267,6 +283,15 @@ public class ManagedCursorContainerTest {
         public double getThrottleMarkDelete() {
             return -1;
         }
+
+        @Override
+        public void setTailing(boolean tailing) {
+        }
+
+        @Override
+        public boolean isTailing() {
+            return false;
+        }
     }
 
     @Test
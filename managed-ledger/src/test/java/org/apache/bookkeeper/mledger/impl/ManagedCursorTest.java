@@ -23,13 +23,17 @@ import static org.testng.Assert.*;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
@@ -46,6 +50,7 @@ import org.apache.bookkeeper.client.BookKeeper.DigestType;
 import org.apache.bookkeeper.client.LedgerEntry;
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.AddEntryCallback;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.MarkDeleteCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.Entry;
@@ -64,6 +69,9 @@ import org.apache.bookkeeper.mledger.impl.MetaStore.Stat;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
 import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.Commands.ChecksumType;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.Test;
@@ -790,6 +798,86 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         factory2.shutdown();
     }
 
+    @Test(timeOut = 20000)
+    void testDeleteBatchIndexes() throws Exception {
+        ManagedLedger ledger = factory.open("my_test_ledger");
+        ManagedCursor c1 = ledger.openCursor("c1");
+        Position p0 = c1.getMarkDeletedPosition();
+        Position p1 = ledger.addEntry("dummy-entry-1".getBytes(Encoding));
+        Position p2 = ledger.addEntry("dummy-entry-2".getBytes(Encoding));
+        Position p3 = ledger.addEntry("dummy-entry-3".getBytes(Encoding));
+
+        assertNull(c1.getDeletedBatchIndexes(p1));
+
+        BitSet deleted = new BitSet();
+        deleted.set(0, 3);
+        deleteBatchIndexes(c1, p2, deleted);
+        deleted = new BitSet();
+        deleted.set(5);
+        deleteBatchIndexes(c1, p2, deleted);
+
+        BitSet expected = new BitSet();
+        expected.set(0, 3);
+        expected.set(5);
+        assertEquals(c1.getDeletedBatchIndexes(p2), expected);
+        assertNull(c1.getDeletedBatchIndexes(p1));
+        assertEquals(c1.getMarkDeletedPosition(), p0);
+        assertEquals(c1.getNumberOfEntriesInBacklog(), 3);
+
+        // The indexes are persisted in the cursor ledger along with the next mark-delete position
+        c1.delete(p1);
+
+        // Reopen without closing the cursor
+        ManagedLedgerFactory factory2 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = factory2.open("my_test_ledger");
+        c1 = ledger.openCursor("c1");
+
+        assertEquals(c1.getMarkDeletedPosition(), p1);
+        assertEquals(c1.getDeletedBatchIndexes(p2), expected);
+
+        // When the cursor is closed, the indexes are persisted in its z-node
+        ledger.close();
+        ManagedLedgerFactory factory3 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = factory3.open("my_test_ledger");
+        c1 = ledger.openCursor("c1");
+
+        assertEquals(c1.getMarkDeletedPosition(), p1);
+        assertEquals(c1.getDeletedBatchIndexes(p2), expected);
+
+        // Once the whole entry is deleted, the indexes are not needed anymore
+        c1.delete(p2);
+        assertNull(c1.getDeletedBatchIndexes(p2));
+
+        deleteBatchIndexes(c1, p3, deleted);
+        assertEquals(c1.getDeletedBatchIndexes(p3), deleted);
+        c1.markDelete(p3);
+        assertNull(c1.getDeletedBatchIndexes(p3));
+        assertEquals(c1.getNumberOfEntriesInBacklog(), 0);
+
+        // Positions already deleted are ignored
+        deleteBatchIndexes(c1, p3, deleted);
+        assertNull(c1.getDeletedBatchIndexes(p3));
+        factory2.shutdown();
+        factory3.shutdown();
+    }
+
+    private static void deleteBatchIndexes(ManagedCursor cursor, Position position, BitSet indexes)
+            throws Exception {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        cursor.asyncDeleteBatchIndexes(position, indexes, new DeleteCallback() {
+            @Override
+            public void deleteComplete(Object ctx) {
+                future.complete(null);
+            }
+
+            @Override
+            public void deleteFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null);
+        future.get();
+    }
+
     @Test(timeOut = 20000)
     void cursorPersistence2() throws Exception {
         ManagedLedger ledger = factory.open("my_test_ledger",
@@ -1133,6 +1221,100 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         }
     }
 
+    @Test(timeOut = 20000)
+    void testIndividualDeletesWithBitSet() throws Exception {
+        ManagedLedgerConfig config = new ManagedLedgerConfig().setMaxEntriesPerLedger(3)
+                .setUnackedRangesBitSetEnabled(true);
+        ManagedLedger ledger = factory.open("my_test_ledger", config);
+        ManagedCursor cursor = ledger.openCursor("c1");
+
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            positions.add(ledger.addEntry(("entry-" + i).getBytes(Encoding)));
+        }
+
+        Position p0 = cursor.getMarkDeletedPosition();
+
+        // Leave holes in the first 2 ledgers
+        cursor.delete(positions.get(1));
+        cursor.delete(positions.get(3));
+        cursor.delete(positions.get(4));
+        assertEquals(cursor.getMarkDeletedPosition(), p0);
+        assertEquals(cursor.getNumberOfEntriesInBacklog(), 9 - 3);
+        assertEquals(((ManagedCursorImpl) cursor).getTotalNonContiguousDeletedMessagesRange(), 2);
+
+        ledger.close();
+        factory.shutdown();
+
+        // Re-Open, the holes are recovered
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = factory.open("my_test_ledger", config);
+        cursor = ledger.openCursor("c1");
+        assertEquals(cursor.getMarkDeletedPosition(), p0);
+        assertEquals(cursor.getNumberOfEntriesInBacklog(), 9 - 3);
+
+        List<Entry> entries = cursor.readEntries(9);
+        assertEquals(entries.size(), 9 - 3);
+        List<String> entriesStr = entries.stream().map(e -> new String(e.getDataAndRelease(), Encoding))
+                .collect(Collectors.toList());
+        assertEquals(entriesStr, Lists.newArrayList("entry-0", "entry-2", "entry-5", "entry-6", "entry-7",
+                "entry-8"));
+
+        // Filling the holes moves the mark-delete position across ledgers
+        cursor.delete(positions.get(0));
+        assertEquals(cursor.getMarkDeletedPosition(), positions.get(1));
+
+        cursor.delete(positions.get(2));
+        assertEquals(cursor.getMarkDeletedPosition(), positions.get(4));
+        assertEquals(((ManagedCursorImpl) cursor).getTotalNonContiguousDeletedMessagesRange(), 0);
+        assertEquals(cursor.getNumberOfEntriesInBacklog(), 4);
+    }
+
+    @Test(timeOut = 20000)
+    void testRecoverCrossLedgerRangeWithBitSet() throws Exception {
+        ManagedLedgerConfig config = new ManagedLedgerConfig().setMaxEntriesPerLedger(3);
+        ManagedLedger ledger = factory.open("my_test_ledger", config);
+        ManagedCursor cursor = ledger.openCursor("c1");
+
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            positions.add(ledger.addEntry(("entry-" + i).getBytes(Encoding)));
+        }
+
+        Position p0 = cursor.getMarkDeletedPosition();
+
+        // The default range set keeps a single range spanning the 3 ledgers
+        for (int i = 2; i <= 6; i++) {
+            cursor.delete(positions.get(i));
+        }
+        assertEquals(((ManagedCursorImpl) cursor).getTotalNonContiguousDeletedMessagesRange(), 1);
+
+        ledger.close();
+        factory.shutdown();
+
+        // Re-Open with the bitmap range set, the range is split at the ledger boundaries
+        config.setUnackedRangesBitSetEnabled(true);
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = factory.open("my_test_ledger", config);
+        cursor = ledger.openCursor("c1");
+        assertEquals(cursor.getMarkDeletedPosition(), p0);
+        assertEquals(cursor.getNumberOfEntriesInBacklog(), 9 - 5);
+        assertEquals(((ManagedCursorImpl) cursor).getTotalNonContiguousDeletedMessagesRange(), 3);
+
+        List<Entry> entries = cursor.readEntries(9);
+        List<String> entriesStr = entries.stream().map(e -> new String(e.getDataAndRelease(), Encoding))
+                .collect(Collectors.toList());
+        assertEquals(entriesStr, Lists.newArrayList("entry-0", "entry-1", "entry-7", "entry-8"));
+
+        // The mark-delete position moves through all the ledgers of the split range at once
+        cursor.delete(positions.get(0));
+        assertEquals(cursor.getMarkDeletedPosition(), positions.get(0));
+        cursor.delete(positions.get(1));
+        assertEquals(cursor.getMarkDeletedPosition(), positions.get(6));
+        assertEquals(((ManagedCursorImpl) cursor).getTotalNonContiguousDeletedMessagesRange(), 0);
+        assertEquals(cursor.getNumberOfEntriesInBacklog(), 2);
+    }
+
     @Test(timeOut = 20000)
     void testFilteringReadEntries() throws Exception {
         ManagedLedger ledger = factory.open("my_test_ledger", new ManagedLedgerConfig().setMaxEntriesPerLedger(3));
@@ -1488,6 +1670,103 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         counter.await();
     }
 
+    @Test(timeOut = 10000)
+    void testReadEntriesOrWaitBroadcast() throws Exception {
+        ManagedLedger ledger = factory.open("my_test_ledger");
+
+        final int Consumers = 5;
+        final CountDownLatch counter = new CountDownLatch(Consumers);
+        final List<String> received = Collections.synchronizedList(Lists.newArrayList());
+
+        for (int i = 0; i < Consumers; i++) {
+            ManagedCursor c = ledger.openCursor("c" + i);
+
+            c.asyncReadEntriesOrWait(10, new ReadEntriesCallback() {
+                @Override
+                public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                    entries.forEach(e -> {
+                        received.add(new String(e.getData(), Encoding));
+                        e.release();
+                    });
+                    counter.countDown();
+                }
+
+                @Override
+                public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                    log.error("Error reading", exception);
+                }
+            }, null);
+        }
+
+        // Wait for all the cursors to be registered for notification
+        Thread.sleep(100);
+
+        Position position = ledger.addEntry("entry-1".getBytes(Encoding));
+        counter.await();
+
+        // The entry was handed to all the cursors waiting for it
+        assertEquals(received, Collections.nCopies(Consumers, "entry-1"));
+        factory.mbean.refreshStats(1, TimeUnit.SECONDS);
+        assertEquals(factory.getCacheStats().getBroadcastEntriesRate(), (double) Consumers);
+        for (ManagedCursor c : ledger.getCursors()) {
+            assertEquals(c.getReadPosition(), ((PositionImpl) position).getNext());
+        }
+    }
+
+    @Test(timeOut = 10000)
+    void testReadEntriesOrWaitTailing() throws Exception {
+        ManagedLedger ledger = factory.open("my_test_ledger");
+        ManagedCursor c1 = ledger.openCursor("c1");
+        c1.setTailing(true);
+        assertTrue(c1.isTailing());
+
+        // A lagging tailing cursor reads the entries as usual
+        ledger.addEntry("entry-1".getBytes(Encoding));
+        ledger.addEntry("entry-2".getBytes(Encoding));
+        List<Entry> entries = c1.readEntriesOrWait(10);
+        assertEquals(entries.size(), 2);
+        entries.forEach(e -> e.release());
+
+        final CompletableFuture<Thread> readThread = new CompletableFuture<>();
+        final List<String> received = Lists.newArrayList();
+        c1.asyncReadEntriesOrWait(10, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                entries.forEach(e -> {
+                    received.add(new String(e.getData(), Encoding));
+                    e.release();
+                });
+                readThread.complete(Thread.currentThread());
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                readThread.completeExceptionally(exception);
+            }
+        }, null);
+
+        // The tailing cursor registers right away for the notification
+        assertEquals(((ManagedLedgerImpl) ledger).waitingCursors.size(), 1);
+
+        final CompletableFuture<Thread> addThread = new CompletableFuture<>();
+        ledger.asyncAddEntry("entry-3".getBytes(Encoding), new AddEntryCallback() {
+            @Override
+            public void addComplete(Position position, Object ctx) {
+                addThread.complete(Thread.currentThread());
+            }
+
+            @Override
+            public void addFailed(ManagedLedgerException exception, Object ctx) {
+                addThread.completeExceptionally(exception);
+            }
+        }, null);
+
+        // The entry was pushed to the cursor in the thread that completed the write
+        assertEquals(readThread.get(), addThread.get());
+        assertEquals(received, Lists.newArrayList("entry-3"));
+        assertFalse(c1.hasMoreEntries());
+    }
+
     @Test(timeOut = 20000)
     void testReadEntriesOrWaitBlocking() throws Exception {
         ManagedLedger ledger = factory.open("my_test_ledger");
@@ -2109,6 +2388,49 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         }
     }
 
+    @Test(timeOut = 20000)
+    void testReplayEntriesInOrder() throws Exception {
+        ManagedLedger ledger = factory.open("my_test_ledger", new ManagedLedgerConfig().setMaxEntriesPerLedger(5));
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+
+        List<PositionImpl> added = Lists.newArrayList();
+        for (int i = 0; i < 12; i++) {
+            added.add((PositionImpl) ledger.addEntry(("entry-" + i).getBytes(Encoding)));
+        }
+        c1.delete(added.get(3));
+
+        // Contiguous positions across ledgers, with holes and an acknowledged position
+        Set<PositionImpl> positions = Sets.newHashSet();
+        for (int i : new int[] { 9, 1, 2, 3, 4, 5, 6, 11 }) {
+            positions.add(added.get(i));
+        }
+
+        List<Entry> entries = Lists.newArrayList();
+        CountDownLatch latch = new CountDownLatch(1);
+        Set<? extends Position> skipped = c1.asyncReplayEntries(positions, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> readEntries, Object ctx) {
+                entries.addAll(readEntries);
+                latch.countDown();
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                latch.countDown();
+            }
+        }, null);
+        latch.await();
+
+        assertEquals(skipped, Sets.newHashSet(added.get(3)));
+        List<String> data = Lists.newArrayList();
+        entries.forEach(entry -> {
+            data.add(new String(entry.getData(), Encoding));
+            entry.release();
+        });
+        assertEquals(data, Lists.newArrayList("entry-1", "entry-2", "entry-4", "entry-5", "entry-6", "entry-9",
+                "entry-11"));
+    }
+
     @Test(timeOut = 20000)
     void outOfOrderAcks() throws Exception {
         ManagedLedger ledger = factory.open("outOfOrderAcks");
@@ -2396,6 +2718,46 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         factory2.shutdown();
     }
 
+    @Test(timeOut = 20000)
+    public void testUnackedRangesSnapshotPersistenceAfterCrash() throws Exception {
+        ManagedLedgerConfig config = new ManagedLedgerConfig().setMaxUnackedRangesToPersist(10)
+                .setUnackedRangesSnapshotEnabled(true).setUnackedRangesDeltasPerSnapshot(5);
+        ManagedLedger ledger = factory.open("my_test_ledger", config);
+
+        ManagedCursor c1 = ledger.openCursor("c1");
+        List<Position> addedPositions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Position p = ledger.addEntry(("dummy-entry-" + i).getBytes(Encoding));
+            addedPositions.add(p);
+        }
+
+        // Acknowledge every other message, leaving many more holes than the ones that fit in a single entry
+        for (int i = 1; i < 100; i += 2) {
+            c1.delete(addedPositions.get(i));
+        }
+
+        assertEquals(c1.getNumberOfEntriesInBacklog(), 50);
+
+        // Re-Open
+        ManagedLedgerFactory factory2 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = factory2.open("my_test_ledger", config);
+        c1 = ledger.openCursor("c1");
+        assertEquals(c1.getNumberOfEntriesInBacklog(), 50);
+        assertEquals(((ManagedCursorImpl) c1).getTotalNonContiguousDeletedMessagesRange(), 50);
+
+        List<Entry> entries = c1.readEntries(100);
+        assertEquals(entries.size(), 50);
+
+        List<String> entriesStr = entries.stream().map(e -> new String(e.getDataAndRelease(), Encoding))
+                .collect(Collectors.toList());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(entriesStr.get(i), "dummy-entry-" + (i * 2));
+        }
+
+        assertFalse(c1.hasMoreEntries());
+        factory2.shutdown();
+    }
+
     /**
      * <pre>
      * Verifies that {@link ManagedCursorImpl#createNewMetadataLedger()} cleans up orphan ledgers if fails to switch new
@@ -2607,5 +2969,80 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         assertEquals(entries.size(), totalAddEntries / 2);
     }
 
+    @Test(timeOut = 20000)
+    public void testFindNewestMatchingWithPublishTimeIndex() throws Exception {
+        ManagedLedgerConfig config = new ManagedLedgerConfig();
+        config.setMaxEntriesPerLedger(50);
+        config.setPublishTimeIndexInterval(10);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("my_test_ledger", config);
+        ManagedCursor c1 = ledger.openCursor("c1");
+
+        List<Position> positions = Lists.newArrayList();
+        for (int i = 0; i < 210; i++) {
+            MessageMetadata msgMetadata = MessageMetadata.newBuilder().setProducerName("prod-name")
+                    .setSequenceId(i).setPublishTime(1000 + i).build();
+            ByteBuf entry = Commands.serializeMetadataAndPayload(ChecksumType.None, msgMetadata,
+                    Unpooled.wrappedBuffer(("entry-" + i).getBytes(Encoding)));
+            byte[] data = new byte[entry.readableBytes()];
+            entry.readBytes(data);
+            entry.release();
+            msgMetadata.recycle();
+            positions.add(ledger.addEntry(data));
+        }
+
+        AtomicInteger reads = new AtomicInteger();
+        assertEquals(findPositionByPublishTime(c1, 1123, reads), positions.get(123));
+        // The index restricts the search to 10 entries
+        assertTrue(reads.get() <= 6, "Too many entries read: " + reads.get());
+
+        reads.set(0);
+        assertEquals(findPositionByPublishTime(c1, 2000, reads), positions.get(209));
+        reads.set(0);
+        assertNull(findPositionByPublishTime(c1, 500, reads));
+
+        // The closed ledgers have their index stored in the ledger metadata
+        ManagedLedgerFactory factory2 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory2.open("my_test_ledger", config);
+        c1 = ledger.openCursor("c1");
+
+        reads.set(0);
+        assertEquals(findPositionByPublishTime(c1, 1123, reads), positions.get(123));
+        assertTrue(reads.get() <= 6, "Too many entries read: " + reads.get());
+        reads.set(0);
+        assertEquals(findPositionByPublishTime(c1, 1205, reads), positions.get(205));
+
+        factory2.shutdown();
+    }
+
+    private Position findPositionByPublishTime(ManagedCursor c1, long timestamp, AtomicInteger reads)
+            throws Exception {
+        CompletableFuture<Position> future = new CompletableFuture<>();
+        c1.asyncFindNewestMatchingPublishTime(ManagedCursor.FindPositionConstraint.SearchAllAvailableEntries,
+                timestamp, entry -> {
+                    MessageMetadata msgMetadata = null;
+                    try {
+                        reads.incrementAndGet();
+                        msgMetadata = Commands.parseMessageMetadata(entry.getDataBuffer());
+                        return msgMetadata.getPublishTime() <= timestamp;
+                    } finally {
+                        if (msgMetadata != null) {
+                            msgMetadata.recycle();
+                        }
+                        entry.release();
+                    }
+                }, new AsyncCallbacks.FindEntryCallback() {
+                    @Override
+                    public void findEntryComplete(Position position, Object ctx) {
+                        future.complete(position);
+                    }
+
+                    @Override
+                    public void findEntryFailed(ManagedLedgerException exception, Object ctx) {
+                        future.completeExceptionally(exception);
+                    }
+                }, null);
+        return future.get();
+    }
+
     private static final Logger log = LoggerFactory.getLogger(ManagedCursorTest.class);
 }
@@ -18,14 +18,32 @@
  */
 package org.apache.bookkeeper.mledger.impl;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.OpenLedgerCallback;
 import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.ManagedLedger;
 import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
 import org.apache.bookkeeper.mledger.ManagedLedgerInfo;
 import org.apache.bookkeeper.mledger.ManagedLedgerInfo.CursorInfo;
 import org.apache.bookkeeper.mledger.ManagedLedgerInfo.MessageRangeInfo;
 import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.ZooKeeper;
 import org.testng.annotations.Test;
 
 public class ManagedLedgerFactoryTest extends MockedBookKeeperTestCase {
@@ -71,4 +89,87 @@ public class ManagedLedgerFactoryTest extends MockedBookKeeperTestCase {
         assertEquals(mri.to.entryId, p3.getEntryId());
     }
 
+    @Test(timeOut = 20000)
+    public void testThrottledRecovery() throws Exception {
+        final int numLedgers = 10;
+        for (int i = 0; i < numLedgers; i++) {
+            ManagedLedger ledger = factory.open("ledger-" + i);
+            ManagedCursor c1 = ledger.openCursor("c1");
+            ledger.openCursor("c2");
+            c1.markDelete(ledger.addEntry("entry".getBytes()));
+            ledger.addEntry("entry".getBytes());
+            ledger.close();
+        }
+
+        ManagedLedgerFactoryImpl factory2 = new ManagedLedgerFactoryImpl(bkc, zkc,
+                new ManagedLedgerFactoryConfig().setMaxConcurrentRecoveries(2));
+
+        final AtomicInteger maxActiveRecoveries = new AtomicInteger();
+        List<CompletableFuture<ManagedLedger>> futures = Lists.newArrayList();
+        for (int i = 0; i < numLedgers; i++) {
+            CompletableFuture<ManagedLedger> future = new CompletableFuture<>();
+            factory2.asyncOpen("ledger-" + i, new OpenLedgerCallback() {
+                @Override
+                public void openLedgerComplete(ManagedLedger ledger, Object ctx) {
+                    maxActiveRecoveries.accumulateAndGet(factory2.getNumberOfActiveRecoveries(), Math::max);
+                    future.complete(ledger);
+                }
+
+                @Override
+                public void openLedgerFailed(ManagedLedgerException exception, Object ctx) {
+                    future.completeExceptionally(exception);
+                }
+            }, null);
+            futures.add(future);
+        }
+
+        for (CompletableFuture<ManagedLedger> future : futures) {
+            ManagedLedgerImpl ledger = (ManagedLedgerImpl) future.get();
+            assertEquals(ledger.getNumberOfEntries(), 2);
+            assertEquals(ledger.openCursor("c1").getNumberOfEntriesInBacklog(), 1);
+            assertEquals(ledger.openCursor("c2").getNumberOfEntriesInBacklog(), 2);
+            assertTrue(ledger.getStats().getRecoveryTimeMillis() >= ledger.getStats().getRecoveryWaitTimeMillis());
+        }
+
+        assertTrue(maxActiveRecoveries.get() <= 2);
+        assertEquals(factory2.getNumberOfActiveRecoveries(), 0);
+        assertEquals(factory2.getNumberOfPendingRecoveries(), 0);
+
+        factory2.mbean.refreshStats(1, TimeUnit.SECONDS);
+        long recovered = 0;
+        for (long count : factory2.mbean.getRecoveryTimeBuckets()) {
+            recovered += count;
+        }
+        assertEquals(recovered, numLedgers);
+
+        factory2.shutdown();
+    }
+
+    @Test(timeOut = 20000)
+    public void testReopenAfterInitializationThrows() throws Exception {
+        ZooKeeper zk = spy(zkc);
+        doThrow(new IllegalStateException("injected")).doCallRealMethod().when(zk).getData(anyString(),
+                anyBoolean(), any(DataCallback.class), any());
+
+        ManagedLedgerFactoryImpl factory2 = new ManagedLedgerFactoryImpl(bkc, zk,
+                new ManagedLedgerFactoryConfig().setMaxConcurrentRecoveries(1));
+
+        try {
+            factory2.open("my_test_ledger");
+            fail("should have failed");
+        } catch (ManagedLedgerException e) {
+            // Expected
+        }
+
+        assertEquals(factory2.getNumberOfActiveRecoveries(), 0);
+        assertTrue(factory2.getManagedLedgers().isEmpty());
+
+        // The failed future must not be cached, the second open recovers the ledger
+        ManagedLedger ledger = factory2.open("my_test_ledger");
+        ledger.addEntry("entry".getBytes());
+        assertEquals(ledger.getNumberOfEntries(), 1);
+
+        factory2.shutdown();
+    }
+
 }
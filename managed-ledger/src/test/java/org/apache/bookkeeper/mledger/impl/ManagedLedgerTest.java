@@ -25,17 +25,23 @@ import com.google.common.collect.Sets;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -575,6 +581,31 @@ public class ManagedLedgerTest extends MockedBookKeeperTestCase {
         counter.await();
     }
 
+    @Test(timeOut = 20000)
+    public void asyncAddEntryWithExecutorShutdown() throws Exception {
+        ManagedLedgerFactoryImpl factory2 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory2.open("my_test_ledger");
+        ledger.addEntry("dummy-entry-1".getBytes(Encoding));
+
+        // The adds can't be handed to the managed ledger anymore, they must fail instead of staying queued
+        ledger.getExecutor().shutdown();
+        for (int i = 0; i < 2; i++) {
+            final CountDownLatch counter = new CountDownLatch(1);
+            ledger.asyncAddEntry("dummy-entry-2".getBytes(Encoding), new AddEntryCallback() {
+                @Override
+                public void addComplete(Position position, Object ctx) {
+                    fail("Should have failed");
+                }
+
+                @Override
+                public void addFailed(ManagedLedgerException exception, Object ctx) {
+                    counter.countDown();
+                }
+            }, null);
+            counter.await();
+        }
+    }
+
     @Test(timeOut = 20000)
     public void asyncCloseWithoutError() throws Exception {
         ManagedLedger ledger = factory.open("my_test_ledger");
@@ -803,6 +834,63 @@ public class ManagedLedgerTest extends MockedBookKeeperTestCase {
         assertEquals(ledger.getNumberOfEntries(), 100);
     }
 
+    @Test(timeOut = 20000)
+    public void testConcurrentAsyncAddEntry() throws Exception {
+        ManagedLedgerConfig config = new ManagedLedgerConfig().setMaxEntriesPerLedger(30);
+        ManagedLedger ledger = factory.open("my_test_ledger", config);
+        ManagedCursor cursor = ledger.openCursor("c1");
+
+        final int numProducers = 8;
+        final int numEntries = 100;
+        final CountDownLatch counter = new CountDownLatch(numProducers * numEntries);
+        final AtomicReference<ManagedLedgerException> error = new AtomicReference<>();
+        final CyclicBarrier barrier = new CyclicBarrier(numProducers);
+        ExecutorService producers = Executors.newFixedThreadPool(numProducers);
+
+        for (int p = 0; p < numProducers; p++) {
+            final int producer = p;
+            producers.submit(() -> {
+                barrier.await();
+                for (int i = 0; i < numEntries; i++) {
+                    ledger.asyncAddEntry((producer + "-" + i).getBytes(Encoding), new AddEntryCallback() {
+                        @Override
+                        public void addComplete(Position position, Object ctx) {
+                            counter.countDown();
+                        }
+
+                        @Override
+                        public void addFailed(ManagedLedgerException exception, Object ctx) {
+                            error.set(exception);
+                            counter.countDown();
+                        }
+                    }, null);
+                }
+                return null;
+            });
+        }
+
+        counter.await();
+        producers.shutdown();
+        assertNull(error.get());
+        assertEquals(ledger.getNumberOfEntries(), numProducers * numEntries);
+
+        // The entries of each producer are stored in the same order they were added
+        int[] lastEntry = new int[numProducers];
+        Arrays.fill(lastEntry, -1);
+        List<Entry> entries = new ArrayList<>();
+        while (entries.size() < numProducers * numEntries) {
+            entries.addAll(cursor.readEntries(numProducers * numEntries - entries.size()));
+        }
+
+        for (Entry entry : entries) {
+            String[] parts = new String(entry.getDataAndRelease(), Encoding).split("-");
+            int producer = Integer.parseInt(parts[0]);
+            int i = Integer.parseInt(parts[1]);
+            assertEquals(i, lastEntry[producer] + 1);
+            lastEntry[producer] = i;
+        }
+    }
+
     @Test(timeOut = 20000)
     public void moveCursorToNextLedger() throws Exception {
         ManagedLedgerConfig config = new ManagedLedgerConfig().setMaxEntriesPerLedger(1);
@@ -2137,6 +2225,98 @@ public class ManagedLedgerTest extends MockedBookKeeperTestCase {
         ledger.close();
     }
 
+    @Test(timeOut = 20000)
+    public void testOffloadPrefix() throws Exception {
+        File baseDir = Files.createTempDirectory("offloader").toFile();
+        ExecutorService offloaderExecutor = Executors.newSingleThreadExecutor();
+        try {
+            // Counts the offloaded copies deleted once their entries are consumed
+            CountDownLatch deletedLedgers = new CountDownLatch(3);
+            FileSystemLedgerOffloader offloader = new FileSystemLedgerOffloader(baseDir.getPath(), 1024, 4096,
+                    offloaderExecutor) {
+                @Override
+                public CompletableFuture<Void> deleteOffloadedLedger(String managedLedgerName, long ledgerId) {
+                    return super.deleteOffloadedLedger(managedLedgerName, ledgerId)
+                            .whenComplete((result, exception) -> deletedLedgers.countDown());
+                }
+            };
+            ManagedLedgerConfig config = new ManagedLedgerConfig().setMaxEntriesPerLedger(2)
+                    .setLedgerOffloader(offloader);
+            ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("my_test_ledger", config);
+            ManagedCursor cursor = ledger.openCursor("c1");
+
+            Position lastPosition = null;
+            for (int i = 0; i < 7; i++) {
+                lastPosition = ledger.addEntry(("entry-" + i).getBytes(Encoding));
+            }
+            assertEquals(ledger.getLedgersInfoAsList().size(), 4);
+            List<Long> offloadedLedgerIds = new ArrayList<>();
+            for (LedgerInfo info : ledger.getLedgersInfoAsList().subList(0, 3)) {
+                offloadedLedgerIds.add(info.getLedgerId());
+            }
+
+            assertEquals(ledger.offloadPrefix(lastPosition), new PositionImpl(lastPosition.getLedgerId(), 0));
+
+            for (LedgerInfo info : ledger.getLedgersInfoAsList()) {
+                assertEquals(info.getOffloaded(), offloadedLedgerIds.contains(info.getLedgerId()));
+            }
+            for (long ledgerId : offloadedLedgerIds) {
+                assertFalse(bkc.getLedgers().contains(ledgerId));
+            }
+            assertEquals(ledger.getNumberOfEntries(), 7);
+
+            // Offloaded entries are still readable, through cursors and by position
+            List<Entry> entries = cursor.readEntries(10);
+            assertEquals(entries.size(), 7);
+            for (int i = 0; i < 7; i++) {
+                assertEquals(new String(entries.get(i).getData(), Encoding), "entry-" + i);
+            }
+            entries.forEach(e -> e.release());
+
+            // Nothing left to offload
+            assertEquals(ledger.offloadPrefix(lastPosition), new PositionImpl(lastPosition.getLedgerId(), 0));
+            ledger.close();
+
+            // Re-open and read the offloaded entries again
+            ManagedLedgerFactory factory2 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+            ledger = (ManagedLedgerImpl) factory2.open("my_test_ledger", config);
+            cursor = ledger.openCursor("c1");
+            cursor.rewind();
+            entries = cursor.readEntries(10);
+            assertEquals(entries.size(), 7);
+            assertEquals(new String(entries.get(0).getData(), Encoding), "entry-0");
+            entries.forEach(e -> e.release());
+
+            // Consuming the entries deletes the offloaded copies
+            cursor.markDelete(lastPosition);
+            ledger.addEntry("entry-7".getBytes(Encoding));
+            ledger.addEntry("entry-8".getBytes(Encoding));
+            deletedLedgers.await();
+            for (long ledgerId : offloadedLedgerIds) {
+                assertFalse(new File(new File(baseDir, "my_test_ledger"), Long.toString(ledgerId)).exists());
+            }
+
+            ledger.close();
+            factory2.shutdown();
+        } finally {
+            offloaderExecutor.shutdown();
+            Files.walk(baseDir.toPath()).sorted(Comparator.reverseOrder()).map(p -> p.toFile()).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testOffloadPrefixWithoutOffloader() throws Exception {
+        ManagedLedger ledger = factory.open("my_test_ledger");
+        Position position = ledger.addEntry("entry".getBytes(Encoding));
+        try {
+            ledger.offloadPrefix(position);
+            fail("Should have failed");
+        } catch (ManagedLedgerException e) {
+            // Expected
+        }
+        ledger.close();
+    }
+
     public ByteBuf getMessageWithMetadata(byte[] data) throws IOException {
         MessageMetadata messageData = MessageMetadata.newBuilder().setPublishTime(System.currentTimeMillis())
                 .setProducerName("prod-name").setSequenceId(0).build();
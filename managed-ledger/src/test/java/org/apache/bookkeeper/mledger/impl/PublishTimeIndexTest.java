@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import org.testng.annotations.Test;
+
+public class PublishTimeIndexTest {
+
+    @Test
+    public void lookup() {
+        PublishTimeIndex index = new PublishTimeIndex(10);
+        assertTrue(index.isEmpty());
+        assertEquals(index.floorEntry(1000), -1);
+        assertEquals(index.higherEntry(1000), -1);
+
+        for (long entryId = 0; entryId < 100; entryId++) {
+            if (index.shouldSample(entryId)) {
+                index.add(entryId, 1000 + entryId);
+            }
+        }
+
+        assertFalse(index.isEmpty());
+        assertEquals(index.getFirstPublishTime(), 1000);
+        assertEquals(index.floorEntry(999), -1);
+        assertEquals(index.higherEntry(999), 0);
+        assertEquals(index.floorEntry(1000), 0);
+        assertEquals(index.higherEntry(1000), 10);
+        assertEquals(index.floorEntry(1055), 50);
+        assertEquals(index.higherEntry(1055), 60);
+        assertEquals(index.floorEntry(2000), 90);
+        assertEquals(index.higherEntry(2000), -1);
+    }
+
+    @Test
+    public void publishTimeGoingBackwards() {
+        PublishTimeIndex index = new PublishTimeIndex(1);
+        index.add(0, 1000);
+        index.add(1, 1010);
+        // Published by a producer with a late clock
+        index.add(2, 1005);
+        index.add(3, 1020);
+
+        assertEquals(index.floorEntry(1005), 0);
+        assertEquals(index.floorEntry(1010), 2);
+        assertEquals(index.higherEntry(1010), 3);
+    }
+
+    @Test
+    public void intervalIsDoubledWhenFull() {
+        PublishTimeIndex index = new PublishTimeIndex(1);
+        for (long entryId = 0; entryId < 10 * PublishTimeIndex.MAX_SAMPLES; entryId++) {
+            if (index.shouldSample(entryId)) {
+                index.add(entryId, 1000 + entryId);
+            }
+        }
+
+        // The interval has been doubled 4 times
+        assertFalse(index.shouldSample(8));
+        assertTrue(index.shouldSample(10 * PublishTimeIndex.MAX_SAMPLES));
+        assertEquals(index.floorEntry(1000 + 17), 16);
+        assertEquals(index.higherEntry(1000 + 17), 32);
+        long lastEntryId = 10 * PublishTimeIndex.MAX_SAMPLES - 1;
+        assertEquals(index.floorEntry(1000 + lastEntryId), lastEntryId + 1 - 16);
+    }
+
+    @Test
+    public void serialization() throws Exception {
+        PublishTimeIndex index = new PublishTimeIndex(5);
+        for (long entryId = 0; entryId < 1000; entryId++) {
+            if (index.shouldSample(entryId)) {
+                index.add(entryId, 1500000000000L + entryId * 3);
+            }
+        }
+
+        ByteString data = index.toByteString();
+        PublishTimeIndex recovered = PublishTimeIndex.parseFrom(data);
+        assertEquals(recovered.toString(), index.toString());
+        assertEquals(recovered.toByteString(), data);
+        assertTrue(recovered.shouldSample(1000 + 2 * 5));
+
+        assertTrue(PublishTimeIndex.parseFrom(new PublishTimeIndex(5).toByteString()).isEmpty());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void invalidData() throws Exception {
+        PublishTimeIndex.parseFrom(ByteString.copyFrom(new byte[] { (byte) 0xff }));
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.testng.annotations.Test;
+
+@Test
+public class ReadAheadManagerTest extends MockedBookKeeperTestCase {
+
+    @Test(timeOut = 20000)
+    void sequentialReads() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setReadAheadEnabled(true);
+        config.setReadAheadMaxEntries(10);
+
+        factory.shutdown();
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+        assertTrue(factory.getReadAheadManager().isEnabled());
+
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("read-ahead");
+        ManagedCursorImpl cursor = (ManagedCursorImpl) ledger.openCursor("c1");
+
+        for (int i = 0; i < 30; i++) {
+            ledger.addEntry(("entry-" + i).getBytes());
+        }
+
+        // Simulate a cursor that has fallen behind, for which the entries are not in cache anymore
+        ledger.deactivateCursor(cursor);
+        assertEquals(ledger.entryCache.getSize(), 0);
+
+        // The first read doesn't trigger any prefetch
+        readAndRelease(cursor, 2);
+        Thread.sleep(100);
+        assertEquals(ledger.entryCache.getSize(), 0);
+
+        // Second sequential read: the next 10 entries are prefetched
+        readAndRelease(cursor, 2);
+        long prefetchedSize = 6 * "entry-4".length() + 4 * "entry-10".length();
+        while (ledger.entryCache.getSize() < prefetchedSize) {
+            Thread.sleep(10);
+        }
+        assertEquals(ledger.entryCache.getSize(), prefetchedSize);
+        assertEquals(cursor.getReadAheadHits(), 0);
+        assertEquals(cursor.getReadAheadMisses(), 0);
+
+        // Following reads are served by the prefetched entries
+        readAndRelease(cursor, 2);
+        readAndRelease(cursor, 2);
+        assertEquals(cursor.getReadAheadHits(), 2);
+        assertEquals(cursor.getReadAheadMisses(), 0);
+
+        // After a seek the cursor is not sequential anymore
+        cursor.seek(PositionImpl.get(ledger.getLastPosition().getLedgerId(), 25));
+        readAndRelease(cursor, 2);
+        assertEquals(cursor.getReadAheadHits(), 2);
+        assertEquals(cursor.getReadAheadMisses(), 0);
+        assertEquals(factory.getReadAheadManager().getInflightSize(), 0);
+    }
+
+    @Test(timeOut = 20000)
+    void disabled() throws Exception {
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("no-read-ahead");
+        ManagedCursorImpl cursor = (ManagedCursorImpl) ledger.openCursor("c1");
+        assertFalse(factory.getReadAheadManager().isEnabled());
+
+        for (int i = 0; i < 10; i++) {
+            ledger.addEntry(("entry-" + i).getBytes());
+        }
+
+        ledger.deactivateCursor(cursor);
+
+        for (int i = 0; i < 3; i++) {
+            readAndRelease(cursor, 2);
+        }
+
+        Thread.sleep(100);
+        assertEquals(ledger.entryCache.getSize(), 0);
+        assertEquals(cursor.getReadAheadHits(), 0);
+        assertEquals(cursor.getReadAheadMisses(), 0);
+    }
+
+    private static void readAndRelease(ManagedCursorImpl cursor, int numberOfEntries) throws Exception {
+        List<Entry> entries = cursor.readEntries(numberOfEntries);
+        assertEquals(entries.size(), numberOfEntries);
+        entries.forEach(e -> e.release());
+    }
+}
@@ -100,10 +100,25 @@ public class ServiceConfiguration implements PulsarConfiguration {
     // increase the topic recovery time, when the entries published after the
     // snapshot need to be replayed
     private int brokerDeduplicationEntriesInterval = 1000;
+    // Number of producers from which the dedup info snapshot is stored in compact binary form in a
+    // dedicated ledger, instead of the properties of the dedup cursor. Set to 0 to always use a
+    // dedicated ledger
+    private int brokerDeduplicationSnapshotLedgerMinProducers = 1000;
 
     // Time of inactivity after which the broker will discard the deduplication information
     // relative to a disconnected producer. Default is 6 hours.
     private int brokerDeduplicationProducerInactivityTimeoutMinutes = 360;
+    // Set the default behavior for the broker side batching of the published messages. This can be overridden
+    // per-namespace. If enabled, the messages published one at a time by a producer within a short time window are
+    // stored together in a single batch entry. The producers still get a receipt for each message
+    private boolean brokerBatchingEnabled = false;
+    // Max time a published message waits for other messages of the same producer before its batch entry is stored,
+    // when broker side batching is enabled
+    private int brokerBatchingMaxPublishDelayMicros = 1000;
+    // Max number of messages in a batch entry created by the broker
+    private int brokerBatchingMaxMessages = 100;
+    // Max size of a batch entry created by the broker. Messages bigger than this size are never batched
+    private int brokerBatchingMaxSizeBytes = 131072;
 
     // When a namespace is created without specifying the number of bundle, this
     // value will be used as the default
@@ -142,10 +157,36 @@ public class ServiceConfiguration implements PulsarConfiguration {
     // default message-byte dispatch-throttling
     @FieldContext(dynamic = true)
     private long dispatchThrottlingRatePerTopicInByte = 0;
+    // Default messages per second publish throttling-limit for every topic. Once a topic exceeds it, the broker
+    // stops reading from the connections of its producers until the end of the current second. Using a value of 0,
+    // is disabling default message publish-throttling
+    private int publishThrottlingRatePerTopicInMsg = 0;
+    // Default bytes per second publish throttling-limit for every topic. Using a value of 0, is disabling
+    // default message-byte publish-throttling
+    private long publishThrottlingRatePerTopicInByte = 0;
     // Default dispatch-throttling is disabled for consumers which already caught-up with published messages and
     // don't have backlog. This enables dispatch-throttling for non-backlog consumers as well.
     @FieldContext(dynamic = true)
     private boolean dispatchThrottlingOnNonBacklogConsumerEnabled = false;
+    // Max number of entries to read from bookkeeper in a single read, for dispatchers and replicators
+    private int dispatcherMaxReadBatchSize = 100;
+    // Max size of the entries to read from bookkeeper in a single read, for dispatchers and replicators. The
+    // number of entries to read is estimated from the size of the entries previously read by the cursor, and a
+    // single entry is read until an entry size is known. Set to 0 to only limit the reads by number of entries.
+    private long dispatcherMaxReadSizeBytes = 5 * 1024 * 1024;
+    // Push the messages of a persistent topic to the subscriptions that are caught up, in the thread that completes
+    // the write, instead of having each subscription read them back from the entries cache.
+    // Lowers the publish-to-deliver latency at the cost of more work on the managed ledger threads.
+    private boolean dispatcherTailingCursorsEnabled = false;
+    // Track the acknowledgements of the individual messages of a batch on the broker. The indexes acknowledged
+    // within a batch are persisted with the subscription and skipped by the consumers when the batch is redelivered.
+    private boolean acknowledgmentAtBatchIndexLevelEnabled = false;
+    // Whether to honor the delivery time requested by the producers on the messages dispatched to shared
+    // subscriptions. When disabled, the messages are dispatched immediately.
+    private boolean delayedDeliveryEnabled = true;
+    // Granularity of the delayed delivery timer, in milliseconds. A coarser tick reduces the number of timer
+    // reschedules when the delivery times of the messages are spread, at the cost of dispatching them later.
+    private long delayedDeliveryTickTimeMillis = 1000;
     // Max number of concurrent lookup request broker allows to throttle heavy incoming lookup traffic
     @FieldContext(dynamic = true)
     private int maxConcurrentLookupRequest = 10000;
@@ -154,8 +195,15 @@ public class ServiceConfiguration implements PulsarConfiguration {
     private int maxConcurrentTopicLoadRequest = 5000;
     // Max concurrent non-persistent message can be processed per connection
     private int maxConcurrentNonPersistentMessagePerConnection = 1000;
+    // Max size of the publish requests in flight on the broker, shared by all the connections. Once it is exceeded,
+    // the broker stops reading from the connections holding the largest share of it, until the usage falls back under
+    // half of the budget. Using a value of 0, is disabling the broker-wide publish buffer limit
+    private int maxMessagePublishBufferSizeInMB = 512;
     // Number of worker threads to serve non-persistent topic
     private int numWorkerThreadsForNonPersistentTopic = 8;
+    // Number of threads running the dispatchers of the shared and key_shared subscriptions on persistent topics.
+    // Each subscription is pinned to a single thread.
+    private int numWorkerThreadsForSharedDispatchers = 8;
 
     // Enable broker to load persistent topics
     private boolean enablePersistentTopics = true;
@@ -294,6 +342,28 @@ public class ServiceConfiguration implements PulsarConfiguration {
     private int managedLedgerCacheSizeMB = 1024;
     // Threshold to which bring down the cache level when eviction is triggered
     private double managedLedgerCacheEvictionWatermark = 0.9f;
+    // Store the cached entries of each ledger in append-ordered segments of direct memory, instead of
+    // keeping one cached object per entry. Reduces the number of objects on heap when using large caches
+    private boolean managedLedgerCacheSegmentedEnabled = false;
+    // Max size of each segment allocated by the segmented entry cache
+    private int managedLedgerCacheSegmentSizeKB = 1024;
+    // Policy used to choose the entries to remove from the cache when it's full. Available policies:
+    //   Default: evict the oldest entries from the bigger caches
+    //   CursorAware: evict first the entries already consumed by all cursors or outside their read-ahead window
+    //   FrequencyAware: evict first the caches of the least frequently read topics
+    private String managedLedgerCacheEvictionPolicy = "Default";
+    // Number of entries after the read position of each cursor that the CursorAware eviction policy tries to keep
+    private int managedLedgerCacheEvictionReadAheadWindow = 1000;
+    // Prefetch in the cache the next entries for the cursors that are sequentially reading a backlog, while the
+    // current batch of entries is being dispatched
+    private boolean managedLedgerReadAheadEnabled = false;
+    // Max number of entries to prefetch ahead of the read position of a cursor
+    private int managedLedgerReadAheadMaxEntries = 1000;
+    // Max size of the entries to prefetch ahead of the read position of a cursor
+    private int managedLedgerReadAheadMaxSizeMB = 5;
+    // Max number of topics whose managed ledger and cursors are recovered at the same time when loading bundles
+    // or restarting the broker. Further topics wait for a recovery to complete. Set to 0 to disable the limit.
+    private int managedLedgerMaxConcurrentRecoveries = 100;
     // Rate limit the amount of writes per second generated by consumer acking the messages
     private double managedLedgerDefaultMarkDeleteRateLimit = 1.0;
     // Max number of entries to append to a ledger before triggering a rollover
@@ -321,6 +391,29 @@ public class ServiceConfiguration implements PulsarConfiguration {
     // than this limit then broker will persist unacked ranges into bookkeeper to avoid additional data overhead into
     // zookeeper.
     private int managedLedgerMaxUnackedRangesToPersistInZooKeeper = 1000;
+    // Track the individually acknowledged messages of each subscription with a bitmap per ledger instead of a
+    // tree of ranges. This uses much less memory when subscriptions have many unacked holes
+    private boolean managedLedgerUnackedRangesBitSetEnabled = false;
+    // Persist all the individually acknowledged ranges of a subscription in the cursor ledger, when there are
+    // more than managedLedgerMaxUnackedRangesToPersist, as a compressed snapshot split in multiple entries followed
+    // by incremental deltas. When disabled, the ranges over the limit are not persisted and the corresponding
+    // messages are redelivered after a topic is reloaded
+    private boolean managedLedgerUnackedRangesSnapshotEnabled = false;
+    // Max number of deltas of the unacked ranges written in the cursor ledger before writing a new snapshot
+    private int managedLedgerUnackedRangesDeltasPerSnapshot = 100;
+    // Number of entries between two samples of the publish time index kept for each ledger. The index is used
+    // to look up a position by time (TTL expiry, reset cursor by time) reading only a few entries. Set to 0 to disable.
+    private int managedLedgerPublishTimeIndexInterval = 100;
+    // Driver used to offload closed ledgers out of BookKeeper. Offloaded ledgers stay readable. The supported driver is
+    // "filesystem" (store the ledgers in managedLedgerOffloadFileSystemBaseDir). Leave empty to disable offloading.
+    private String managedLedgerOffloadDriver = "";
+    // Directory where the "filesystem" offload driver stores the offloaded ledgers
+    private String managedLedgerOffloadFileSystemBaseDir = "data/offloaded-ledgers";
+    // Max number of threads used to copy ledgers to and read ledgers from the offload driver
+    private int managedLedgerOffloadMaxThreads = 2;
+    // Size of the data kept in BookKeeper for a topic above which its oldest ledgers are automatically offloaded
+    // when a ledger is closed. Set to a negative value to only offload on demand.
+    private long managedLedgerOffloadAutoTriggerSizeThresholdBytes = -1;
     // Skip reading non-recoverable/unreadable data-ledger under managed-ledger's list. It helps when data-ledgers gets
     // corrupted at bookkeeper and managed-cursor is stuck at that ledger.
     @FieldContext(dynamic = true)
@@ -397,6 +490,10 @@ public class ServiceConfiguration implements PulsarConfiguration {
     private String replicatorPrefix = "pulsar.repl";
     // Replicator producer queue size;
     private int replicationProducerQueueSize = 1000;
+    // Forward the stored entries to the remote clusters as they are, only adding the replicated_from field to their
+    // metadata, instead of re-publishing each message. Keeps the original batching and compression and avoids
+    // re-serializing the messages.
+    private boolean replicationRawEntriesEnabled = false;
     // Enable TLS when talking with other clusters to replicate messages
     private boolean replicationTlsEnabled = false;
 
@@ -574,6 +671,14 @@ public class ServiceConfiguration implements PulsarConfiguration {
         this.brokerDeduplicationEntriesInterval = brokerDeduplicationEntriesInterval;
     }
 
+    public int getBrokerDeduplicationSnapshotLedgerMinProducers() {
+        return brokerDeduplicationSnapshotLedgerMinProducers;
+    }
+
+    public void setBrokerDeduplicationSnapshotLedgerMinProducers(int brokerDeduplicationSnapshotLedgerMinProducers) {
+        this.brokerDeduplicationSnapshotLedgerMinProducers = brokerDeduplicationSnapshotLedgerMinProducers;
+    }
+
     public int getBrokerDeduplicationProducerInactivityTimeoutMinutes() {
         return brokerDeduplicationProducerInactivityTimeoutMinutes;
     }
@@ -583,6 +688,38 @@ public class ServiceConfiguration implements PulsarConfiguration {
         this.brokerDeduplicationProducerInactivityTimeoutMinutes = brokerDeduplicationProducerInactivityTimeoutMinutes;
     }
 
+    public boolean isBrokerBatchingEnabled() {
+        return brokerBatchingEnabled;
+    }
+
+    public void setBrokerBatchingEnabled(boolean brokerBatchingEnabled) {
+        this.brokerBatchingEnabled = brokerBatchingEnabled;
+    }
+
+    public int getBrokerBatchingMaxPublishDelayMicros() {
+        return brokerBatchingMaxPublishDelayMicros;
+    }
+
+    public void setBrokerBatchingMaxPublishDelayMicros(int brokerBatchingMaxPublishDelayMicros) {
+        this.brokerBatchingMaxPublishDelayMicros = brokerBatchingMaxPublishDelayMicros;
+    }
+
+    public int getBrokerBatchingMaxMessages() {
+        return brokerBatchingMaxMessages;
+    }
+
+    public void setBrokerBatchingMaxMessages(int brokerBatchingMaxMessages) {
+        this.brokerBatchingMaxMessages = brokerBatchingMaxMessages;
+    }
+
+    public int getBrokerBatchingMaxSizeBytes() {
+        return brokerBatchingMaxSizeBytes;
+    }
+
+    public void setBrokerBatchingMaxSizeBytes(int brokerBatchingMaxSizeBytes) {
+        this.brokerBatchingMaxSizeBytes = brokerBatchingMaxSizeBytes;
+    }
+
     public int getDefaultNumberOfNamespaceBundles() {
         return defaultNumberOfNamespaceBundles;
     }
@@ -688,6 +825,22 @@ public class ServiceConfiguration implements PulsarConfiguration {
         this.dispatchThrottlingRatePerTopicInByte = dispatchThrottlingRatePerTopicInByte;
     }
 
+    public int getPublishThrottlingRatePerTopicInMsg() {
+        return publishThrottlingRatePerTopicInMsg;
+    }
+
+    public void setPublishThrottlingRatePerTopicInMsg(int publishThrottlingRatePerTopicInMsg) {
+        this.publishThrottlingRatePerTopicInMsg = publishThrottlingRatePerTopicInMsg;
+    }
+
+    public long getPublishThrottlingRatePerTopicInByte() {
+        return publishThrottlingRatePerTopicInByte;
+    }
+
+    public void setPublishThrottlingRatePerTopicInByte(long publishThrottlingRatePerTopicInByte) {
+        this.publishThrottlingRatePerTopicInByte = publishThrottlingRatePerTopicInByte;
+    }
+
     public boolean isDispatchThrottlingOnNonBacklogConsumerEnabled() {
         return dispatchThrottlingOnNonBacklogConsumerEnabled;
     }
@@ -696,6 +849,54 @@ public class ServiceConfiguration implements PulsarConfiguration {
         this.dispatchThrottlingOnNonBacklogConsumerEnabled = dispatchThrottlingOnNonBacklogConsumerEnabled;
     }
 
+    public int getDispatcherMaxReadBatchSize() {
+        return dispatcherMaxReadBatchSize;
+    }
+
+    public void setDispatcherMaxReadBatchSize(int dispatcherMaxReadBatchSize) {
+        this.dispatcherMaxReadBatchSize = dispatcherMaxReadBatchSize;
+    }
+
+    public long getDispatcherMaxReadSizeBytes() {
+        return dispatcherMaxReadSizeBytes;
+    }
+
+    public void setDispatcherMaxReadSizeBytes(long dispatcherMaxReadSizeBytes) {
+        this.dispatcherMaxReadSizeBytes = dispatcherMaxReadSizeBytes;
+    }
+
+    public boolean isDispatcherTailingCursorsEnabled() {
+        return dispatcherTailingCursorsEnabled;
+    }
+
+    public void setDispatcherTailingCursorsEnabled(boolean dispatcherTailingCursorsEnabled) {
+        this.dispatcherTailingCursorsEnabled = dispatcherTailingCursorsEnabled;
+    }
+
+    public boolean isAcknowledgmentAtBatchIndexLevelEnabled() {
+        return acknowledgmentAtBatchIndexLevelEnabled;
+    }
+
+    public void setAcknowledgmentAtBatchIndexLevelEnabled(boolean acknowledgmentAtBatchIndexLevelEnabled) {
+        this.acknowledgmentAtBatchIndexLevelEnabled = acknowledgmentAtBatchIndexLevelEnabled;
+    }
+
+    public boolean isDelayedDeliveryEnabled() {
+        return delayedDeliveryEnabled;
+    }
+
+    public void setDelayedDeliveryEnabled(boolean delayedDeliveryEnabled) {
+        this.delayedDeliveryEnabled = delayedDeliveryEnabled;
+    }
+
+    public long getDelayedDeliveryTickTimeMillis() {
+        return delayedDeliveryTickTimeMillis;
+    }
+
+    public void setDelayedDeliveryTickTimeMillis(long delayedDeliveryTickTimeMillis) {
+        this.delayedDeliveryTickTimeMillis = delayedDeliveryTickTimeMillis;
+    }
+
     public int getMaxConcurrentLookupRequest() {
         return maxConcurrentLookupRequest;
     }
@@ -720,6 +921,14 @@ public class ServiceConfiguration implements PulsarConfiguration {
         this.maxConcurrentNonPersistentMessagePerConnection = maxConcurrentNonPersistentMessagePerConnection;
     }
 
+    public int getMaxMessagePublishBufferSizeInMB() {
+        return maxMessagePublishBufferSizeInMB;
+    }
+
+    public void setMaxMessagePublishBufferSizeInMB(int maxMessagePublishBufferSizeInMB) {
+        this.maxMessagePublishBufferSizeInMB = maxMessagePublishBufferSizeInMB;
+    }
+
     public int getNumWorkerThreadsForNonPersistentTopic() {
         return numWorkerThreadsForNonPersistentTopic;
     }
@@ -728,6 +937,14 @@ public class ServiceConfiguration implements PulsarConfiguration {
         this.numWorkerThreadsForNonPersistentTopic = numWorkerThreadsForNonPersistentTopic;
     }
 
+    public int getNumWorkerThreadsForSharedDispatchers() {
+        return numWorkerThreadsForSharedDispatchers;
+    }
+
+    public void setNumWorkerThreadsForSharedDispatchers(int numWorkerThreadsForSharedDispatchers) {
+        this.numWorkerThreadsForSharedDispatchers = numWorkerThreadsForSharedDispatchers;
+    }
+
     public boolean isEnablePersistentTopics() {
         return enablePersistentTopics;
     }
@@ -1066,6 +1283,70 @@ public class ServiceConfiguration implements PulsarConfiguration {
         this.managedLedgerCacheEvictionWatermark = managedLedgerCacheEvictionWatermark;
     }
 
+    public boolean isManagedLedgerCacheSegmentedEnabled() {
+        return managedLedgerCacheSegmentedEnabled;
+    }
+
+    public void setManagedLedgerCacheSegmentedEnabled(boolean managedLedgerCacheSegmentedEnabled) {
+        this.managedLedgerCacheSegmentedEnabled = managedLedgerCacheSegmentedEnabled;
+    }
+
+    public int getManagedLedgerCacheSegmentSizeKB() {
+        return managedLedgerCacheSegmentSizeKB;
+    }
+
+    public void setManagedLedgerCacheSegmentSizeKB(int managedLedgerCacheSegmentSizeKB) {
+        this.managedLedgerCacheSegmentSizeKB = managedLedgerCacheSegmentSizeKB;
+    }
+
+    public String getManagedLedgerCacheEvictionPolicy() {
+        return managedLedgerCacheEvictionPolicy;
+    }
+
+    public void setManagedLedgerCacheEvictionPolicy(String managedLedgerCacheEvictionPolicy) {
+        this.managedLedgerCacheEvictionPolicy = managedLedgerCacheEvictionPolicy;
+    }
+
+    public int getManagedLedgerCacheEvictionReadAheadWindow() {
+        return managedLedgerCacheEvictionReadAheadWindow;
+    }
+
+    public void setManagedLedgerCacheEvictionReadAheadWindow(int managedLedgerCacheEvictionReadAheadWindow) {
+        this.managedLedgerCacheEvictionReadAheadWindow = managedLedgerCacheEvictionReadAheadWindow;
+    }
+
+    public boolean isManagedLedgerReadAheadEnabled() {
+        return managedLedgerReadAheadEnabled;
+    }
+
+    public void setManagedLedgerReadAheadEnabled(boolean managedLedgerReadAheadEnabled) {
+        this.managedLedgerReadAheadEnabled = managedLedgerReadAheadEnabled;
+    }
+
+    public int getManagedLedgerReadAheadMaxEntries() {
+        return managedLedgerReadAheadMaxEntries;
+    }
+
+    public void setManagedLedgerReadAheadMaxEntries(int managedLedgerReadAheadMaxEntries) {
+        this.managedLedgerReadAheadMaxEntries = managedLedgerReadAheadMaxEntries;
+    }
+
+    public int getManagedLedgerReadAheadMaxSizeMB() {
+        return managedLedgerReadAheadMaxSizeMB;
+    }
+
+    public void setManagedLedgerReadAheadMaxSizeMB(int managedLedgerReadAheadMaxSizeMB) {
+        this.managedLedgerReadAheadMaxSizeMB = managedLedgerReadAheadMaxSizeMB;
+    }
+
+    public int getManagedLedgerMaxConcurrentRecoveries() {
+        return managedLedgerMaxConcurrentRecoveries;
+    }
+
+    public void setManagedLedgerMaxConcurrentRecoveries(int managedLedgerMaxConcurrentRecoveries) {
+        this.managedLedgerMaxConcurrentRecoveries = managedLedgerMaxConcurrentRecoveries;
+    }
+
     public double getManagedLedgerDefaultMarkDeleteRateLimit() {
         return managedLedgerDefaultMarkDeleteRateLimit;
     }
@@ -1131,6 +1412,71 @@ public class ServiceConfiguration implements PulsarConfiguration {
         this.managedLedgerMaxUnackedRangesToPersistInZooKeeper = managedLedgerMaxUnackedRangesToPersistInZookeeper;
     }
 
+    public boolean isManagedLedgerUnackedRangesBitSetEnabled() {
+        return managedLedgerUnackedRangesBitSetEnabled;
+    }
+
+    public void setManagedLedgerUnackedRangesBitSetEnabled(boolean managedLedgerUnackedRangesBitSetEnabled) {
+        this.managedLedgerUnackedRangesBitSetEnabled = managedLedgerUnackedRangesBitSetEnabled;
+    }
+
+    public boolean isManagedLedgerUnackedRangesSnapshotEnabled() {
+        return managedLedgerUnackedRangesSnapshotEnabled;
+    }
+
+    public void setManagedLedgerUnackedRangesSnapshotEnabled(boolean managedLedgerUnackedRangesSnapshotEnabled) {
+        this.managedLedgerUnackedRangesSnapshotEnabled = managedLedgerUnackedRangesSnapshotEnabled;
+    }
+
+    public int getManagedLedgerUnackedRangesDeltasPerSnapshot() {
+        return managedLedgerUnackedRangesDeltasPerSnapshot;
+    }
+
+    public void setManagedLedgerUnackedRangesDeltasPerSnapshot(int managedLedgerUnackedRangesDeltasPerSnapshot) {
+        this.managedLedgerUnackedRangesDeltasPerSnapshot = managedLedgerUnackedRangesDeltasPerSnapshot;
+    }
+
+    public int getManagedLedgerPublishTimeIndexInterval() {
+        return managedLedgerPublishTimeIndexInterval;
+    }
+
+    public void setManagedLedgerPublishTimeIndexInterval(int managedLedgerPublishTimeIndexInterval) {
+        this.managedLedgerPublishTimeIndexInterval = managedLedgerPublishTimeIndexInterval;
+    }
+
+    public String getManagedLedgerOffloadDriver() {
+        return managedLedgerOffloadDriver;
+    }
+
+    public void setManagedLedgerOffloadDriver(String managedLedgerOffloadDriver) {
+        this.managedLedgerOffloadDriver = managedLedgerOffloadDriver;
+    }
+
+    public String getManagedLedgerOffloadFileSystemBaseDir() {
+        return managedLedgerOffloadFileSystemBaseDir;
+    }
+
+    public void setManagedLedgerOffloadFileSystemBaseDir(String managedLedgerOffloadFileSystemBaseDir) {
+        this.managedLedgerOffloadFileSystemBaseDir = managedLedgerOffloadFileSystemBaseDir;
+    }
+
+    public int getManagedLedgerOffloadMaxThreads() {
+        return managedLedgerOffloadMaxThreads;
+    }
+
+    public void setManagedLedgerOffloadMaxThreads(int managedLedgerOffloadMaxThreads) {
+        this.managedLedgerOffloadMaxThreads = managedLedgerOffloadMaxThreads;
+    }
+
+    public long getManagedLedgerOffloadAutoTriggerSizeThresholdBytes() {
+        return managedLedgerOffloadAutoTriggerSizeThresholdBytes;
+    }
+
+    public void setManagedLedgerOffloadAutoTriggerSizeThresholdBytes(
+            long managedLedgerOffloadAutoTriggerSizeThresholdBytes) {
+        this.managedLedgerOffloadAutoTriggerSizeThresholdBytes = managedLedgerOffloadAutoTriggerSizeThresholdBytes;
+    }
+
     public boolean isAutoSkipNonRecoverableData() {
         return autoSkipNonRecoverableData;
     }
@@ -1333,6 +1679,14 @@ public class ServiceConfiguration implements PulsarConfiguration {
         this.replicationProducerQueueSize = replicationProducerQueueSize;
     }
 
+    public boolean isReplicationRawEntriesEnabled() {
+        return replicationRawEntriesEnabled;
+    }
+
+    public void setReplicationRawEntriesEnabled(boolean replicationRawEntriesEnabled) {
+        this.replicationRawEntriesEnabled = replicationRawEntriesEnabled;
+    }
+
     public boolean isReplicationTlsEnabled() {
         return replicationTlsEnabled;
     }
@@ -18,12 +18,18 @@
  */
 package org.apache.pulsar.broker;
 
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.mledger.LedgerOffloader;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactory;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig.CacheEvictionPolicy;
+import org.apache.bookkeeper.mledger.impl.FileSystemLedgerOffloader;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerFactoryImpl;
 import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.zookeeper.ZooKeeper;
@@ -36,6 +42,11 @@ public class ManagedLedgerClientFactory implements Closeable {
 
     private final ManagedLedgerFactory managedLedgerFactory;
     private final BookKeeper bkClient;
+    private final ExecutorService offloaderExecutor;
+    private final LedgerOffloader ledgerOffloader;
+
+    private static final int OffloadBlockSize = 1024 * 1024;
+    private static final int OffloadReadAheadSize = 4 * 1024 * 1024;
 
     public ManagedLedgerClientFactory(ServiceConfiguration conf, ZooKeeper zkClient,
             BookKeeperClientFactory bookkeeperProvider) throws Exception {
@@ -44,8 +55,32 @@ public class ManagedLedgerClientFactory implements Closeable {
         ManagedLedgerFactoryConfig managedLedgerFactoryConfig = new ManagedLedgerFactoryConfig();
         managedLedgerFactoryConfig.setMaxCacheSize(conf.getManagedLedgerCacheSizeMB() * 1024L * 1024L);
         managedLedgerFactoryConfig.setCacheEvictionWatermark(conf.getManagedLedgerCacheEvictionWatermark());
+        managedLedgerFactoryConfig.setSegmentedCacheEnabled(conf.isManagedLedgerCacheSegmentedEnabled());
+        managedLedgerFactoryConfig.setCacheSegmentSize(conf.getManagedLedgerCacheSegmentSizeKB() * 1024);
+        managedLedgerFactoryConfig.setCacheEvictionPolicy(
+                CacheEvictionPolicy.valueOf(conf.getManagedLedgerCacheEvictionPolicy()));
+        managedLedgerFactoryConfig
+                .setCacheEvictionReadAheadWindow(conf.getManagedLedgerCacheEvictionReadAheadWindow());
+        managedLedgerFactoryConfig.setReadAheadEnabled(conf.isManagedLedgerReadAheadEnabled());
+        managedLedgerFactoryConfig.setReadAheadMaxEntries(conf.getManagedLedgerReadAheadMaxEntries());
+        managedLedgerFactoryConfig.setReadAheadMaxSize(conf.getManagedLedgerReadAheadMaxSizeMB() * 1024L * 1024L);
+        managedLedgerFactoryConfig.setMaxConcurrentRecoveries(conf.getManagedLedgerMaxConcurrentRecoveries());
 
         this.managedLedgerFactory = new ManagedLedgerFactoryImpl(bkClient, zkClient, managedLedgerFactoryConfig);
+
+        String offloadDriver = conf.getManagedLedgerOffloadDriver();
+        if (offloadDriver == null || offloadDriver.isEmpty()) {
+            this.offloaderExecutor = null;
+            this.ledgerOffloader = null;
+        } else if ("filesystem".equals(offloadDriver)) {
+            this.offloaderExecutor = Executors.newFixedThreadPool(conf.getManagedLedgerOffloadMaxThreads(),
+                    new DefaultThreadFactory("ledger-offloader"));
+            this.ledgerOffloader = new FileSystemLedgerOffloader(conf.getManagedLedgerOffloadFileSystemBaseDir(),
+                    OffloadBlockSize, OffloadReadAheadSize, offloaderExecutor);
+            log.info("Offloading ledgers to {}", conf.getManagedLedgerOffloadFileSystemBaseDir());
+        } else {
+            throw new IllegalArgumentException("Invalid managed ledger offload driver: " + offloadDriver);
+        }
     }
 
     public ManagedLedgerFactory getManagedLedgerFactory() {
@@ -56,6 +91,10 @@ public class ManagedLedgerClientFactory implements Closeable {
         return bkClient;
     }
 
+    public LedgerOffloader getLedgerOffloader() {
+        return ledgerOffloader;
+    }
+
     public void close() throws IOException {
         try {
             managedLedgerFactory.shutdown();
@@ -63,6 +102,10 @@ public class ManagedLedgerClientFactory implements Closeable {
 
             bkClient.close();
             log.info("Closed BookKeeper client");
+
+            if (offloaderExecutor != null) {
+                offloaderExecutor.shutdown();
+            }
         } catch (Exception e) {
             log.warn(e.getMessage(), e);
             throw new IOException(e);
@@ -35,6 +35,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
 import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.mledger.LedgerOffloader;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactory;
 import org.apache.bookkeeper.util.OrderedSafeExecutor;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
@@ -560,6 +561,13 @@ public class PulsarService implements AutoCloseable {
         return managedLedgerClientFactory.getManagedLedgerFactory();
     }
 
+    /**
+     * @return the offloader for the closed ledgers of the topics, or null if offloading is not configured
+     */
+    public LedgerOffloader getLedgerOffloader() {
+        return managedLedgerClientFactory != null ? managedLedgerClientFactory.getLedgerOffloader() : null;
+    }
+
     public ZooKeeperCache getLocalZkCache() {
         return localZkCache;
     }
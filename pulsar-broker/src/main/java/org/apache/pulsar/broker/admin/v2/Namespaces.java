@@ -43,6 +43,7 @@ import org.apache.pulsar.common.policies.data.BundlesData;
 import org.apache.pulsar.common.policies.data.DispatchRate;
 import org.apache.pulsar.common.policies.data.PersistencePolicies;
 import org.apache.pulsar.common.policies.data.Policies;
+import org.apache.pulsar.common.policies.data.PublishRate;
 import org.apache.pulsar.common.policies.data.RetentionPolicies;
 import org.apache.pulsar.common.policies.data.SubscriptionAuthMode;
 import org.slf4j.Logger;
@@ -243,6 +244,17 @@ public class Namespaces extends NamespacesBase {
         internalModifyDeduplication(enableDeduplication);
     }
 
+    @POST
+    @Path("/{property}/{namespace}/brokerBatching")
+    @ApiOperation(value = "Enable or disable broker side batching of the published messages for all topics in a namespace")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Property or cluster or namespace doesn't exist") })
+    public void modifyBrokerBatching(@PathParam("property") String property, @PathParam("namespace") String namespace,
+            boolean enableBrokerBatching) {
+        validateNamespaceName(property, namespace);
+        internalModifyBrokerBatching(enableBrokerBatching);
+    }
+
     @GET
     @Path("/{property}/{namespace}/bundles")
     @ApiOperation(value = "Get the bundles split data.")
@@ -319,6 +331,27 @@ public class Namespaces extends NamespacesBase {
         return internalGetDispatchRate();
     }
 
+    @POST
+    @Path("/{property}/{namespace}/publishRate")
+    @ApiOperation(value = "Set publish-rate throttling for all topics of the namespace")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission") })
+    public void setPublishRate(@PathParam("property") String property, @PathParam("namespace") String namespace,
+            PublishRate publishRate) {
+        validateNamespaceName(property, namespace);
+        internalSetPublishRate(publishRate);
+    }
+
+    @GET
+    @Path("/{property}/{namespace}/publishRate")
+    @ApiOperation(value = "Get publish-rate configured for the namespace, -1 represents not configured yet")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace does not exist") })
+    public PublishRate getPublishRate(@PathParam("property") String property,
+            @PathParam("namespace") String namespace) {
+        validateNamespaceName(property, namespace);
+        return internalGetPublishRate();
+    }
+
     @GET
     @Path("/{property}/{namespace}/backlogQuotaMap")
     @ApiOperation(value = "Get backlog quota map on a namespace.")
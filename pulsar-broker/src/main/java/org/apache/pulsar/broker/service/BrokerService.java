@@ -147,6 +147,7 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
     private final EventLoopGroup acceptorGroup;
     private final EventLoopGroup workerGroup;
     private final OrderedSafeExecutor topicOrderedExecutor;
+    private final OrderedSafeExecutor dispatcherOrderedExecutor;
     // offline topic backlog cache
     private final ConcurrentOpenHashMap<DestinationName, PersistentOfflineTopicStats> offlineTopicStatCache;
     private static final ConcurrentOpenHashMap<String, ConfigField> dynamicConfigurationMap = prepareDynamicConfigurationMap();
@@ -172,6 +173,7 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
 
     private final int keepAliveIntervalSeconds;
     private final PulsarStats pulsarStats;
+    private final PublishBufferLimiter publishBufferLimiter;
     private final EventListner zkStatsListener;
     private final AuthenticationService authenticationService;
 
@@ -197,10 +199,14 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         this.pendingTopicLoadingQueue = Queues.newConcurrentLinkedQueue();
 
         this.multiLayerTopicsMap = new ConcurrentOpenHashMap<>();
-        this.pulsarStats = new PulsarStats(pulsar);
+        this.publishBufferLimiter = new PublishBufferLimiter(
+                pulsar.getConfiguration().getMaxMessagePublishBufferSizeInMB() * 1024L * 1024L);
+        this.pulsarStats = new PulsarStats(pulsar, publishBufferLimiter);
         this.offlineTopicStatCache = new ConcurrentOpenHashMap<>();
 
         this.topicOrderedExecutor = new OrderedSafeExecutor(pulsar.getConfiguration().getNumWorkerThreadsForNonPersistentTopic(), "broker-np-topic-workers");
+        this.dispatcherOrderedExecutor = new OrderedSafeExecutor(
+                pulsar.getConfiguration().getNumWorkerThreadsForSharedDispatchers(), "broker-dispatcher-workers");
         final DefaultThreadFactory acceptorThreadFactory = new DefaultThreadFactory("pulsar-acceptor");
         final DefaultThreadFactory workersThreadFactory = new DefaultThreadFactory("pulsar-io");
         final int numThreads = Runtime.getRuntime().availableProcessors() * 2;
@@ -375,6 +381,7 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         ClientCnxnAspect.removeListener(zkStatsListener);
         ClientCnxnAspect.registerExecutor(null);
         topicOrderedExecutor.shutdown();
+        dispatcherOrderedExecutor.shutdown();
         log.info("Broker service completely shut down");
     }
 
@@ -675,6 +682,16 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
 
             managedLedgerConfig.setMaxUnackedRangesToPersist(serviceConfig.getManagedLedgerMaxUnackedRangesToPersist());
             managedLedgerConfig.setMaxUnackedRangesToPersistInZk(serviceConfig.getManagedLedgerMaxUnackedRangesToPersistInZooKeeper());
+            managedLedgerConfig.setUnackedRangesBitSetEnabled(serviceConfig.isManagedLedgerUnackedRangesBitSetEnabled());
+            managedLedgerConfig
+                    .setUnackedRangesSnapshotEnabled(serviceConfig.isManagedLedgerUnackedRangesSnapshotEnabled());
+            managedLedgerConfig.setUnackedRangesDeltasPerSnapshot(
+                    serviceConfig.getManagedLedgerUnackedRangesDeltasPerSnapshot());
+            managedLedgerConfig
+                    .setPublishTimeIndexInterval(serviceConfig.getManagedLedgerPublishTimeIndexInterval());
+            managedLedgerConfig.setLedgerOffloader(pulsar.getLedgerOffloader());
+            managedLedgerConfig.setOffloadAutoTriggerSizeThresholdBytes(
+                    serviceConfig.getManagedLedgerOffloadAutoTriggerSizeThresholdBytes());
             managedLedgerConfig.setMaxEntriesPerLedger(serviceConfig.getManagedLedgerMaxEntriesPerLedger());
             managedLedgerConfig.setMinimumRolloverTime(serviceConfig.getManagedLedgerMinLedgerRolloverTimeMinutes(),
                     TimeUnit.MINUTES);
@@ -816,6 +833,14 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         return this.backlogQuotaManager;
     }
 
+    public PublishBufferLimiter getPublishBufferLimiter() {
+        return this.publishBufferLimiter;
+    }
+
+    public PulsarStats getPulsarStats() {
+        return this.pulsarStats;
+    }
+
     /**
      *
      * @param topic
@@ -1303,6 +1328,10 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         return topicOrderedExecutor;
     }
 
+    public OrderedSafeExecutor getDispatcherOrderedExecutor() {
+        return dispatcherOrderedExecutor;
+    }
+
     public ConcurrentOpenHashMap<String, ConcurrentOpenHashMap<String, ConcurrentOpenHashMap<String, Topic>>> getMultiLayerTopicMap() {
         return multiLayerTopicsMap;
     }
@@ -1408,7 +1437,7 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         try {
             dispatcherList.forEach(dispatcher -> {
                 dispatcher.unBlockDispatcherOnUnackedMsgs();
-                executor().submit(() -> dispatcher.readMoreEntries());
+                dispatcher.readMoreEntries();
                 log.info("[{}] Dispatcher is unblocked", dispatcher.getName());
                 blockedDispatchers.remove(dispatcher);
             });
@@ -21,6 +21,7 @@ package org.apache.pulsar.broker.service;
 import static com.google.common.base.Preconditions.checkArgument;
 import static org.apache.pulsar.common.api.Commands.readChecksum;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -28,6 +29,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.stream.Collectors;
 
 import org.apache.bookkeeper.mledger.Entry;
@@ -38,7 +40,6 @@ import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.Long
 import org.apache.pulsar.broker.PulsarServerException;
 import org.apache.pulsar.broker.authentication.AuthenticationDataSource;
 import org.apache.pulsar.common.api.Commands;
-import org.apache.pulsar.common.api.proto.PulsarApi;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandAck;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandAck.AckType;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe.SubType;
@@ -88,6 +89,12 @@ public class Consumer {
     private static final AtomicIntegerFieldUpdater<Consumer> PERMITS_RECEIVED_WHILE_CONSUMER_BLOCKED_UPDATER =
             AtomicIntegerFieldUpdater.newUpdater(Consumer.class, "permitsReceivedWhileConsumerBlocked");
     private volatile int permitsReceivedWhileConsumerBlocked = 0;
+    // Represents how many bytes we can send to the consumer, only enforced after the consumer has sent byte permits
+    // in a Flow command. It can become negative since an entry is sent as long as there are some bytes left
+    private static final AtomicLongFieldUpdater<Consumer> BYTE_PERMITS_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(Consumer.class, "bytePermits");
+    private volatile long bytePermits = 0;
+    private volatile boolean bytePermitsEnabled = false;
 
     private final ConcurrentLongLongPairHashMap pendingAcks;
 
@@ -132,7 +139,7 @@ public class Consumer {
         stats.clientVersion = cnx.getClientVersion();
         stats.metadata = this.metadata;
 
-        if (subType == SubType.Shared) {
+        if (subType == SubType.Shared || subType == SubType.Key_Shared) {
             this.pendingAcks = new ConcurrentLongLongPairHashMap(256, 1);
         } else {
             // We don't need to keep track of pending acks if the subscription is not shared
@@ -208,13 +215,29 @@ public class Consumer {
             return sentMessages;
         }
 
+        if (entries.isEmpty()) {
+            // All the entries were already acknowledged or discarded
+            writePromise.setSuccess();
+            return sentMessages;
+        }
+
+        final boolean batchIndexAckSupported = cnx.isBatchIndexAckSupported();
         ctx.channel().eventLoop().execute(() -> {
             for (int i = 0; i < entries.size(); i++) {
                 Entry entry = entries.get(i);
                 PositionImpl pos = (PositionImpl) entry.getPosition();
                 MessageIdData.Builder messageIdBuilder = MessageIdData.newBuilder();
-                MessageIdData messageId = messageIdBuilder.setLedgerId(pos.getLedgerId()).setEntryId(pos.getEntryId())
-                        .build();
+                messageIdBuilder.setLedgerId(pos.getLedgerId()).setEntryId(pos.getEntryId());
+                if (batchIndexAckSupported) {
+                    // Let the consumer skip the messages of the batch that were already acknowledged
+                    BitSet ackedIndexes = subscription.getAckedBatchIndexes(pos);
+                    if (ackedIndexes != null) {
+                        for (long word : ackedIndexes.toLongArray()) {
+                            messageIdBuilder.addAckSet(word);
+                        }
+                    }
+                }
+                MessageIdData messageId = messageIdBuilder.build();
 
                 ByteBuf metadataAndPayload = entry.getDataBuffer();
                 // increment ref-count of data and release at the end of process: so, we can get chance to call entry.release
@@ -252,22 +275,16 @@ public class Consumer {
         }
     }
 
-    public static int getBatchSizeforEntry(ByteBuf metadataAndPayload, Subscription subscription, long consumerId) {
-        try {
-            // save the reader index and restore after parsing
-            metadataAndPayload.markReaderIndex();
-            PulsarApi.MessageMetadata metadata = Commands.parseMessageMetadata(metadataAndPayload);
-            metadataAndPayload.resetReaderIndex();
-            int batchSize = metadata.getNumMessagesInBatch();
-            metadata.recycle();
-            if (log.isDebugEnabled()) {
-                log.debug("[{}] [{}] num messages in batch are {} ", subscription, consumerId, batchSize);
-            }
-            return batchSize;
-        } catch (Throwable t) {
-            log.error("[{}] [{}] Failed to parse message metadata", subscription, consumerId, t);
+    public static int getBatchSizeforEntry(Entry entry, Subscription subscription, long consumerId) {
+        // The message metadata is parsed at most once per entry, and shared with the other readers of a cached entry
+        int batchSize = entry.getBatchSize();
+        if (batchSize == -1) {
+            log.error("[{}] [{}] Failed to parse message metadata of entry {}", subscription, consumerId,
+                    entry.getPosition());
+        } else if (log.isDebugEnabled()) {
+            log.debug("[{}] [{}] num messages in batch are {} ", subscription, consumerId, batchSize);
         }
-        return -1;
+        return batchSize;
     }
 
     void updatePermitsAndPendingAcks(final List<Entry> entries, SendMessageInfo sentMessages) throws PulsarServerException {
@@ -276,10 +293,11 @@ public class Consumer {
         boolean unsupportedVersion = false;
         long totalReadableBytes = 0;
         boolean clientSupportBatchMessages = cnx.isBatchMessageCompatibleVersion();
+        boolean batchIndexAckSupported = cnx.isBatchIndexAckSupported();
         while (iter.hasNext()) {
             Entry entry = iter.next();
             ByteBuf metadataAndPayload = entry.getDataBuffer();
-            int batchSize = getBatchSizeforEntry(metadataAndPayload, subscription, consumerId);
+            int batchSize = getBatchSizeforEntry(entry, subscription, consumerId);
             if (batchSize == -1) {
                 // this would suggest that the message might have been corrupted
                 iter.remove();
@@ -288,6 +306,17 @@ public class Consumer {
                 subscription.acknowledgeMessage(pos, AckType.Individual, Collections.emptyMap());
                 continue;
             }
+            if (batchSize > 1 && batchIndexAckSupported) {
+                PositionImpl pos = (PositionImpl) entry.getPosition();
+                BitSet ackedIndexes = subscription.getAckedBatchIndexes(pos);
+                if (ackedIndexes != null && ackedIndexes.cardinality() >= batchSize) {
+                    // All the messages of the batch were already acknowledged, only the entry itself was not
+                    iter.remove();
+                    entry.release();
+                    subscription.acknowledgeMessage(pos, AckType.Individual, Collections.emptyMap());
+                    continue;
+                }
+            }
             if (pendingAcks != null) {
                 pendingAcks.put(entry.getLedgerId(), entry.getEntryId(), batchSize, 0);
             }
@@ -300,6 +329,9 @@ public class Consumer {
         }
         // reduce permit and increment unackedMsg count with total number of messages in batch-msgs
         int permits = MESSAGE_PERMITS_UPDATER.addAndGet(this, -permitsToReduce);
+        if (bytePermitsEnabled) {
+            BYTE_PERMITS_UPDATER.addAndGet(this, -totalReadableBytes);
+        }
         incrementUnackedMessages(permitsToReduce);
         if (unsupportedVersion) {
             throw new PulsarServerException("Consumer does not support batch-message");
@@ -368,13 +400,26 @@ public class Consumer {
                     position, ack.getValidationError());
         }
 
+        if (msgId.getAckSetCount() > 0 && ack.getAckType() == AckType.Individual) {
+            // Only some of the messages of the batch are acknowledged: the entry stays pending until the consumer
+            // acknowledges the whole batch
+            if (cnx.isBatchIndexAckSupported()) {
+                long[] ackSet = new long[msgId.getAckSetCount()];
+                for (int i = 0; i < ackSet.length; i++) {
+                    ackSet[i] = msgId.getAckSet(i);
+                }
+                subscription.acknowledgeBatchIndexes(position, BitSet.valueOf(ackSet));
+            }
+            return;
+        }
+
         Map<String,Long> properties = Collections.emptyMap();
         if (ack.getPropertiesCount() > 0) {
             properties = ack.getPropertiesList().stream()
                 .collect(Collectors.toMap((e) -> e.getKey(),
                                           (e) -> e.getValue()));
         }
-        if (subType == SubType.Shared) {
+        if (subType == SubType.Shared || subType == SubType.Key_Shared) {
             // On shared subscriptions, cumulative ack is not supported
             checkArgument(ack.getAckType() == AckType.Individual);
 
@@ -388,7 +433,16 @@ public class Consumer {
     }
 
     void flowPermits(int additionalNumberOfMessages) {
-        checkArgument(additionalNumberOfMessages > 0);
+        flowPermits(additionalNumberOfMessages, 0);
+    }
+
+    void flowPermits(int additionalNumberOfMessages, long additionalNumberOfBytes) {
+        checkArgument(additionalNumberOfMessages > 0 || additionalNumberOfBytes > 0);
+
+        if (additionalNumberOfBytes > 0) {
+            BYTE_PERMITS_UPDATER.getAndAdd(this, additionalNumberOfBytes);
+            bytePermitsEnabled = true;
+        }
 
         // block shared consumer when unacked-messages reaches limit
         if (shouldBlockConsumerOnUnackMsgs() && unackedMessages >= maxUnackedMessages) {
@@ -397,14 +451,16 @@ public class Consumer {
         int oldPermits;
         if (!blockedConsumerOnUnackedMsgs) {
             oldPermits = MESSAGE_PERMITS_UPDATER.getAndAdd(this, additionalNumberOfMessages);
+            // Also trigger the dispatcher when only byte permits were added, since it might be waiting for them
             subscription.consumerFlow(this, additionalNumberOfMessages);
         } else {
             oldPermits = PERMITS_RECEIVED_WHILE_CONSUMER_BLOCKED_UPDATER.getAndAdd(this, additionalNumberOfMessages);
         }
 
         if (log.isDebugEnabled()) {
-            log.debug("[{}-{}] Added more flow control message permits {} (old was: {}), blocked = ", topicName,
-                    subscription, additionalNumberOfMessages, oldPermits, blockedConsumerOnUnackedMsgs);
+            log.debug("[{}-{}] Added more flow control permits {} msgs / {} bytes (old was: {}), blocked = {}",
+                    topicName, subscription, additionalNumberOfMessages, additionalNumberOfBytes, oldPermits,
+                    blockedConsumerOnUnackedMsgs);
         }
 
     }
@@ -428,6 +484,37 @@ public class Consumer {
         return MESSAGE_PERMITS_UPDATER.get(this);
     }
 
+    /**
+     * @return the number of bytes that can be sent to the consumer, or -1 if the consumer doesn't use byte permits
+     */
+    public long getAvailableBytePermits() {
+        return bytePermitsEnabled ? Math.max(0, BYTE_PERMITS_UPDATER.get(this)) : -1;
+    }
+
+    public boolean hasAvailableBytePermits() {
+        return !bytePermitsEnabled || BYTE_PERMITS_UPDATER.get(this) > 0;
+    }
+
+    /**
+     * Get how many of the given entries can be sent to the consumer within its byte permits. The last entry might
+     * exceed the byte permits, so that an entry larger than the consumer byte permits can still be dispatched.
+     *
+     * @return the number of entries, starting from the first one, up to {@code maxEntries}
+     */
+    public int getEntriesWithinBytePermits(List<Entry> entries, int maxEntries) {
+        if (!bytePermitsEnabled) {
+            return maxEntries;
+        }
+
+        long availableBytes = BYTE_PERMITS_UPDATER.get(this);
+        int entriesWithinPermits = 0;
+        while (entriesWithinPermits < maxEntries && availableBytes > 0) {
+            availableBytes -= entries.get(entriesWithinPermits).getLength();
+            ++entriesWithinPermits;
+        }
+        return entriesWithinPermits;
+    }
+
     public boolean isBlocked() {
         return blockedConsumerOnUnackedMsgs;
     }
@@ -442,13 +529,13 @@ public class Consumer {
 
     /**
      * Checks if consumer-blocking on unAckedMessages is allowed for below conditions:<br/>
-     * a. consumer must have Shared-subscription<br/>
+     * a. consumer must have Shared or Key_Shared subscription<br/>
      * b. {@link maxUnackedMessages} value > 0
      *
      * @return
      */
     private boolean shouldBlockConsumerOnUnackMsgs() {
-        return SubType.Shared.equals(subType) && maxUnackedMessages > 0;
+        return (SubType.Shared.equals(subType) || SubType.Key_Shared.equals(subType)) && maxUnackedMessages > 0;
     }
 
     public void updateRates() {
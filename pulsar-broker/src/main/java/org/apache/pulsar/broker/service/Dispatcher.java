@@ -70,4 +70,25 @@ public interface Dispatcher {
 
     void addUnAckedMessages(int unAckMessages);
 
+    /**
+     * Notify the dispatcher that a message acknowledgement was applied to the cursor
+     */
+    default void acknowledgementWasProcessed() {
+        // No-op
+    }
+
+    /**
+     * @return the number of messages held back until their delivery time
+     */
+    default long getNumberOfDelayedMessages() {
+        return 0;
+    }
+
+    /**
+     * @return the sizer of the reads done by this dispatcher, or null if it does not read from a cursor
+     */
+    default ReadBatchSizer getReadBatchSizer() {
+        return null;
+    }
+
 }
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.apache.pulsar.broker.service.BrokerServiceException.ConsumerBusyException;
+
+/**
+ * Assigns a range of key hashes to each consumer of a Key_Shared subscription.
+ *
+ * <p/>The hash space [0, {@link #HASH_RANGE_SIZE}) is split in contiguous ranges, one per consumer. When a consumer is
+ * added, the biggest range is split in half and the lower half is assigned to the new consumer. When a consumer is
+ * removed, its range is merged into the adjacent range, so that only the keys of the removed consumer are moved.
+ *
+ * <p/>This class is not thread-safe, the access is serialized by the dispatcher.
+ */
+public class HashRangeStickyKeyConsumerSelector {
+
+    public static final int HASH_RANGE_SIZE = 2 << 15;
+
+    // Key used for the messages that were published without a key
+    private static final byte[] NONE_KEY = "NONE_KEY".getBytes();
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_32();
+
+    // Maps the end (inclusive) of each range to the consumer owning it
+    private final NavigableMap<Integer, Consumer> rangeMap = new TreeMap<>();
+    private final Map<Consumer, Integer> consumerRange = Maps.newHashMap();
+
+    public void addConsumer(Consumer consumer) throws ConsumerBusyException {
+        if (rangeMap.isEmpty()) {
+            rangeMap.put(HASH_RANGE_SIZE - 1, consumer);
+            consumerRange.put(consumer, HASH_RANGE_SIZE - 1);
+            return;
+        }
+
+        // Find the biggest range
+        int rangeStart = 0;
+        int splitStart = 0;
+        int splitEnd = -1;
+        for (Integer rangeEnd : rangeMap.keySet()) {
+            if (rangeEnd - rangeStart > splitEnd - splitStart) {
+                splitStart = rangeStart;
+                splitEnd = rangeEnd;
+            }
+            rangeStart = rangeEnd + 1;
+        }
+
+        if (splitEnd == splitStart) {
+            throw new ConsumerBusyException("Key_Shared subscription reached the max number of consumers");
+        }
+
+        int middle = splitStart + (splitEnd - splitStart) / 2;
+        rangeMap.put(middle, consumer);
+        consumerRange.put(consumer, middle);
+    }
+
+    public void removeConsumer(Consumer consumer) {
+        Integer rangeEnd = consumerRange.remove(consumer);
+        if (rangeEnd == null) {
+            return;
+        }
+
+        rangeMap.remove(rangeEnd);
+        if (rangeEnd == HASH_RANGE_SIZE - 1 && !rangeMap.isEmpty()) {
+            // The last range was removed, extend the previous range up to the end of the hash space
+            Map.Entry<Integer, Consumer> lastRange = rangeMap.pollLastEntry();
+            rangeMap.put(HASH_RANGE_SIZE - 1, lastRange.getValue());
+            consumerRange.put(lastRange.getValue(), HASH_RANGE_SIZE - 1);
+        }
+    }
+
+    /**
+     * @return the consumer owning the key, or null if there are no consumers
+     */
+    public Consumer select(byte[] stickyKey) {
+        return select(getHash(stickyKey));
+    }
+
+    public Consumer select(int hash) {
+        Map.Entry<Integer, Consumer> range = rangeMap.ceilingEntry(hash);
+        return range != null ? range.getValue() : null;
+    }
+
+    public static int getHash(byte[] stickyKey) {
+        if (stickyKey == null) {
+            stickyKey = NONE_KEY;
+        }
+        return (HASH_FUNCTION.hashBytes(stickyKey).asInt() & Integer.MAX_VALUE) % HASH_RANGE_SIZE;
+    }
+
+    /**
+     * @return the range of hashes [start, end] assigned to the consumer, or null if the consumer is not registered
+     */
+    public int[] getRange(Consumer consumer) {
+        Integer rangeEnd = consumerRange.get(consumer);
+        if (rangeEnd == null) {
+            return null;
+        }
+        Integer previousEnd = rangeMap.lowerKey(rangeEnd);
+        return new int[] { previousEnd != null ? previousEnd + 1 : 0, rangeEnd };
+    }
+}
@@ -71,6 +71,10 @@ public class Producer {
     private static final AtomicLongFieldUpdater<Producer> pendingPublishAcksUpdater = AtomicLongFieldUpdater
             .newUpdater(Producer.class, "pendingPublishAcks");
 
+    private volatile long publishRateThrottledCount = 0;
+    private static final AtomicLongFieldUpdater<Producer> publishRateThrottledCountUpdater = AtomicLongFieldUpdater
+            .newUpdater(Producer.class, "publishRateThrottledCount");
+
     private boolean isClosed = false;
     private final CompletableFuture<Void> closeFuture;
 
@@ -128,11 +132,12 @@ public class Producer {
     }
 
     public void publishMessage(long producerId, long sequenceId, ByteBuf headersAndPayload, long batchSize) {
+        final int msgSize = headersAndPayload.readableBytes();
         if (isClosed) {
             cnx.ctx().channel().eventLoop().execute(() -> {
                 cnx.ctx().writeAndFlush(Commands.newSendError(producerId, sequenceId, ServerError.PersistenceError,
                         "Producer is closed"));
-                cnx.completedSendOperation(isNonPersistentTopic);
+                cnx.completedSendOperation(isNonPersistentTopic, msgSize);
             });
 
             return;
@@ -142,7 +147,7 @@ public class Producer {
             cnx.ctx().channel().eventLoop().execute(() -> {
                 cnx.ctx().writeAndFlush(
                         Commands.newSendError(producerId, sequenceId, ServerError.ChecksumError, "Checksum failed on the broker"));
-                cnx.completedSendOperation(isNonPersistentTopic);
+                cnx.completedSendOperation(isNonPersistentTopic, msgSize);
             });
             return;
         }
@@ -159,15 +164,23 @@ public class Producer {
                 cnx.ctx().channel().eventLoop().execute(() -> {
                     cnx.ctx().writeAndFlush(Commands.newSendError(producerId, sequenceId, ServerError.MetadataError,
                             "Messages must be encrypted"));
-                    cnx.completedSendOperation(isNonPersistentTopic);
+                    cnx.completedSendOperation(isNonPersistentTopic, msgSize);
                 });
                 return;
             }
         }
 
+        PublishRateLimiter publishRateLimiter = topic.getPublishRateLimiter();
+        if (publishRateLimiter.incrementPublishCount((int) batchSize, msgSize)) {
+            // The message is still persisted, but the broker stops reading from the connection until the end of the
+            // current period
+            publishRateThrottledCountUpdater.incrementAndGet(this);
+            cnx.disableAutoReadOnPublishRateLimit(publishRateLimiter.getPeriodRemainingNanos());
+        }
+
         startPublishOperation();
         topic.publishMessage(headersAndPayload,
-                MessagePublishContext.get(this, sequenceId, msgIn, headersAndPayload.readableBytes(), batchSize));
+                MessagePublishContext.get(this, sequenceId, msgIn, msgSize, batchSize));
     }
 
     private boolean verifyChecksum(ByteBuf headersAndPayload) {
@@ -289,7 +302,7 @@ public class Producer {
                         producer.cnx.ctx().writeAndFlush(Commands.newSendError(producer.producerId, sequenceId,
                                 serverError, exception.getMessage()));
                     }
-                    producer.cnx.completedSendOperation(producer.isNonPersistentTopic);
+                    producer.cnx.completedSendOperation(producer.isNonPersistentTopic, msgSize);
                     producer.publishOperationCompleted();
                     recycle();
                 });
@@ -320,7 +333,7 @@ public class Producer {
             producer.cnx.ctx().writeAndFlush(
                     Commands.newSendReceipt(producer.producerId, sequenceId, ledgerId, entryId),
                     producer.cnx.ctx().voidPromise());
-            producer.cnx.completedSendOperation(producer.isNonPersistentTopic);
+            producer.cnx.completedSendOperation(producer.isNonPersistentTopic, msgSize);
             producer.publishOperationCompleted();
             recycle();
         }
@@ -440,6 +453,8 @@ public class Producer {
         stats.msgRateIn = msgIn.getRate();
         stats.msgThroughputIn = msgIn.getValueRate();
         stats.averageMsgSize = msgIn.getAverageValue();
+        stats.publishRateThrottled = cnx.isPublishRateThrottled();
+        stats.publishRateThrottledCount = publishRateThrottledCount;
         if (this.isNonPersistentTopic) {
             msgDrop.calculateRate();
             ((NonPersistentPublisherStats) stats).msgDropRate = msgDrop.getRate();
@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import com.google.common.collect.Lists;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Broker-wide budget for the size of the publish requests in flight, shared by all the {@link ServerCnx}.
+ *
+ * When the budget is exhausted, the connections holding the largest share of it stop reading from their socket, until
+ * the usage falls back under half of the budget. Connections only publishing small messages are not paused unless
+ * they become the largest holders themselves.
+ *
+ * While some connections are paused, the connections are scanned again at most once per
+ * {@link #DEFAULT_MIN_SCAN_INTERVAL_MILLIS}, so that an overloaded broker doesn't sort all its connections on every
+ * publish request it reads.
+ */
+public class PublishBufferLimiter {
+
+    static final long DEFAULT_MIN_SCAN_INTERVAL_MILLIS = 100;
+
+    private final long maxPublishBufferBytes;
+    private final long resumeThresholdBytes;
+    private final long minScanIntervalNanos;
+
+    private final AtomicLong currentPublishBufferBytes = new AtomicLong();
+
+    // Connections having publish requests in flight, the candidates to be paused
+    private final Set<ServerCnx> activeConnections = ConcurrentHashMap.newKeySet();
+    private final Set<ServerCnx> pausedConnections = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder pausedConnectionsCount = new LongAdder();
+
+    private final AtomicBoolean scanInProgress = new AtomicBoolean();
+    private volatile long lastScanTimestamp;
+
+    public PublishBufferLimiter(long maxPublishBufferBytes) {
+        this(maxPublishBufferBytes, DEFAULT_MIN_SCAN_INTERVAL_MILLIS);
+    }
+
+    PublishBufferLimiter(long maxPublishBufferBytes, long minScanIntervalMillis) {
+        this.maxPublishBufferBytes = maxPublishBufferBytes;
+        this.resumeThresholdBytes = maxPublishBufferBytes / 2;
+        this.minScanIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minScanIntervalMillis);
+    }
+
+    public boolean isEnabled() {
+        return maxPublishBufferBytes > 0;
+    }
+
+    /**
+     * Reserve the buffer of a publish request read from a connection.
+     *
+     * @param cnx
+     *            the connection the request was read from
+     * @param msgSize
+     *            size of the request
+     * @param firstPendingRequest
+     *            whether the connection had no other publish request in flight
+     */
+    public void acquire(ServerCnx cnx, long msgSize, boolean firstPendingRequest) {
+        if (firstPendingRequest) {
+            activeConnections.add(cnx);
+        }
+        if (currentPublishBufferBytes.addAndGet(msgSize) > maxPublishBufferBytes) {
+            maybePauseLargestConnections();
+        }
+    }
+
+    /**
+     * Release the buffer of a publish request once it is persisted or failed.
+     *
+     * @param cnx
+     *            the connection the request was read from
+     * @param msgSize
+     *            size of the request
+     * @param lastPendingRequest
+     *            whether the connection has no other publish request in flight
+     */
+    public void release(ServerCnx cnx, long msgSize, boolean lastPendingRequest) {
+        if (lastPendingRequest) {
+            activeConnections.remove(cnx);
+        }
+        long currentBytes = currentPublishBufferBytes.addAndGet(-msgSize);
+        if (pausedConnections.isEmpty()) {
+            return;
+        }
+        if (currentBytes <= resumeThresholdBytes) {
+            resumeConnections();
+        } else if (lastPendingRequest && currentBytes <= maxPublishBufferBytes && pausedConnections.remove(cnx)) {
+            // The connection doesn't hold any of the budget anymore, don't keep it paused while the other
+            // connections are draining theirs
+            cnx.enableAutoReadOnPublishBufferLimit();
+        }
+    }
+
+    public void connectionClosed(ServerCnx cnx) {
+        activeConnections.remove(cnx);
+        pausedConnections.remove(cnx);
+    }
+
+    private void maybePauseLargestConnections() {
+        if (!pausedConnections.isEmpty() && System.nanoTime() - lastScanTimestamp < minScanIntervalNanos) {
+            // A pause is already in effect, give it time to drain the budget
+            return;
+        }
+        if (!scanInProgress.compareAndSet(false, true)) {
+            // Another connection is already looking for the connections to pause
+            return;
+        }
+        try {
+            pauseLargestConnections();
+            lastScanTimestamp = System.nanoTime();
+        } finally {
+            scanInProgress.set(false);
+        }
+    }
+
+    /**
+     * Pause the connections holding the largest share of the budget, until the requests they have in flight are enough
+     * to bring the usage back under the resume threshold once they are completed.
+     */
+    private synchronized void pauseLargestConnections() {
+        long currentBytes = currentPublishBufferBytes.get();
+        if (currentBytes <= maxPublishBufferBytes) {
+            return;
+        }
+        long bytesToRelease = currentBytes - resumeThresholdBytes;
+
+        long pausedBytes = 0;
+        for (ServerCnx cnx : pausedConnections) {
+            pausedBytes += cnx.getPendingPublishBytes();
+        }
+        if (pausedBytes >= bytesToRelease) {
+            // The connections already paused are holding enough of the budget
+            return;
+        }
+
+        // The pending bytes keep changing from the connections event loops, sort on a snapshot of them
+        List<PendingBytes> candidates = Lists.newArrayList();
+        activeConnections.forEach(cnx -> {
+            if (!pausedConnections.contains(cnx)) {
+                candidates.add(new PendingBytes(cnx, cnx.getPendingPublishBytes()));
+            }
+        });
+        candidates.sort(Comparator.comparingLong((PendingBytes candidate) -> candidate.bytes).reversed());
+
+        for (PendingBytes candidate : candidates) {
+            if (pausedBytes >= bytesToRelease) {
+                break;
+            }
+            pausedConnections.add(candidate.cnx);
+            pausedConnectionsCount.increment();
+            pausedBytes += candidate.bytes;
+            candidate.cnx.disableAutoReadOnPublishBufferLimit();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Publish buffer exhausted: {} bytes in flight, {} connections paused",
+                    currentPublishBufferBytes.get(), pausedConnections.size());
+        }
+    }
+
+    private synchronized void resumeConnections() {
+        if (currentPublishBufferBytes.get() > resumeThresholdBytes) {
+            return;
+        }
+        pausedConnections.forEach(ServerCnx::enableAutoReadOnPublishBufferLimit);
+        pausedConnections.clear();
+    }
+
+    private static class PendingBytes {
+        final ServerCnx cnx;
+        final long bytes;
+
+        PendingBytes(ServerCnx cnx, long bytes) {
+            this.cnx = cnx;
+            this.bytes = bytes;
+        }
+    }
+
+    public long getCurrentPublishBufferBytes() {
+        return currentPublishBufferBytes.get();
+    }
+
+    public long getMaxPublishBufferBytes() {
+        return maxPublishBufferBytes;
+    }
+
+    /**
+     * @return number of connections currently paused because of the publish buffer limit
+     */
+    public int getPausedConnections() {
+        return pausedConnections.size();
+    }
+
+    /**
+     * @return number of times a connection was paused because of the publish buffer limit
+     */
+    public long getPausedConnectionsCount() {
+        return pausedConnectionsCount.sum();
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(PublishBufferLimiter.class);
+}
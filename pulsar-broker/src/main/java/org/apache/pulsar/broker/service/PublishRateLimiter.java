@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.common.policies.data.Policies;
+import org.apache.pulsar.common.policies.data.PublishRate;
+
+/**
+ * Counts the messages and bytes published on a topic over fixed periods of one second and tells when the configured
+ * publish-rate is exceeded.
+ *
+ * Unlike the dispatch rate-limiter, nothing is blocked here: the connections of the producers are paused by the
+ * {@link ServerCnx} until the end of the current period, once the limit is crossed.
+ */
+public class PublishRateLimiter {
+
+    private static final long PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongSupplier clock;
+
+    private volatile int publishMaxMessageRate = 0;
+    private volatile long publishMaxByteRate = 0;
+
+    private volatile long periodStartNanos;
+    private final AtomicLong currentPublishMsgCount = new AtomicLong();
+    private final AtomicLong currentPublishByteCount = new AtomicLong();
+
+    private final LongAdder publishRateExceededCount = new LongAdder();
+
+    public PublishRateLimiter(PublishRate publishRate) {
+        this(publishRate, System::nanoTime);
+    }
+
+    PublishRateLimiter(PublishRate publishRate, LongSupplier clock) {
+        this.clock = clock;
+        this.periodStartNanos = clock.getAsLong();
+        update(publishRate);
+    }
+
+    /**
+     * Record messages published on the topic.
+     *
+     * @param numOfMessages
+     *            number of messages in the published entry
+     * @param msgSizeInBytes
+     *            size of the published entry
+     * @return true if the publish-rate of the current period is exceeded
+     */
+    public boolean incrementPublishCount(int numOfMessages, long msgSizeInBytes) {
+        if (!isPublishRateLimitEnabled()) {
+            return false;
+        }
+        checkPeriodRollover();
+        long msgCount = currentPublishMsgCount.addAndGet(numOfMessages);
+        long byteCount = currentPublishByteCount.addAndGet(msgSizeInBytes);
+        boolean exceeded = isExceeded(msgCount, byteCount);
+        if (exceeded) {
+            publishRateExceededCount.increment();
+        }
+        return exceeded;
+    }
+
+    /**
+     * @return true if the messages published during the current period already exceed the publish-rate
+     */
+    public boolean isPublishRateExceeded() {
+        if (!isPublishRateLimitEnabled()) {
+            return false;
+        }
+        checkPeriodRollover();
+        return isExceeded(currentPublishMsgCount.get(), currentPublishByteCount.get());
+    }
+
+    /**
+     * @return time in nanoseconds until the beginning of the next period, when the publish counters are reset
+     */
+    public long getPeriodRemainingNanos() {
+        long remaining = periodStartNanos + PERIOD_NANOS - clock.getAsLong();
+        return Math.max(0, Math.min(remaining, PERIOD_NANOS));
+    }
+
+    /**
+     * @return number of publish requests that crossed the publish-rate since the topic was loaded
+     */
+    public long getPublishRateExceededCount() {
+        return publishRateExceededCount.sum();
+    }
+
+    public boolean isPublishRateLimitEnabled() {
+        return publishMaxMessageRate > 0 || publishMaxByteRate > 0;
+    }
+
+    public int getPublishMaxMessageRate() {
+        return publishMaxMessageRate;
+    }
+
+    public long getPublishMaxByteRate() {
+        return publishMaxByteRate;
+    }
+
+    /**
+     * Apply a new publish-rate. A value &lt;= 0 disables the corresponding limit.
+     */
+    public void update(PublishRate publishRate) {
+        if (publishRate != null) {
+            this.publishMaxMessageRate = Math.max(publishRate.publishThrottlingRateInMsg, 0);
+            this.publishMaxByteRate = Math.max(publishRate.publishThrottlingRateInByte, 0);
+        } else {
+            this.publishMaxMessageRate = 0;
+            this.publishMaxByteRate = 0;
+        }
+    }
+
+    private boolean isExceeded(long msgCount, long byteCount) {
+        return (publishMaxMessageRate > 0 && msgCount > publishMaxMessageRate)
+                || (publishMaxByteRate > 0 && byteCount > publishMaxByteRate);
+    }
+
+    private void checkPeriodRollover() {
+        long periodStart = periodStartNanos;
+        long now = clock.getAsLong();
+        if (now - periodStart >= PERIOD_NANOS) {
+            synchronized (this) {
+                // Only the first thread noticing the end of the period resets the counters
+                if (periodStart == periodStartNanos) {
+                    currentPublishMsgCount.set(0);
+                    currentPublishByteCount.set(0);
+                    periodStartNanos = now;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the publish-rate to apply on the topics of a namespace: the rate configured in the namespace policies for
+     * the local cluster if it is enabled, the broker default otherwise.
+     */
+    public static PublishRate getPublishRate(ServiceConfiguration config, Policies policies) {
+        if (policies != null && policies.clusterPublishRate != null) {
+            PublishRate publishRate = policies.clusterPublishRate.get(config.getClusterName());
+            if (publishRate != null && (publishRate.publishThrottlingRateInMsg > 0
+                    || publishRate.publishThrottlingRateInByte > 0)) {
+                return publishRate;
+            }
+        }
+        return new PublishRate(config.getPublishThrottlingRatePerTopicInMsg(),
+                config.getPublishThrottlingRatePerTopicInByte());
+    }
+}
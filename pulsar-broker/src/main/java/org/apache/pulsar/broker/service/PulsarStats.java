@@ -61,7 +61,7 @@ public class PulsarStats implements Closeable {
 
     private final ReentrantReadWriteLock bufferLock = new ReentrantReadWriteLock();
 
-    public PulsarStats(PulsarService pulsar) {
+    public PulsarStats(PulsarService pulsar, PublishBufferLimiter publishBufferLimiter) {
         this.topicStatsBuf = Unpooled.buffer(16 * 1024);
         this.tempTopicStatsBuf = Unpooled.buffer(16 * 1024);
 
@@ -72,7 +72,7 @@ public class PulsarStats implements Closeable {
         this.tempMetricsCollection = Lists.newArrayList();
         this.metricsCollection = Lists.newArrayList();
         this.brokerOperabilityMetrics = new BrokerOperabilityMetrics(pulsar.getConfiguration().getClusterName(),
-                pulsar.getAdvertisedAddress());
+                pulsar.getAdvertisedAddress(), publishBufferLimiter);
         this.tempNonPersistentTopics = Lists.newArrayList();
     }
 
@@ -230,6 +230,14 @@ public class PulsarStats implements Closeable {
         }
     }
 
+    public void recordDedupRecoveryTimeValue(String topic, long recoveryTimeMs) {
+        try {
+            brokerOperabilityMetrics.recordDedupRecoveryTimeValue(recoveryTimeMs);
+        } catch (Exception ex) {
+            log.warn("Exception while recording dedup recovery time for topic {}, {}", topic, ex.getMessage());
+        }
+    }
+
     public void recordZkLatencyTimeValue(EventType eventType, long latencyMs) {
         try {
             if (EventType.write.equals(eventType)) {
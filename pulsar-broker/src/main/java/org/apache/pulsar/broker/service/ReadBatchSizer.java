@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import java.util.List;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.pulsar.broker.ServiceConfiguration;
+
+/**
+ * Chooses the number of entries to read from a cursor.
+ *
+ * <p/>Each read is limited by:
+ * <ul>
+ * <li>the permits of the consumers (or of the replication producer), in messages and optionally in bytes</li>
+ * <li>a max number of entries, which is halved after the entries read could not all be dispatched and reset to 1
+ * after a read failure, and then doubles after each successful read</li>
+ * <li>a byte budget, converted to a number of entries using an estimate of the size of the entries read through
+ * the cursor. The estimate is the largest of a moving average, which follows bigger entries right away and smaller
+ * entries slowly, and of the biggest entry of the last read. Until an entry was read, a single entry is read when
+ * there is a byte budget.</li>
+ * </ul>
+ *
+ * <p/>This class is not thread-safe, the access is serialized by the dispatcher.
+ */
+public class ReadBatchSizer {
+
+    // Weight of the last read in the moving average of the entry size, when the entries get smaller
+    private static final double ENTRY_SIZE_ALPHA = 0.25;
+
+    private final int maxReadBatchSize;
+    private final long maxReadSizeBytes;
+
+    private int readBatchSize;
+    private double avgEntrySize = 0;
+    // Size of the biggest entry of the last read
+    private long lastMaxEntrySize = 0;
+
+    // Size of the last read, only used for reporting
+    private volatile int lastEntriesToRead = 0;
+    private volatile long lastBytesToRead = 0;
+
+    public ReadBatchSizer(ServiceConfiguration conf) {
+        this(conf.getDispatcherMaxReadBatchSize(), conf.getDispatcherMaxReadSizeBytes());
+    }
+
+    public ReadBatchSizer(int maxReadBatchSize, long maxReadSizeBytes) {
+        this.maxReadBatchSize = Math.max(1, maxReadBatchSize);
+        this.maxReadSizeBytes = maxReadSizeBytes;
+        this.readBatchSize = this.maxReadBatchSize;
+    }
+
+    /**
+     * @return the number of entries to read given the available permits
+     */
+    public int getEntriesToRead(int availablePermits) {
+        return getEntriesToRead(availablePermits, -1);
+    }
+
+    /**
+     * @param availableBytePermits
+     *            the bytes the consumer can receive, or -1 if it doesn't use byte permits
+     * @return the number of entries to read given the available permits
+     */
+    public int getEntriesToRead(int availablePermits, long availableBytePermits) {
+        int entriesToRead = Math.min(availablePermits, readBatchSize);
+        long maxBytesToRead = maxReadSizeBytes;
+        if (availableBytePermits >= 0) {
+            maxBytesToRead = maxBytesToRead > 0 ? Math.min(maxBytesToRead, availableBytePermits)
+                    : availableBytePermits;
+        }
+        double entrySize = Math.max(avgEntrySize, lastMaxEntrySize);
+        if (maxBytesToRead > 0) {
+            // Without any entry size yet, read a single entry to learn it
+            entriesToRead = entrySize > 0
+                    ? (int) Math.min(entriesToRead, Math.max(1, maxBytesToRead / entrySize))
+                    : Math.min(entriesToRead, 1);
+        }
+
+        lastEntriesToRead = entriesToRead;
+        lastBytesToRead = (long) (entriesToRead * entrySize);
+        return entriesToRead;
+    }
+
+    /**
+     * Record the size of the entries read and increase the number of entries for the next read.
+     */
+    public void readCompleted(List<Entry> entries) {
+        if (!entries.isEmpty()) {
+            long totalSize = 0;
+            long maxSize = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                int size = entries.get(i).getLength();
+                totalSize += size;
+                maxSize = Math.max(maxSize, size);
+            }
+            double readAvgEntrySize = (double) totalSize / entries.size();
+            // Bigger entries are taken into account right away, so that once the producers switched to bigger
+            // messages the next reads don't go over the byte budget by more than one entry
+            avgEntrySize = readAvgEntrySize >= avgEntrySize ? readAvgEntrySize
+                    : ENTRY_SIZE_ALPHA * readAvgEntrySize + (1 - ENTRY_SIZE_ALPHA) * avgEntrySize;
+            lastMaxEntrySize = maxSize;
+        }
+
+        readBatchSize = Math.min(readBatchSize * 2, maxReadBatchSize);
+    }
+
+    /**
+     * Reduce the number of entries to read, when the consumers could not take all the entries read.
+     */
+    public void entriesNotDispatched() {
+        readBatchSize = Math.max(1, readBatchSize / 2);
+    }
+
+    /**
+     * Read a single entry at a time until a read succeeds, to avoid flooding the bookies with retries.
+     */
+    public void readFailed() {
+        readBatchSize = 1;
+    }
+
+    /**
+     * Set the max number of entries for the next read, eg. to start with smaller reads.
+     */
+    public void setReadBatchSize(int readBatchSize) {
+        this.readBatchSize = Math.max(1, Math.min(readBatchSize, maxReadBatchSize));
+    }
+
+    public int getLastEntriesToRead() {
+        return lastEntriesToRead;
+    }
+
+    public long getLastBytesToRead() {
+        return lastBytesToRead;
+    }
+
+    public long getAvgEntrySize() {
+        return Math.round(avgEntrySize);
+    }
+}
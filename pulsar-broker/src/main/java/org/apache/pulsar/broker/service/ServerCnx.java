@@ -102,6 +102,14 @@ public class ServerCnx extends PulsarHandler {
     private static final int MaxPendingSendRequests = 1000;
     private static final int ResumeReadsThreshold = MaxPendingSendRequests / 2;
     private int pendingSendRequest = 0;
+    private boolean autoReadDisabledPendingSendRequests = false;
+    // Set while the reads are paused because a topic published on this connection exceeded its publish-rate
+    private volatile boolean autoReadDisabledPublishRateLimiting = false;
+    // Set while the reads are paused because the broker-wide publish buffer is exhausted
+    private boolean autoReadDisabledPublishBufferLimiting = false;
+    private final PublishBufferLimiter publishBufferLimiter;
+    // Size of the publish requests in flight on this connection. Only updated from the connection thread
+    private volatile long pendingPublishBytes = 0;
     private final String replicatorPrefix;
     private String clientVersion = null;
     private int nonPersistentPendingMessages = 0;
@@ -109,6 +117,7 @@ public class ServerCnx extends PulsarHandler {
     private String originalPrincipal = null;
     private Set<String> proxyRoles;
     private boolean authenticateOriginalAuthData;
+    private final boolean batchIndexAckEnabled;
 
     enum State {
         Start, Connected, Failed
@@ -126,7 +135,10 @@ public class ServerCnx extends PulsarHandler {
         this.MaxNonPersistentPendingMessages = service.pulsar().getConfiguration()
                 .getMaxConcurrentNonPersistentMessagePerConnection();
         this.proxyRoles = service.pulsar().getConfiguration().getProxyRoles();
+        this.publishBufferLimiter = service.getPublishBufferLimiter().isEnabled() ? service.getPublishBufferLimiter()
+                : null;
         this.authenticateOriginalAuthData = service.pulsar().getConfiguration().authenticateOriginalAuthData();
+        this.batchIndexAckEnabled = service.pulsar().getConfiguration().isAcknowledgmentAtBatchIndexLevelEnabled();
     }
 
     @Override
@@ -141,6 +153,9 @@ public class ServerCnx extends PulsarHandler {
         super.channelInactive(ctx);
         isActive = false;
         log.info("Closed connection from {}", remoteAddress);
+        if (publishBufferLimiter != null) {
+            publishBufferLimiter.connectionClosed(this);
+        }
 
         // Connection is gone, close the producers immediately
         producers.values().forEach((producerFuture) -> {
@@ -770,7 +785,11 @@ public class ServerCnx extends PulsarHandler {
 
                         log.info("[{}][{}] Creating producer. producerId={}", remoteAddress, topicName, producerId);
 
-                        service.getTopic(topicName.toString()).thenAccept((Topic topic) -> {
+                        service.getTopic(topicName.toString()).thenCompose(topic -> {
+                            // The producer needs the last sequence id it published, which is only known once the
+                            // deduplication state of the topic is recovered
+                            return topic.waitForDeduplicationRecovery().thenApply(v -> topic);
+                        }).thenAccept((Topic topic) -> {
                             // Before creating producer, check if backlog quota exceeded
                             // on topic
                             if (topic.isBacklogQuotaExceeded(producerName)) {
@@ -911,7 +930,7 @@ public class ServerCnx extends PulsarHandler {
             }
         }
 
-        startSendOperation();
+        startSendOperation(headersAndPayload.readableBytes());
 
         // Persist the message
         producer.publishMessage(send.getProducerId(), send.getSequenceId(), headersAndPayload, send.getNumMessages());
@@ -942,8 +961,8 @@ public class ServerCnx extends PulsarHandler {
     protected void handleFlow(CommandFlow flow) {
         checkArgument(state == State.Connected);
         if (log.isDebugEnabled()) {
-            log.debug("[{}] Received flow from consumer {} permits: {}", remoteAddress, flow.getConsumerId(),
-                    flow.getMessagePermits());
+            log.debug("[{}] Received flow from consumer {} permits: {} bytes: {}", remoteAddress,
+                    flow.getConsumerId(), flow.getMessagePermits(), flow.getBytePermits());
         }
 
         CompletableFuture<Consumer> consumerFuture = consumers.get(flow.getConsumerId());
@@ -951,7 +970,7 @@ public class ServerCnx extends PulsarHandler {
         if (consumerFuture != null && consumerFuture.isDone() && !consumerFuture.isCompletedExceptionally()) {
             Consumer consumer = consumerFuture.getNow(null);
             if (consumer != null) {
-                consumer.flowPermits(flow.getMessagePermits());
+                consumer.flowPermits(flow.getMessagePermits(), flow.hasBytePermits() ? flow.getBytePermits() : 0);
             } else {
                 log.info("[{}] Couldn't find consumer {}", remoteAddress, flow.getConsumerId());
             }
@@ -969,7 +988,8 @@ public class ServerCnx extends PulsarHandler {
 
         if (consumerFuture != null && consumerFuture.isDone() && !consumerFuture.isCompletedExceptionally()) {
             Consumer consumer = consumerFuture.getNow(null);
-            if (redeliver.getMessageIdsCount() > 0 && consumer.subType() == SubType.Shared) {
+            if (redeliver.getMessageIdsCount() > 0
+                    && (consumer.subType() == SubType.Shared || consumer.subType() == SubType.Key_Shared)) {
                 consumer.redeliverUnacknowledgedMessages(redeliver.getMessageIdsList());
             } else {
                 consumer.redeliverUnacknowledgedMessages();
@@ -1215,22 +1235,89 @@ public class ServerCnx extends PulsarHandler {
         return ctx.channel().isWritable();
     }
 
-    public void startSendOperation() {
+    public void startSendOperation(int msgSize) {
         if (++pendingSendRequest == MaxPendingSendRequests) {
             // When the quota of pending send requests is reached, stop reading from socket to cause backpressure on
             // client connection, possibly shared between multiple producers
+            autoReadDisabledPendingSendRequests = true;
             ctx.channel().config().setAutoRead(false);
         }
+        if (publishBufferLimiter != null) {
+            long previousPendingBytes = pendingPublishBytes;
+            pendingPublishBytes = previousPendingBytes + msgSize;
+            publishBufferLimiter.acquire(this, msgSize, previousPendingBytes == 0);
+        }
     }
 
-    public void completedSendOperation(boolean isNonPersistentTopic) {
-        if (--pendingSendRequest == ResumeReadsThreshold) {
+    public void completedSendOperation(boolean isNonPersistentTopic, int msgSize) {
+        if (--pendingSendRequest == ResumeReadsThreshold && autoReadDisabledPendingSendRequests) {
+            autoReadDisabledPendingSendRequests = false;
             // Resume reading from socket
-            ctx.channel().config().setAutoRead(true);
+            enableAutoReadIfNotThrottled();
         }
         if (isNonPersistentTopic) {
             nonPersistentPendingMessages--;
         }
+        if (publishBufferLimiter != null) {
+            long remainingPendingBytes = pendingPublishBytes - msgSize;
+            pendingPublishBytes = remainingPendingBytes;
+            publishBufferLimiter.release(this, msgSize, remainingPendingBytes == 0);
+        }
+    }
+
+    private void enableAutoReadIfNotThrottled() {
+        if (!autoReadDisabledPendingSendRequests && !autoReadDisabledPublishRateLimiting
+                && !autoReadDisabledPublishBufferLimiting) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * Stop reading from the socket because the broker-wide publish buffer is exhausted. May be called from any thread.
+     */
+    public void disableAutoReadOnPublishBufferLimit() {
+        ctx.executor().execute(() -> {
+            autoReadDisabledPublishBufferLimiting = true;
+            ctx.channel().config().setAutoRead(false);
+        });
+    }
+
+    /**
+     * Resume reading from the socket once enough of the publish buffer is released. May be called from any thread.
+     */
+    public void enableAutoReadOnPublishBufferLimit() {
+        ctx.executor().execute(() -> {
+            autoReadDisabledPublishBufferLimiting = false;
+            enableAutoReadIfNotThrottled();
+        });
+    }
+
+    public long getPendingPublishBytes() {
+        return pendingPublishBytes;
+    }
+
+    /**
+     * Stop reading from the socket until the end of the current publish-rate period of a topic. The producers sharing
+     * this connection are throttled too, the same way they are when the pending send requests quota is reached.
+     *
+     * @param delayNanos
+     *            time until the publish counters of the topic are reset
+     */
+    public void disableAutoReadOnPublishRateLimit(long delayNanos) {
+        if (autoReadDisabledPublishRateLimiting) {
+            // Already paused, the reads will be resumed by the scheduled task
+            return;
+        }
+        autoReadDisabledPublishRateLimiting = true;
+        ctx.channel().config().setAutoRead(false);
+        ctx.executor().schedule(() -> {
+            autoReadDisabledPublishRateLimiting = false;
+            enableAutoReadIfNotThrottled();
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isPublishRateThrottled() {
+        return autoReadDisabledPublishRateLimiting;
     }
 
     private <T> ServerError getErrorCode(CompletableFuture<T> future) {
@@ -1309,6 +1396,10 @@ public class ServerCnx extends PulsarHandler {
         return remoteEndpointProtocolVersion >= ProtocolVersion.v4.getNumber();
     }
 
+    public boolean isBatchIndexAckSupported() {
+        return batchIndexAckEnabled && Commands.peerSupportsBatchIndexAck(remoteEndpointProtocolVersion);
+    }
+
     public String getClientVersion() {
         return clientVersion;
     }
@@ -18,6 +18,7 @@
  */
 package org.apache.pulsar.broker.service;
 
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -42,6 +43,10 @@ public interface Subscription {
 
     void acknowledgeMessage(PositionImpl position, AckType ackType, Map<String,Long> properties);
 
+    void acknowledgeBatchIndexes(PositionImpl position, BitSet ackedIndexes);
+
+    BitSet getAckedBatchIndexes(PositionImpl position);
+
     String getDestination();
 
     Dispatcher getDispatcher();
@@ -104,6 +104,12 @@ public interface Topic {
 
     void checkMessageDeduplicationInfo();
 
+    /**
+     * @return a future completed once the deduplication state of the topic is fully recovered, before which the
+     *         producers can't be told their last sequence id
+     */
+    CompletableFuture<Void> waitForDeduplicationRecovery();
+
     CompletableFuture<Void> onPoliciesUpdate(Policies data);
 
     boolean isBacklogQuotaExceeded(String producerName);
@@ -125,4 +131,6 @@ public interface Topic {
     PersistentTopicInternalStats getInternalStats();
 
     Position getLastMessageId();
+
+    PublishRateLimiter getPublishRateLimiter();
 }
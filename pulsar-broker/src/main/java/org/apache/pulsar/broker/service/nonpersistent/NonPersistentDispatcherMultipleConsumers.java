@@ -185,7 +185,7 @@ public class NonPersistentDispatcherMultipleConsumers extends AbstractDispatcher
             TOTAL_AVAILABLE_PERMITS_UPDATER.addAndGet(this, -consumer.sendMessages(entries).getTotalSentMessages());
         } else {
             entries.forEach(entry -> {
-                int totalMsgs = getBatchSizeforEntry(entry.getDataBuffer(), subscription, -1);
+                int totalMsgs = getBatchSizeforEntry(entry, subscription, -1);
                 if (totalMsgs > 0) {
                     msgDrop.recordEvent();
                 }
@@ -206,7 +206,8 @@ public class NonPersistentDispatcherMultipleConsumers extends AbstractDispatcher
 
     @Override
     public boolean isConsumerAvailable(Consumer consumer) {
-        return consumer != null && consumer.getAvailablePermits() > 0 && consumer.isWritable();
+        return consumer != null && consumer.getAvailablePermits() > 0 && consumer.hasAvailableBytePermits()
+                && consumer.isWritable();
     }
 
     private static final Logger log = LoggerFactory.getLogger(NonPersistentDispatcherMultipleConsumers.class);
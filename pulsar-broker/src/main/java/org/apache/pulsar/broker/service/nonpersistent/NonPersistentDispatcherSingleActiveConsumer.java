@@ -49,11 +49,12 @@ public final class NonPersistentDispatcherSingleActiveConsumer extends AbstractD
     @Override
     public void sendMessages(List<Entry> entries) {
         Consumer currentConsumer = ACTIVE_CONSUMER_UPDATER.get(this);
-        if (currentConsumer != null && currentConsumer.getAvailablePermits() > 0 && currentConsumer.isWritable()) {
+        if (currentConsumer != null && currentConsumer.getAvailablePermits() > 0
+                && currentConsumer.hasAvailableBytePermits() && currentConsumer.isWritable()) {
             currentConsumer.sendMessages(entries);
         } else {
             entries.forEach(entry -> {
-                int totalMsgs = getBatchSizeforEntry(entry.getDataBuffer(), subscription, -1);
+                int totalMsgs = getBatchSizeforEntry(entry, subscription, -1);
                 if (totalMsgs > 0) {
                     msgDrop.recordEvent();
                 }
@@ -85,7 +86,9 @@ public final class NonPersistentDispatcherSingleActiveConsumer extends AbstractD
 
     @Override
     public boolean hasPermits() {
-        return ACTIVE_CONSUMER_UPDATER.get(this) != null && ACTIVE_CONSUMER_UPDATER.get(this).getAvailablePermits() > 0;
+        Consumer currentConsumer = ACTIVE_CONSUMER_UPDATER.get(this);
+        return currentConsumer != null && currentConsumer.getAvailablePermits() > 0
+                && currentConsumer.hasAvailableBytePermits();
     }
 
     @Override
@@ -18,6 +18,7 @@
  */
 package org.apache.pulsar.broker.service.nonpersistent;
 
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -143,6 +144,16 @@ public class NonPersistentSubscription implements Subscription {
         // No-op
     }
 
+    @Override
+    public void acknowledgeBatchIndexes(PositionImpl position, BitSet ackedIndexes) {
+        // No-op
+    }
+
+    @Override
+    public BitSet getAckedBatchIndexes(PositionImpl position) {
+        return null;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this).add("topic", topicName).add("name", subName).toString();
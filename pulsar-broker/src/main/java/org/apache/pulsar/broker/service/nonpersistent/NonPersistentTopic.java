@@ -54,6 +54,7 @@ import org.apache.pulsar.broker.service.persistent.PersistentReplicator;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Producer;
+import org.apache.pulsar.broker.service.PublishRateLimiter;
 import org.apache.pulsar.broker.service.Replicator;
 import org.apache.pulsar.broker.service.ServerCnx;
 import org.apache.pulsar.broker.service.Subscription;
@@ -138,6 +139,7 @@ public class NonPersistentTopic implements Topic {
 
     // Whether messages published must be encrypted or not in this topic
     private volatile boolean isEncryptionRequired = false;
+    private final PublishRateLimiter publishRateLimiter;
 
     private static class TopicStats {
         public double averageMsgSize;
@@ -172,6 +174,8 @@ public class NonPersistentTopic implements Topic {
         this.replicatorPrefix = brokerService.pulsar().getConfiguration().getReplicatorPrefix();
         this.executor = brokerService.getTopicOrderedExecutor();
         USAGE_COUNT_UPDATER.set(this, 0);
+        this.publishRateLimiter = new PublishRateLimiter(
+                PublishRateLimiter.getPublishRate(brokerService.pulsar().getConfiguration(), null));
 
         this.lastActive = System.nanoTime();
 
@@ -180,6 +184,8 @@ public class NonPersistentTopic implements Topic {
                     .get(AdminResource.path(POLICIES, DestinationName.get(topic).getNamespace()))
                     .orElseThrow(() -> new KeeperException.NoNodeException());
             isEncryptionRequired = policies.encryption_required;
+            publishRateLimiter.update(PublishRateLimiter.getPublishRate(brokerService.pulsar().getConfiguration(),
+                    policies));
         } catch (Exception e) {
             log.warn("[{}] Error getting policies {} and isEncryptionRequired will be set to false", topic, e.getMessage());
             isEncryptionRequired = false;
@@ -277,6 +283,11 @@ public class NonPersistentTopic implements Topic {
         // No-op
     }
 
+    @Override
+    public CompletableFuture<Void> waitForDeduplicationRecovery() {
+        return CompletableFuture.completedFuture(null);
+    }
+
     private boolean hasLocalProducers() {
         AtomicBoolean foundLocal = new AtomicBoolean(false);
         producers.forEach(producer -> {
@@ -918,6 +929,7 @@ public class NonPersistentTopic implements Topic {
             log.debug("[{}] isEncryptionRequired changes: {} -> {}", topic, isEncryptionRequired, data.encryption_required);
         }
         isEncryptionRequired = data.encryption_required;
+        publishRateLimiter.update(PublishRateLimiter.getPublishRate(brokerService.pulsar().getConfiguration(), data));
         producers.forEach(producer -> {
             producer.checkPermissions();
             producer.checkEncryption();
@@ -966,6 +978,11 @@ public class NonPersistentTopic implements Topic {
         this.hasBatchMessagePublished = true;
     }
 
+    @Override
+    public PublishRateLimiter getPublishRateLimiter() {
+        return this.publishRateLimiter;
+    }
+
     
     
     private static final Logger log = LoggerFactory.getLogger(NonPersistentTopic.class);
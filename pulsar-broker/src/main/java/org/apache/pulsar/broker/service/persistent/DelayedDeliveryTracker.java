@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import java.time.Clock;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.common.util.collections.GrowablePriorityLongPairQueue.LongPairConsumer;
+import org.apache.pulsar.common.util.collections.TripleLongPriorityQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the messages of a shared subscription whose delivery time is in the future.
+ *
+ * <p/>Only the positions are kept, ordered by delivery time, so each delayed message takes 24 bytes of memory. The
+ * payloads are read again from the managed ledger when the messages are due. A single timer, scheduled for the
+ * earliest delivery time, triggers a read on the dispatcher when messages become due.
+ */
+class DelayedDeliveryTracker implements AutoCloseable {
+
+    private final PersistentDispatcherMultipleConsumers dispatcher;
+    private final ScheduledExecutorService executor;
+    private final Clock clock;
+
+    // Messages are only dispatched when a tick elapses, to avoid rescheduling the timer for each added message
+    private final long tickTimeMillis;
+
+    // (deliverAt, ledgerId, entryId)
+    private final TripleLongPriorityQueue priorityQueue = new TripleLongPriorityQueue();
+
+    private ScheduledFuture<?> timeout = null;
+    private long currentTimeoutTarget = -1;
+
+    DelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, ScheduledExecutorService executor,
+            long tickTimeMillis) {
+        this(dispatcher, executor, tickTimeMillis, Clock.systemUTC());
+    }
+
+    DelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, ScheduledExecutorService executor,
+            long tickTimeMillis, Clock clock) {
+        this.dispatcher = dispatcher;
+        this.executor = executor;
+        this.tickTimeMillis = tickTimeMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Track a message to be delivered later.
+     *
+     * @return false if the message is already due and should be dispatched immediately
+     */
+    synchronized boolean addMessage(long ledgerId, long entryId, long deliverAt) {
+        if (deliverAt <= clock.millis()) {
+            return false;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Add message {}:{} -- Delivery in {} ms", dispatcher.getName(), ledgerId, entryId,
+                    deliverAt - clock.millis());
+        }
+        priorityQueue.add(deliverAt, ledgerId, entryId);
+        updateTimer();
+        return true;
+    }
+
+    /**
+     * @return whether some of the tracked messages are due
+     */
+    synchronized boolean hasMessageAvailable() {
+        return !priorityQueue.isEmpty() && priorityQueue.peekN1() <= clock.millis();
+    }
+
+    /**
+     * Remove up to {@code maxMessages} due messages from the tracker and pass their positions to the processor.
+     *
+     * @return the number of messages removed
+     */
+    synchronized int getScheduledMessages(int maxMessages, LongPairConsumer processor) {
+        long now = clock.millis();
+        int n = 0;
+        while (n < maxMessages && !priorityQueue.isEmpty() && priorityQueue.peekN1() <= now) {
+            processor.accept(priorityQueue.peekN2(), priorityQueue.peekN3());
+            priorityQueue.pop();
+            ++n;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Get scheduled messages -- found {}", dispatcher.getName(), n);
+        }
+        updateTimer();
+        return n;
+    }
+
+    synchronized long getNumberOfDelayedMessages() {
+        return priorityQueue.size();
+    }
+
+    /**
+     * Forget all the tracked messages, when the dispatcher rewinds the cursor. They will be tracked again when read.
+     */
+    synchronized void clear() {
+        priorityQueue.clear();
+        cancelTimer();
+    }
+
+    @Override
+    public synchronized void close() {
+        clear();
+    }
+
+    private void updateTimer() {
+        if (priorityQueue.isEmpty()) {
+            cancelTimer();
+            return;
+        }
+
+        long timestamp = priorityQueue.peekN1();
+        if (timeout != null && currentTimeoutTarget <= timestamp + tickTimeMillis) {
+            // The current timer fires soon enough, either for these messages or to reschedule itself
+            return;
+        }
+
+        cancelTimer();
+        long delayMillis = Math.max(0, timestamp - clock.millis());
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Start timer in {} millis", dispatcher.getName(), delayMillis);
+        }
+        currentTimeoutTarget = timestamp;
+        timeout = executor.schedule(this::timerExpired, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimer() {
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+            currentTimeoutTarget = -1;
+        }
+    }
+
+    private void timerExpired() {
+        synchronized (this) {
+            timeout = null;
+            currentTimeoutTarget = -1;
+            if (!hasMessageAvailable()) {
+                // The due messages were already dispatched
+                updateTimer();
+                return;
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Timer triggered", dispatcher.getName());
+        }
+        dispatcher.readMoreEntries();
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(DelayedDeliveryTracker.class);
+}
@@ -18,16 +18,22 @@
  */
 package org.apache.pulsar.broker.service.persistent;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.apache.pulsar.broker.cache.ConfigurationCacheService.POLICIES;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.LedgerHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteCursorCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.MarkDeleteCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.OpenCursorCallback;
@@ -36,17 +42,23 @@ import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedger;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.admin.AdminResource;
 import org.apache.pulsar.broker.service.Topic.PublishContext;
 import org.apache.pulsar.common.api.Commands;
 import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 import org.apache.pulsar.common.naming.DestinationName;
 import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
+import org.apache.pulsar.common.util.protobuf.ByteBufCodedInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.WireFormat;
+
 import io.netty.buffer.ByteBuf;
 
 /**
@@ -100,6 +112,34 @@ public class MessageDeduplication {
 
     private final String replicatorPrefix;
 
+    // Number of producers from which the snapshot is stored in a dedicated ledger
+    private final int snapshotLedgerMinProducers;
+
+    // Ledger holding the last snapshot in compact form, or -1 if the snapshot is stored in the cursor properties
+    private volatile long snapshotLedgerId = -1;
+
+    // Only one snapshot is stored at a time, so that the ledger of the previous snapshot can be safely deleted
+    private volatile boolean snapshotInProgress = false;
+
+    // Completed once the entries published after the last snapshot have been replayed
+    private volatile CompletableFuture<Void> recoveryFuture = CompletableFuture.completedFuture(null);
+
+    // Time taken by the last recovery of the sequence ids map
+    private volatile long recoveryTimeMillis = 0;
+
+    // Cursor property with the id of the ledger holding the snapshot
+    static final String SNAPSHOT_LEDGER_PROPERTY = "__dedupSnapshotLedger";
+    // Cursor property with the id of the ledger of a snapshot being written, to delete it if it was never stored
+    static final String SNAPSHOT_PENDING_LEDGER_PROPERTY = "__dedupSnapshotPendingLedger";
+    private static final BookKeeper.DigestType SNAPSHOT_LEDGER_DIGEST_TYPE = BookKeeper.DigestType.CRC32;
+    private static final byte[] SNAPSHOT_LEDGER_PASSWORD = "".getBytes(UTF_8);
+
+    // Tags of the only metadata fields needed when replaying the entries
+    private static final int PRODUCER_NAME_TAG = (MessageMetadata.PRODUCER_NAME_FIELD_NUMBER << 3)
+            | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int SEQUENCE_ID_TAG = (MessageMetadata.SEQUENCE_ID_FIELD_NUMBER << 3)
+            | WireFormat.WIRETYPE_VARINT;
+
     public MessageDeduplication(PulsarService pulsar, PersistentTopic topic, ManagedLedger managedLedger) {
         this.pulsar = pulsar;
         this.topic = topic;
@@ -109,19 +149,104 @@ public class MessageDeduplication {
         this.maxNumberOfProducers = pulsar.getConfiguration().getBrokerDeduplicationMaxNumberOfProducers();
         this.snapshotCounter = 0;
         this.replicatorPrefix = pulsar.getConfiguration().getReplicatorPrefix();
+        this.snapshotLedgerMinProducers = pulsar.getConfiguration().getBrokerDeduplicationSnapshotLedgerMinProducers();
     }
 
-    private CompletableFuture<Void> recoverSequenceIdsMap() {
-        // Load the sequence ids from the snapshot in the cursor properties
-        managedCursor.getProperties().forEach((k, v) -> {
-            highestSequencedPushed.put(k, v);
-            highestSequencedPersisted.put(k, v);
+    /**
+     * Load the last snapshot and then replay the entries published after it.
+     *
+     * The snapshot future is completed as soon as the snapshot is loaded, so that the topic load is not blocked by the
+     * replay. The producers wait for {@link #getRecoveryFuture()} before getting their last sequence id.
+     */
+    private void recoverSequenceIdsMap(CompletableFuture<Void> snapshotFuture) {
+        final long startTime = System.nanoTime();
+        CompletableFuture<Void> replayFuture = new CompletableFuture<>();
+        recoveryFuture = replayFuture.thenRun(() -> {
+            recoveryTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            pulsar.getBrokerService().getPulsarStats().recordDedupRecoveryTimeValue(topic.getName(),
+                    recoveryTimeMillis);
+            status = Status.Enabled;
+            log.info("[{}] Enabled deduplication, recovered {} producers in {} ms", topic.getName(),
+                    highestSequencedPersisted.size(), recoveryTimeMillis);
+        });
+        recoveryFuture.exceptionally(ex -> {
+            status = Status.Failed;
+            log.warn("[{}] Failed to enable deduplication: {}", topic.getName(), ex.getMessage());
+            if (!snapshotFuture.isCompletedExceptionally()) {
+                // The topic was already loaded, close it to have it reloaded with a new recovery
+                topic.close();
+            }
+            return null;
+        });
+
+        recoverSnapshot().thenRun(() -> {
+            snapshotFuture.complete(null);
+
+            // Replay the entries published after the snapshot and apply their sequence ids updates
+            log.info("[{}] Loaded deduplication snapshot with {} producers, replaying {} entries", topic.getName(),
+                    highestSequencedPersisted.size(), managedCursor.getNumberOfEntries());
+            replayCursor(replayFuture);
+        }).exceptionally(ex -> {
+            snapshotFuture.completeExceptionally(ex);
+            replayFuture.completeExceptionally(ex);
+            return null;
         });
+    }
 
-        // Replay all the entries and apply all the sequence ids updates
-        log.info("[{}] Replaying {} entries for deduplication", topic.getName(), managedCursor.getNumberOfEntries());
+    private CompletableFuture<Void> recoverSnapshot() {
+        Map<String, Long> properties = managedCursor.getProperties();
+        Long pendingLedgerId = properties.get(SNAPSHOT_PENDING_LEDGER_PROPERTY);
+        if (pendingLedgerId != null) {
+            // The broker stopped while writing a new snapshot, which was never stored
+            deleteSnapshotLedger(pendingLedgerId);
+        }
+
+        Long ledgerId = properties.get(SNAPSHOT_LEDGER_PROPERTY);
+        if (ledgerId == null) {
+            // Load the sequence ids from the snapshot in the cursor properties
+            properties.forEach((k, v) -> {
+                if (!SNAPSHOT_PENDING_LEDGER_PROPERTY.equals(k)) {
+                    highestSequencedPushed.put(k, v);
+                    highestSequencedPersisted.put(k, v);
+                }
+            });
+            return CompletableFuture.completedFuture(null);
+        }
+
+        snapshotLedgerId = ledgerId;
+        return readSnapshotLedger(ledgerId);
+    }
+
+    private CompletableFuture<Void> readSnapshotLedger(long ledgerId) {
         CompletableFuture<Void> future = new CompletableFuture<>();
-        replayCursor(future);
+        pulsar.getBookKeeperClient().asyncOpenLedger(ledgerId, SNAPSHOT_LEDGER_DIGEST_TYPE, SNAPSHOT_LEDGER_PASSWORD,
+                (rc, lh, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        future.completeExceptionally(BKException.create(rc));
+                        return;
+                    }
+
+                    lh.asyncReadEntries(0, 0, (rc2, lh2, entries, ctx2) -> {
+                        if (rc2 != BKException.Code.OK) {
+                            future.completeExceptionally(BKException.create(rc2));
+                        } else {
+                            ByteBuf buf = entries.nextElement().getEntryBuffer();
+                            try {
+                                MessageDeduplicationSnapshot.deserialize(buf, (producerName, sequenceId) -> {
+                                    highestSequencedPushed.put(producerName, sequenceId);
+                                    highestSequencedPersisted.put(producerName, sequenceId);
+                                });
+                                future.complete(null);
+                            } catch (Exception e) {
+                                future.completeExceptionally(e);
+                            } finally {
+                                buf.release();
+                            }
+                        }
+                        lh.asyncClose((rc3, lh3, ctx3) -> {
+                        }, null);
+                    }, null);
+                }, null);
         return future;
     }
 
@@ -138,16 +263,14 @@ public class MessageDeduplication {
             public void readEntriesComplete(List<Entry> entries, Object ctx) {
 
                 for (Entry entry : entries) {
-                    ByteBuf messageMetadataAndPayload = entry.getDataBuffer();
-                    MessageMetadata md = Commands.parseMessageMetadata(messageMetadataAndPayload);
-
-                    String producerName = md.getProducerName();
-                    long sequenceId = md.getSequenceId();
-                    highestSequencedPushed.put(producerName, sequenceId);
-                    highestSequencedPersisted.put(producerName, sequenceId);
-
-                    md.recycle();
-                    entry.release();
+                    try {
+                        replayEntry(entry.getDataBuffer());
+                    } catch (IOException e) {
+                        log.warn("[{}] Failed to parse entry {} for deduplication: {}", topic.getName(),
+                                entry.getPosition(), e.getMessage());
+                    } finally {
+                        entry.release();
+                    }
                 }
 
                 if (managedCursor.hasMoreEntries()) {
@@ -166,6 +289,47 @@ public class MessageDeduplication {
         }, null);
     }
 
+    /**
+     * Apply the sequence id of a replayed entry, reading only the producer name and the sequence id from its metadata
+     * instead of parsing all of it.
+     */
+    private void replayEntry(ByteBuf metadataAndPayload) throws IOException {
+        Commands.readChecksum(metadataAndPayload);
+        long metadataSize = metadataAndPayload.readUnsignedInt();
+        if (metadataSize > metadataAndPayload.readableBytes()) {
+            throw new IOException("Invalid metadata size " + metadataSize);
+        }
+        int writerIndex = metadataAndPayload.writerIndex();
+        metadataAndPayload.writerIndex(metadataAndPayload.readerIndex() + (int) metadataSize);
+        ByteBufCodedInputStream stream = ByteBufCodedInputStream.get(metadataAndPayload);
+        try {
+            String producerName = null;
+            long sequenceId = -1;
+            boolean hasSequenceId = false;
+            while (producerName == null || !hasSequenceId) {
+                int tag = stream.readTag();
+                if (tag == 0) {
+                    break;
+                } else if (tag == PRODUCER_NAME_TAG) {
+                    producerName = stream.readBytes().toStringUtf8();
+                } else if (tag == SEQUENCE_ID_TAG) {
+                    sequenceId = stream.readUInt64();
+                    hasSequenceId = true;
+                } else {
+                    stream.skipField(tag);
+                }
+            }
+
+            if (producerName != null) {
+                highestSequencedPushed.put(producerName, sequenceId);
+                highestSequencedPersisted.put(producerName, sequenceId);
+            }
+        } finally {
+            stream.recycle();
+            metadataAndPayload.writerIndex(writerIndex);
+        }
+    }
+
     public CompletableFuture<Void> initialize() {
         // Check whether the dedup cursor was already present
         for (ManagedCursor cursor : managedLedger.getCursors()) {
@@ -178,8 +342,12 @@ public class MessageDeduplication {
         }
 
         if (status == Status.Recovering) {
-            // Recover the current cursor and then check the configuration
-            return recoverSequenceIdsMap().thenCompose(v -> checkStatus());
+            // Load the snapshot of the current cursor, the replay continues in background and the configuration is
+            // checked once it is done
+            CompletableFuture<Void> snapshotFuture = new CompletableFuture<>();
+            recoverSequenceIdsMap(snapshotFuture);
+            recoveryFuture.thenCompose(v -> checkStatus());
+            return snapshotFuture;
         } else {
             // No-op
             return CompletableFuture.completedFuture(null);
@@ -216,6 +384,7 @@ public class MessageDeduplication {
                                     managedCursor = null;
                                     highestSequencedPushed.clear();
                                     highestSequencedPersisted.clear();
+                                    removeSnapshotLedger();
                                     future.complete(null);
                                     log.info("[{}] Disabled deduplication", topic.getName());
                                 }
@@ -240,16 +409,8 @@ public class MessageDeduplication {
                             // We don't want to retain cache for this cursor
                             cursor.setInactive();
                             managedCursor = cursor;
-                            recoverSequenceIdsMap().thenRun(() -> {
-                                status = Status.Enabled;
-                                future.complete(null);
-                                log.info("[{}] Enabled deduplication", topic.getName());
-                            }).exceptionally(ex -> {
-                                status = Status.Failed;
-                                log.warn("[{}] Failed to enable deduplication: {}", topic.getName(), ex.getMessage());
-                                future.completeExceptionally(ex);
-                                return null;
-                            });
+                            status = Status.Recovering;
+                            recoverSequenceIdsMap(future);
                         }
 
                         @Override
@@ -273,6 +434,21 @@ public class MessageDeduplication {
         return status == Status.Enabled;
     }
 
+    /**
+     * @return a future completed once the sequence ids of all the persisted messages have been recovered
+     */
+    public CompletableFuture<Void> getRecoveryFuture() {
+        return recoveryFuture;
+    }
+
+    public long getRecoveryTimeMillis() {
+        return recoveryTimeMillis;
+    }
+
+    public long getProducersCount() {
+        return highestSequencedPersisted.size();
+    }
+
     /**
      * Assess whether the message was already stored in the topic.
      *
@@ -339,31 +515,156 @@ public class MessageDeduplication {
     }
 
     private void takeSnapshot(PositionImpl position) {
+        if (snapshotInProgress) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Skipping snapshot of sequence ids map, previous one still in progress",
+                        topic.getName());
+            }
+            return;
+        }
         if (log.isDebugEnabled()) {
             log.debug("[{}] Taking snapshot of sequence ids map", topic.getName());
         }
-        Map<String, Long> snapshot = new TreeMap<>();
+        SortedMap<String, Long> snapshot = new TreeMap<>();
         highestSequencedPersisted.forEach((producerName, sequenceId) -> {
             if (snapshot.size() < maxNumberOfProducers) {
                 snapshot.put(producerName, sequenceId);
             }
         });
 
-        managedCursor.asyncMarkDelete(position, snapshot, new MarkDeleteCallback() {
+        snapshotInProgress = true;
+        if (snapshot.size() < snapshotLedgerMinProducers) {
+            storeSnapshot(position, snapshot, -1);
+            return;
+        }
+
+        // Too many producers to be stored efficiently in the cursor properties, write a compact snapshot in a
+        // dedicated ledger and only keep its id in the cursor. The ledger is recorded as pending before being written,
+        // so that it can't be leaked if the broker stops before the snapshot is stored.
+        createSnapshotLedger().thenAccept(lh -> {
+            long ledgerId = lh.getId();
+            recordPendingSnapshotLedger(ledgerId).thenCompose(v -> writeSnapshotLedger(lh, snapshot)).thenRun(() -> {
+                storeSnapshot(position, ImmutableMap.of(SNAPSHOT_LEDGER_PROPERTY, ledgerId), ledgerId);
+            }).exceptionally(ex -> {
+                log.warn("[{}] Failed to write deduplication snapshot ledger {}: {}", topic.getName(), ledgerId,
+                        ex.getMessage());
+                deleteSnapshotLedger(ledgerId);
+                snapshotInProgress = false;
+                return null;
+            });
+        }).exceptionally(ex -> {
+            log.warn("[{}] Failed to create deduplication snapshot ledger: {}", topic.getName(), ex.getMessage());
+            snapshotInProgress = false;
+            return null;
+        });
+    }
+
+    /**
+     * Add the ledger of the snapshot being written to the properties of the current snapshot, at the current position.
+     */
+    private CompletableFuture<Void> recordPendingSnapshotLedger(long ledgerId) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Map<String, Long> properties = new HashMap<>(managedCursor.getProperties());
+        properties.put(SNAPSHOT_PENDING_LEDGER_PROPERTY, ledgerId);
+        markDelete(managedCursor.getMarkDeletedPosition(), properties, new MarkDeleteCallback() {
+            @Override
+            public void markDeleteComplete(Object ctx) {
+                future.complete(null);
+            }
+
+            @Override
+            public void markDeleteFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        });
+        return future;
+    }
+
+    private void markDelete(Position position, Map<String, Long> properties, MarkDeleteCallback callback) {
+        // A throttled mark-delete is only persisted along with the next one, while the snapshot ledgers are deleted
+        // assuming the properties referring to them are stored. The snapshots are already spaced by snapshotInterval.
+        managedCursor.setThrottleMarkDelete(0);
+        managedCursor.asyncMarkDelete(position, properties, callback, null);
+    }
+
+    private void storeSnapshot(PositionImpl position, Map<String, Long> properties, long ledgerId) {
+        markDelete(position, properties, new MarkDeleteCallback() {
             @Override
             public void markDeleteComplete(Object ctx) {
                 if (log.isDebugEnabled()) {
                     log.debug("[{}] Stored new deduplication snapshot at {}", topic.getName(), position);
                 }
+                long previousLedgerId = snapshotLedgerId;
+                snapshotLedgerId = ledgerId;
+                snapshotInProgress = false;
+                if (previousLedgerId != -1) {
+                    deleteSnapshotLedger(previousLedgerId);
+                }
             }
 
             @Override
             public void markDeleteFailed(ManagedLedgerException exception, Object ctx) {
                 log.warn("[{}] Failed to store new deduplication snapshot at {}", topic.getName(), position);
+                snapshotInProgress = false;
+                if (ledgerId != -1) {
+                    deleteSnapshotLedger(ledgerId);
+                }
+            }
+        });
+    }
+
+    private CompletableFuture<LedgerHandle> createSnapshotLedger() {
+        ServiceConfiguration conf = pulsar.getConfiguration();
+        CompletableFuture<LedgerHandle> future = new CompletableFuture<>();
+        pulsar.getBookKeeperClient().asyncCreateLedger(conf.getManagedLedgerDefaultEnsembleSize(),
+                conf.getManagedLedgerDefaultWriteQuorum(), conf.getManagedLedgerDefaultAckQuorum(),
+                SNAPSHOT_LEDGER_DIGEST_TYPE, SNAPSHOT_LEDGER_PASSWORD, (rc, lh, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        future.completeExceptionally(BKException.create(rc));
+                    } else {
+                        future.complete(lh);
+                    }
+                }, null);
+        return future;
+    }
+
+    private CompletableFuture<Void> writeSnapshotLedger(LedgerHandle lh, SortedMap<String, Long> snapshot) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        ByteBuf data = MessageDeduplicationSnapshot.serialize(snapshot);
+        lh.asyncAddEntry(data, (rc, lh2, entryId, ctx) -> {
+            lh.asyncClose((rc2, lh3, ctx2) -> {
+                int result = rc != BKException.Code.OK ? rc : rc2;
+                if (result != BKException.Code.OK) {
+                    future.completeExceptionally(BKException.create(result));
+                } else {
+                    future.complete(null);
+                }
+            }, null);
+        }, null);
+        data.release();
+        return future;
+    }
+
+    private void deleteSnapshotLedger(long ledgerId) {
+        pulsar.getBookKeeperClient().asyncDeleteLedger(ledgerId, (rc, ctx) -> {
+            if (rc != BKException.Code.OK && rc != BKException.Code.NoSuchLedgerExistsException) {
+                log.warn("[{}] Failed to delete deduplication snapshot ledger {}: {}", topic.getName(), ledgerId,
+                        BKException.getMessage(rc));
             }
         }, null);
     }
 
+    /**
+     * Delete the ledger of the last snapshot, once the deduplication cursor is gone.
+     */
+    public void removeSnapshotLedger() {
+        long ledgerId = snapshotLedgerId;
+        snapshotLedgerId = -1;
+        if (ledgerId != -1) {
+            deleteSnapshotLedger(ledgerId);
+        }
+    }
+
     private CompletableFuture<Boolean> isDeduplicationEnabled() {
         DestinationName name = DestinationName.get(topic.getName());
 
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact binary form of the deduplication snapshot, with the highest sequence id persisted for each producer.
+ *
+ * <pre>
+ * [VERSION] [NUM_PRODUCERS] ([SHARED_PREFIX_SIZE] [SUFFIX_SIZE] [SUFFIX] [SEQUENCE_ID])*
+ * </pre>
+ *
+ * The producers are stored in sorted order and each name only stores the bytes that differ from the previous one,
+ * since the producer names generated by the clients share a common prefix. All the numbers are stored as varints.
+ */
+class MessageDeduplicationSnapshot {
+
+    static final byte VERSION = 1;
+
+    private MessageDeduplicationSnapshot() {
+    }
+
+    static ByteBuf serialize(SortedMap<String, Long> sequenceIds) {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer(16 + sequenceIds.size() * 16);
+        buf.writeByte(VERSION);
+        writeVarInt(buf, sequenceIds.size());
+
+        byte[] previousName = new byte[0];
+        for (Map.Entry<String, Long> entry : sequenceIds.entrySet()) {
+            byte[] name = entry.getKey().getBytes(UTF_8);
+            int sharedPrefixSize = sharedPrefixSize(previousName, name);
+            writeVarInt(buf, sharedPrefixSize);
+            writeVarInt(buf, name.length - sharedPrefixSize);
+            buf.writeBytes(name, sharedPrefixSize, name.length - sharedPrefixSize);
+            // Sequence ids are -1 when not set by the producer, use zig-zag encoding to keep them short
+            writeVarInt(buf, (entry.getValue() << 1) ^ (entry.getValue() >> 63));
+            previousName = name;
+        }
+        return buf;
+    }
+
+    static void deserialize(ByteBuf buf, BiConsumer<String, Long> consumer) throws IOException {
+        byte version = buf.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported deduplication snapshot version " + version);
+        }
+
+        int count = (int) readVarInt(buf);
+        byte[] name = new byte[0];
+        for (int i = 0; i < count; i++) {
+            int sharedPrefixSize = (int) readVarInt(buf);
+            int suffixSize = (int) readVarInt(buf);
+            if (sharedPrefixSize > name.length || suffixSize > buf.readableBytes()) {
+                throw new IOException("Corrupted deduplication snapshot at producer " + i);
+            }
+            name = Arrays.copyOf(name, sharedPrefixSize + suffixSize);
+            buf.readBytes(name, sharedPrefixSize, suffixSize);
+            long zigZagSequenceId = readVarInt(buf);
+            consumer.accept(new String(name, UTF_8), (zigZagSequenceId >>> 1) ^ -(zigZagSequenceId & 1));
+        }
+    }
+
+    private static int sharedPrefixSize(byte[] a, byte[] b) {
+        int size = Math.min(a.length, b.length);
+        for (int i = 0; i < size; i++) {
+            if (a[i] != b[i]) {
+                return i;
+            }
+        }
+        return size;
+    }
+
+    private static void writeVarInt(ByteBuf buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    private static long readVarInt(ByteBuf buf) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in deduplication snapshot");
+    }
+}
@@ -18,11 +18,13 @@
  */
 package org.apache.pulsar.broker.service.persistent;
 
-import static java.util.stream.Collectors.toSet;
+import static java.util.stream.Collectors.toCollection;
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
 import static org.apache.pulsar.broker.service.persistent.PersistentTopic.MESSAGE_RATE_BACKOFF_MS;
 
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
@@ -35,44 +37,59 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException.NoMoreEntriesToReadE
 import org.apache.bookkeeper.mledger.ManagedLedgerException.TooManyRequestsException;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.bookkeeper.util.OrderedSafeExecutor;
 import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.service.AbstractDispatcherMultipleConsumers;
 import org.apache.pulsar.broker.service.BrokerServiceException;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Consumer.SendMessageInfo;
 import org.apache.pulsar.broker.service.Dispatcher;
+import org.apache.pulsar.broker.service.ReadBatchSizer;
 import org.apache.pulsar.broker.service.BrokerServiceException.ConsumerBusyException;
 import org.apache.pulsar.client.impl.Backoff;
+import org.apache.pulsar.common.api.Commands;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe.SubType;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 import org.apache.pulsar.common.util.Codec;
-import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet;
+import org.apache.pulsar.common.util.collections.ConcurrentSortedLongPairSet;
 import org.apache.pulsar.utils.CopyOnWriteArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Lists;
 
+import io.netty.buffer.ByteBuf;
+
 /**
+ * Dispatcher for the subscriptions delivering the messages to multiple consumers.
+ *
+ * <p/>The state of the dispatcher is only accessed from a single thread, chosen by hashing the name of the dispatcher
+ * on the dispatcher executor of the broker. The events coming from the connections, the managed ledger and the timers
+ * are queued on that thread. The list of consumers is the exception: it is updated by the caller when a consumer is
+ * added or removed, as these calls are serialized by the subscription, and the rest of the state is then updated on
+ * the dispatcher thread.
  */
 public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMultipleConsumers implements Dispatcher, ReadEntriesCallback {
 
-    private static final int MaxReadBatchSize = 100;
     private static final int MaxRoundRobinBatchSize = 20;
 
-    private final PersistentTopic topic;
-    private final ManagedCursor cursor;
+    protected final PersistentTopic topic;
+    protected final ManagedCursor cursor;
 
     private CompletableFuture<Void> closeFuture = null;
-    private ConcurrentLongPairSet messagesToReplay;
+    // Replayed in position order, so that the cursor can read contiguous positions together
+    protected ConcurrentSortedLongPairSet messagesToReplay;
+
+    // Created when the first message with a delivery time in the future is read
+    private volatile DelayedDeliveryTracker delayedDeliveryTracker = null;
 
     private boolean havePendingRead = false;
     private boolean havePendingReplayRead = false;
     private boolean shouldRewindBeforeReadingOrReplaying = false;
-    private final String name;
+    protected final String name;
 
-    private int totalAvailablePermits = 0;
-    private int readBatchSize;
+    protected int totalAvailablePermits = 0;
+    private final ReadBatchSizer readBatchSizer;
     private final Backoff readFailureBackoff = new Backoff(15, TimeUnit.SECONDS, 1, TimeUnit.MINUTES, 0, TimeUnit.MILLISECONDS);
     private static final AtomicIntegerFieldUpdater<PersistentDispatcherMultipleConsumers> TOTAL_UNACKED_MESSAGES_UPDATER =
             AtomicIntegerFieldUpdater.newUpdater(PersistentDispatcherMultipleConsumers.class, "totalUnackedMessages");
@@ -81,7 +98,8 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
     private volatile int blockedDispatcherOnUnackedMsgs = FALSE;
     private static final AtomicIntegerFieldUpdater<PersistentDispatcherMultipleConsumers> BLOCKED_DISPATCHER_ON_UNACKMSG_UPDATER =
             AtomicIntegerFieldUpdater.newUpdater(PersistentDispatcherMultipleConsumers.class, "blockedDispatcherOnUnackedMsgs");
-    private final ServiceConfiguration serviceConfig;
+    protected final ServiceConfiguration serviceConfig;
+    private final OrderedSafeExecutor dispatcherExecutor;
 
     enum ReadType {
         Normal, Replay
@@ -91,30 +109,29 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
         this.cursor = cursor;
         this.name = topic.getName() + " / " + Codec.decode(cursor.getName());
         this.topic = topic;
-        this.messagesToReplay = new ConcurrentLongPairSet(512, 2);
-        this.readBatchSize = MaxReadBatchSize;
+        this.messagesToReplay = new ConcurrentSortedLongPairSet();
+        this.readBatchSizer = new ReadBatchSizer(topic.getBrokerService().pulsar().getConfiguration());
         this.maxUnackedMessages = topic.getBrokerService().pulsar().getConfiguration()
                 .getMaxUnackedMessagesPerSubscription();
         this.serviceConfig = topic.getBrokerService().pulsar().getConfiguration();
+        this.dispatcherExecutor = topic.getBrokerService().getDispatcherOrderedExecutor();
+        this.cursor.setTailing(serviceConfig.isDispatcherTailingCursorsEnabled());
+    }
+
+    /**
+     * Run the task on the thread of this dispatcher, after the tasks already queued.
+     */
+    protected void executeOnDispatcherThread(Runnable task) {
+        dispatcherExecutor.submitOrdered(name, safeRun(task));
     }
 
     @Override
-    public synchronized void addConsumer(Consumer consumer) throws BrokerServiceException {
+    public void addConsumer(Consumer consumer) throws BrokerServiceException {
         if (IS_CLOSED_UPDATER.get(this) == TRUE) {
             log.warn("[{}] Dispatcher is already closed. Closing consumer ", name, consumer);
             consumer.disconnect();
             return;
         }
-        if (consumerList.isEmpty()) {
-            if (havePendingRead || havePendingReplayRead) {
-                // There is a pending read from previous run. We must wait for it to complete and then rewind
-                shouldRewindBeforeReadingOrReplaying = true;
-            } else {
-                cursor.rewind();
-                shouldRewindBeforeReadingOrReplaying = false;
-            }
-            messagesToReplay.clear();
-        }
 
         if (isConsumersExceededOnTopic()) {
             log.warn("[{}] Attempting to add consumer to topic which reached max consumers limit", name);
@@ -126,8 +143,28 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
             throw new ConsumerBusyException("Subscription reached max consumers limit");
         }
 
+        boolean isFirstConsumer = consumerList.isEmpty();
         consumerList.add(consumer);
         consumerList.sort((c1, c2) -> c1.getPriorityLevel() - c2.getPriorityLevel());
+        executeOnDispatcherThread(() -> consumerAdded(consumer, isFirstConsumer));
+    }
+
+    /**
+     * Called on the dispatcher thread after a consumer was added to the consumer list.
+     */
+    protected void consumerAdded(Consumer consumer, boolean isFirstConsumer) {
+        if (isFirstConsumer) {
+            if (havePendingRead || havePendingReplayRead) {
+                // There is a pending read from previous run. We must wait for it to complete and then rewind
+                shouldRewindBeforeReadingOrReplaying = true;
+            } else {
+                cursor.rewind();
+                shouldRewindBeforeReadingOrReplaying = false;
+            }
+            messagesToReplay.clear();
+            clearDelayedMessages();
+        }
+
         consumerSet.add(consumer);
     }
 
@@ -148,33 +185,13 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
     }
 
     @Override
-    public synchronized void removeConsumer(Consumer consumer) throws BrokerServiceException {
+    public void removeConsumer(Consumer consumer) throws BrokerServiceException {
         // decrement unack-message count for removed consumer
         addUnAckedMessages(-consumer.getUnackedMessages());
-        if (consumerSet.removeAll(consumer) == 1) {
-            consumerList.remove(consumer);
+        if (consumerList.remove(consumer)) {
             log.info("Removed consumer {} with pending {} acks", consumer, consumer.getPendingAcks().size());
-            if (consumerList.isEmpty()) {
-                if (havePendingRead && cursor.cancelPendingReadRequest()) {
-                    havePendingRead = false;
-                }
-
-                messagesToReplay.clear();
-                if (closeFuture != null) {
-                    log.info("[{}] All consumers removed. Subscription is disconnected", name);
-                    closeFuture.complete(null);
-                }
-                totalAvailablePermits = 0;
-            } else {
-                if (log.isDebugEnabled()) {
-                    log.debug("[{}] Consumer are left, reading more entries", name);
-                }
-                consumer.getPendingAcks().forEach((ledgerId, entryId, batchSize, none) -> {
-                    messagesToReplay.add(ledgerId, entryId);
-                });
-                totalAvailablePermits -= consumer.getAvailablePermits();
-                readMoreEntries();
-            }
+            boolean isLastConsumer = consumerList.isEmpty();
+            executeOnDispatcherThread(() -> consumerRemoved(consumer, isLastConsumer));
         } else {
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Trying to remove a non-connected consumer: {}", name, consumer);
@@ -182,26 +199,75 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
         }
     }
 
-    @Override
-    public synchronized void consumerFlow(Consumer consumer, int additionalNumberOfMessages) {
-        if (!consumerSet.contains(consumer)) {
+    /**
+     * Called on the dispatcher thread after a consumer was removed from the consumer list.
+     */
+    protected void consumerRemoved(Consumer consumer, boolean isLastConsumer) {
+        consumerSet.removeAll(consumer);
+        if (isLastConsumer) {
+            if (havePendingRead && cursor.cancelPendingReadRequest()) {
+                havePendingRead = false;
+            }
+
+            messagesToReplay.clear();
+            clearDelayedMessages();
+            if (closeFuture != null) {
+                log.info("[{}] All consumers removed. Subscription is disconnected", name);
+                closeFuture.complete(null);
+            }
+            totalAvailablePermits = 0;
+        } else {
             if (log.isDebugEnabled()) {
-                log.debug("[{}] Ignoring flow control from disconnected consumer {}", name, consumer);
+                log.debug("[{}] Consumer are left, reading more entries", name);
             }
-            return;
+            // The pending acks of a closed consumer are not modified anymore, they also include the messages that
+            // were dispatched to it before this event
+            consumer.getPendingAcks().forEach((ledgerId, entryId, batchSize, none) -> {
+                messagesToReplay.add(ledgerId, entryId);
+            });
+            totalAvailablePermits -= consumer.getAvailablePermits();
+            internalReadMoreEntries();
         }
+    }
 
-        totalAvailablePermits += additionalNumberOfMessages;
-        if (log.isDebugEnabled()) {
-            log.debug("[{}-{}] Trigger new read after receiving flow control message with permits {}", name, consumer,
-                    totalAvailablePermits);
-        }
-        readMoreEntries();
+    // The consumer clears its pending acks after requesting a redelivery, they are copied before queuing the event
+    private static List<PositionImpl> getPendingAcks(Consumer consumer) {
+        List<PositionImpl> positions = Lists.newArrayList();
+        consumer.getPendingAcks().forEach((ledgerId, entryId, batchSize, none) -> {
+            positions.add(PositionImpl.get(ledgerId, entryId));
+        });
+        return positions;
+    }
+
+    @Override
+    public void consumerFlow(Consumer consumer, int additionalNumberOfMessages) {
+        executeOnDispatcherThread(() -> {
+            if (!consumerSet.contains(consumer)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Ignoring flow control from disconnected consumer {}", name, consumer);
+                }
+                return;
+            }
+
+            totalAvailablePermits += additionalNumberOfMessages;
+            if (log.isDebugEnabled()) {
+                log.debug("[{}-{}] Trigger new read after receiving flow control message with permits {}", name,
+                        consumer, totalAvailablePermits);
+            }
+            internalReadMoreEntries();
+        });
     }
 
+    /**
+     * Schedule a read on the dispatcher thread.
+     */
     public void readMoreEntries() {
+        executeOnDispatcherThread(this::internalReadMoreEntries);
+    }
+
+    protected void internalReadMoreEntries() {
         if (totalAvailablePermits > 0 && isAtleastOneConsumerAvailable()) {
-            int messagesToRead = Math.min(totalAvailablePermits, readBatchSize);
+            int messagesToRead = readBatchSizer.getEntriesToRead(totalAvailablePermits);
 
             // throttle only if: (1) cursor is not active (or flag for throttle-nonBacklogConsumer is enabled) bcz
             // active-cursor reads message from cache rather from bookkeeper (2) if topic has reached message-rate
@@ -228,14 +294,18 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
                 }
             }
 
+            if (delayedDeliveryTracker != null && delayedDeliveryTracker.hasMessageAvailable()) {
+                // The delayed messages that are due are dispatched with the other messages to replay
+                delayedDeliveryTracker.getScheduledMessages(messagesToRead, messagesToReplay::add);
+            }
+
             if (!messagesToReplay.isEmpty()) {
                 if (havePendingReplayRead) {
                     log.debug("[{}] Skipping replay while awaiting previous read to complete", name);
                     return;
                 }
 
-                Set<PositionImpl> messagesToReplayNow = messagesToReplay.items(messagesToRead).stream()
-                        .map(pair -> new PositionImpl(pair.first, pair.second)).collect(toSet());
+                Set<PositionImpl> messagesToReplayNow = getMessagesToReplayNow(messagesToRead);
 
                 if (log.isDebugEnabled()) {
                     log.debug("[{}] Schedule replay of {} messages for {} consumers", name, messagesToReplayNow.size(),
@@ -253,7 +323,7 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
                 // next entries as readCompletedEntries-callback was never called
                 if ((messagesToReplayNow.size() - deletedMessages.size()) == 0) {
                     havePendingReplayRead = false;
-                    readMoreEntries();
+                    internalReadMoreEntries();
                 }
             } else if (BLOCKED_DISPATCHER_ON_UNACKMSG_UPDATER.get(this) == TRUE) {
                 log.warn("[{}] Dispatcher read is blocked due to unackMessages {} reached to max {}", name,
@@ -286,28 +356,34 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
     }
 
     @Override
-    public synchronized boolean canUnsubscribe(Consumer consumer) {
-        return consumerList.size() == 1 && consumerSet.contains(consumer);
+    public boolean canUnsubscribe(Consumer consumer) {
+        return consumerList.size() == 1 && consumerList.contains(consumer);
     }
 
     @Override
     public CompletableFuture<Void> close() {
         IS_CLOSED_UPDATER.set(this, TRUE);
+        if (delayedDeliveryTracker != null) {
+            delayedDeliveryTracker.close();
+        }
         return disconnectAllConsumers();
     }
 
     @Override
-    public synchronized CompletableFuture<Void> disconnectAllConsumers() {
-        closeFuture = new CompletableFuture<>();
-        if (consumerList.isEmpty()) {
-            closeFuture.complete(null);
-        } else {
-            consumerList.forEach(Consumer::disconnect);
-            if (havePendingRead && cursor.cancelPendingReadRequest()) {
-                havePendingRead = false;
+    public CompletableFuture<Void> disconnectAllConsumers() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        executeOnDispatcherThread(() -> {
+            closeFuture = future;
+            if (consumerList.isEmpty()) {
+                closeFuture.complete(null);
+            } else {
+                consumerList.forEach(Consumer::disconnect);
+                if (havePendingRead && cursor.cancelPendingReadRequest()) {
+                    havePendingRead = false;
+                }
             }
-        }
-        return closeFuture;
+        });
+        return future;
     }
 
     @Override
@@ -321,25 +397,18 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
     }
 
     @Override
-    public synchronized void readEntriesComplete(List<Entry> entries, Object ctx) {
-        ReadType readType = (ReadType) ctx;
-        int start = 0;
-        int entriesToDispatch = entries.size();
+    public void readEntriesComplete(List<Entry> entries, Object ctx) {
+        executeOnDispatcherThread(() -> internalReadEntriesComplete(entries, (ReadType) ctx));
+    }
 
+    private void internalReadEntriesComplete(List<Entry> entries, ReadType readType) {
         if (readType == ReadType.Normal) {
             havePendingRead = false;
         } else {
             havePendingReplayRead = false;
         }
 
-        if (readBatchSize < MaxReadBatchSize) {
-            int newReadBatchSize = Math.min(readBatchSize * 2, MaxReadBatchSize);
-            if (log.isDebugEnabled()) {
-                log.debug("[{}] Increasing read batch size from {} to {}", name, readBatchSize, newReadBatchSize);
-            }
-
-            readBatchSize = newReadBatchSize;
-        }
+        readBatchSizer.readCompleted(entries);
 
         readFailureBackoff.reduceToHalf();
 
@@ -348,7 +417,7 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
             entries.forEach(Entry::release);
             cursor.rewind();
             shouldRewindBeforeReadingOrReplaying = false;
-            readMoreEntries();
+            internalReadMoreEntries();
             return;
         }
 
@@ -356,6 +425,29 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
             log.debug("[{}] Distributing {} messages to {} consumers", name, entries.size(), consumerList.size());
         }
 
+        if (sendMessagesToConsumers(readType, entries)) {
+            internalReadMoreEntries();
+        }
+    }
+
+    protected Set<PositionImpl> getMessagesToReplayNow(int maxMessagesToRead) {
+        return messagesToReplay.items(maxMessagesToRead).stream()
+                .map(pair -> new PositionImpl(pair.first, pair.second)).collect(toCollection(TreeSet::new));
+    }
+
+    /**
+     * Dispatch the entries to the connected consumers. The entries that cannot be dispatched are stored for later
+     * replay.
+     *
+     * @return whether the dispatcher should immediately read more entries
+     */
+    protected boolean sendMessagesToConsumers(ReadType readType, List<Entry> entries) {
+        if (serviceConfig.isDelayedDeliveryEnabled()) {
+            entries.removeIf(entry -> trackDelayedDelivery(readType, entry));
+        }
+
+        int start = 0;
+        int entriesToDispatch = entries.size();
         long totalMessagesSent = 0;
         long totalBytesSent = 0;
         while (entriesToDispatch > 0 && totalAvailablePermits > 0 && isAtleastOneConsumerAvailable()) {
@@ -365,11 +457,13 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
                 log.info("[{}] rewind because no available consumer found from total {}", name, consumerList.size());
                 entries.subList(start, entries.size()).forEach(Entry::release);
                 cursor.rewind();
-                return;
+                clearDelayedMessages();
+                return false;
             }
 
             // round-robin dispatch batch size for this consumer
             int messagesForC = Math.min(Math.min(entriesToDispatch, c.getAvailablePermits()), MaxRoundRobinBatchSize);
+            messagesForC = c.getEntriesWithinBytePermits(entries.subList(start, entries.size()), messagesForC);
 
             if (messagesForC > 0) {
 
@@ -397,6 +491,8 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
         }
 
         if (entriesToDispatch > 0) {
+            // Consumers are not draining as fast as we read, reduce the size of the next reads
+            readBatchSizer.entriesNotDispatched();
             if (log.isDebugEnabled()) {
                 log.debug("[{}] No consumers found with available permits, storing {} positions for later replay", name,
                         entries.size() - start);
@@ -407,13 +503,76 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
             });
         }
 
-        readMoreEntries();
+        return true;
+    }
+
+    /**
+     * Keep track of the entry if its delivery time is in the future. The entry is released and will be replayed once
+     * it is due.
+     *
+     * @return whether the entry was held back
+     */
+    private boolean trackDelayedDelivery(ReadType readType, Entry entry) {
+        long deliverAt = getDeliverAtTime(entry);
+        if (deliverAt <= 0) {
+            return false;
+        }
+
+        if (delayedDeliveryTracker == null) {
+            delayedDeliveryTracker = new DelayedDeliveryTracker(this, topic.getBrokerService().executor(),
+                    serviceConfig.getDelayedDeliveryTickTimeMillis());
+        }
+        if (!delayedDeliveryTracker.addMessage(entry.getLedgerId(), entry.getEntryId(), deliverAt)) {
+            return false;
+        }
+
+        if (readType == ReadType.Replay) {
+            messagesToReplay.remove(entry.getLedgerId(), entry.getEntryId());
+        }
+        entry.release();
+        return true;
+    }
+
+    private long getDeliverAtTime(Entry entry) {
+        ByteBuf metadataAndPayload = entry.getDataBuffer();
+        try {
+            // save the reader index and restore after parsing
+            metadataAndPayload.markReaderIndex();
+            MessageMetadata metadata = Commands.parseMessageMetadata(metadataAndPayload);
+            metadataAndPayload.resetReaderIndex();
+            long deliverAt = metadata.hasDeliverAtTime() ? metadata.getDeliverAtTime() : -1;
+            metadata.recycle();
+            return deliverAt;
+        } catch (Throwable t) {
+            // The consumer will discard the corrupted message
+            metadataAndPayload.resetReaderIndex();
+            return -1;
+        }
+    }
+
+    private void clearDelayedMessages() {
+        // The delayed messages are tracked again when read after the cursor is rewound
+        if (delayedDeliveryTracker != null) {
+            delayedDeliveryTracker.clear();
+        }
+    }
+
+    @Override
+    public long getNumberOfDelayedMessages() {
+        return delayedDeliveryTracker != null ? delayedDeliveryTracker.getNumberOfDelayedMessages() : 0;
     }
 
     @Override
-    public synchronized void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+    public ReadBatchSizer getReadBatchSizer() {
+        return readBatchSizer;
+    }
 
-        ReadType readType = (ReadType) ctx;
+    @Override
+    public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+        executeOnDispatcherThread(() -> internalReadEntriesFailed(exception, (ReadType) ctx));
+    }
+
+    private void internalReadEntriesFailed(ManagedLedgerException exception, ReadType readType) {
         long waitTimeMillis = readFailureBackoff.next();
 
         if (exception instanceof NoMoreEntriesToReadException) {
@@ -443,25 +602,20 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
             havePendingReplayRead = false;
             if (exception instanceof ManagedLedgerException.InvalidReplayPositionException) {
                 PositionImpl markDeletePosition = (PositionImpl) cursor.getMarkDeletedPosition();
-                messagesToReplay.removeIf((ledgerId, entryId) -> {
-                    return ComparisonChain.start().compare(ledgerId, markDeletePosition.getLedgerId())
-                            .compare(entryId, markDeletePosition.getEntryId()).result() <= 0;
-                });
+                messagesToReplay.removeUpTo(markDeletePosition.getLedgerId(), markDeletePosition.getEntryId());
             }
         }
 
-        readBatchSize = 1;
+        readBatchSizer.readFailed();
 
-        topic.getBrokerService().executor().schedule(() -> {
-            synchronized (PersistentDispatcherMultipleConsumers.this) {
-                if (!havePendingRead) {
-                    log.info("[{}] Retrying read operation", name);
-                    readMoreEntries();
-                } else {
-                    log.info("[{}] Skipping read retry: havePendingRead {}", name, havePendingRead, exception);
-                }
+        topic.getBrokerService().executor().schedule(() -> executeOnDispatcherThread(() -> {
+            if (!havePendingRead) {
+                log.info("[{}] Retrying read operation", name);
+                internalReadMoreEntries();
+            } else {
+                log.info("[{}] Skipping read retry: havePendingRead {}", name, havePendingRead, exception);
             }
-        }, waitTimeMillis, TimeUnit.MILLISECONDS);
+        }), waitTimeMillis, TimeUnit.MILLISECONDS);
 
     }
 
@@ -486,27 +640,24 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
 
     @Override
     public boolean isConsumerAvailable(Consumer consumer) {
-        return consumer != null && !consumer.isBlocked() && consumer.getAvailablePermits() > 0;
+        return consumer != null && !consumer.isBlocked() && consumer.getAvailablePermits() > 0
+                && consumer.hasAvailableBytePermits();
     }
 
     @Override
-    public synchronized void redeliverUnacknowledgedMessages(Consumer consumer) {
-        consumer.getPendingAcks().forEach((ledgerId, entryId, batchSize, none) -> {
-            messagesToReplay.add(ledgerId, entryId);
-        });
-        if (log.isDebugEnabled()) {
-            log.debug("[{}-{}] Redelivering unacknowledged messages for consumer {}", name, consumer, messagesToReplay);
-        }
-        readMoreEntries();
+    public void redeliverUnacknowledgedMessages(Consumer consumer) {
+        redeliverUnacknowledgedMessages(consumer, getPendingAcks(consumer));
     }
 
     @Override
-    public synchronized void redeliverUnacknowledgedMessages(Consumer consumer, List<PositionImpl> positions) {
-        positions.forEach(position -> messagesToReplay.add(position.getLedgerId(), position.getEntryId()));
-        if (log.isDebugEnabled()) {
-            log.debug("[{}-{}] Redelivering unacknowledged messages for consumer {}", name, consumer, positions);
-        }
-        readMoreEntries();
+    public void redeliverUnacknowledgedMessages(Consumer consumer, List<PositionImpl> positions) {
+        executeOnDispatcherThread(() -> {
+            positions.forEach(position -> messagesToReplay.add(position.getLedgerId(), position.getEntryId()));
+            if (log.isDebugEnabled()) {
+                log.debug("[{}-{}] Redelivering unacknowledged messages for consumer {}", name, consumer, positions);
+            }
+            internalReadMoreEntries();
+        });
     }
 
     @Override
@@ -535,7 +686,7 @@ public class PersistentDispatcherMultipleConsumers  extends AbstractDispatcherMu
             // unblock dispatcher if it acks back enough messages
             if (BLOCKED_DISPATCHER_ON_UNACKMSG_UPDATER.compareAndSet(this, TRUE, FALSE)) {
                 log.info("[{}] Dispatcher is unblocked", name);
-                topic.getBrokerService().executor().submit(() -> readMoreEntries());
+                readMoreEntries();
             }
         }
         // increment broker-level count
@@ -37,6 +37,7 @@ import org.apache.pulsar.broker.service.AbstractDispatcherSingleActiveConsumer;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Consumer.SendMessageInfo;
 import org.apache.pulsar.broker.service.Dispatcher;
+import org.apache.pulsar.broker.service.ReadBatchSizer;
 import org.apache.pulsar.client.impl.Backoff;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe.SubType;
 import org.apache.pulsar.common.util.Codec;
@@ -51,8 +52,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
     
     private boolean havePendingRead = false;
 
-    private static final int MaxReadBatchSize = 100;
-    private int readBatchSize;
+    private final ReadBatchSizer readBatchSizer;
     private final Backoff readFailureBackoff = new Backoff(15, TimeUnit.SECONDS, 1, TimeUnit.MINUTES, 0, TimeUnit.MILLISECONDS);
     private final ServiceConfiguration serviceConfig;
     private ScheduledFuture<?> readOnActiveConsumerTask = null;
@@ -64,8 +64,9 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
         this.name = topic.getName() + " / " + (cursor.getName() != null ? Codec.decode(cursor.getName())
                 : ""/* NonDurableCursor doesn't have name */);
         this.cursor = cursor;
-        this.readBatchSize = MaxReadBatchSize;
         this.serviceConfig = topic.getBrokerService().pulsar().getConfiguration();
+        this.readBatchSizer = new ReadBatchSizer(serviceConfig);
+        this.cursor.setTailing(serviceConfig.isDispatcherTailingCursorsEnabled());
     }
 
     protected void scheduleReadOnActiveConsumer() {
@@ -144,15 +145,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
 
         havePendingRead = false;
 
-        if (readBatchSize < MaxReadBatchSize) {
-            int newReadBatchSize = Math.min(readBatchSize * 2, MaxReadBatchSize);
-            if (log.isDebugEnabled()) {
-                log.debug("[{}-{}] Increasing read batch size from {} to {}", name, readConsumer, readBatchSize,
-                        newReadBatchSize);
-            }
-
-            readBatchSize = newReadBatchSize;
-        }
+        readBatchSizer.readCompleted(entries);
 
         readFailureBackoff.reduceToHalf();
 
@@ -169,6 +162,20 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
                 readMoreEntries(currentConsumer);
             }
         } else {
+            // The read is only sized with an estimate of the entry size, the entries over the byte permits of the
+            // consumer are read again after its next flow
+            int entriesToSend = currentConsumer.getEntriesWithinBytePermits(entries, entries.size());
+            if (entriesToSend < entries.size()) {
+                List<Entry> entriesNotSent = entries.subList(entriesToSend, entries.size());
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}-{}] Consumer out of byte permits, rewinding {} entries", name, currentConsumer,
+                            entriesNotSent.size());
+                }
+                cursor.seek(entriesNotSent.get(0).getPosition());
+                entriesNotSent.forEach(Entry::release);
+                entriesNotSent.clear();
+            }
+
             SendMessageInfo sentMsgInfo = currentConsumer.sendMessages(entries);
             final long totalMessagesSent = sentMsgInfo.getTotalSentMessages();
             final long totalBytesSent = sentMsgInfo.getTotalSentMessageBytes();
@@ -268,7 +275,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
 
         int availablePermits = consumer.getAvailablePermits();
 
-        if (availablePermits > 0) {
+        if (availablePermits > 0 && consumer.hasAvailableBytePermits()) {
             if (!consumer.isWritable()) {
                 // If the connection is not currently writable, we issue the read request anyway, but for a single
                 // message. The intent here is to keep use the request as a notification mechanism while avoiding to
@@ -277,7 +284,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
                 availablePermits = 1;
             }
 
-            int messagesToRead = Math.min(availablePermits, readBatchSize);
+            int messagesToRead = readBatchSizer.getEntriesToRead(availablePermits, consumer.getAvailableBytePermits());
             
             // throttle only if: (1) cursor is not active (or flag for throttle-nonBacklogConsumer is enabled) bcz
             // active-cursor reads message from cache rather from bookkeeper (2) if topic has reached message-rate
@@ -358,7 +365,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
         checkNotNull(c);
 
         // Reduce read batch size to avoid flooding bookies with retries
-        readBatchSize = 1;
+        readBatchSizer.readFailed();
 
         topic.getBrokerService().executor().schedule(() -> {
             synchronized (PersistentDispatcherSingleActiveConsumer.this) {
@@ -383,5 +390,10 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
         // No-op
     }
 
+    @Override
+    public ReadBatchSizer getReadBatchSizer() {
+        return readBatchSizer;
+    }
+
     private static final Logger log = LoggerFactory.getLogger(PersistentDispatcherSingleActiveConsumer.class);
 }
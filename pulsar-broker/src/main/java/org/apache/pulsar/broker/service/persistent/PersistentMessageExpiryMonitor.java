@@ -18,6 +18,7 @@
  */
 package org.apache.pulsar.broker.service.persistent;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.apache.bookkeeper.mledger.AsyncCallbacks.FindEntryCallback;
@@ -26,7 +27,6 @@ import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.util.Rate;
-import org.apache.pulsar.client.impl.MessageImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,20 +57,21 @@ public class PersistentMessageExpiryMonitor implements FindEntryCallback {
             log.info("[{}][{}] Starting message expiry check, ttl= {} seconds", topicName, subName,
                     messageTTLInSeconds);
 
-            cursor.asyncFindNewestMatching(ManagedCursor.FindPositionConstraint.SearchActiveEntries, entry -> {
-                MessageImpl msg = null;
+            long expiryTimestamp = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(messageTTLInSeconds);
+            cursor.asyncFindNewestMatchingPublishTime(ManagedCursor.FindPositionConstraint.SearchActiveEntries,
+                    expiryTimestamp, entry -> {
                 try {
-                    msg = MessageImpl.deserialize(entry.getDataBuffer());
-                    return msg.isExpired(messageTTLInSeconds);
-                } catch (Exception e) {
-                    log.error("[{}][{}] Error deserializing message for expiry check", topicName, subName, e);
+                    long publishTime = entry.getPublishTime();
+                    if (publishTime == -1) {
+                        log.error("[{}][{}] Error parsing message metadata for expiry check at {}", topicName,
+                                subName, entry.getPosition());
+                        return false;
+                    }
+                    return messageTTLInSeconds != 0 && System.currentTimeMillis() > (publishTime
+                            + TimeUnit.SECONDS.toMillis(messageTTLInSeconds));
                 } finally {
                     entry.release();
-                    if (msg != null) {
-                        msg.recycle();
-                    }
                 }
-                return false;
             }, this, null);
         } else {
             if (log.isDebugEnabled()) {
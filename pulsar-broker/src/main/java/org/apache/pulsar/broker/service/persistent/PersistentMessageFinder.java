@@ -22,7 +22,6 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.Position;
-import org.apache.pulsar.client.impl.MessageImpl;
 import org.apache.pulsar.common.util.Codec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,20 +60,19 @@ public class PersistentMessageFinder implements AsyncCallbacks.FindEntryCallback
                 log.debug("[{}] Starting message position find at timestamp {}", subName, timestamp);
             }
 
-            cursor.asyncFindNewestMatching(ManagedCursor.FindPositionConstraint.SearchAllAvailableEntries, entry -> {
-                MessageImpl msg = null;
+            cursor.asyncFindNewestMatchingPublishTime(ManagedCursor.FindPositionConstraint.SearchAllAvailableEntries,
+                    timestamp, entry -> {
                 try {
-                    msg = MessageImpl.deserialize(entry.getDataBuffer());
-                    return msg.getPublishTime() <= timestamp;
-                } catch (Exception e) {
-                    log.error("[{}][{}] Error deserializing message for message position find", topicName, subName, e);
+                    long publishTime = entry.getPublishTime();
+                    if (publishTime == -1) {
+                        log.error("[{}][{}] Error parsing message metadata for message position find at {}",
+                                topicName, subName, entry.getPosition());
+                        return false;
+                    }
+                    return publishTime <= timestamp;
                 } finally {
                     entry.release();
-                    if (msg != null) {
-                        msg.recycle();
-                    }
                 }
-                return false;
             }, this, callback);
         } else {
             if (log.isDebugEnabled()) {
@@ -39,12 +39,15 @@ import org.apache.bookkeeper.mledger.util.Rate;
 import org.apache.pulsar.broker.service.AbstractReplicator;
 import org.apache.pulsar.broker.service.BrokerService;
 import org.apache.pulsar.broker.service.BrokerServiceException.NamingException;
+import org.apache.pulsar.broker.service.ReadBatchSizer;
 import org.apache.pulsar.broker.service.Replicator;
 import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.impl.Backoff;
 import org.apache.pulsar.client.impl.MessageImpl;
 import org.apache.pulsar.client.impl.ProducerImpl;
 import org.apache.pulsar.client.impl.SendCallback;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 import org.apache.pulsar.common.policies.data.ReplicatorStats;
 import org.apache.pulsar.common.util.Codec;
 import org.slf4j.Logger;
@@ -60,8 +63,7 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
     private final ManagedCursor cursor;
 
 
-    private static final int MaxReadBatchSize = 100;
-    private int readBatchSize;
+    private final ReadBatchSizer readBatchSizer;
 
     private final int producerQueueThreshold;
 
@@ -81,6 +83,9 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
 
     private int messageTTLInSeconds = 0;
 
+    // Forward the stored entries as they are, instead of re-publishing each message
+    private final boolean replicateRawEntries;
+
     private final Backoff readFailureBackoff = new Backoff(1, TimeUnit.SECONDS, 1, TimeUnit.MINUTES, 0, TimeUnit.MILLISECONDS);
 
     private PersistentMessageExpiryMonitor expiryMonitor;
@@ -98,8 +103,10 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
         HAVE_PENDING_READ_UPDATER.set(this, FALSE);
         PENDING_MESSAGES_UPDATER.set(this, 0);
 
-        readBatchSize = Math.min(producerQueueSize, MaxReadBatchSize);
+        readBatchSizer = new ReadBatchSizer(brokerService.pulsar().getConfiguration());
+        readBatchSizer.setReadBatchSize(producerQueueSize);
         producerQueueThreshold = (int) (producerQueueSize * 0.9);
+        replicateRawEntries = brokerService.pulsar().getConfiguration().isReplicationRawEntriesEnabled();
 
         startProducer();
     }
@@ -151,7 +158,7 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
         int availablePermits = producerQueueSize - PENDING_MESSAGES_UPDATER.get(this);
 
         if (availablePermits > 0) {
-            int messagesToRead = Math.min(availablePermits, readBatchSize);
+            int messagesToRead = readBatchSizer.getEntriesToRead(availablePermits);
             if (!isWritable()) {
                 if (log.isDebugEnabled()) {
                     log.debug("[{}][{} -> {}] Throttling replication traffic because producer is not writable",
@@ -189,15 +196,7 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
                     entries.size());
         }
 
-        if (readBatchSize < MaxReadBatchSize) {
-            int newReadBatchSize = Math.min(readBatchSize * 2, MaxReadBatchSize);
-            if (log.isDebugEnabled()) {
-                log.debug("[{}][{} -> {}] Increasing read batch size from {} to {}", topicName, localCluster,
-                        remoteCluster, readBatchSize, newReadBatchSize);
-            }
-
-            readBatchSize = newReadBatchSize;
-        }
+        readBatchSizer.readCompleted(entries);
 
         readFailureBackoff.reduceToHalf();
 
@@ -211,9 +210,17 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
                 Entry entry = entries.get(i);
                 int length = entry.getLength();
                 ByteBuf headersAndPayload = entry.getDataBuffer();
-                MessageImpl msg;
+                MessageImpl msg = null;
+                MessageMetadata msgMetadata = null;
                 try {
-                    msg = MessageImpl.deserialize(headersAndPayload);
+                    if (replicateRawEntries) {
+                        // Only the metadata is parsed, the entry is forwarded as it was stored
+                        int readerIndex = headersAndPayload.readerIndex();
+                        msgMetadata = Commands.parseMessageMetadata(headersAndPayload);
+                        headersAndPayload.readerIndex(readerIndex);
+                    } else {
+                        msg = MessageImpl.deserialize(headersAndPayload);
+                    }
                 } catch (Throwable t) {
                     log.error("[{}][{} -> {}] Failed to deserialize message at {} (buffer size: {}): {}", topicName,
                             localCluster, remoteCluster, entry.getPosition(), length, t.getMessage(), t);
@@ -222,35 +229,13 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
                     continue;
                 }
 
-                if (msg.isReplicated()) {
-                    // Discard messages that were already replicated into this region
-                    cursor.asyncDelete(entry.getPosition(), this, entry.getPosition());
-                    entry.release();
-                    msg.recycle();
-                    continue;
-                }
-
-                if (msg.hasReplicateTo() && !msg.getReplicateTo().contains(remoteCluster)) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("[{}][{} -> {}] Skipping message at {} / msg-id: {}: replicateTo {}", topicName,
-                                localCluster, remoteCluster, entry.getPosition(), msg.getMessageId(),
-                                msg.getReplicateTo());
-                    }
-                    cursor.asyncDelete(entry.getPosition(), this, entry.getPosition());
-                    entry.release();
-                    msg.recycle();
-                    continue;
-                }
-
-                if (msg.isExpired(messageTTLInSeconds)) {
-                    msgExpired.recordEvent(0 /* no value stat */);
-                    if (log.isDebugEnabled()) {
-                        log.debug("[{}][{} -> {}] Discarding expired message at {} / msg-id: {}", topicName,
-                                localCluster, remoteCluster, entry.getPosition(), msg.getMessageId());
-                    }
-                    cursor.asyncDelete(entry.getPosition(), this, entry.getPosition());
+                boolean filteredOut = msg != null
+                        ? isFilteredOut(entry, msg.isReplicated(), msg.getReplicateTo(), msg.getPublishTime())
+                        : isFilteredOut(entry, msgMetadata.hasReplicatedFrom(), msgMetadata.getReplicateToList(),
+                                msgMetadata.getPublishTime());
+                if (filteredOut) {
                     entry.release();
-                    msg.recycle();
+                    recycleMessage(msg, msgMetadata);
                     continue;
                 }
 
@@ -263,7 +248,7 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
                     }
                     isLocalMessageSkippedOnce = true;
                     entry.release();
-                    msg.recycle();
+                    recycleMessage(msg, msgMetadata);
                     continue;
                 }
 
@@ -272,11 +257,18 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
 
                 msgOut.recordEvent(headersAndPayload.readableBytes());
 
-                msg.setReplicatedFrom(localCluster);
+                if (msg != null) {
+                    msg.setReplicatedFrom(localCluster);
 
-                headersAndPayload.retain();
+                    headersAndPayload.retain();
 
-                producer.sendAsync(msg, ProducerSendCallback.create(this, entry, msg));
+                    producer.sendAsync(msg, ProducerSendCallback.create(this, entry, msg));
+                } else {
+                    producer.sendReplicatedAsync(headersAndPayload, msgMetadata.getSequenceId(),
+                            msgMetadata.getNumMessagesInBatch(), localCluster,
+                            ProducerSendCallback.create(this, entry, null));
+                    msgMetadata.recycle();
+                }
                 atLeastOneMessageSentForReplication = true;
             }
         } catch (Exception e) {
@@ -297,6 +289,47 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
         }
     }
 
+    /**
+     * Check whether the message of an entry must not be replicated to the remote cluster, in which case it is acked.
+     */
+    private boolean isFilteredOut(Entry entry, boolean isReplicated, List<String> replicateTo, long publishTime) {
+        if (isReplicated) {
+            // Discard messages that were already replicated into this region
+            cursor.asyncDelete(entry.getPosition(), this, entry.getPosition());
+            return true;
+        }
+
+        if (!replicateTo.isEmpty() && !replicateTo.contains(remoteCluster)) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}][{} -> {}] Skipping message at {}: replicateTo {}", topicName, localCluster,
+                        remoteCluster, entry.getPosition(), replicateTo);
+            }
+            cursor.asyncDelete(entry.getPosition(), this, entry.getPosition());
+            return true;
+        }
+
+        if (messageTTLInSeconds != 0
+                && System.currentTimeMillis() > (publishTime + TimeUnit.SECONDS.toMillis(messageTTLInSeconds))) {
+            msgExpired.recordEvent(0 /* no value stat */);
+            if (log.isDebugEnabled()) {
+                log.debug("[{}][{} -> {}] Discarding expired message at {}", topicName, localCluster, remoteCluster,
+                        entry.getPosition());
+            }
+            cursor.asyncDelete(entry.getPosition(), this, entry.getPosition());
+            return true;
+        }
+
+        return false;
+    }
+
+    private static void recycleMessage(MessageImpl msg, MessageMetadata msgMetadata) {
+        if (msg != null) {
+            msg.recycle();
+        } else {
+            msgMetadata.recycle();
+        }
+    }
+
     public void updateCursorState() {
         if (producer != null && producer.isConnected()) {
             this.cursor.setActive();
@@ -406,7 +439,7 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
         }
 
         // Reduce read batch size to avoid flooding bookies with retries
-        readBatchSize = 1;
+        readBatchSizer.readFailed();
 
         long waitTimeMillis = readFailureBackoff.next();
 
@@ -533,6 +566,10 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
         stats.msgRateExpired = msgExpired.getRate() + expiryMonitor.getMessageExpiryRate();
     }
 
+    public ReadBatchSizer getReadBatchSizer() {
+        return readBatchSizer;
+    }
+
     public ReplicatorStats getStats() {
         stats.replicationBacklog = cursor.getNumberOfEntriesInBacklog();
         stats.connected = producer != null && producer.isConnected();
@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.netty.buffer.ByteBuf;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.BrokerServiceException;
+import org.apache.pulsar.broker.service.BrokerServiceException.ConsumerBusyException;
+import org.apache.pulsar.broker.service.Consumer;
+import org.apache.pulsar.broker.service.Consumer.SendMessageInfo;
+import org.apache.pulsar.broker.service.HashRangeStickyKeyConsumerSelector;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe.SubType;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Dispatcher for Key_Shared subscriptions: each message is delivered to the consumer owning the hash of the message
+ * key, so that all the messages with the same key are delivered in order to the same consumer.
+ *
+ * <p/>To keep the ordering per key:
+ * <ul>
+ * <li>The messages to replay are dispatched, oldest first, before reading new messages</li>
+ * <li>A consumer joining the subscription only receives the messages that were already dispatched to other consumers
+ * when it joined, until all of them are acknowledged. The keys that moved to the new consumer might still have
+ * messages being processed by the consumers that previously owned them.</li>
+ * </ul>
+ */
+public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDispatcherMultipleConsumers {
+
+    private final HashRangeStickyKeyConsumerSelector selector = new HashRangeStickyKeyConsumerSelector();
+
+    // Last position dispatched to any consumer
+    private PositionImpl lastSentPosition = null;
+
+    // Consumers that joined while messages were outstanding, with the last dispatched position at the time they joined
+    private final LinkedHashMap<Consumer, PositionImpl> recentlyJoinedConsumers = new LinkedHashMap<>();
+    private volatile boolean hasRecentlyJoinedConsumers = false;
+
+    public PersistentStickyKeyDispatcherMultipleConsumers(PersistentTopic topic, ManagedCursor cursor) {
+        super(topic, cursor);
+    }
+
+    @Override
+    public void addConsumer(Consumer consumer) throws BrokerServiceException {
+        if (consumerList.size() >= HashRangeStickyKeyConsumerSelector.HASH_RANGE_SIZE) {
+            // Each consumer owns at least one hash
+            throw new ConsumerBusyException("Key_Shared subscription reached the max number of consumers");
+        }
+        super.addConsumer(consumer);
+    }
+
+    @Override
+    protected void consumerAdded(Consumer consumer, boolean isFirstConsumer) {
+        super.consumerAdded(consumer, isFirstConsumer);
+        try {
+            selector.addConsumer(consumer);
+        } catch (ConsumerBusyException e) {
+            // The number of consumers was already checked when the consumer was added
+            log.warn("[{}] Failed to assign a hash range to consumer {}", name, consumer, e);
+            consumer.disconnect();
+            return;
+        }
+
+        if (isFirstConsumer) {
+            // The cursor is rewound when the first consumer is added
+            lastSentPosition = null;
+        } else if (lastSentPosition != null) {
+            recentlyJoinedConsumers.put(consumer, lastSentPosition);
+            hasRecentlyJoinedConsumers = true;
+        }
+    }
+
+    @Override
+    protected void consumerRemoved(Consumer consumer, boolean isLastConsumer) {
+        selector.removeConsumer(consumer);
+        recentlyJoinedConsumers.remove(consumer);
+        hasRecentlyJoinedConsumers = !recentlyJoinedConsumers.isEmpty();
+        super.consumerRemoved(consumer, isLastConsumer);
+    }
+
+    @Override
+    public SubType getType() {
+        return SubType.Key_Shared;
+    }
+
+    @Override
+    protected boolean sendMessagesToConsumers(ReadType readType, List<Entry> entries) {
+        if (readType == ReadType.Normal && !messagesToReplay.isEmpty()) {
+            // Older messages are waiting to be replayed, they must be delivered first
+            entries.forEach(entry -> {
+                messagesToReplay.add(entry.getLedgerId(), entry.getEntryId());
+                entry.release();
+            });
+            return true;
+        }
+
+        removeConsumersFromRecentlyJoinedConsumers();
+
+        Map<Consumer, List<Entry>> groupedEntries = Maps.newHashMap();
+        for (Entry entry : entries) {
+            Consumer consumer = selector.select(getStickyKey(entry));
+            if (consumer == null) {
+                // No consumers left, the cursor will be rewound when a consumer is added
+                entry.release();
+                continue;
+            }
+            groupedEntries.computeIfAbsent(consumer, c -> Lists.newArrayList()).add(entry);
+        }
+
+        long totalMessagesSent = 0;
+        long totalBytesSent = 0;
+        for (Map.Entry<Consumer, List<Entry>> e : groupedEntries.entrySet()) {
+            Consumer consumer = e.getKey();
+            List<Entry> entriesForConsumer = e.getValue();
+            int entriesToSend = getMaxEntriesToDispatch(consumer, entriesForConsumer);
+
+            // Keep the entries that cannot be dispatched now for later replay
+            List<Entry> entriesToReplay = entriesForConsumer.subList(entriesToSend, entriesForConsumer.size());
+            entriesToReplay.forEach(entry -> {
+                messagesToReplay.add(entry.getLedgerId(), entry.getEntryId());
+                entry.release();
+            });
+
+            if (entriesToSend == 0) {
+                continue;
+            }
+
+            List<Entry> entriesToDispatch = Lists.newArrayList(entriesForConsumer.subList(0, entriesToSend));
+            PositionImpl lastPosition = (PositionImpl) entriesToDispatch.get(entriesToSend - 1).getPosition();
+            if (lastSentPosition == null || lastPosition.compareTo(lastSentPosition) > 0) {
+                lastSentPosition = lastPosition;
+            }
+
+            // remove positions first from replay list first : sendMessages recycles entries
+            if (readType == ReadType.Replay) {
+                entriesToDispatch.forEach(entry -> messagesToReplay.remove(entry.getLedgerId(), entry.getEntryId()));
+            }
+
+            SendMessageInfo sentMsgInfo = consumer.sendMessages(entriesToDispatch);
+            totalAvailablePermits -= sentMsgInfo.getTotalSentMessages();
+            totalMessagesSent += sentMsgInfo.getTotalSentMessages();
+            totalBytesSent += sentMsgInfo.getTotalSentMessageBytes();
+        }
+
+        // acquire message-dispatch permits for already delivered messages
+        if (serviceConfig.isDispatchThrottlingOnNonBacklogConsumerEnabled() || !cursor.isActive()) {
+            topic.getDispatchRateLimiter().tryDispatchPermit(totalMessagesSent, totalBytesSent);
+        }
+
+        if (totalMessagesSent == 0 && !entries.isEmpty()) {
+            // None of the consumers owning these messages can receive them now. Wait for a flow request, an ack or a
+            // consumer change before replaying them, instead of spinning on the same entries
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] No consumer can receive the {} messages read, waiting before replaying them", name,
+                        entries.size());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private int getMaxEntriesToDispatch(Consumer consumer, List<Entry> entriesForConsumer) {
+        if (!isConsumerAvailable(consumer)) {
+            return 0;
+        }
+
+        int maxEntries = Math.min(entriesForConsumer.size(), consumer.getAvailablePermits());
+        maxEntries = consumer.getEntriesWithinBytePermits(entriesForConsumer, maxEntries);
+        PositionImpl maxPosition = recentlyJoinedConsumers.get(consumer);
+        if (maxPosition != null) {
+            // The entries are sorted by position
+            int allowedEntries = 0;
+            while (allowedEntries < maxEntries) {
+                PositionImpl position = (PositionImpl) entriesForConsumer.get(allowedEntries).getPosition();
+                if (position.compareTo(maxPosition) > 0) {
+                    break;
+                }
+                ++allowedEntries;
+            }
+            maxEntries = allowedEntries;
+        }
+        return maxEntries;
+    }
+
+    /**
+     * @return whether any consumer was removed
+     */
+    private boolean removeConsumersFromRecentlyJoinedConsumers() {
+        if (recentlyJoinedConsumers.isEmpty()) {
+            return false;
+        }
+
+        PositionImpl markDeletePosition = (PositionImpl) cursor.getMarkDeletedPosition();
+        boolean removed = false;
+        Iterator<Map.Entry<Consumer, PositionImpl>> iterator = recentlyJoinedConsumers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (markDeletePosition.compareTo(iterator.next().getValue()) >= 0) {
+                iterator.remove();
+                removed = true;
+            } else {
+                // The consumers are sorted by the position at which they joined
+                break;
+            }
+        }
+        hasRecentlyJoinedConsumers = !recentlyJoinedConsumers.isEmpty();
+        return removed;
+    }
+
+    @Override
+    public void acknowledgementWasProcessed() {
+        if (!hasRecentlyJoinedConsumers) {
+            return;
+        }
+
+        executeOnDispatcherThread(() -> {
+            if (removeConsumersFromRecentlyJoinedConsumers()) {
+                // Some messages might have been held for the consumers that were released
+                internalReadMoreEntries();
+            }
+        });
+    }
+
+    private static byte[] getStickyKey(Entry entry) {
+        ByteBuf metadataAndPayload = entry.getDataBuffer();
+        try {
+            // save the reader index and restore after parsing
+            metadataAndPayload.markReaderIndex();
+            MessageMetadata metadata = Commands.parseMessageMetadata(metadataAndPayload);
+            metadataAndPayload.resetReaderIndex();
+            byte[] key = metadata.hasPartitionKey() ? metadata.getPartitionKey().getBytes(UTF_8) : null;
+            metadata.recycle();
+            return key;
+        } catch (Throwable t) {
+            // The consumer will discard the corrupted message
+            metadataAndPayload.resetReaderIndex();
+            log.warn("Failed to parse the metadata of the message at {}", entry.getPosition(), t);
+            return null;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(PersistentStickyKeyDispatcherMultipleConsumers.class);
+}
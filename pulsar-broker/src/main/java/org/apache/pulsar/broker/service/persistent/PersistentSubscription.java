@@ -18,6 +18,7 @@
  */
 package org.apache.pulsar.broker.service.persistent;
 
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -118,6 +119,11 @@ public class PersistentSubscription implements Subscription {
                     dispatcher = new PersistentDispatcherMultipleConsumers(topic, cursor);
                 }
                 break;
+            case Key_Shared:
+                if (dispatcher == null || dispatcher.getType() != SubType.Key_Shared) {
+                    dispatcher = new PersistentStickyKeyDispatcherMultipleConsumers(topic, cursor);
+                }
+                break;
             case Failover:
                 int partitionIndex = DestinationName.getPartitionIndex(topicName);
                 if (partitionIndex < 0) {
@@ -189,12 +195,29 @@ public class PersistentSubscription implements Subscription {
             cursor.asyncDelete(position, deleteCallback, position);
         }
 
+        if (dispatcher != null) {
+            dispatcher.acknowledgementWasProcessed();
+        }
+
         if (topic.getManagedLedger().isTerminated() && cursor.getNumberOfEntriesInBacklog() == 0) {
             // Notify all consumer that the end of topic was reached
             dispatcher.getConsumers().forEach(Consumer::reachedEndOfTopic);
         }
     }
 
+    @Override
+    public void acknowledgeBatchIndexes(PositionImpl position, BitSet ackedIndexes) {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}][{}] Batch index ack on {}: {}", topicName, subName, position, ackedIndexes);
+        }
+        cursor.asyncDeleteBatchIndexes(position, ackedIndexes, deleteCallback, position);
+    }
+
+    @Override
+    public BitSet getAckedBatchIndexes(PositionImpl position) {
+        return cursor.getDeletedBatchIndexes(position);
+    }
+
     private final MarkDeleteCallback markDeleteCallback = new MarkDeleteCallback() {
         @Override
         public void markDeleteComplete(Object ctx) {
@@ -257,6 +280,8 @@ public class PersistentSubscription implements Subscription {
             return "Failover";
         case Shared:
             return "Shared";
+        case Key_Shared:
+            return "Key_Shared";
         }
 
         return "Null";
@@ -633,7 +658,7 @@ public class PersistentSubscription implements Subscription {
         }
 
         subStats.type = getType();
-        if (SubType.Shared.equals(subStats.type)) {
+        if (SubType.Shared.equals(subStats.type) || SubType.Key_Shared.equals(subStats.type)) {
             if (dispatcher instanceof PersistentDispatcherMultipleConsumers) {
                 subStats.unackedMessages = ((PersistentDispatcherMultipleConsumers) dispatcher)
                         .getTotalUnackedMessages();
@@ -642,6 +667,9 @@ public class PersistentSubscription implements Subscription {
             }
         }
         subStats.msgBacklog = getNumberOfEntriesInBacklog();
+        if (dispatcher != null) {
+            subStats.msgDelayed = dispatcher.getNumberOfDelayedMessages();
+        }
         subStats.msgRateExpired = expiryMonitor.getMessageExpiryRate();
         return subStats;
     }
@@ -52,6 +52,7 @@ import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.admin.AdminResource;
 import org.apache.pulsar.broker.service.BrokerService;
 import org.apache.pulsar.broker.service.BrokerServiceException;
@@ -69,6 +70,7 @@ import org.apache.pulsar.broker.service.BrokerServiceException.TopicTerminatedEx
 import org.apache.pulsar.broker.service.BrokerServiceException.UnsupportedVersionException;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Producer;
+import org.apache.pulsar.broker.service.PublishRateLimiter;
 import org.apache.pulsar.broker.service.Replicator;
 import org.apache.pulsar.broker.service.ServerCnx;
 import org.apache.pulsar.broker.service.Subscription;
@@ -156,9 +158,13 @@ public class PersistentTopic implements Topic, AddEntryCallback {
     // doesn't support batch-message
     private volatile boolean hasBatchMessagePublished = false;
     private DispatchRateLimiter dispatchRateLimiter;
+    private final PublishRateLimiter publishRateLimiter;
     public static final int MESSAGE_RATE_BACKOFF_MS = 1000;
 
     private final MessageDeduplication messageDeduplication;
+
+    // Set when the broker side batching of the published messages is enabled
+    private volatile PublishBatcher publishBatcher = null;
     final CompactedTopic compactedTopic;
 
     // Whether messages published must be encrypted or not in this topic
@@ -206,6 +212,8 @@ public class PersistentTopic implements Topic, AddEntryCallback {
         USAGE_COUNT_UPDATER.set(this, 0);
 
         this.dispatchRateLimiter = new DispatchRateLimiter(this);
+        this.publishRateLimiter = new PublishRateLimiter(
+                PublishRateLimiter.getPublishRate(brokerService.pulsar().getConfiguration(), null));
 
         this.compactedTopic = new CompactedTopicImpl(brokerService.pulsar().getBookKeeperClient());
 
@@ -238,6 +246,9 @@ public class PersistentTopic implements Topic, AddEntryCallback {
                     .get(AdminResource.path(POLICIES, DestinationName.get(topic).getNamespace()))
                     .orElseThrow(() -> new KeeperException.NoNodeException());
             isEncryptionRequired = policies.encryption_required;
+            publishRateLimiter.update(PublishRateLimiter.getPublishRate(brokerService.pulsar().getConfiguration(),
+                    policies));
+            checkBrokerBatching(policies);
         } catch (Exception e) {
             log.warn("[{}] Error getting policies {} and isEncryptionRequired will be set to false", topic, e.getMessage());
             isEncryptionRequired = false;
@@ -256,6 +267,10 @@ public class PersistentTopic implements Topic, AddEntryCallback {
     @Override
     public void publishMessage(ByteBuf headersAndPayload, PublishContext publishContext) {
         if (messageDeduplication.shouldPublishNextMessage(publishContext, headersAndPayload)) {
+            PublishBatcher batcher = publishBatcher;
+            if (batcher != null && batcher.add(headersAndPayload, publishContext)) {
+                return;
+            }
             ledger.asyncAddEntry(headersAndPayload, this, publishContext);
         } else {
             // Immediately acknowledge duplicated message
@@ -663,6 +678,7 @@ public class PersistentTopic implements Topic, AddEntryCallback {
             }
             if (USAGE_COUNT_UPDATER.get(this) == 0) {
                 isFenced = true;
+                flushPendingBatches();
 
                 List<CompletableFuture<Void>> futures = Lists.newArrayList();
 
@@ -685,6 +701,7 @@ public class PersistentTopic implements Topic, AddEntryCallback {
                         ledger.asyncDelete(new AsyncCallbacks.DeleteLedgerCallback() {
                             @Override
                             public void deleteLedgerComplete(Object ctx) {
+                                messageDeduplication.removeSnapshotLedger();
                                 brokerService.removeTopicFromCache(topic);
                                 log.info("[{}] Topic deleted", topic);
                                 deleteFuture.complete(null);
@@ -732,6 +749,9 @@ public class PersistentTopic implements Topic, AddEntryCallback {
             lock.writeLock().unlock();
         }
 
+        // Store the messages still waiting to be batched before the managed ledger gets closed
+        flushPendingBatches();
+
         List<CompletableFuture<Void>> futures = Lists.newArrayList();
 
         replicators.forEach((cluster, replicator) -> futures.add(replicator.disconnect()));
@@ -890,6 +910,11 @@ public class PersistentTopic implements Topic, AddEntryCallback {
         messageDeduplication.purgeInactiveProducers();
     }
 
+    @Override
+    public CompletableFuture<Void> waitForDeduplicationRecovery() {
+        return messageDeduplication.getRecoveryFuture();
+    }
+
     CompletableFuture<Void> startReplicator(String remoteCluster) {
         log.info("[{}] Starting replicator to remote: {}", topic, remoteCluster);
         final CompletableFuture<Void> future = new CompletableFuture<>();
@@ -1147,7 +1172,8 @@ public class PersistentTopic implements Topic, AddEntryCallback {
                     destStatsStream.writePair("msgThroughputOut", consumerStats.msgThroughputOut);
                     destStatsStream.writePair("msgRateRedeliver", consumerStats.msgRateRedeliver);
 
-                    if (SubType.Shared.equals(subscription.getType())) {
+                    if (SubType.Shared.equals(subscription.getType())
+                            || SubType.Key_Shared.equals(subscription.getType())) {
                         destStatsStream.writePair("unackedMessages", consumerStats.unackedMessages);
                         destStatsStream.writePair("blockedConsumerOnUnackedMsgs",
                                 consumerStats.blockedConsumerOnUnackedMsgs);
@@ -1170,7 +1196,8 @@ public class PersistentTopic implements Topic, AddEntryCallback {
                 destStatsStream.writePair("numberOfEntriesSinceFirstNotAckedMessage", subscription.getNumberOfEntriesSinceFirstNotAckedMessage());
                 destStatsStream.writePair("totalNonContiguousDeletedMessagesRange", subscription.getTotalNonContiguousDeletedMessagesRange());
                 destStatsStream.writePair("type", subscription.getTypeString());
-                if (SubType.Shared.equals(subscription.getType())) {
+                if (SubType.Shared.equals(subscription.getType())
+                        || SubType.Key_Shared.equals(subscription.getType())) {
                     if(subscription.getDispatcher() instanceof PersistentDispatcherMultipleConsumers) {
                         PersistentDispatcherMultipleConsumers dispatcher = (PersistentDispatcherMultipleConsumers)subscription.getDispatcher();
                         destStatsStream.writePair("blockedSubscriptionOnUnackedMsgs",  dispatcher.isBlockedDispatcherOnUnackedMsgs());
@@ -1291,6 +1318,7 @@ public class PersistentTopic implements Topic, AddEntryCallback {
 
         stats.lastConfirmedEntry = ml.getLastConfirmedEntry().toString();
         stats.state = ml.getState().toString();
+        stats.recoveryTimeMs = ml.getStats().getRecoveryTimeMillis();
 
         stats.ledgers = Lists.newArrayList();
         ml.getLedgersInfo().forEach((id, li) -> {
@@ -1317,6 +1345,8 @@ public class PersistentTopic implements Topic, AddEntryCallback {
             cs.state = cursor.getState();
             cs.numberOfEntriesSinceFirstNotAckedMessage = cursor.getNumberOfEntriesSinceFirstNotAckedMessage();
             cs.totalNonContiguousDeletedMessagesRange = cursor.getTotalNonContiguousDeletedMessagesRange();
+            cs.readAheadHits = cursor.getReadAheadHits();
+            cs.readAheadMisses = cursor.getReadAheadMisses();
             cs.properties = cursor.getProperties();
             stats.cursors.put(cursor.getName(), cs);
         });
@@ -1430,6 +1460,8 @@ public class PersistentTopic implements Topic, AddEntryCallback {
             log.debug("[{}] isEncryptionRequired changes: {} -> {}", topic, isEncryptionRequired, data.encryption_required);
         }
         isEncryptionRequired = data.encryption_required;
+        publishRateLimiter.update(PublishRateLimiter.getPublishRate(brokerService.pulsar().getConfiguration(), data));
+        checkBrokerBatching(data);
         producers.forEach(producer -> {
             producer.checkPermissions();
             producer.checkEncryption();
@@ -1442,6 +1474,33 @@ public class PersistentTopic implements Topic, AddEntryCallback {
         return CompletableFuture.allOf(replicationFuture, dedupFuture, persistentPoliciesFuture);
     }
 
+    private void checkBrokerBatching(Policies policies) {
+        ServiceConfiguration config = brokerService.pulsar().getConfiguration();
+        boolean enabled = policies.brokerBatchingEnabled != null ? policies.brokerBatchingEnabled
+                : config.isBrokerBatchingEnabled();
+
+        synchronized (this) {
+            if (enabled && publishBatcher == null) {
+                log.info("[{}] Enabling broker side batching", topic);
+                publishBatcher = new PublishBatcher(this, ledger, brokerService.pulsar().getExecutor(),
+                        config.getBrokerBatchingMaxPublishDelayMicros(), config.getBrokerBatchingMaxMessages(),
+                        config.getBrokerBatchingMaxSizeBytes());
+            } else if (!enabled && publishBatcher != null) {
+                log.info("[{}] Disabling broker side batching", topic);
+                PublishBatcher batcher = publishBatcher;
+                publishBatcher = null;
+                batcher.flushAll();
+            }
+        }
+    }
+
+    private void flushPendingBatches() {
+        PublishBatcher batcher = publishBatcher;
+        if (batcher != null) {
+            batcher.flushAll();
+        }
+    }
+
     /**
      *
      * @return Backlog quota for topic
@@ -1581,6 +1640,15 @@ public class PersistentTopic implements Topic, AddEntryCallback {
         return this.dispatchRateLimiter;
     }
 
+    @Override
+    public PublishRateLimiter getPublishRateLimiter() {
+        return this.publishRateLimiter;
+    }
+
+    public MessageDeduplication getMessageDeduplication() {
+        return messageDeduplication;
+    }
+
     public long getLastPublishedSequenceId(String producerName) {
         return messageDeduplication.getLastPublishedSequenceId(producerName);
     }
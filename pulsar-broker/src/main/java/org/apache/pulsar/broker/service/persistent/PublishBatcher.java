@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
+
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.pulsar.broker.service.Topic.PublishContext;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.Commands.ChecksumType;
+import org.apache.pulsar.common.api.proto.PulsarApi.CompressionType;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Groups the messages that a producer publishes one at a time into batch entries, so that a topic with many small
+ * messages writes fewer and bigger entries to the managed ledger.
+ *
+ * The messages are batched per producer since a batch entry carries a single producer name and sequence id. The
+ * sequence id of a batch entry is the one of its last message, which is what the deduplication needs to recover the
+ * last persisted sequence id of the producer. Each message still gets its own receipt, with the position of the batch
+ * entry.
+ *
+ * A batch only holds consecutive messages with the same partition key, which is also set on the batch entry, so that
+ * the Key_Shared dispatchers route a batched message to the same consumer as an unbatched one with the same key.
+ */
+public class PublishBatcher {
+
+    private final PersistentTopic topic;
+    private final ManagedLedger ledger;
+    private final ScheduledExecutorService executor;
+    private final long maxPublishDelayMicros;
+    private final int maxMessages;
+    private final int maxSizeBytes;
+
+    // Batches being filled, keyed by producer name
+    private final ConcurrentOpenHashMap<String, PendingBatch> pendingBatches = new ConcurrentOpenHashMap<>(16, 1);
+
+    PublishBatcher(PersistentTopic topic, ManagedLedger ledger, ScheduledExecutorService executor,
+            long maxPublishDelayMicros, int maxMessages, int maxSizeBytes) {
+        this.topic = topic;
+        this.ledger = ledger;
+        this.executor = executor;
+        this.maxPublishDelayMicros = maxPublishDelayMicros;
+        this.maxMessages = maxMessages;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Add a published message to the pending batch of its producer.
+     *
+     * @return true if the message was added to a batch, false if it has to be stored on its own by the caller
+     */
+    public boolean add(ByteBuf headersAndPayload, PublishContext publishContext) {
+        final String producerName = publishContext.getProducerName();
+        final int readerIndex = headersAndPayload.readerIndex();
+        MessageMetadata msgMetadata;
+        try {
+            msgMetadata = Commands.parseMessageMetadata(headersAndPayload);
+        } catch (Throwable t) {
+            headersAndPayload.readerIndex(readerIndex);
+            flush(producerName);
+            return false;
+        }
+
+        try {
+            if (producerName == null || !isBatchable(msgMetadata, headersAndPayload.readableBytes())) {
+                // Store the messages already pending for the producer first, to keep the publish order
+                flush(producerName);
+                return false;
+            }
+
+            while (true) {
+                PendingBatch batch = pendingBatches.computeIfAbsent(producerName, PendingBatch::new);
+                if (batch.add(msgMetadata, headersAndPayload, publishContext)) {
+                    return true;
+                }
+                // The batch was flushed in the meantime, or the message didn't fit in it. Retry with a new batch
+            }
+        } finally {
+            headersAndPayload.readerIndex(readerIndex);
+            msgMetadata.recycle();
+        }
+    }
+
+    /**
+     * Store the pending batch of a producer, if any.
+     */
+    public void flush(String producerName) {
+        if (producerName == null) {
+            return;
+        }
+        PendingBatch batch = pendingBatches.get(producerName);
+        if (batch != null) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * Store all the pending batches, e.g. before closing the topic or when the batching gets disabled.
+     */
+    public void flushAll() {
+        pendingBatches.values().forEach(PendingBatch::flush);
+    }
+
+    public int getPendingBatchesCount() {
+        return (int) pendingBatches.size();
+    }
+
+    private boolean isBatchable(MessageMetadata msgMetadata, int payloadSize) {
+        // The single message metadata within a batch can only carry the partition key and the properties of the
+        // messages, all the other fields are shared by the whole batch
+        return !msgMetadata.hasNumMessagesInBatch()
+                && msgMetadata.getCompression() == CompressionType.NONE
+                && msgMetadata.getEncryptionKeysCount() == 0
+                && !msgMetadata.hasReplicatedFrom()
+                && msgMetadata.getReplicateToCount() == 0
+                && !msgMetadata.hasEventTime()
+                && !msgMetadata.hasDeliverAtTime()
+                && payloadSize < maxSizeBytes;
+    }
+
+    /**
+     * Messages of a producer waiting to be stored in a single entry. Once flushed, it gets completed for each of its
+     * messages when the entry is persisted.
+     */
+    private class PendingBatch implements PublishContext {
+        private final String producerName;
+        private final List<PublishContext> publishContexts = Lists.newArrayList();
+        private MessageMetadata.Builder batchMetadataBuilder;
+        private ByteBuf batchPayload;
+        private String partitionKey;
+        private long lastSequenceId = -1;
+        private ScheduledFuture<?> flushTask;
+        private boolean flushed = false;
+
+        PendingBatch(String producerName) {
+            this.producerName = producerName;
+        }
+
+        synchronized boolean add(MessageMetadata msgMetadata, ByteBuf payload, PublishContext publishContext) {
+            if (flushed) {
+                return false;
+            }
+
+            String key = msgMetadata.hasPartitionKey() ? msgMetadata.getPartitionKey() : null;
+            if (batchPayload == null) {
+                batchMetadataBuilder = MessageMetadata.newBuilder().setProducerName(msgMetadata.getProducerName())
+                        .setPublishTime(msgMetadata.getPublishTime());
+                if (key != null) {
+                    batchMetadataBuilder.setPartitionKey(key);
+                }
+                partitionKey = key;
+                batchPayload = PooledByteBufAllocator.DEFAULT.buffer(Math.min(maxSizeBytes, 1024), maxSizeBytes * 2);
+                flushTask = executor.schedule(safeRun(this::flush), maxPublishDelayMicros, TimeUnit.MICROSECONDS);
+            } else if (!Objects.equals(partitionKey, key)
+                    || batchPayload.readableBytes() + payload.readableBytes() > maxSizeBytes) {
+                // Store the batch before starting a new one for a different key, to keep the publish order
+                flush();
+                return false;
+            }
+
+            Commands.serializeSingleMessageInBatchWithPayload(msgMetadata, payload, batchPayload);
+            publishContexts.add(publishContext);
+            lastSequenceId = publishContext.getSequenceId();
+
+            if (publishContexts.size() >= maxMessages || batchPayload.readableBytes() >= maxSizeBytes) {
+                flush();
+            }
+            return true;
+        }
+
+        synchronized void flush() {
+            if (flushed) {
+                return;
+            }
+            flushed = true;
+            if (flushTask != null) {
+                flushTask.cancel(false);
+            }
+            try {
+                store();
+            } finally {
+                // Only remove the batch once its entry was handed to the managed ledger. Until then, flushing the
+                // producer waits on this batch, so that the next messages of the producer can't be stored before it
+                pendingBatches.remove(producerName, this);
+            }
+        }
+
+        private void store() {
+            if (publishContexts.isEmpty()) {
+                return;
+            }
+
+            MessageMetadata batchMetadata = batchMetadataBuilder.setSequenceId(lastSequenceId)
+                    .setNumMessagesInBatch(publishContexts.size()).build();
+            ByteBuf entry = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, batchMetadata, batchPayload);
+            batchMetadata.recycle();
+            batchMetadataBuilder.recycle();
+            batchPayload.release();
+            batchPayload = null;
+
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Storing batch of {} messages from {} up to sequence id {}", topic.getName(),
+                        publishContexts.size(), producerName, lastSequenceId);
+            }
+            topic.markBatchMessagePublished();
+            ledger.asyncAddEntry(entry, topic, this);
+            entry.release();
+        }
+
+        @Override
+        public String getProducerName() {
+            return producerName;
+        }
+
+        @Override
+        public long getSequenceId() {
+            return lastSequenceId;
+        }
+
+        @Override
+        public void completed(Exception e, long ledgerId, long entryId) {
+            publishContexts.forEach(publishContext -> publishContext.completed(e, ledgerId, entryId));
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(PublishBatcher.class);
+}
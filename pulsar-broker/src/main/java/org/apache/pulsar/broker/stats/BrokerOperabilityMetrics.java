@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.pulsar.broker.service.PublishBufferLimiter;
 import org.apache.pulsar.common.stats.Metrics;
 
 /**
@@ -33,17 +34,21 @@ public class BrokerOperabilityMetrics {
     private final List<Metrics> metricsList;
     private final String localCluster;
     private final DimensionStats topicLoadStats;
+    private final DimensionStats dedupRecoveryStats;
     private final DimensionStats zkWriteLatencyStats;
     private final DimensionStats zkReadLatencyStats;
     private final String brokerName;
+    private final PublishBufferLimiter publishBufferLimiter;
 
-    public BrokerOperabilityMetrics(String localCluster, String brokerName) {
+    public BrokerOperabilityMetrics(String localCluster, String brokerName, PublishBufferLimiter publishBufferLimiter) {
         this.metricsList = new ArrayList<>();
         this.localCluster = localCluster;
         this.topicLoadStats = new DimensionStats("topic_load_times", 60);
+        this.dedupRecoveryStats = new DimensionStats("dedup_recovery_times", 60);
         this.zkWriteLatencyStats = new DimensionStats("zk_write_latency", 60);
         this.zkReadLatencyStats = new DimensionStats("zk_read_latency", 60);
         this.brokerName = brokerName;
+        this.publishBufferLimiter = publishBufferLimiter;
     }
 
     public List<Metrics> getMetrics() {
@@ -53,14 +58,22 @@ public class BrokerOperabilityMetrics {
 
     private void generate() {
         metricsList.add(getTopicLoadMetrics());
+        metricsList.add(getDedupRecoveryMetrics());
         metricsList.add(getZkWriteLatencyMetrics());
         metricsList.add(getZkReadLatencyMetrics());
+        if (publishBufferLimiter != null && publishBufferLimiter.isEnabled()) {
+            metricsList.add(getPublishBufferMetrics());
+        }
     }
 
     Metrics getTopicLoadMetrics() {
         return getDimensionMetrics("topic_load_times", "topic_load", topicLoadStats);
     }
 
+    Metrics getDedupRecoveryMetrics() {
+        return getDimensionMetrics("dedup_recovery_times", "dedup_recovery", dedupRecoveryStats);
+    }
+
     Metrics getZkWriteLatencyMetrics() {
         return getDimensionMetrics("zk_write_latency", "zk_write", zkWriteLatencyStats);
     }
@@ -69,6 +82,21 @@ public class BrokerOperabilityMetrics {
         return getDimensionMetrics("zk_read_latency", "zk_read", zkReadLatencyStats);
     }
 
+    Metrics getPublishBufferMetrics() {
+        Map<String, String> dimensionMap = Maps.newHashMap();
+        dimensionMap.put("broker", brokerName);
+        dimensionMap.put("cluster", localCluster);
+        dimensionMap.put("metric", "publish_buffer");
+        Metrics dMetrics = Metrics.create(dimensionMap);
+
+        dMetrics.put("brk_publish_buffer_size_bytes", publishBufferLimiter.getCurrentPublishBufferBytes());
+        dMetrics.put("brk_publish_buffer_max_size_bytes", publishBufferLimiter.getMaxPublishBufferBytes());
+        dMetrics.put("brk_publish_buffer_paused_connections", publishBufferLimiter.getPausedConnections());
+        dMetrics.put("brk_publish_buffer_paused_connections_total", publishBufferLimiter.getPausedConnectionsCount());
+
+        return dMetrics;
+    }
+
     Metrics getDimensionMetrics(String metricsName, String dimensionName, DimensionStats stats) {
         Map<String, String> dimensionMap = Maps.newHashMap();
         dimensionMap.put("broker", brokerName);
@@ -91,6 +119,7 @@ public class BrokerOperabilityMetrics {
     public void reset() {
         metricsList.clear();
         topicLoadStats.reset();
+        dedupRecoveryStats.reset();
         zkWriteLatencyStats.reset();
         zkReadLatencyStats.reset();
     }
@@ -99,6 +128,10 @@ public class BrokerOperabilityMetrics {
         topicLoadStats.recordDimensionTimeValue(topicLoadLatencyMs, TimeUnit.MILLISECONDS);
     }
 
+    public void recordDedupRecoveryTimeValue(long recoveryTimeMs) {
+        dedupRecoveryStats.recordDimensionTimeValue(recoveryTimeMs, TimeUnit.MILLISECONDS);
+    }
+
     public void recordZkWriteLatencyTimeValue(long topicLoadLatencyMs) {
         zkWriteLatencyStats.recordDimensionTimeValue(topicLoadLatencyMs, TimeUnit.MILLISECONDS);
     }
@@ -19,6 +19,7 @@
 package org.apache.pulsar.broker.stats.metrics;
 
 import java.util.List;
+import java.util.Map;
 
 import org.apache.bookkeeper.mledger.ManagedLedgerFactoryMXBean;
 import org.apache.bookkeeper.mledger.impl.EntryCacheImpl;
@@ -26,6 +27,7 @@ import org.apache.pulsar.broker.PulsarService;
 import org.apache.pulsar.common.stats.Metrics;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import io.netty.buffer.PoolArenaMetric;
 import io.netty.buffer.PoolChunkListMetric;
@@ -56,6 +58,12 @@ public class ManagedLedgerCacheMetrics extends AbstractMetrics {
         m.put("brk_ml_cache_misses_rate", mlCacheStats.getCacheMissesRate());
         m.put("brk_ml_cache_hits_throughput", mlCacheStats.getCacheHitsThroughput());
         m.put("brk_ml_cache_misses_throughput", mlCacheStats.getCacheMissesThroughput());
+        m.put("brk_ml_cache_coalesced_reads_rate", mlCacheStats.getCoalescedReadsRate());
+        m.put("brk_ml_cache_coalesced_reads_throughput", mlCacheStats.getCoalescedReadsThroughput());
+        m.put("brk_ml_broadcast_entries_rate", mlCacheStats.getBroadcastEntriesRate());
+        m.put("brk_ml_recoveries_pending", mlCacheStats.getNumberOfPendingRecoveries());
+        m.put("brk_ml_recoveries_active", mlCacheStats.getNumberOfActiveRecoveries());
+        m.put("brk_ml_recovery_time_avg_ms", mlCacheStats.getRecoveryTimeAverageMillis());
 
         PooledByteBufAllocator allocator = EntryCacheImpl.ALLOCATOR;
         long activeAllocations = 0;
@@ -92,8 +100,16 @@ public class ManagedLedgerCacheMetrics extends AbstractMetrics {
         m.put("brk_ml_cache_pool_active_allocations_normal", activeAllocationsNormal);
         m.put("brk_ml_cache_pool_active_allocations_huge", activeAllocationsHuge);
 
+        // Effectiveness of the configured eviction policy
+        Map<String, String> policyDimension = Maps.newHashMap();
+        policyDimension.put("eviction_policy", mlCacheStats.getCacheEvictionPolicy());
+        Metrics policyMetrics = createMetrics(policyDimension);
+        policyMetrics.put("brk_ml_cache_hit_ratio", mlCacheStats.getCacheHitRatio());
+        policyMetrics.put("brk_ml_cache_admission_rejections_rate", mlCacheStats.getCacheAdmissionRejectionsRate());
+
         metrics.clear();
         metrics.add(m);
+        metrics.add(policyMetrics);
         return metrics;
 
     }
@@ -44,6 +44,18 @@ public class AggregatedNamespaceStats {
     public double storageWriteRate;
     public double storageReadRate;
 
+    public long dispatchReadersCount;
+    public long dispatchReadEntriesSum;
+    public long dispatchReadBytesSum;
+
+    // Number of topics currently over their publish-rate and of the publish requests that exceeded it
+    public long publishRateLimitExceededTopics;
+    public long publishRateThrottledCount;
+
+    // Number of producers tracked for deduplication and longest recovery of the deduplication state
+    public long dedupProducersCount;
+    public long dedupRecoveryTimeMsMax;
+
     public Map<String, AggregatedReplicationStats> replicationStats = new HashMap<>();
 
     void updateStats(TopicStats stats) {
@@ -65,6 +77,18 @@ public class AggregatedNamespaceStats {
 
         msgBacklog += msgBacklog;
 
+        dispatchReadersCount += stats.dispatchReadersCount;
+        dispatchReadEntriesSum += stats.dispatchReadEntriesSum;
+        dispatchReadBytesSum += stats.dispatchReadBytesSum;
+
+        if (stats.publishRateLimitExceeded) {
+            publishRateLimitExceededTopics++;
+        }
+        publishRateThrottledCount += stats.publishRateThrottledCount;
+
+        dedupProducersCount += stats.dedupProducersCount;
+        dedupRecoveryTimeMsMax = Math.max(dedupRecoveryTimeMsMax, stats.dedupRecoveryTimeMs);
+
         storageWriteLatencyBuckets.addAll(stats.storageWriteLatencyBuckets);
         entrySizeBuckets.addAll(stats.entrySizeBuckets);
 
@@ -94,6 +118,16 @@ public class AggregatedNamespaceStats {
         storageWriteRate = 0;
         storageReadRate = 0;
 
+        dispatchReadersCount = 0;
+        dispatchReadEntriesSum = 0;
+        dispatchReadBytesSum = 0;
+
+        publishRateLimitExceededTopics = 0;
+        publishRateThrottledCount = 0;
+
+        dedupProducersCount = 0;
+        dedupRecoveryTimeMsMax = 0;
+
         replicationStats.clear();
         storageWriteLatencyBuckets.reset();
         entrySizeBuckets.reset();
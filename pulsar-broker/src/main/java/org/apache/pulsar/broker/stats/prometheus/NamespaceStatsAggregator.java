@@ -20,7 +20,12 @@ package org.apache.pulsar.broker.stats.prometheus;
 
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerMBeanImpl;
 import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.service.Dispatcher;
+import org.apache.pulsar.broker.service.PublishRateLimiter;
+import org.apache.pulsar.broker.service.ReadBatchSizer;
 import org.apache.pulsar.broker.service.Topic;
+import org.apache.pulsar.broker.service.persistent.MessageDeduplication;
+import org.apache.pulsar.broker.service.persistent.PersistentReplicator;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.common.policies.data.ReplicatorStats;
 import org.apache.pulsar.utils.SimpleTextOutputStream;
@@ -87,8 +92,16 @@ public class NamespaceStatsAggregator {
 
             stats.storageWriteRate = mlStats.getAddEntryMessagesRate();
             stats.storageReadRate = mlStats.getReadEntriesRate();
+
+            MessageDeduplication messageDeduplication = ((PersistentTopic) topic).getMessageDeduplication();
+            stats.dedupProducersCount = messageDeduplication.getProducersCount();
+            stats.dedupRecoveryTimeMs = messageDeduplication.getRecoveryTimeMillis();
         }
 
+        PublishRateLimiter publishRateLimiter = topic.getPublishRateLimiter();
+        stats.publishRateLimitExceeded = publishRateLimiter.isPublishRateExceeded();
+        stats.publishRateThrottledCount = publishRateLimiter.getPublishRateExceededCount();
+
         topic.getProducers().forEach(producer -> {
             if (producer.isRemote()) {
                 AggregatedReplicationStats replStats = stats.replicationStats
@@ -108,6 +121,11 @@ public class NamespaceStatsAggregator {
             stats.subscriptionsCount++;
             stats.msgBacklog += subscription.getNumberOfEntriesInBacklog();
 
+            Dispatcher dispatcher = subscription.getDispatcher();
+            if (dispatcher != null) {
+                addReadBatchStats(dispatcher.getReadBatchSizer(), stats);
+            }
+
             subscription.getConsumers().forEach(consumer -> {
                 stats.consumersCount++;
                 stats.rateOut += consumer.getStats().msgRateOut;
@@ -123,9 +141,21 @@ public class NamespaceStatsAggregator {
             aggReplStats.msgRateOut += replStats.msgRateOut;
             aggReplStats.msgThroughputOut += replStats.msgThroughputOut;
             aggReplStats.replicationBacklog += replStats.replicationBacklog;
+
+            if (replicator instanceof PersistentReplicator) {
+                addReadBatchStats(((PersistentReplicator) replicator).getReadBatchSizer(), stats);
+            }
         });
     }
 
+    private static void addReadBatchStats(ReadBatchSizer readBatchSizer, TopicStats stats) {
+        if (readBatchSizer != null) {
+            stats.dispatchReadersCount++;
+            stats.dispatchReadEntriesSum += readBatchSizer.getLastEntriesToRead();
+            stats.dispatchReadBytesSum += readBatchSizer.getLastBytesToRead();
+        }
+    }
+
     private static void printNamespaceStats(SimpleTextOutputStream stream, String cluster, String namespace,
             AggregatedNamespaceStats stats) {
         metric(stream, cluster, namespace, "pulsar_topics_count", stats.topicsCount);
@@ -175,6 +205,19 @@ public class NamespaceStatsAggregator {
         metric(stream, cluster, namespace, "pulsar_entry_size_count", stats.entrySizeBuckets.getCount());
         metric(stream, cluster, namespace, "pulsar_entry_size_sum", stats.entrySizeBuckets.getSum());
 
+        if (stats.dispatchReadersCount > 0) {
+            metric(stream, cluster, namespace, "pulsar_dispatch_read_entries_avg",
+                    (double) stats.dispatchReadEntriesSum / stats.dispatchReadersCount);
+            metric(stream, cluster, namespace, "pulsar_dispatch_read_bytes_avg",
+                    (double) stats.dispatchReadBytesSum / stats.dispatchReadersCount);
+        }
+
+        metric(stream, cluster, namespace, "pulsar_publish_rate_limit_exceeded", stats.publishRateLimitExceededTopics);
+        metric(stream, cluster, namespace, "pulsar_publish_rate_throttled_count", stats.publishRateThrottledCount);
+
+        metric(stream, cluster, namespace, "pulsar_dedup_producers_count", stats.dedupProducersCount);
+        metric(stream, cluster, namespace, "pulsar_dedup_recovery_time_ms_max", stats.dedupRecoveryTimeMsMax);
+
         if (!stats.replicationStats.isEmpty()) {
             stats.replicationStats.forEach((remoteCluster, replStats) -> {
                 metricWithRemoteCluster(stream, cluster, namespace, "pulsar_replication_rate_in", remoteCluster,
@@ -43,6 +43,17 @@ class TopicStats {
     double storageWriteRate;
     double storageReadRate;
 
+    // Size of the last read of each dispatcher and replicator, used to report the average
+    long dispatchReadersCount;
+    long dispatchReadEntriesSum;
+    long dispatchReadBytesSum;
+
+    boolean publishRateLimitExceeded;
+    long publishRateThrottledCount;
+
+    long dedupProducersCount;
+    long dedupRecoveryTimeMs;
+
     Map<String, AggregatedReplicationStats> replicationStats = new HashMap<>();
 
     public void reset() {
@@ -59,6 +70,16 @@ class TopicStats {
         storageWriteRate = 0;
         storageReadRate = 0;
 
+        dispatchReadersCount = 0;
+        dispatchReadEntriesSum = 0;
+        dispatchReadBytesSum = 0;
+
+        publishRateLimitExceeded = false;
+        publishRateThrottledCount = 0;
+
+        dedupProducersCount = 0;
+        dedupRecoveryTimeMs = 0;
+
         replicationStats.clear();
         storageWriteLatencyBuckets.reset();
         entrySizeBuckets.reset();
@@ -108,6 +129,20 @@ class TopicStats {
         metric(stream, cluster, namespace, topic, "pulsar_entry_size_count", stats.entrySizeBuckets.getCount());
         metric(stream, cluster, namespace, topic, "pulsar_entry_size_sum", stats.entrySizeBuckets.getSum());
 
+        if (stats.dispatchReadersCount > 0) {
+            metric(stream, cluster, namespace, topic, "pulsar_dispatch_read_entries_avg",
+                    (double) stats.dispatchReadEntriesSum / stats.dispatchReadersCount);
+            metric(stream, cluster, namespace, topic, "pulsar_dispatch_read_bytes_avg",
+                    (double) stats.dispatchReadBytesSum / stats.dispatchReadersCount);
+        }
+
+        metric(stream, cluster, namespace, topic, "pulsar_publish_rate_limit_exceeded",
+                stats.publishRateLimitExceeded ? 1 : 0);
+        metric(stream, cluster, namespace, topic, "pulsar_publish_rate_throttled_count",
+                stats.publishRateThrottledCount);
+
+        metric(stream, cluster, namespace, topic, "pulsar_dedup_producers_count", stats.dedupProducersCount);
+        metric(stream, cluster, namespace, topic, "pulsar_dedup_recovery_time_ms", stats.dedupRecoveryTimeMs);
     }
 
     private static void metric(SimpleTextOutputStream stream, String cluster, String namespace, String topic,
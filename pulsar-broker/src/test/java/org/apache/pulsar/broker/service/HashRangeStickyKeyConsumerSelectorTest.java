@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.List;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+@Test
+public class HashRangeStickyKeyConsumerSelectorTest {
+
+    private static final int MAX = HashRangeStickyKeyConsumerSelector.HASH_RANGE_SIZE - 1;
+
+    @Test
+    public void testSplitRanges() throws Exception {
+        HashRangeStickyKeyConsumerSelector selector = new HashRangeStickyKeyConsumerSelector();
+        assertNull(selector.select("key".getBytes()));
+
+        Consumer c1 = mock(Consumer.class);
+        selector.addConsumer(c1);
+        assertEquals(selector.getRange(c1), new int[] { 0, MAX });
+        assertSame(selector.select("key".getBytes()), c1);
+        assertSame(selector.select((byte[]) null), c1);
+
+        Consumer c2 = mock(Consumer.class);
+        selector.addConsumer(c2);
+        assertEquals(selector.getRange(c2), new int[] { 0, MAX / 2 });
+        assertEquals(selector.getRange(c1), new int[] { MAX / 2 + 1, MAX });
+
+        Consumer c3 = mock(Consumer.class);
+        selector.addConsumer(c3);
+        // The biggest range is the first one when the ranges have the same size
+        assertEquals(selector.getRange(c3), new int[] { 0, MAX / 4 });
+        assertEquals(selector.getRange(c2), new int[] { MAX / 4 + 1, MAX / 2 });
+
+        assertSame(selector.select(0), c3);
+        assertSame(selector.select(MAX / 2), c2);
+        assertSame(selector.select(MAX), c1);
+    }
+
+    @Test
+    public void testRemoveConsumer() throws Exception {
+        HashRangeStickyKeyConsumerSelector selector = new HashRangeStickyKeyConsumerSelector();
+        Consumer c1 = mock(Consumer.class);
+        Consumer c2 = mock(Consumer.class);
+        Consumer c3 = mock(Consumer.class);
+        selector.addConsumer(c1);
+        selector.addConsumer(c2);
+        selector.addConsumer(c3);
+
+        // The next range absorbs the removed one
+        selector.removeConsumer(c3);
+        assertEquals(selector.getRange(c2), new int[] { 0, MAX / 2 });
+        assertNull(selector.getRange(c3));
+
+        // The previous range absorbs the last one
+        selector.removeConsumer(c1);
+        assertEquals(selector.getRange(c2), new int[] { 0, MAX });
+        assertSame(selector.select(MAX), c2);
+
+        selector.removeConsumer(c2);
+        assertNull(selector.select(0));
+
+        // Removing an unknown consumer is a no-op
+        selector.removeConsumer(c1);
+    }
+
+    @Test
+    public void testKeysAreStable() throws Exception {
+        HashRangeStickyKeyConsumerSelector selector = new HashRangeStickyKeyConsumerSelector();
+        List<Consumer> consumers = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            Consumer consumer = mock(Consumer.class);
+            selector.addConsumer(consumer);
+            consumers.add(consumer);
+        }
+
+        List<Consumer> selected = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            selected.add(selector.select(("key-" + i).getBytes()));
+        }
+
+        Consumer removed = consumers.get(2);
+        selector.removeConsumer(removed);
+
+        // Only the keys of the removed consumer are moved
+        for (int i = 0; i < 1000; i++) {
+            Consumer consumer = selector.select(("key-" + i).getBytes());
+            if (selected.get(i) != removed) {
+                assertSame(consumer, selected.get(i));
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.pulsar.broker.service;
 
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
 import static org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest.createMockBookKeeper;
 import static org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest.createMockZooKeeper;
 import static org.mockito.Matchers.any;
@@ -37,6 +38,7 @@ import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertTrue;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
@@ -45,7 +47,11 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.apache.bookkeeper.mledger.AsyncCallbacks.AddEntryCallback;
@@ -53,24 +59,30 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteCursorCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteLedgerCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.OpenCursorCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.OpenLedgerCallback;
+import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedger;
 import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactory;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.broker.PulsarService;
 import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.cache.ConfigurationCacheService;
 import org.apache.pulsar.broker.cache.LocalZooKeeperCacheService;
 import org.apache.pulsar.broker.namespace.NamespaceService;
+import org.apache.pulsar.broker.service.Consumer.SendMessageInfo;
 import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
 import org.apache.pulsar.broker.service.persistent.PersistentDispatcherSingleActiveConsumer;
 import org.apache.pulsar.broker.service.persistent.PersistentSubscription;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.Commands.ChecksumType;
 import org.apache.pulsar.common.api.proto.PulsarApi.BaseCommand;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandActiveConsumerChange;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe.SubType;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 import org.apache.pulsar.common.api.proto.PulsarApi.ProtocolVersion;
 import org.apache.pulsar.common.naming.DestinationName;
 import org.apache.pulsar.common.naming.NamespaceBundle;
@@ -561,6 +573,85 @@ public class PersistentDispatcherFailoverConsumerTest {
         Assert.assertEquals(getNextConsumer(dispatcher), null);
     }
 
+    @Test
+    public void testConsumerBytePermits() throws Exception {
+        PersistentTopic topic = new PersistentTopic(successTopicName, ledgerMock, brokerService);
+        PersistentDispatcherMultipleConsumers dispatcher = new PersistentDispatcherMultipleConsumers(topic, cursorMock);
+        PersistentSubscription subscription = mock(PersistentSubscription.class);
+        Consumer consumer = new Consumer(subscription, SubType.Shared, successTopicName, 1, 0, "Cons1", 5000,
+                serverCnx, "appId", Collections.emptyMap(), false /* read compacted */);
+        consumer.flowPermits(10);
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            entries.add(createEntry(i, 100));
+        }
+        final int entrySize = entries.get(0).getLength();
+
+        // Without byte permits, only the message permits are considered
+        assertTrue(consumer.hasAvailableBytePermits());
+        assertEquals(-1, consumer.getAvailableBytePermits());
+        assertEquals(3, consumer.getEntriesWithinBytePermits(entries, 3));
+        assertTrue(dispatcher.isConsumerAvailable(consumer));
+
+        // A flow with only byte permits still triggers the dispatcher
+        consumer.flowPermits(0, entrySize + entrySize / 2);
+        verify(subscription).consumerFlow(consumer, 0);
+        assertEquals(entrySize + entrySize / 2, consumer.getAvailableBytePermits());
+        // The entry going over the byte permits is still dispatched
+        assertEquals(2, consumer.getEntriesWithinBytePermits(entries, 3));
+        assertEquals(1, consumer.getEntriesWithinBytePermits(entries, 1));
+        assertTrue(dispatcher.isConsumerAvailable(consumer));
+
+        // Sending the 2 entries consumes their size from the byte permits
+        consumer.updatePermitsAndPendingAcks(new ArrayList<>(entries.subList(0, 2)), new SendMessageInfo());
+        assertEquals(8, consumer.getAvailablePermits());
+        assertEquals(0, consumer.getAvailableBytePermits());
+        assertFalse(consumer.hasAvailableBytePermits());
+        assertEquals(0, consumer.getEntriesWithinBytePermits(entries, 3));
+        assertFalse(dispatcher.isConsumerAvailable(consumer));
+
+        // The bytes sent over the byte permits are deducted from the next flow
+        consumer.flowPermits(0, entrySize);
+        assertEquals(entrySize / 2, consumer.getAvailableBytePermits());
+        assertEquals(1, consumer.getEntriesWithinBytePermits(entries, 3));
+        assertTrue(dispatcher.isConsumerAvailable(consumer));
+        entries.forEach(Entry::release);
+    }
+
+    @Test
+    public void testMultipleDispatcherConcurrentFlow() throws Exception {
+        PersistentTopic topic = new PersistentTopic(successTopicName, ledgerMock, brokerService);
+        PersistentDispatcherMultipleConsumers dispatcher = new PersistentDispatcherMultipleConsumers(topic, cursorMock);
+        Consumer consumer = createConsumer(0, 0, false, 1);
+        dispatcher.addConsumer(consumer);
+
+        // The flow requests received from multiple threads are serialized on the dispatcher thread
+        final int numThreads = 4;
+        final int flowsPerThread = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch flowsSent = new CountDownLatch(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            executor.submit(() -> {
+                for (int j = 0; j < flowsPerThread; j++) {
+                    dispatcher.consumerFlow(consumer, 1);
+                }
+                flowsSent.countDown();
+            });
+        }
+        assertTrue(flowsSent.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        // Wait for the events queued before this one to be processed
+        CountDownLatch flowsProcessed = new CountDownLatch(1);
+        brokerService.getDispatcherOrderedExecutor().submitOrdered(dispatcher.getName(),
+                safeRun(flowsProcessed::countDown));
+        assertTrue(flowsProcessed.await(10, TimeUnit.SECONDS));
+
+        Field field = PersistentDispatcherMultipleConsumers.class.getDeclaredField("totalAvailablePermits");
+        field.setAccessible(true);
+        assertEquals(numThreads * flowsPerThread, field.getInt(dispatcher));
+    }
+
     private Consumer getNextConsumer(PersistentDispatcherMultipleConsumers dispatcher) throws Exception {
         
         Consumer consumer = dispatcher.getNextConsumer();
@@ -575,6 +666,23 @@ public class PersistentDispatcherFailoverConsumerTest {
         return null;
     }
 
+    private static Entry createEntry(long entryId, int payloadSize) {
+        MessageMetadata.Builder builder = MessageMetadata.newBuilder();
+        builder.setProducerName("producer");
+        builder.setSequenceId(entryId);
+        builder.setPublishTime(System.currentTimeMillis());
+        MessageMetadata metadata = builder.build();
+
+        ByteBuf payload = Unpooled.wrappedBuffer(new byte[payloadSize]);
+        ByteBuf data = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata, payload);
+        Entry entry = EntryImpl.create(1, entryId, data);
+        data.release();
+        payload.release();
+        builder.recycle();
+        metadata.recycle();
+        return entry;
+    }
+
     private Consumer createConsumer(int priority, int permit, boolean blocked, int id) throws Exception {
         Consumer consumer =
                 new Consumer(null, SubType.Shared, null, id, priority, ""+id, 5000,
@@ -77,7 +77,7 @@ import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe.SubType;
 import org.apache.pulsar.common.naming.DestinationName;
 import org.apache.pulsar.common.policies.data.RetentionPolicies;
 import org.apache.pulsar.common.stats.Metrics;
-import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet;
+import org.apache.pulsar.common.util.collections.ConcurrentSortedLongPairSet;
 import org.apache.pulsar.policies.data.loadbalancer.NamespaceBundleStats;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -1274,7 +1274,7 @@ public class PersistentTopicE2ETest extends BrokerTestBase {
                 .getDispatcher();
         Field replayMap = PersistentDispatcherMultipleConsumers.class.getDeclaredField("messagesToReplay");
         replayMap.setAccessible(true);
-        ConcurrentLongPairSet messagesToReplay = new ConcurrentLongPairSet(64, 1);
+        ConcurrentSortedLongPairSet messagesToReplay = new ConcurrentSortedLongPairSet();
 
         assertNotNull(subRef);
 
@@ -1305,6 +1305,8 @@ public class PersistentTopicE2ETest extends BrokerTestBase {
         replayMap.set(dispatcher, messagesToReplay);
         // (a) redelivery with all acked-message should clear messageReply bucket
         dispatcher.redeliverUnacknowledgedMessages(dispatcher.getConsumers().get(0));
+        // the redelivery is processed on the dispatcher thread
+        retryStrategically((test) -> messagesToReplay.isEmpty(), 5, 100);
         assertEquals(messagesToReplay.size(), 0);
 
         // (b) fill messageReplyBucket with already acked entry again: and try to publish new msg and read it
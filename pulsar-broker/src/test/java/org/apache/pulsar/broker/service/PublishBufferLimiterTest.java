@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+public class PublishBufferLimiterTest {
+
+    @Test
+    public void testDisabled() {
+        assertFalse(new PublishBufferLimiter(0).isEnabled());
+    }
+
+    @Test
+    public void testPauseLargestConnections() {
+        PublishBufferLimiter limiter = new PublishBufferLimiter(1000);
+        ServerCnx cnx1 = mockCnx(600);
+        ServerCnx cnx2 = mockCnx(300);
+        ServerCnx cnx3 = mockCnx(200);
+
+        limiter.acquire(cnx1, 600, true);
+        limiter.acquire(cnx2, 300, true);
+        assertEquals(limiter.getCurrentPublishBufferBytes(), 900);
+        assertEquals(limiter.getPausedConnections(), 0);
+
+        // Only the largest connection is paused: once its requests are completed the usage is back to half of the
+        // budget
+        limiter.acquire(cnx3, 200, true);
+        assertEquals(limiter.getPausedConnections(), 1);
+        verify(cnx1).disableAutoReadOnPublishBufferLimit();
+        verify(cnx2, never()).disableAutoReadOnPublishBufferLimit();
+        verify(cnx3, never()).disableAutoReadOnPublishBufferLimit();
+
+        limiter.release(cnx2, 300, true);
+        verify(cnx1, never()).enableAutoReadOnPublishBufferLimit();
+
+        when(cnx1.getPendingPublishBytes()).thenReturn(0L);
+        limiter.release(cnx1, 600, true);
+        assertEquals(limiter.getCurrentPublishBufferBytes(), 200);
+        assertEquals(limiter.getPausedConnections(), 0);
+        assertEquals(limiter.getPausedConnectionsCount(), 1);
+        verify(cnx1).enableAutoReadOnPublishBufferLimit();
+    }
+
+    @Test
+    public void testResumeDrainedConnection() {
+        PublishBufferLimiter limiter = new PublishBufferLimiter(1000);
+        ServerCnx cnx1 = mockCnx(400);
+        ServerCnx cnx2 = mockCnx(450);
+        ServerCnx cnx3 = mockCnx(300);
+
+        limiter.acquire(cnx1, 400, true);
+        limiter.acquire(cnx2, 450, true);
+        limiter.acquire(cnx3, 300, true);
+        assertEquals(limiter.getPausedConnections(), 2);
+        verify(cnx3, never()).disableAutoReadOnPublishBufferLimit();
+
+        // The usage is still above the resume threshold, but the drained connection doesn't need to wait for the others
+        when(cnx1.getPendingPublishBytes()).thenReturn(0L);
+        limiter.release(cnx1, 400, true);
+        assertEquals(limiter.getPausedConnections(), 1);
+        verify(cnx1).enableAutoReadOnPublishBufferLimit();
+        verify(cnx2, never()).enableAutoReadOnPublishBufferLimit();
+
+        limiter.connectionClosed(cnx2);
+        assertEquals(limiter.getPausedConnections(), 0);
+    }
+
+    @Test
+    public void testScanRateLimitedWhilePaused() {
+        PublishBufferLimiter limiter = new PublishBufferLimiter(1000, TimeUnit.HOURS.toMillis(1));
+        ServerCnx cnx1 = mockCnx(600);
+        ServerCnx cnx2 = mockCnx(500);
+        ServerCnx cnx3 = mockCnx(300);
+
+        limiter.acquire(cnx1, 600, true);
+        limiter.acquire(cnx2, 500, true);
+        assertEquals(limiter.getPausedConnections(), 1);
+        verify(cnx1).disableAutoReadOnPublishBufferLimit();
+
+        // The pause already in effect is given time to drain the budget before the connections are scanned again
+        limiter.acquire(cnx3, 300, true);
+        assertEquals(limiter.getPausedConnections(), 1);
+        verify(cnx2, never()).disableAutoReadOnPublishBufferLimit();
+        verify(cnx3, never()).getPendingPublishBytes();
+    }
+
+    private static ServerCnx mockCnx(long pendingPublishBytes) {
+        ServerCnx cnx = mock(ServerCnx.class);
+        when(cnx.getPendingPublishBytes()).thenReturn(pendingPublishBytes);
+        return cnx;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.common.policies.data.Policies;
+import org.apache.pulsar.common.policies.data.PublishRate;
+import org.testng.annotations.Test;
+
+public class PublishRateLimiterTest {
+
+    private final AtomicLong time = new AtomicLong(0);
+
+    @Test
+    public void testDisabled() {
+        PublishRateLimiter limiter = new PublishRateLimiter(new PublishRate(), time::get);
+        assertFalse(limiter.isPublishRateLimitEnabled());
+        assertFalse(limiter.incrementPublishCount(1000, 1024 * 1024));
+        assertFalse(limiter.isPublishRateExceeded());
+        assertEquals(limiter.getPublishRateExceededCount(), 0);
+    }
+
+    @Test
+    public void testMessageRateExceeded() {
+        PublishRateLimiter limiter = new PublishRateLimiter(new PublishRate(10, -1), time::get);
+        assertFalse(limiter.incrementPublishCount(5, 100));
+        assertFalse(limiter.incrementPublishCount(5, 100));
+        assertFalse(limiter.isPublishRateExceeded());
+
+        assertTrue(limiter.incrementPublishCount(1, 100));
+        assertTrue(limiter.isPublishRateExceeded());
+        assertEquals(limiter.getPublishRateExceededCount(), 1);
+
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(400));
+        assertEquals(limiter.getPeriodRemainingNanos(), TimeUnit.MILLISECONDS.toNanos(600));
+        assertTrue(limiter.isPublishRateExceeded());
+
+        // The counters are reset with the new period
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        assertFalse(limiter.isPublishRateExceeded());
+        assertFalse(limiter.incrementPublishCount(10, 100));
+        assertEquals(limiter.getPublishRateExceededCount(), 1);
+    }
+
+    @Test
+    public void testByteRateExceeded() {
+        PublishRateLimiter limiter = new PublishRateLimiter(new PublishRate(-1, 1024), time::get);
+        assertFalse(limiter.incrementPublishCount(100, 1000));
+        assertTrue(limiter.incrementPublishCount(1, 100));
+
+        // Disabling the rate stops the throttling right away
+        limiter.update(new PublishRate(-1, -1));
+        assertFalse(limiter.isPublishRateExceeded());
+        assertFalse(limiter.incrementPublishCount(1, 100));
+    }
+
+    @Test
+    public void testGetPublishRate() {
+        ServiceConfiguration config = new ServiceConfiguration();
+        config.setClusterName("use");
+        config.setPublishThrottlingRatePerTopicInMsg(100);
+
+        // Broker default
+        Policies policies = new Policies();
+        assertEquals(PublishRateLimiter.getPublishRate(config, policies), new PublishRate(100, 0));
+        assertEquals(PublishRateLimiter.getPublishRate(config, null), new PublishRate(100, 0));
+
+        // Namespace policies of the local cluster
+        policies.clusterPublishRate.put("usw", new PublishRate(10, 10));
+        assertEquals(PublishRateLimiter.getPublishRate(config, policies), new PublishRate(100, 0));
+        policies.clusterPublishRate.put("use", new PublishRate(-1, 1024));
+        assertEquals(PublishRateLimiter.getPublishRate(config, policies), new PublishRate(-1, 1024));
+        policies.clusterPublishRate.put("use", new PublishRate(-1, -1));
+        assertEquals(PublishRateLimiter.getPublishRate(config, policies), new PublishRate(100, 0));
+    }
+}
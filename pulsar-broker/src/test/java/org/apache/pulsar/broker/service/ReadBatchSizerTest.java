@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.testng.Assert.assertEquals;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.testng.annotations.Test;
+
+public class ReadBatchSizerTest {
+
+    @Test
+    public void testLimitedByPermits() {
+        ReadBatchSizer sizer = new ReadBatchSizer(100, 0);
+        assertEquals(sizer.getEntriesToRead(10), 10);
+        assertEquals(sizer.getEntriesToRead(1000), 100);
+        assertEquals(sizer.getLastEntriesToRead(), 100);
+    }
+
+    @Test
+    public void testLimitedByBytes() {
+        ReadBatchSizer sizer = new ReadBatchSizer(100, 10 * 1024);
+
+        // The entry size is not known before the first read, a single entry is read
+        assertEquals(sizer.getEntriesToRead(1000), 1);
+
+        sizer.readCompleted(entries(10, 1024));
+        assertEquals(sizer.getAvgEntrySize(), 1024);
+        assertEquals(sizer.getEntriesToRead(1000), 10);
+        assertEquals(sizer.getLastBytesToRead(), 10 * 1024);
+
+        // Entries bigger than the budget are still read one at a time
+        sizer = new ReadBatchSizer(100, 1024);
+        sizer.readCompleted(entries(1, 100 * 1024));
+        assertEquals(sizer.getEntriesToRead(1000), 1);
+    }
+
+    @Test
+    public void testLimitedByBytePermits() {
+        ReadBatchSizer sizer = new ReadBatchSizer(100, 0);
+        sizer.readCompleted(entries(10, 1024));
+        assertEquals(sizer.getEntriesToRead(1000, -1), 100);
+        assertEquals(sizer.getEntriesToRead(1000, 5 * 1024), 5);
+        assertEquals(sizer.getEntriesToRead(1000, 100), 1);
+
+        // The smallest of the consumer byte permits and of the read budget is used
+        sizer = new ReadBatchSizer(100, 10 * 1024);
+        sizer.readCompleted(entries(10, 1024));
+        assertEquals(sizer.getEntriesToRead(1000, 5 * 1024), 5);
+        assertEquals(sizer.getEntriesToRead(1000, 50 * 1024), 10);
+    }
+
+    @Test
+    public void testColdStart() {
+        // Without a byte budget, the entry size doesn't matter
+        ReadBatchSizer sizer = new ReadBatchSizer(100, 0);
+        assertEquals(sizer.getEntriesToRead(1000), 100);
+
+        // With a byte budget, a single entry is read until the entry size is known
+        sizer = new ReadBatchSizer(100, 10 * 1024 * 1024);
+        assertEquals(sizer.getEntriesToRead(1000), 1);
+        assertEquals(sizer.getEntriesToRead(1000, 1024), 1);
+        sizer.readCompleted(Lists.newArrayList());
+        assertEquals(sizer.getEntriesToRead(1000), 1);
+        sizer.readCompleted(entries(1, 5 * 1024 * 1024));
+        assertEquals(sizer.getEntriesToRead(1000), 2);
+
+        sizer = new ReadBatchSizer(100, 0);
+        assertEquals(sizer.getEntriesToRead(1000, 10 * 1024), 1);
+        sizer.readCompleted(entries(1, 1024));
+        assertEquals(sizer.getEntriesToRead(1000, 10 * 1024), 10);
+    }
+
+    @Test
+    public void testSwitchToBiggerEntries() {
+        ReadBatchSizer sizer = new ReadBatchSizer(100, 10 * 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            sizer.readCompleted(entries(10, 1024));
+        }
+        assertEquals(sizer.getEntriesToRead(1000), 100);
+
+        // A single big entry in a read is enough to size the next read with it
+        List<Entry> entries = entries(9, 1024);
+        entries.add(EntryImpl.create(1, 9, new byte[5 * 1024 * 1024]));
+        sizer.readCompleted(entries);
+        assertEquals(sizer.getEntriesToRead(1000), 2);
+        assertEquals(sizer.getLastBytesToRead(), 10 * 1024 * 1024);
+
+        // Once the entries are all big, the reads stay within the budget
+        sizer.readCompleted(entries(2, 5 * 1024 * 1024));
+        assertEquals(sizer.getAvgEntrySize(), 5 * 1024 * 1024);
+        assertEquals(sizer.getEntriesToRead(1000), 2);
+
+        // Going back to small entries, the reads grow as the average goes down
+        sizer.readCompleted(entries(2, 1024));
+        assertEquals(sizer.getEntriesToRead(1000), 2);
+        for (int i = 0; i < 100; i++) {
+            sizer.readCompleted(entries(10, 1024));
+        }
+        assertEquals(sizer.getEntriesToRead(1000), 100);
+    }
+
+    @Test
+    public void testAverageEntrySize() {
+        ReadBatchSizer sizer = new ReadBatchSizer(100, 1024 * 1024);
+        sizer.readCompleted(entries(10, 1000));
+        assertEquals(sizer.getAvgEntrySize(), 1000);
+
+        // The average follows bigger entries right away, and moves slowly towards smaller entries
+        sizer.readCompleted(entries(10, 2000));
+        assertEquals(sizer.getAvgEntrySize(), 2000);
+        sizer.readCompleted(entries(10, 1000));
+        assertEquals(sizer.getAvgEntrySize(), 1750);
+        for (int i = 0; i < 100; i++) {
+            sizer.readCompleted(entries(10, 2000));
+        }
+        assertEquals(sizer.getAvgEntrySize(), 2000);
+
+        // Empty reads don't change the average
+        sizer.readCompleted(Lists.newArrayList());
+        assertEquals(sizer.getAvgEntrySize(), 2000);
+    }
+
+    @Test
+    public void testBatchSizeAdaptation() {
+        ReadBatchSizer sizer = new ReadBatchSizer(100, 0);
+
+        sizer.readFailed();
+        assertEquals(sizer.getEntriesToRead(1000), 1);
+        sizer.readCompleted(entries(1, 10));
+        assertEquals(sizer.getEntriesToRead(1000), 2);
+        sizer.readCompleted(entries(2, 10));
+        assertEquals(sizer.getEntriesToRead(1000), 4);
+
+        for (int i = 0; i < 10; i++) {
+            sizer.readCompleted(entries(1, 10));
+        }
+        assertEquals(sizer.getEntriesToRead(1000), 100);
+
+        sizer.entriesNotDispatched();
+        assertEquals(sizer.getEntriesToRead(1000), 50);
+        for (int i = 0; i < 10; i++) {
+            sizer.entriesNotDispatched();
+        }
+        assertEquals(sizer.getEntriesToRead(1000), 1);
+
+        sizer.setReadBatchSize(1000);
+        assertEquals(sizer.getEntriesToRead(1000), 100);
+    }
+
+    private static List<Entry> entries(int count, int size) {
+        List<Entry> entries = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            entries.add(EntryImpl.create(1, i, new byte[size]));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.broker.service.persistent.PersistentReplicator;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.checksum.utils.Crc32cChecksum;
+import org.apache.pulsar.client.api.CompressionType;
+import org.apache.pulsar.client.api.MessageBuilder;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerConfiguration;
+import org.apache.pulsar.client.api.PulsarClient;
+import org.apache.pulsar.client.api.RawMessage;
+import org.apache.pulsar.client.api.RawReader;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.testng.collections.Lists;
+
+/**
+ * Verifies the replication of the stored entries as they are, with replicationRawEntriesEnabled.
+ */
+public class ReplicatorRawEntriesTest extends ReplicatorTestBase {
+
+    @Override
+    @BeforeClass(timeOut = 30000)
+    void setup() throws Exception {
+        config1.setReplicationRawEntriesEnabled(true);
+        config2.setReplicationRawEntriesEnabled(true);
+        config3.setReplicationRawEntriesEnabled(true);
+        super.setup();
+    }
+
+    @Override
+    @AfterClass(timeOut = 30000)
+    void shutdown() throws Exception {
+        super.shutdown();
+    }
+
+    @Test(timeOut = 30000)
+    public void testEntriesReplicatedAsStored() throws Exception {
+        final String topicName = "persistent://pulsar/global/ns1/rawEntriesReplication";
+
+        PulsarClient c1 = PulsarClient.create(url1.toString());
+        ProducerConfiguration producerConf = new ProducerConfiguration();
+        producerConf.setCompressionType(CompressionType.LZ4);
+        producerConf.setBatchingEnabled(true);
+        producerConf.setBatchingMaxPublishDelay(1, TimeUnit.SECONDS);
+        producerConf.setBatchingMaxMessages(5);
+        Producer p1 = c1.createProducer(topicName, producerConf);
+
+        List<CompletableFuture<MessageId>> futures = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            futures.add(p1.sendAsync(MessageBuilder.create().setContent(("test-" + i).getBytes())
+                    .setProperty("key", "value-" + i).build()));
+        }
+        FutureUtil.waitForAll(futures).get();
+
+        RawReader reader1 = RawReader.create(c1, topicName, "sub").get();
+        PulsarClient c2 = PulsarClient.create(url2.toString());
+        RawReader reader2 = RawReader.create(c2, topicName, "sub").get();
+
+        RawMessage msg1 = reader1.readNextAsync().get();
+        RawMessage msg2 = reader2.readNextAsync().get();
+        ByteBuf b1 = msg1.getHeadersAndPayload();
+        ByteBuf b2 = msg2.getHeadersAndPayload();
+
+        // The checksum was computed again over the metadata including replicated_from
+        assertTrue(Commands.hasChecksum(b2));
+        int parsedChecksum = Commands.readChecksum(b2).intValue();
+        assertEquals(parsedChecksum, Crc32cChecksum.computeChecksum(b2));
+
+        MessageMetadata metadata1 = Commands.parseMessageMetadata(b1);
+        MessageMetadata metadata2 = Commands.parseMessageMetadata(b2);
+        assertFalse(metadata1.hasReplicatedFrom());
+        assertEquals(metadata2.getReplicatedFrom(), "r1");
+        assertEquals(metadata2.getProducerName(), metadata1.getProducerName());
+        assertEquals(metadata2.getSequenceId(), metadata1.getSequenceId());
+        assertEquals(metadata2.getPublishTime(), metadata1.getPublishTime());
+        assertEquals(metadata2.getNumMessagesInBatch(), metadata1.getNumMessagesInBatch());
+        assertEquals(metadata2.getCompression(), metadata1.getCompression());
+        assertEquals(metadata2.getUncompressedSize(), metadata1.getUncompressedSize());
+
+        // The compressed batch, including the properties of its messages, is forwarded byte for byte
+        assertEquals(b2, b1);
+
+        metadata1.recycle();
+        metadata2.recycle();
+        msg1.close();
+        msg2.close();
+        p1.close();
+        reader1.closeAsync().get();
+        reader2.closeAsync().get();
+        c1.close();
+        c2.close();
+    }
+
+    @Test(timeOut = 30000)
+    public void testFilteredEntriesNotReplicated() throws Exception {
+        final String topicName = "persistent://pulsar/global/ns1/rawEntriesFiltered";
+
+        PulsarClient c1 = PulsarClient.create(url1.toString());
+        Producer p1 = c1.createProducer(topicName);
+        PulsarClient c2 = PulsarClient.create(url2.toString());
+        RawReader reader2 = RawReader.create(c2, topicName, "sub").get();
+
+        // Not replicated to r2
+        p1.send(MessageBuilder.create().setContent("local".getBytes())
+                .setReplicationClusters(Lists.newArrayList("r1")).build());
+
+        // Expired before the replicator could read it
+        PersistentTopic topic = (PersistentTopic) pulsar1.getBrokerService().getTopicReference(topicName);
+        PersistentReplicator replicator = (PersistentReplicator) topic.getPersistentReplicator("r2");
+        replicator.disconnect().get();
+        p1.send("expired".getBytes());
+        replicator.updateMessageTTL(2);
+        Thread.sleep(3000);
+
+        p1.send("replicated".getBytes());
+        replicator.startProducer();
+
+        RawMessage msg = reader2.readNextAsync().get();
+        ByteBuf b = msg.getHeadersAndPayload();
+        MessageMetadata metadata = Commands.parseMessageMetadata(b);
+        assertEquals(metadata.getReplicatedFrom(), "r1");
+        byte[] payload = new byte[b.readableBytes()];
+        b.readBytes(payload);
+        assertEquals(new String(payload), "replicated");
+
+        metadata.recycle();
+        msg.close();
+        p1.close();
+        reader2.closeAsync().get();
+        c1.close();
+        c2.close();
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+public class DelayedDeliveryTrackerTest {
+
+    private PersistentDispatcherMultipleConsumers dispatcher;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> future;
+    private AtomicLong clockTime;
+    private Clock clock;
+    private final List<Runnable> scheduledTasks = Lists.newArrayList();
+
+    @BeforeMethod
+    public void setup() {
+        dispatcher = mock(PersistentDispatcherMultipleConsumers.class);
+        when(dispatcher.getName()).thenReturn("persistent://prop/ns/topic / sub");
+
+        future = mock(ScheduledFuture.class);
+        executor = mock(ScheduledExecutorService.class);
+        scheduledTasks.clear();
+        when(executor.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).then(invocation -> {
+            scheduledTasks.add((Runnable) invocation.getArguments()[0]);
+            return future;
+        });
+
+        clockTime = new AtomicLong(1000);
+        clock = mock(Clock.class);
+        when(clock.millis()).then(invocation -> clockTime.get());
+    }
+
+    @Test
+    public void testDeliveryOrder() {
+        DelayedDeliveryTracker tracker = new DelayedDeliveryTracker(dispatcher, executor, 1, clock);
+
+        // Already due
+        assertFalse(tracker.addMessage(1, 1, 1000));
+
+        assertTrue(tracker.addMessage(2, 2, 1020));
+        assertTrue(tracker.addMessage(1, 3, 1010));
+        assertTrue(tracker.addMessage(3, 1, 1010));
+        assertTrue(tracker.addMessage(1, 2, 1030));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 4);
+        assertFalse(tracker.hasMessageAvailable());
+
+        clockTime.set(1020);
+        assertTrue(tracker.hasMessageAvailable());
+
+        List<PositionImpl> positions = Lists.newArrayList();
+        assertEquals(tracker.getScheduledMessages(10, (l, e) -> positions.add(new PositionImpl(l, e))), 3);
+        assertEquals(positions,
+                Lists.newArrayList(new PositionImpl(1, 3), new PositionImpl(3, 1), new PositionImpl(2, 2)));
+        assertFalse(tracker.hasMessageAvailable());
+        assertEquals(tracker.getNumberOfDelayedMessages(), 1);
+
+        // Limit the number of messages returned
+        positions.clear();
+        assertTrue(tracker.addMessage(1, 4, 1500));
+        clockTime.set(2000);
+        assertEquals(tracker.getScheduledMessages(1, (l, e) -> positions.add(new PositionImpl(l, e))), 1);
+        assertEquals(positions, Lists.newArrayList(new PositionImpl(1, 2)));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 1);
+
+        tracker.close();
+        assertEquals(tracker.getNumberOfDelayedMessages(), 0);
+    }
+
+    @Test
+    public void testTimer() {
+        DelayedDeliveryTracker tracker = new DelayedDeliveryTracker(dispatcher, executor, 10, clock);
+
+        tracker.addMessage(1, 1, 1100);
+        verify(executor).schedule(any(Runnable.class), eq(100L), eq(TimeUnit.MILLISECONDS));
+
+        // Later messages, or earlier within a tick, reuse the same timer
+        tracker.addMessage(1, 2, 1200);
+        tracker.addMessage(1, 3, 1095);
+        assertEquals(scheduledTasks.size(), 1);
+
+        // An earlier message reschedules the timer
+        tracker.addMessage(1, 4, 1050);
+        verify(future).cancel(false);
+        verify(executor).schedule(any(Runnable.class), eq(50L), eq(TimeUnit.MILLISECONDS));
+        assertEquals(scheduledTasks.size(), 2);
+
+        // The timer triggers a read on the dispatcher
+        clockTime.set(1050);
+        scheduledTasks.get(1).run();
+        verify(dispatcher).readMoreEntries();
+
+        // The dispatcher picks the due messages and the timer is scheduled for the next ones
+        assertEquals(tracker.getScheduledMessages(10, (l, e) -> {}), 1);
+        verify(executor).schedule(any(Runnable.class), eq(45L), eq(TimeUnit.MILLISECONDS));
+
+        tracker.clear();
+        verify(future, times(2)).cancel(false);
+    }
+
+    @Test
+    public void testTimerWithoutDueMessages() {
+        DelayedDeliveryTracker tracker = new DelayedDeliveryTracker(dispatcher, executor, 1, clock);
+        tracker.addMessage(1, 1, 1100);
+        assertEquals(scheduledTasks.size(), 1);
+
+        // Fired before the clock reached the delivery time
+        clockTime.set(1090);
+        scheduledTasks.get(0).run();
+        verify(dispatcher, never()).readMoreEntries();
+        verify(executor).schedule(any(Runnable.class), eq(10L), eq(TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.apache.pulsar.broker.service.persistent.MessageDeduplication.SNAPSHOT_LEDGER_PROPERTY;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.pulsar.broker.service.BrokerTestBase;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ */
+@Test
+public class MessageDeduplicationRecoveryTest extends BrokerTestBase {
+    @BeforeClass
+    @Override
+    protected void setup() throws Exception {
+        conf.setBrokerDeduplicationEnabled(true);
+        conf.setBrokerDeduplicationEntriesInterval(10);
+        conf.setBrokerDeduplicationSnapshotLedgerMinProducers(2);
+        super.baseSetup();
+    }
+
+    @AfterClass
+    @Override
+    protected void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    @Test(timeOut = 60000)
+    public void testSnapshotSwitchBetweenPropertiesAndLedger() throws Exception {
+        final String topicName = "persistent://prop/use/ns-abc/testSnapshotSwitch";
+
+        // A single producer is stored in the cursor properties
+        Producer producer1 = createProducer(topicName, "producer-1");
+        publish(producer1, 10);
+        ManagedCursor cursor = getDedupCursor(topicName);
+        retryStrategically(test -> Long.valueOf(9).equals(cursor.getProperties().get("producer-1")), 10, 200);
+        assertEquals(cursor.getProperties(), ImmutableMap.of("producer-1", 9L));
+
+        // With a second producer, the snapshot is moved to a dedicated ledger
+        Producer producer2 = createProducer(topicName, "producer-2");
+        publish(producer2, 10);
+        retryStrategically(test -> cursor.getProperties().containsKey(SNAPSHOT_LEDGER_PROPERTY), 10, 200);
+        Map<String, Long> properties = cursor.getProperties();
+        assertEquals(properties.keySet(), Collections.singleton(SNAPSHOT_LEDGER_PROPERTY));
+        long snapshotLedgerId = properties.get(SNAPSHOT_LEDGER_PROPERTY);
+        assertTrue(mockBookKeeper.getLedgers().contains(snapshotLedgerId));
+
+        producer1.close();
+        producer2.close();
+
+        // The sequence ids are recovered from the snapshot ledger
+        restartBroker();
+        producer1 = createProducer(topicName, "producer-1");
+        producer2 = createProducer(topicName, "producer-2");
+        assertEquals(producer1.getLastSequenceId(), 9L);
+        assertEquals(producer2.getLastSequenceId(), 9L);
+
+        // Once producer-2 is purged, the snapshot is back in the cursor properties and the ledger is deleted
+        producer2.close();
+        conf.setBrokerDeduplicationProducerInactivityTimeoutMinutes(0);
+        try {
+            Thread.sleep(ASYNC_EVENT_COMPLETION_WAIT);
+            getTopic(topicName).checkMessageDeduplicationInfo();
+        } finally {
+            conf.setBrokerDeduplicationProducerInactivityTimeoutMinutes(360);
+        }
+
+        publish(producer1, 10);
+        ManagedCursor recoveredCursor = getDedupCursor(topicName);
+        retryStrategically(test -> !recoveredCursor.getProperties().containsKey(SNAPSHOT_LEDGER_PROPERTY), 10, 200);
+        assertEquals(recoveredCursor.getProperties(), ImmutableMap.of("producer-1", 19L));
+        retryStrategically(test -> !mockBookKeeper.getLedgers().contains(snapshotLedgerId), 10, 200);
+        assertFalse(mockBookKeeper.getLedgers().contains(snapshotLedgerId));
+        producer1.close();
+
+        // The sequence ids are recovered from the cursor properties
+        restartBroker();
+        producer1 = createProducer(topicName, "producer-1");
+        assertEquals(producer1.getLastSequenceId(), 19L);
+        producer1.close();
+    }
+
+    private Producer createProducer(String topicName, String producerName) throws Exception {
+        ProducerConfiguration producerConf = new ProducerConfiguration();
+        producerConf.setProducerName(producerName);
+        return pulsarClient.createProducer(topicName, producerConf);
+    }
+
+    private static void publish(Producer producer, int numMessages) throws Exception {
+        for (int i = 0; i < numMessages; i++) {
+            producer.send(("my-message-" + i).getBytes());
+        }
+    }
+
+    private PersistentTopic getTopic(String topicName) throws Exception {
+        return (PersistentTopic) pulsar.getBrokerService().getTopicReference(topicName);
+    }
+
+    private ManagedCursor getDedupCursor(String topicName) throws Exception {
+        ManagedCursor dedupCursor = null;
+        for (ManagedCursor cursor : getTopic(topicName).getManagedLedger().getCursors()) {
+            if (cursor.getName().equals(PersistentTopic.DEDUPLICATION_CURSOR_NAME)) {
+                dedupCursor = cursor;
+            }
+        }
+        assertNotNull(dedupCursor);
+        return dedupCursor;
+    }
+}
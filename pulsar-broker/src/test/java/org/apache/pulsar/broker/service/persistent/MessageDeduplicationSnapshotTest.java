@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.testng.annotations.Test;
+
+public class MessageDeduplicationSnapshotTest {
+
+    @Test
+    public void testSerialization() throws Exception {
+        SortedMap<String, Long> sequenceIds = new TreeMap<>();
+        sequenceIds.put("standalone-0-1", 0L);
+        sequenceIds.put("standalone-0-10", -1L);
+        sequenceIds.put("standalone-0-2", Long.MAX_VALUE);
+        sequenceIds.put("other-producer", 12345L);
+        sequenceIds.put("producer-\u00e9\u4e2d", Long.MIN_VALUE);
+        sequenceIds.put("", 7L);
+
+        assertEquals(roundTrip(sequenceIds), sequenceIds);
+        assertEquals(roundTrip(new TreeMap<>()), new TreeMap<>());
+    }
+
+    @Test
+    public void testCompactSize() throws Exception {
+        SortedMap<String, Long> sequenceIds = new TreeMap<>();
+        for (int i = 0; i < 10000; i++) {
+            sequenceIds.put("pulsar-cluster-1-" + i, (long) i);
+        }
+
+        ByteBuf buf = MessageDeduplicationSnapshot.serialize(sequenceIds);
+        try {
+            // Only the suffix that differs from the previous producer name is stored
+            assertTrue(buf.readableBytes() < 10000 * 10, "size: " + buf.readableBytes());
+        } finally {
+            buf.release();
+        }
+        assertEquals(roundTrip(sequenceIds), sequenceIds);
+    }
+
+    @Test
+    public void testUnsupportedVersion() {
+        SortedMap<String, Long> sequenceIds = new TreeMap<>();
+        sequenceIds.put("producer", 1L);
+        ByteBuf buf = MessageDeduplicationSnapshot.serialize(sequenceIds);
+        buf.setByte(0, MessageDeduplicationSnapshot.VERSION + 1);
+        try {
+            MessageDeduplicationSnapshot.deserialize(buf, (producerName, sequenceId) -> {
+            });
+            fail("Should have failed");
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static Map<String, Long> roundTrip(SortedMap<String, Long> sequenceIds) throws IOException {
+        ByteBuf buf = MessageDeduplicationSnapshot.serialize(sequenceIds);
+        try {
+            Map<String, Long> result = new TreeMap<>();
+            MessageDeduplicationSnapshot.deserialize(buf, result::put);
+            assertEquals(buf.readableBytes(), 0);
+            return result;
+        } finally {
+            buf.release();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.bookkeeper.client.AsyncCallback.DeleteCallback;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.cache.ConfigurationCacheService;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.broker.service.PulsarStats;
+import org.apache.pulsar.broker.service.persistent.MessageDeduplication.Status;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.Commands.ChecksumType;
+import org.apache.pulsar.common.api.proto.PulsarApi.KeyValue;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.policies.data.Policies;
+import org.apache.pulsar.common.util.protobuf.ByteBufCodedOutputStream;
+import org.apache.pulsar.zookeeper.ZooKeeperDataCache;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class MessageDeduplicationTest {
+
+    private PulsarService pulsar;
+    private BookKeeper bookKeeper;
+    private PersistentTopic topic;
+    private ManagedLedger managedLedger;
+    private ManagedCursor cursor;
+    private final List<ReadEntriesCallback> pendingReads = new ArrayList<>();
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        ServiceConfiguration conf = new ServiceConfiguration();
+        conf.setBrokerDeduplicationEnabled(true);
+        pulsar = mock(PulsarService.class);
+        doReturn(conf).when(pulsar).getConfiguration();
+
+        bookKeeper = mock(BookKeeper.class);
+        doReturn(bookKeeper).when(pulsar).getBookKeeperClient();
+
+        BrokerService brokerService = mock(BrokerService.class);
+        doReturn(mock(PulsarStats.class)).when(brokerService).getPulsarStats();
+        doReturn(brokerService).when(pulsar).getBrokerService();
+
+        // Read the next batches of entries in the same thread
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        }).when(executor).submit(any(Runnable.class));
+        doReturn(executor).when(pulsar).getExecutor();
+
+        ConfigurationCacheService configCacheService = mock(ConfigurationCacheService.class);
+        @SuppressWarnings("unchecked")
+        ZooKeeperDataCache<Policies> policiesCache = mock(ZooKeeperDataCache.class);
+        doReturn(CompletableFuture.completedFuture(Optional.empty())).when(policiesCache).getAsync(anyString());
+        doReturn(policiesCache).when(configCacheService).policiesCache();
+        doReturn(configCacheService).when(pulsar).getConfigurationCache();
+
+        topic = mock(PersistentTopic.class);
+        doReturn("persistent://prop/use/ns-abc/topic").when(topic).getName();
+
+        pendingReads.clear();
+        cursor = mock(ManagedCursor.class);
+        doReturn(PersistentTopic.DEDUPLICATION_CURSOR_NAME).when(cursor).getName();
+        doReturn(Collections.emptyMap()).when(cursor).getProperties();
+        doAnswer(invocation -> {
+            pendingReads.add((ReadEntriesCallback) invocation.getArguments()[1]);
+            return null;
+        }).when(cursor).asyncReadEntries(anyInt(), any(ReadEntriesCallback.class), any());
+
+        managedLedger = mock(ManagedLedger.class);
+        doReturn(Collections.singletonList(cursor)).when(managedLedger).getCursors();
+    }
+
+    @Test
+    public void testReplayInBackground() throws Exception {
+        doReturn(ImmutableMap.of("producer-1", 5L)).when(cursor).getProperties();
+        doReturn(true).doReturn(false).when(cursor).hasMoreEntries();
+
+        MessageDeduplication dedup = new MessageDeduplication(pulsar, topic, managedLedger);
+        CompletableFuture<Void> snapshotFuture = dedup.initialize();
+
+        // The topic load only waits for the snapshot, while the producers wait for the replay
+        assertTrue(snapshotFuture.isDone());
+        assertFalse(dedup.getRecoveryFuture().isDone());
+        assertEquals(dedup.getStatus(), Status.Recovering);
+        assertEquals(dedup.getLastPublishedSequenceId("producer-1"), 5L);
+        assertEquals(pendingReads.size(), 1);
+
+        pendingReads.get(0).readEntriesComplete(Lists.newArrayList(entry(1, "producer-1", 6)), null);
+        assertFalse(dedup.getRecoveryFuture().isDone());
+        assertEquals(pendingReads.size(), 2);
+
+        pendingReads.get(1).readEntriesComplete(Lists.newArrayList(entry(2, "producer-2", 0)), null);
+        assertTrue(dedup.getRecoveryFuture().isDone());
+        assertFalse(dedup.getRecoveryFuture().isCompletedExceptionally());
+        assertEquals(dedup.getStatus(), Status.Enabled);
+        assertEquals(dedup.getLastPublishedSequenceId("producer-1"), 6L);
+        assertEquals(dedup.getLastPublishedSequenceId("producer-2"), 0L);
+        assertEquals(dedup.getProducersCount(), 2);
+    }
+
+    @Test
+    public void testReplayEntryMetadata() throws Exception {
+        MessageDeduplication dedup = new MessageDeduplication(pulsar, topic, managedLedger);
+        dedup.initialize();
+        assertEquals(pendingReads.size(), 1);
+
+        // Entry with invalid metadata size, skipped without failing the replay
+        ByteBuf invalid = Unpooled.buffer();
+        invalid.writeInt(1000);
+        invalid.writeBytes("payload".getBytes());
+        Entry invalidEntry = EntryImpl.create(1, 3, invalid);
+        invalid.release();
+
+        pendingReads.get(0).readEntriesComplete(Lists.newArrayList(entry(1, "producer-1", 10),
+                reorderedEntry(2, "producer-2", 20), invalidEntry), null);
+
+        assertEquals(dedup.getStatus(), Status.Enabled);
+        assertEquals(dedup.getLastPublishedSequenceId("producer-1"), 10L);
+        assertEquals(dedup.getLastPublishedSequenceId("producer-2"), 20L);
+        assertEquals(dedup.getProducersCount(), 2);
+    }
+
+    @Test
+    public void testPendingSnapshotLedgerDeletedOnRecovery() throws Exception {
+        doReturn(ImmutableMap.of("producer-1", 3L, MessageDeduplication.SNAPSHOT_PENDING_LEDGER_PROPERTY, 7L))
+                .when(cursor).getProperties();
+
+        MessageDeduplication dedup = new MessageDeduplication(pulsar, topic, managedLedger);
+        dedup.initialize();
+        pendingReads.get(0).readEntriesComplete(Lists.newArrayList(), null);
+
+        verify(bookKeeper).asyncDeleteLedger(eq(7L), any(DeleteCallback.class), any());
+        assertEquals(dedup.getStatus(), Status.Enabled);
+        assertEquals(dedup.getLastPublishedSequenceId("producer-1"), 3L);
+        assertEquals(dedup.getProducersCount(), 1);
+    }
+
+    @Test
+    public void testNoPendingSnapshotLedger() throws Exception {
+        doReturn(ImmutableMap.of("producer-1", 3L)).when(cursor).getProperties();
+
+        MessageDeduplication dedup = new MessageDeduplication(pulsar, topic, managedLedger);
+        dedup.initialize();
+        pendingReads.get(0).readEntriesComplete(Lists.newArrayList(), null);
+
+        verify(bookKeeper, never()).asyncDeleteLedger(anyLong(), any(DeleteCallback.class), any());
+        assertEquals(dedup.getLastPublishedSequenceId("producer-1"), 3L);
+    }
+
+    private static Entry entry(long entryId, String producerName, long sequenceId) {
+        MessageMetadata.Builder builder = MessageMetadata.newBuilder();
+        builder.setProducerName(producerName);
+        builder.setSequenceId(sequenceId);
+        builder.setPublishTime(System.currentTimeMillis());
+        builder.addProperties(KeyValue.newBuilder().setKey("key").setValue("value").build());
+        builder.setPartitionKey("partition-key");
+        MessageMetadata metadata = builder.build();
+
+        ByteBuf payload = Unpooled.wrappedBuffer("payload".getBytes());
+        ByteBuf data = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata, payload);
+        Entry entry = EntryImpl.create(1, entryId, data);
+        data.release();
+        payload.release();
+        builder.recycle();
+        metadata.recycle();
+        return entry;
+    }
+
+    /**
+     * Entry without checksum and with the producer name and the sequence id after other metadata fields.
+     */
+    private static Entry reorderedEntry(long entryId, String producerName, long sequenceId) throws Exception {
+        ByteBuf metadata = Unpooled.buffer();
+        ByteBufCodedOutputStream out = ByteBufCodedOutputStream.get(metadata);
+        out.writeUInt64(MessageMetadata.PUBLISH_TIME_FIELD_NUMBER, System.currentTimeMillis());
+        out.writeBytes(MessageMetadata.PARTITION_KEY_FIELD_NUMBER, ByteString.copyFromUtf8("partition-key"));
+        out.writeUInt64(MessageMetadata.SEQUENCE_ID_FIELD_NUMBER, sequenceId);
+        out.writeBytes(MessageMetadata.PRODUCER_NAME_FIELD_NUMBER, ByteString.copyFromUtf8(producerName));
+        out.recycle();
+
+        ByteBuf data = Unpooled.buffer();
+        data.writeInt(metadata.readableBytes());
+        data.writeBytes(metadata);
+        data.writeBytes("payload".getBytes());
+        metadata.release();
+
+        Entry entry = EntryImpl.create(1, entryId, data);
+        data.release();
+        return entry;
+    }
+}
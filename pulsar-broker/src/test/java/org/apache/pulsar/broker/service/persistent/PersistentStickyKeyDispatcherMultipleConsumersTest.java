@@ -0,0 +1,291 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.auth.SameThreadOrderedSafeExecutor;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.broker.service.Consumer;
+import org.apache.pulsar.broker.service.Consumer.SendMessageInfo;
+import org.apache.pulsar.broker.service.HashRangeStickyKeyConsumerSelector;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers.ReadType;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.Commands.ChecksumType;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class PersistentStickyKeyDispatcherMultipleConsumersTest {
+
+    private SameThreadOrderedSafeExecutor executor;
+    private PersistentTopic topic;
+    private ManagedCursor cursor;
+    private final List<Set<PositionImpl>> replayRequests = Lists.newArrayList();
+    private final Map<Consumer, AtomicInteger> consumerPermits = Maps.newHashMap();
+    private final Map<Consumer, List<PositionImpl>> consumerMessages = Maps.newHashMap();
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        ServiceConfiguration conf = new ServiceConfiguration();
+        PulsarService pulsar = mock(PulsarService.class);
+        doReturn(conf).when(pulsar).getConfiguration();
+
+        executor = new SameThreadOrderedSafeExecutor();
+        BrokerService brokerService = mock(BrokerService.class);
+        doReturn(pulsar).when(brokerService).pulsar();
+        doReturn(executor).when(brokerService).getDispatcherOrderedExecutor();
+
+        topic = mock(PersistentTopic.class);
+        doReturn("persistent://prop/use/ns-abc/topic").when(topic).getName();
+        doReturn(brokerService).when(topic).getBrokerService();
+
+        replayRequests.clear();
+        cursor = mock(ManagedCursor.class);
+        doReturn("sub").when(cursor).getName();
+        doReturn(true).when(cursor).isActive();
+        doReturn(PositionImpl.get(1, -1)).when(cursor).getMarkDeletedPosition();
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Set<? extends Position> positions = (Set<? extends Position>) invocation.getArguments()[0];
+            Set<PositionImpl> request = new TreeSet<>();
+            positions.forEach(position -> request.add((PositionImpl) position));
+            replayRequests.add(request);
+            return Collections.emptySet();
+        }).when(cursor).asyncReplayEntries(any(), any(ReadEntriesCallback.class), any());
+
+        consumerPermits.clear();
+        consumerMessages.clear();
+    }
+
+    @AfterMethod
+    public void cleanup() throws Exception {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testOrderingPerKey() throws Exception {
+        PersistentStickyKeyDispatcherMultipleConsumers dispatcher =
+                new PersistentStickyKeyDispatcherMultipleConsumers(topic, cursor);
+        Consumer consumer1 = createConsumer(dispatcher, 100);
+        Consumer consumer2 = createConsumer(dispatcher, 100);
+        String key1 = findKey(consumer1, consumer2, consumer1);
+        String key2 = findKey(consumer1, consumer2, consumer2);
+
+        dispatcher.readEntriesComplete(Lists.newArrayList(createEntry(0, key1), createEntry(1, key2),
+                createEntry(2, key2), createEntry(3, key1), createEntry(4, key1), createEntry(5, key2)),
+                ReadType.Normal);
+
+        // Each key is delivered in order to a single consumer
+        assertEquals(consumerMessages.get(consumer1), positions(0, 3, 4));
+        assertEquals(consumerMessages.get(consumer2), positions(1, 2, 5));
+        assertTrue(replayRequests.isEmpty());
+    }
+
+    @Test
+    public void testReplayEntriesWithoutPermits() throws Exception {
+        PersistentStickyKeyDispatcherMultipleConsumers dispatcher =
+                new PersistentStickyKeyDispatcherMultipleConsumers(topic, cursor);
+        Consumer consumer1 = createConsumer(dispatcher, 2);
+        Consumer consumer2 = createConsumer(dispatcher, 100);
+        String key1 = findKey(consumer1, consumer2, consumer1);
+        String key2 = findKey(consumer1, consumer2, consumer2);
+
+        // The entries that consumer1 has no permits for are kept for replay
+        dispatcher.readEntriesComplete(Lists.newArrayList(createEntry(0, key1), createEntry(1, key1),
+                createEntry(2, key1), createEntry(3, key1), createEntry(4, key2), createEntry(5, key2)),
+                ReadType.Normal);
+        assertEquals(consumerMessages.get(consumer1), positions(0, 1));
+        assertEquals(consumerMessages.get(consumer2), positions(4, 5));
+        assertEquals(replayRequests, Lists.newArrayList(positionSet(2, 3)));
+
+        // The new entries are not dispatched before the older entries are replayed
+        dispatcher.readEntriesComplete(Lists.newArrayList(createEntry(6, key1), createEntry(7, key2)),
+                ReadType.Normal);
+        assertEquals(consumerMessages.get(consumer1), positions(0, 1));
+        assertEquals(consumerMessages.get(consumer2), positions(4, 5));
+
+        // Replaying for a consumer without permits keeps the entries for a later replay
+        dispatcher.readEntriesComplete(Lists.newArrayList(createEntry(2, key1), createEntry(3, key1)),
+                ReadType.Replay);
+        assertEquals(consumerMessages.get(consumer1), positions(0, 1));
+        assertEquals(replayRequests.size(), 1);
+
+        flow(dispatcher, consumer1, 10);
+        assertEquals(replayRequests.size(), 2);
+        assertEquals(replayRequests.get(1), positionSet(2, 3, 6, 7));
+        dispatcher.readEntriesComplete(Lists.newArrayList(createEntry(2, key1), createEntry(3, key1),
+                createEntry(6, key1), createEntry(7, key2)), ReadType.Replay);
+
+        assertEquals(consumerMessages.get(consumer1), positions(0, 1, 2, 3, 6));
+        assertEquals(consumerMessages.get(consumer2), positions(4, 5, 7));
+        assertEquals(replayRequests.size(), 2);
+    }
+
+    @Test
+    public void testRecentlyJoinedConsumerHoldBack() throws Exception {
+        PersistentStickyKeyDispatcherMultipleConsumers dispatcher =
+                new PersistentStickyKeyDispatcherMultipleConsumers(topic, cursor);
+        Consumer consumer1 = createConsumer(dispatcher, 100);
+        Consumer consumer2 = mock(Consumer.class);
+        String key1 = findKey(consumer1, consumer2, consumer1);
+        String key2 = findKey(consumer1, consumer2, consumer2);
+
+        // All the keys belong to consumer1 until consumer2 joins
+        dispatcher.readEntriesComplete(Lists.newArrayList(createEntry(0, key2), createEntry(1, key1),
+                createEntry(2, key2)), ReadType.Normal);
+        assertEquals(consumerMessages.get(consumer1), positions(0, 1, 2));
+
+        addConsumer(dispatcher, consumer2, 100);
+
+        // consumer2 only gets its new messages once the messages sent to consumer1 before it joined are acknowledged
+        dispatcher.readEntriesComplete(Lists.newArrayList(createEntry(3, key2), createEntry(4, key1)),
+                ReadType.Normal);
+        assertEquals(consumerMessages.get(consumer1), positions(0, 1, 2, 4));
+        assertEquals(consumerMessages.get(consumer2), positions());
+        assertEquals(replayRequests, Lists.newArrayList(positionSet(3)));
+
+        doReturn(PositionImpl.get(1, 1)).when(cursor).getMarkDeletedPosition();
+        dispatcher.acknowledgementWasProcessed();
+        dispatcher.readEntriesComplete(Lists.newArrayList(createEntry(3, key2)), ReadType.Replay);
+        assertEquals(consumerMessages.get(consumer2), positions());
+        assertEquals(replayRequests.size(), 1);
+
+        doReturn(PositionImpl.get(1, 2)).when(cursor).getMarkDeletedPosition();
+        dispatcher.acknowledgementWasProcessed();
+        assertEquals(replayRequests, Lists.newArrayList(positionSet(3), positionSet(3)));
+        dispatcher.readEntriesComplete(Lists.newArrayList(createEntry(3, key2)), ReadType.Replay);
+        assertEquals(consumerMessages.get(consumer2), positions(3));
+        assertEquals(consumerMessages.get(consumer1), positions(0, 1, 2, 4));
+    }
+
+    private Consumer createConsumer(PersistentStickyKeyDispatcherMultipleConsumers dispatcher, int permits)
+            throws Exception {
+        Consumer consumer = mock(Consumer.class);
+        addConsumer(dispatcher, consumer, permits);
+        return consumer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addConsumer(PersistentStickyKeyDispatcherMultipleConsumers dispatcher, Consumer consumer,
+            int permits) throws Exception {
+        AtomicInteger availablePermits = new AtomicInteger();
+        List<PositionImpl> messages = Lists.newArrayList();
+        consumerPermits.put(consumer, availablePermits);
+        consumerMessages.put(consumer, messages);
+
+        doAnswer(invocation -> availablePermits.get()).when(consumer).getAvailablePermits();
+        doReturn(true).when(consumer).hasAvailableBytePermits();
+        doAnswer(invocation -> invocation.getArguments()[1]).when(consumer).getEntriesWithinBytePermits(any(),
+                anyInt());
+        doAnswer(invocation -> {
+            List<Entry> entries = (List<Entry>) invocation.getArguments()[0];
+            entries.forEach(entry -> {
+                messages.add((PositionImpl) entry.getPosition());
+                entry.release();
+            });
+            availablePermits.addAndGet(-entries.size());
+            SendMessageInfo sentMessages = new SendMessageInfo();
+            sentMessages.setTotalSentMessages(entries.size());
+            return sentMessages;
+        }).when(consumer).sendMessages(any());
+
+        dispatcher.addConsumer(consumer);
+        flow(dispatcher, consumer, permits);
+    }
+
+    private void flow(PersistentStickyKeyDispatcherMultipleConsumers dispatcher, Consumer consumer, int permits) {
+        consumerPermits.get(consumer).addAndGet(permits);
+        dispatcher.consumerFlow(consumer, permits);
+    }
+
+    /**
+     * Find a key owned by the given consumer once both consumers are connected.
+     */
+    private static String findKey(Consumer firstConsumer, Consumer secondConsumer, Consumer owner)
+            throws Exception {
+        HashRangeStickyKeyConsumerSelector selector = new HashRangeStickyKeyConsumerSelector();
+        selector.addConsumer(firstConsumer);
+        selector.addConsumer(secondConsumer);
+        for (int i = 0;; i++) {
+            String key = "key-" + i;
+            if (selector.select(key.getBytes()) == owner) {
+                return key;
+            }
+        }
+    }
+
+    private static List<PositionImpl> positions(long... entryIds) {
+        List<PositionImpl> positions = Lists.newArrayList();
+        for (long entryId : entryIds) {
+            positions.add(PositionImpl.get(1, entryId));
+        }
+        return positions;
+    }
+
+    private static Set<PositionImpl> positionSet(long... entryIds) {
+        return new TreeSet<>(positions(entryIds));
+    }
+
+    private static Entry createEntry(long entryId, String key) {
+        MessageMetadata.Builder builder = MessageMetadata.newBuilder();
+        builder.setProducerName("producer");
+        builder.setSequenceId(entryId);
+        builder.setPublishTime(System.currentTimeMillis());
+        builder.setPartitionKey(key);
+        MessageMetadata metadata = builder.build();
+
+        ByteBuf payload = Unpooled.wrappedBuffer("payload".getBytes());
+        ByteBuf data = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata, payload);
+        Entry entry = EntryImpl.create(1, entryId, data);
+        data.release();
+        payload.release();
+        builder.recycle();
+        metadata.recycle();
+        return entry;
+    }
+}
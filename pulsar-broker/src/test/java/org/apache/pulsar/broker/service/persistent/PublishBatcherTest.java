@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.AddEntryCallback;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.pulsar.broker.service.Topic.PublishContext;
+import org.apache.pulsar.common.api.Commands;
+import org.apache.pulsar.common.api.Commands.ChecksumType;
+import org.apache.pulsar.common.api.proto.PulsarApi.CompressionType;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.api.proto.PulsarApi.SingleMessageMetadata;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PublishBatcherTest {
+
+    private PersistentTopic topic;
+    private ManagedLedger ledger;
+    private ScheduledExecutorService executor;
+    private final List<Runnable> scheduledTasks = Lists.newArrayList();
+    private final List<ByteBuf> addedEntries = Lists.newArrayList();
+    private final List<Object> addedContexts = Lists.newArrayList();
+
+    @BeforeMethod
+    public void setup() {
+        topic = mock(PersistentTopic.class);
+        when(topic.getName()).thenReturn("persistent://prop/cluster/ns/topic");
+
+        ledger = mock(ManagedLedger.class);
+        addedEntries.clear();
+        addedContexts.clear();
+        doAnswer(invocation -> {
+            addedEntries.add(((ByteBuf) invocation.getArguments()[0]).retain());
+            addedContexts.add(invocation.getArguments()[2]);
+            return null;
+        }).when(ledger).asyncAddEntry(any(ByteBuf.class), any(AddEntryCallback.class), any());
+
+        executor = mock(ScheduledExecutorService.class);
+        scheduledTasks.clear();
+        when(executor.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).then(invocation -> {
+            scheduledTasks.add((Runnable) invocation.getArguments()[0]);
+            return mock(ScheduledFuture.class);
+        });
+    }
+
+    @Test
+    public void testBatchLimitedByMessages() throws Exception {
+        PublishBatcher batcher = new PublishBatcher(topic, ledger, executor, 1000, 3, 1024);
+        List<TestPublishContext> contexts = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            TestPublishContext ctx = new TestPublishContext("prod", i);
+            contexts.add(ctx);
+            assertTrue(batcher.add(message("prod", i, "key", CompressionType.NONE, 10), ctx));
+        }
+
+        assertEquals(addedEntries.size(), 1);
+        assertEquals(batcher.getPendingBatchesCount(), 0);
+
+        // The batch entry carries the sequence id of its last message
+        ByteBuf entry = addedEntries.get(0);
+        MessageMetadata metadata = Commands.parseMessageMetadata(entry);
+        assertEquals(metadata.getProducerName(), "prod");
+        assertEquals(metadata.getSequenceId(), 2);
+        assertEquals(metadata.getNumMessagesInBatch(), 3);
+        assertEquals(metadata.getPartitionKey(), "key");
+        for (int i = 0; i < 3; i++) {
+            SingleMessageMetadata.Builder singleMetadata = SingleMessageMetadata.newBuilder();
+            ByteBuf payload = Commands.deSerializeSingleMessageInBatch(entry, singleMetadata, i, 3);
+            assertEquals(payload.readableBytes(), 10);
+            assertEquals(singleMetadata.getPartitionKey(), "key");
+            payload.release();
+        }
+
+        // Each message gets the position of the batch entry
+        PublishContext batchContext = (PublishContext) addedContexts.get(0);
+        assertEquals(batchContext.getProducerName(), "prod");
+        assertEquals(batchContext.getSequenceId(), 2);
+        batchContext.completed(null, 5, 7);
+        for (TestPublishContext ctx : contexts) {
+            assertNull(ctx.exception);
+            assertEquals(ctx.ledgerId, 5);
+            assertEquals(ctx.entryId, 7);
+        }
+    }
+
+    @Test
+    public void testBatchLimitedBySize() {
+        PublishBatcher batcher = new PublishBatcher(topic, ledger, executor, 1000, 100, 100);
+        assertTrue(batcher.add(message("prod", 0, CompressionType.NONE, 60), new TestPublishContext("prod", 0)));
+        assertTrue(batcher.add(message("prod", 1, CompressionType.NONE, 60), new TestPublishContext("prod", 1)));
+
+        // The second message didn't fit in the first batch
+        assertEquals(addedEntries.size(), 1);
+        assertEquals(Commands.parseMessageMetadata(addedEntries.get(0)).getNumMessagesInBatch(), 1);
+        assertEquals(batcher.getPendingBatchesCount(), 1);
+
+        // Messages bigger than the max batch size are stored on their own
+        assertFalse(batcher.add(message("prod", 2, CompressionType.NONE, 200), new TestPublishContext("prod", 2)));
+        assertEquals(addedEntries.size(), 2);
+        assertEquals(batcher.getPendingBatchesCount(), 0);
+    }
+
+    @Test
+    public void testBatchFlushedAfterDelay() {
+        PublishBatcher batcher = new PublishBatcher(topic, ledger, executor, 1000, 100, 1024);
+        assertTrue(batcher.add(message("prod-1", 0, CompressionType.NONE, 10), new TestPublishContext("prod-1", 0)));
+        assertTrue(batcher.add(message("prod-2", 0, CompressionType.NONE, 10), new TestPublishContext("prod-2", 0)));
+        assertTrue(batcher.add(message("prod-1", 1, CompressionType.NONE, 10), new TestPublishContext("prod-1", 1)));
+
+        // One batch per producer
+        assertEquals(batcher.getPendingBatchesCount(), 2);
+        assertEquals(scheduledTasks.size(), 2);
+        assertEquals(addedEntries.size(), 0);
+
+        scheduledTasks.get(0).run();
+        assertEquals(addedEntries.size(), 1);
+        MessageMetadata metadata = Commands.parseMessageMetadata(addedEntries.get(0));
+        assertEquals(metadata.getProducerName(), "prod-1");
+        assertEquals(metadata.getNumMessagesInBatch(), 2);
+
+        batcher.flushAll();
+        assertEquals(addedEntries.size(), 2);
+        assertEquals(batcher.getPendingBatchesCount(), 0);
+    }
+
+    @Test
+    public void testNonBatchableMessage() {
+        PublishBatcher batcher = new PublishBatcher(topic, ledger, executor, 1000, 100, 1024);
+        assertTrue(batcher.add(message("prod", 0, CompressionType.NONE, 10), new TestPublishContext("prod", 0)));
+
+        // The pending messages of the producer are stored before the compressed one
+        ByteBuf compressed = message("prod", 1, CompressionType.LZ4, 10);
+        int readerIndex = compressed.readerIndex();
+        assertFalse(batcher.add(compressed, new TestPublishContext("prod", 1)));
+        assertEquals(compressed.readerIndex(), readerIndex);
+        assertEquals(addedEntries.size(), 1);
+        assertEquals(batcher.getPendingBatchesCount(), 0);
+    }
+
+    @Test
+    public void testBatchFailed() {
+        PublishBatcher batcher = new PublishBatcher(topic, ledger, executor, 1000, 2, 1024);
+        TestPublishContext ctx1 = new TestPublishContext("prod", 0);
+        TestPublishContext ctx2 = new TestPublishContext("prod", 1);
+        batcher.add(message("prod", 0, CompressionType.NONE, 10), ctx1);
+        batcher.add(message("prod", 1, CompressionType.NONE, 10), ctx2);
+
+        Exception e = new Exception("failed");
+        ((PublishContext) addedContexts.get(0)).completed(e, -1, -1);
+        assertEquals(ctx1.exception, e);
+        assertEquals(ctx2.exception, e);
+    }
+
+    @Test
+    public void testBatchPerPartitionKey() {
+        PublishBatcher batcher = new PublishBatcher(topic, ledger, executor, 1000, 100, 1024);
+        assertTrue(batcher.add(message("prod", 0, "key-1", CompressionType.NONE, 10),
+                new TestPublishContext("prod", 0)));
+        assertTrue(batcher.add(message("prod", 1, "key-1", CompressionType.NONE, 10),
+                new TestPublishContext("prod", 1)));
+
+        // A message with a different key starts a new batch, once the previous one is stored
+        assertTrue(batcher.add(message("prod", 2, "key-2", CompressionType.NONE, 10),
+                new TestPublishContext("prod", 2)));
+        assertEquals(addedEntries.size(), 1);
+        assertTrue(batcher.add(message("prod", 3, CompressionType.NONE, 10), new TestPublishContext("prod", 3)));
+        assertEquals(addedEntries.size(), 2);
+        batcher.flushAll();
+        assertEquals(addedEntries.size(), 3);
+
+        // The Key_Shared dispatchers read the key of a batch from the entry metadata
+        MessageMetadata metadata = Commands.parseMessageMetadata(addedEntries.get(0));
+        assertEquals(metadata.getPartitionKey(), "key-1");
+        assertEquals(metadata.getNumMessagesInBatch(), 2);
+        assertEquals(metadata.getSequenceId(), 1);
+        metadata = Commands.parseMessageMetadata(addedEntries.get(1));
+        assertEquals(metadata.getPartitionKey(), "key-2");
+        assertEquals(metadata.getSequenceId(), 2);
+        metadata = Commands.parseMessageMetadata(addedEntries.get(2));
+        assertFalse(metadata.hasPartitionKey());
+        assertEquals(metadata.getSequenceId(), 3);
+    }
+
+    @Test
+    public void testBatchPendingUntilStored() {
+        PublishBatcher batcher = new PublishBatcher(topic, ledger, executor, 1000, 100, 1024);
+        List<Integer> pendingBatchesWhileStoring = Lists.newArrayList();
+        doAnswer(invocation -> {
+            pendingBatchesWhileStoring.add(batcher.getPendingBatchesCount());
+            addedEntries.add(((ByteBuf) invocation.getArguments()[0]).retain());
+            return null;
+        }).when(ledger).asyncAddEntry(any(ByteBuf.class), any(AddEntryCallback.class), any());
+
+        assertTrue(batcher.add(message("prod", 0, CompressionType.NONE, 10), new TestPublishContext("prod", 0)));
+        scheduledTasks.get(0).run();
+
+        // A concurrent flush of the producer waits on the batch until its entry is handed to the managed ledger
+        assertEquals(pendingBatchesWhileStoring, Lists.newArrayList(1));
+        assertEquals(batcher.getPendingBatchesCount(), 0);
+    }
+
+    private static ByteBuf message(String producerName, long sequenceId, CompressionType compression, int size) {
+        return message(producerName, sequenceId, null, compression, size);
+    }
+
+    private static ByteBuf message(String producerName, long sequenceId, String key, CompressionType compression,
+            int size) {
+        MessageMetadata.Builder builder = MessageMetadata.newBuilder().setProducerName(producerName)
+                .setSequenceId(sequenceId).setPublishTime(System.currentTimeMillis());
+        if (key != null) {
+            builder.setPartitionKey(key);
+        }
+        if (compression != CompressionType.NONE) {
+            builder.setCompression(compression);
+        }
+        MessageMetadata metadata = builder.build();
+        ByteBuf message = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata,
+                Unpooled.wrappedBuffer(new byte[size]));
+        metadata.recycle();
+        builder.recycle();
+        return message;
+    }
+
+    private static class TestPublishContext implements PublishContext {
+        private final String producerName;
+        private final long sequenceId;
+        Exception exception;
+        long ledgerId = -1;
+        long entryId = -1;
+
+        TestPublishContext(String producerName, long sequenceId) {
+            this.producerName = producerName;
+            this.sequenceId = sequenceId;
+        }
+
+        @Override
+        public String getProducerName() {
+            return producerName;
+        }
+
+        @Override
+        public long getSequenceId() {
+            return sequenceId;
+        }
+
+        @Override
+        public void completed(Exception e, long ledgerId, long entryId) {
+            this.exception = e;
+            this.ledgerId = ledgerId;
+            this.entryId = entryId;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pulsar.broker.service.BrokerTestBase;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.ConsumerCryptoFailureAction;
+import org.apache.pulsar.client.api.CryptoKeyReader;
+import org.apache.pulsar.client.api.EncryptionKeyInfo;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.SubscriptionType;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class ConsumerBytePermitsTest extends BrokerTestBase {
+    private static final int MESSAGE_SIZE = 1024;
+
+    @BeforeClass
+    @Override
+    protected void setup() throws Exception {
+        super.baseSetup();
+    }
+
+    @AfterClass
+    @Override
+    protected void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    @Test(timeOut = 30000)
+    public void testEntrySizeShare() throws Exception {
+        final String topicName = "persistent://prop/use/ns-abc/testEntrySizeShare";
+        Consumer consumer = pulsarClient.newConsumer().topic(topicName).subscriptionName("my-sub")
+                .receiverQueueSizeBytes(100 * MESSAGE_SIZE).subscribe();
+        Producer producer = pulsarClient.newProducer().topic(topicName).enableBatching(false).create();
+        for (int i = 0; i < 10; i++) {
+            producer.send(new byte[MESSAGE_SIZE + i]);
+        }
+
+        // Each message holds the size of its entry, as counted by the broker
+        long totalShares = 0;
+        for (int i = 0; i < 10; i++) {
+            Message msg = consumer.receive(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertTrue(((MessageImpl) msg).getEntrySizeShare() > MESSAGE_SIZE + i);
+            totalShares += ((MessageImpl) msg).getEntrySizeShare();
+        }
+        assertEquals(totalShares, getTopic(topicName).getInternalStats().totalSize);
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test(timeOut = 30000)
+    public void testBatchEntrySizeShare() throws Exception {
+        final String topicName = "persistent://prop/use/ns-abc/testBatchEntrySizeShare";
+        final int batchSize = 7;
+        Consumer consumer = pulsarClient.newConsumer().topic(topicName).subscriptionName("my-sub")
+                .receiverQueueSizeBytes(100 * MESSAGE_SIZE).subscribe();
+        Producer producer = pulsarClient.newProducer().topic(topicName).batchingMaxMessages(batchSize)
+                .batchingMaxPublishDelay(1, TimeUnit.HOURS).create();
+        List<CompletableFuture<MessageId>> futures = Lists.newArrayList();
+        for (int i = 0; i < batchSize; i++) {
+            futures.add(producer.sendAsync(new byte[MESSAGE_SIZE + i]));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+
+        // The entry size is split between the messages of the batch, any remainder going to the first messages
+        long totalShares = 0;
+        int previousShare = Integer.MAX_VALUE;
+        for (int i = 0; i < batchSize; i++) {
+            Message msg = consumer.receive(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            int share = ((MessageImpl) msg).getEntrySizeShare();
+            assertTrue(share <= previousShare);
+            if (i > 0) {
+                assertTrue(share >= previousShare - 1);
+            }
+            previousShare = share;
+            totalShares += share;
+        }
+        assertEquals(totalShares, getTopic(topicName).getInternalStats().totalSize);
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test(timeOut = 30000)
+    public void testReceiverQueueSizeBytes() throws Exception {
+        final String topicName = "persistent://prop/use/ns-abc/testReceiverQueueSizeBytes";
+        final int numMessages = 100;
+        final long receiverQueueSizeBytes = 10 * MESSAGE_SIZE;
+        // The shared subscription dispatcher gives the consumer only the entries within its byte permits
+        ConsumerImpl consumer = (ConsumerImpl) pulsarClient.newConsumer().topic(topicName).subscriptionName("my-sub")
+                .subscriptionType(SubscriptionType.Shared).receiverQueueSize(1000)
+                .receiverQueueSizeBytes(receiverQueueSizeBytes).subscribe();
+        Producer producer = pulsarClient.newProducer().topic(topicName).enableBatching(false).create();
+        for (int i = 0; i < numMessages; i++) {
+            producer.send(new byte[MESSAGE_SIZE]);
+        }
+
+        // The broker stops dispatching once the byte permits are exhausted, even with message permits left
+        org.apache.pulsar.broker.service.Consumer brokerConsumer = getTopic(topicName).getSubscription("my-sub")
+                .getConsumers().get(0);
+        retryStrategically(test -> brokerConsumer.getAvailableBytePermits() == 0, 10, 200);
+        assertEquals(brokerConsumer.getAvailableBytePermits(), 0);
+        assertTrue(brokerConsumer.getAvailablePermits() > 0);
+        Thread.sleep(ASYNC_EVENT_COMPLETION_WAIT);
+
+        // The queued messages are within the byte budget, plus at most the entry that went over it
+        long queuedBytes = 0;
+        for (Message msg : consumer.incomingMessages) {
+            queuedBytes += ((MessageImpl) msg).getEntrySizeShare();
+        }
+        int entrySize = ((MessageImpl) consumer.incomingMessages.peek()).getEntrySizeShare();
+        assertTrue(consumer.numMessagesInQueue() < numMessages);
+        assertTrue(queuedBytes >= receiverQueueSizeBytes);
+        assertTrue(queuedBytes < receiverQueueSizeBytes + entrySize);
+
+        // The message permits never reach their refill threshold, the flows are sent on the byte threshold
+        for (int i = 0; i < numMessages; i++) {
+            Message msg = consumer.receive(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            consumer.acknowledge(msg);
+        }
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test(timeOut = 30000)
+    public void testExclusiveReceiverQueueSizeBytes() throws Exception {
+        final String topicName = "persistent://prop/use/ns-abc/testExclusiveReceiverQueueSizeBytes";
+        final int numMessages = 50;
+        final int messageSize = 100 * MESSAGE_SIZE;
+        final long receiverQueueSizeBytes = 3 * messageSize;
+        Producer producer = pulsarClient.newProducer().topic(topicName).enableBatching(false).create();
+        ConsumerImpl consumer = (ConsumerImpl) pulsarClient.newConsumer().topic(topicName).subscriptionName("my-sub")
+                .receiverQueueSize(1000).receiverQueueSizeBytes(receiverQueueSizeBytes).subscribe();
+        for (int i = 0; i < numMessages; i++) {
+            byte[] payload = new byte[messageSize];
+            payload[0] = (byte) i;
+            producer.send(payload);
+        }
+
+        // The single active consumer dispatcher reads large entries against a small byte budget and only sends
+        // the entries within the byte permits
+        org.apache.pulsar.broker.service.Consumer brokerConsumer = getTopic(topicName).getSubscription("my-sub")
+                .getConsumers().get(0);
+        retryStrategically(test -> brokerConsumer.getAvailableBytePermits() == 0, 10, 200);
+        assertEquals(brokerConsumer.getAvailableBytePermits(), 0);
+        Thread.sleep(ASYNC_EVENT_COMPLETION_WAIT);
+
+        long queuedBytes = 0;
+        for (Message msg : consumer.incomingMessages) {
+            queuedBytes += ((MessageImpl) msg).getEntrySizeShare();
+        }
+        int entrySize = ((MessageImpl) consumer.incomingMessages.peek()).getEntrySizeShare();
+        assertTrue(consumer.numMessagesInQueue() < numMessages);
+        assertTrue(queuedBytes < receiverQueueSizeBytes + entrySize);
+
+        // The entries that were read but not sent are read again, in order
+        for (int i = 0; i < numMessages; i++) {
+            Message msg = consumer.receive(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertEquals(msg.getData()[0], (byte) i);
+            consumer.acknowledge(msg);
+        }
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test(timeOut = 30000)
+    public void testFlowOnMessageThreshold() throws Exception {
+        final String topicName = "persistent://prop/use/ns-abc/testFlowOnMessageThreshold";
+        final int numMessages = 100;
+        Consumer consumer = pulsarClient.newConsumer().topic(topicName).subscriptionName("my-sub")
+                .receiverQueueSize(10).receiverQueueSizeBytes(100 * 1024 * 1024).subscribe();
+        Producer producer = pulsarClient.newProducer().topic(topicName).enableBatching(false).create();
+        for (int i = 0; i < numMessages; i++) {
+            producer.send(("my-message-" + i).getBytes());
+        }
+
+        // The byte permits never reach their refill threshold, the flows are sent on the message threshold
+        for (int i = 0; i < numMessages; i++) {
+            Message msg = consumer.receive(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertEquals(new String(msg.getData()), "my-message-" + i);
+            consumer.acknowledge(msg);
+        }
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test(timeOut = 30000)
+    public void testBytePermitsReturnedOnRedelivery() throws Exception {
+        final String topicName = "persistent://prop/use/ns-abc/testBytePermitsReturnedOnRedelivery";
+        final int numMessages = 20;
+        ConsumerImpl consumer = (ConsumerImpl) pulsarClient.newConsumer().topic(topicName).subscriptionName("my-sub")
+                .receiverQueueSize(1000).receiverQueueSizeBytes(4 * MESSAGE_SIZE).subscribe();
+        Producer producer = pulsarClient.newProducer().topic(topicName).enableBatching(false).create();
+        for (int i = 0; i < numMessages; i++) {
+            producer.send(new byte[MESSAGE_SIZE]);
+        }
+        retryStrategically(test -> consumer.numMessagesInQueue() > 0, 10, 200);
+
+        // The cleared messages give their bytes back, otherwise the broker could not dispatch them again
+        consumer.redeliverUnacknowledgedMessages();
+
+        Set<MessageId> received = Sets.newHashSet();
+        while (received.size() < numMessages) {
+            Message msg = consumer.receive(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            received.add(msg.getMessageId());
+            consumer.acknowledge(msg);
+        }
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test(timeOut = 30000)
+    public void testBytePermitsReturnedOnDiscard() throws Exception {
+        final String topicName = "persistent://prop/use/ns-abc/testBytePermitsReturnedOnDiscard";
+        final int numMessages = 20;
+        Consumer consumer = pulsarClient.newConsumer().topic(topicName).subscriptionName("my-sub")
+                .receiverQueueSize(1000).receiverQueueSizeBytes(4 * MESSAGE_SIZE)
+                .cryptoFailureAction(ConsumerCryptoFailureAction.DISCARD).subscribe();
+
+        // The consumer can't decrypt these messages and discards them
+        Producer encryptedProducer = pulsarClient.newProducer().topic(topicName).enableBatching(false)
+                .addEncryptionKey("client-rsa.pem").cryptoKeyReader(new EncKeyReader()).create();
+        for (int i = 0; i < numMessages; i++) {
+            encryptedProducer.send(new byte[MESSAGE_SIZE]);
+        }
+
+        // The discarded messages give their bytes back, so the next message is dispatched
+        Producer producer = pulsarClient.newProducer().topic(topicName).enableBatching(false).create();
+        producer.send("my-message".getBytes());
+        Message msg = consumer.receive(5, TimeUnit.SECONDS);
+        assertNotNull(msg);
+        assertEquals(new String(msg.getData()), "my-message");
+
+        encryptedProducer.close();
+        producer.close();
+        consumer.close();
+    }
+
+    private PersistentTopic getTopic(String topicName) throws Exception {
+        return (PersistentTopic) pulsar.getBrokerService().getTopicReference(topicName);
+    }
+
+    private static class EncKeyReader implements CryptoKeyReader {
+        @Override
+        public EncryptionKeyInfo getPublicKey(String keyName, Map<String, String> keyMeta) {
+            return readKey("./src/test/resources/certificate/public-key." + keyName);
+        }
+
+        @Override
+        public EncryptionKeyInfo getPrivateKey(String keyName, Map<String, String> keyMeta) {
+            return readKey("./src/test/resources/certificate/private-key." + keyName);
+        }
+
+        private static EncryptionKeyInfo readKey(String path) {
+            EncryptionKeyInfo keyInfo = new EncryptionKeyInfo();
+            try {
+                keyInfo.setKey(Files.readAllBytes(Paths.get(path)));
+            } catch (IOException e) {
+                Assert.fail("Failed to read certificate from " + path);
+            }
+            return keyInfo;
+        }
+    }
+}
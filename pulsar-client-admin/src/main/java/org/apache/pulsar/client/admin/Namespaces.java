@@ -32,6 +32,7 @@ import org.apache.pulsar.common.policies.data.BundlesData;
 import org.apache.pulsar.common.policies.data.DispatchRate;
 import org.apache.pulsar.common.policies.data.PersistencePolicies;
 import org.apache.pulsar.common.policies.data.Policies;
+import org.apache.pulsar.common.policies.data.PublishRate;
 import org.apache.pulsar.common.policies.data.RetentionPolicies;
 import org.apache.pulsar.common.policies.data.SubscriptionAuthMode;
 
@@ -518,6 +519,32 @@ public interface Namespaces {
      */
     void setDeduplicationStatus(String namespace, boolean enableDeduplication) throws PulsarAdminException;
 
+    /**
+     * Set the broker side batching status for all topics within a namespace.
+     * <p>
+     * When broker side batching is enabled, the broker groups the messages published one at a time by each producer
+     * into batches before storing them, to reduce the number of entries written to the storage.
+     * <p>
+     * Request example:
+     *
+     * <pre>
+     * <code>true</code>
+     * </pre>
+     *
+     * @param namespace
+     *            Namespace name
+     * @param enableBrokerBatching
+     *            wether to enable or disable broker side batching
+     *
+     * @throws NotAuthorizedException
+     *             Don't have admin permission
+     * @throws NotFoundException
+     *             Namespace does not exist
+     * @throws PulsarAdminException
+     *             Unexpected error
+     */
+    void setBrokerBatchingStatus(String namespace, boolean enableBrokerBatching) throws PulsarAdminException;
+
     /**
      * Get the bundles split data.
      *
@@ -824,6 +851,29 @@ public interface Namespaces {
     */
     DispatchRate getDispatchRate(String namespace) throws PulsarAdminException;
 
+    /**
+     * Set publish-rate (topics under this namespace can receive this many messages and bytes per second). Once a topic
+     * exceeds it, the broker stops reading from the connections of its producers until the end of the second.
+     *
+     * @param namespace
+     * @param publishRate
+     *            number of messages and bytes per second
+     * @throws PulsarAdminException
+     *             Unexpected error
+     */
+    void setPublishRate(String namespace, PublishRate publishRate) throws PulsarAdminException;
+
+    /**
+     * Get publish-rate (topics under this namespace can receive this many messages and bytes per second)
+     *
+     * @param namespace
+     * @return publishRate
+     *            number of messages and bytes per second
+     * @throws PulsarAdminException
+     *             Unexpected error
+     */
+    PublishRate getPublishRate(String namespace) throws PulsarAdminException;
+
     /**
      * Clear backlog for all destinations on a namespace
      *
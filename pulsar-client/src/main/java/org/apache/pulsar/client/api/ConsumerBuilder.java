@@ -181,6 +181,21 @@ public interface ConsumerBuilder extends Serializable, Cloneable {
      */
     ConsumerBuilder receiverQueueSize(int receiverQueueSize);
 
+    /**
+     * Sets the size in bytes of the consumer receive queue, in addition to {@link #receiverQueueSize(int)}.
+     * <p>
+     * The broker stops pushing messages to the consumer when either the number of messages or the size of the messages
+     * sent but not yet processed by the application reaches the limit. This bounds the memory used by the consumer
+     * when the size of the messages varies a lot. A single entry bigger than the limit is still delivered.
+     * </p>
+     * The limit is applied to each partition of a partitioned topic, and it is ignored when the receiver queue size is
+     * zero or when the broker doesn't support byte permits. Default value is {@code 0}, no limit.
+     *
+     * @param receiverQueueSizeBytes
+     *            the max number of bytes to prefetch
+     */
+    ConsumerBuilder receiverQueueSizeBytes(long receiverQueueSizeBytes);
+
     /**
      * Set the max total receiver queue size across partitons.
      * <p>
@@ -213,6 +228,19 @@ public interface ConsumerBuilder extends Serializable, Cloneable {
      */
     ConsumerBuilder readCompacted(boolean readCompacted);
 
+    /**
+     * If enabled, the acknowledgements of the individual messages of a batch are sent to the broker right away, instead
+     * of only acknowledging the batch once all its messages are acknowledged. When the batch is redelivered, after a
+     * failover or an ack timeout, the messages that were already acknowledged are skipped.
+     *
+     * Batch index acknowledgements require the broker to have <code>acknowledgmentAtBatchIndexLevelEnabled</code>
+     * set. Otherwise, the batch is only acknowledged once all its messages are acknowledged.
+     *
+     * @param batchIndexAckEnabled
+     *            whether to acknowledge the individual messages of a batch
+     */
+    ConsumerBuilder enableBatchIndexAcknowledgment(boolean batchIndexAckEnabled);
+
     /**
      * Sets priority level for the shared subscription consumers to which broker gives more priority while dispatching
      * messages. Here, broker follows descending priorities. (eg: 0=max-priority, 1, 2,..) </br>
@@ -21,6 +21,7 @@ package org.apache.pulsar.client.api;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.pulsar.client.impl.MessageBuilderImpl;
 
@@ -127,6 +128,30 @@ public interface MessageBuilder {
      */
     MessageBuilder setSequenceId(long sequenceId);
 
+    /**
+     * Request to deliver the message only after the specified relative delay.
+     * <p>
+     * The delay is only applied to the consumers of {@link SubscriptionType#Shared} subscriptions. Other subscription
+     * types receive the message immediately. Messages with a delivery time are never added to a batch.
+     *
+     * @param delay
+     *            the amount of delay before the message will be delivered
+     * @param unit
+     *            the time unit for the delay
+     */
+    MessageBuilder setDeliverAfter(long delay, TimeUnit unit);
+
+    /**
+     * Deliver the message only at or after the specified absolute timestamp.
+     * <p>
+     * The timestamp is in milliseconds since the epoch, and is compared with the broker clock.
+     *
+     * @param timestamp
+     *            absolute timestamp indicating when the message should be delivered to consumers
+     * @see #setDeliverAfter(long, TimeUnit)
+     */
+    MessageBuilder setDeliverAt(long timestamp);
+
     /**
      * Override the replication clusters for this message.
      *
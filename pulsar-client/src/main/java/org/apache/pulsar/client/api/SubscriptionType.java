@@ -39,5 +39,12 @@ public enum SubscriptionType {
      * Multiple consumer will be able to use the same subscription name but only 1 consumer will receive the messages.
      * If that consumer disconnects, one of the other connected consumers will start receiving messages.
      */
-    Failover
+    Failover,
+
+    /**
+     * Multiple consumer will be able to use the same subscription name and the messages will be dispatched according to
+     * the hash of their key. All the messages with the same key are delivered, in order, to the same consumer. The
+     * range of key hashes assigned to each consumer is rebalanced when consumers are added or removed.
+     */
+    Key_Shared
 }
\ No newline at end of file
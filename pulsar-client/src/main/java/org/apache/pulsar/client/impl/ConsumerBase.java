@@ -295,7 +295,7 @@ public abstract class ConsumerBase extends HandlerBase implements Consumer {
     abstract public CompletableFuture<Void> closeAsync();
 
     private boolean isCumulativeAcknowledgementAllowed(SubscriptionType type) {
-        return SubscriptionType.Shared != type;
+        return SubscriptionType.Shared != type && SubscriptionType.Key_Shared != type;
     }
 
     protected SubType getSubType() {
@@ -309,6 +309,9 @@ public abstract class ConsumerBase extends HandlerBase implements Consumer {
 
         case Failover:
             return SubType.Failover;
+
+        case Key_Shared:
+            return SubType.Key_Shared;
         }
 
         // Should not happen since we cover all cases above
@@ -152,6 +152,13 @@ public class ConsumerBuilderImpl implements ConsumerBuilder {
         return this;
     }
 
+    @Override
+    public ConsumerBuilder receiverQueueSizeBytes(long receiverQueueSizeBytes) {
+        checkArgument(receiverQueueSizeBytes >= 0, "receiverQueueSizeBytes needs to be >= 0");
+        conf.setReceiverQueueSizeBytes(receiverQueueSizeBytes);
+        return this;
+    }
+
     @Override
     public ConsumerBuilder consumerName(String consumerName) {
         conf.setConsumerName(consumerName);
@@ -187,4 +194,10 @@ public class ConsumerBuilderImpl implements ConsumerBuilder {
         conf.setReadCompacted(readCompacted);
         return this;
     }
+
+    @Override
+    public ConsumerBuilder enableBatchIndexAcknowledgment(boolean batchIndexAckEnabled) {
+        conf.setBatchIndexAckEnabled(batchIndexAckEnabled);
+        return this;
+    }
 }
@@ -35,6 +35,7 @@ import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -43,6 +44,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -79,6 +81,7 @@ import io.netty.util.concurrent.GenericFutureListener;
 
 public class ConsumerImpl extends ConsumerBase {
     private static final int MAX_REDELIVER_UNACKNOWLEDGED = 1000;
+    private static final long BATCH_INDEX_ACK_FLUSH_DELAY_MILLIS = 100;
 
     private final long consumerId;
 
@@ -89,6 +92,15 @@ public class ConsumerImpl extends ConsumerBase {
     @SuppressWarnings("unused")
     private volatile int availablePermits = 0;
 
+    // Size of the messages that have been delivered to the application, sent to the broker along with the message
+    // permits when the consumer has a receiver queue size in bytes
+    private static final AtomicLongFieldUpdater<ConsumerImpl> AVAILABLE_BYTE_PERMITS_UPDATER = AtomicLongFieldUpdater
+            .newUpdater(ConsumerImpl.class, "availableBytePermits");
+    @SuppressWarnings("unused")
+    private volatile long availableBytePermits = 0;
+    // Whether the broker of the current connection enforces the byte permits
+    private volatile boolean bytePermitsEnabled = false;
+
     private MessageId lastDequeuedMessage = MessageId.earliest;
     private MessageId lastMessageIdInBroker = MessageId.earliest;
 
@@ -96,6 +108,7 @@ public class ConsumerImpl extends ConsumerBase {
     private final int partitionIndex;
 
     private final int receiverQueueRefillThreshold;
+    private final long receiverQueueByteRefillThreshold;
     private final CompressionCodecProvider codecProvider;
 
     private volatile boolean waitingOnReceiveForZeroQueueSize = false;
@@ -107,6 +120,11 @@ public class ConsumerImpl extends ConsumerBase {
     private final UnAckedMessageTracker unAckedMessageTracker;
     private final ConcurrentNavigableMap<MessageIdImpl, BitSet> batchMessageAckTracker;
 
+    // Indexes acknowledged in batches not fully acknowledged yet, sent to the broker with a single ack per entry
+    private final NavigableMap<MessageIdImpl, BitSet> pendingBatchIndexAcks = new TreeMap<>();
+    // Guarded by pendingBatchIndexAcks
+    private Timeout batchIndexAckFlushTimeout = null;
+
     protected final ConsumerStats stats;
     private final int priorityLevel;
     private final SubscriptionMode subscriptionMode;
@@ -145,6 +163,7 @@ public class ConsumerImpl extends ConsumerBase {
         this.subscribeTimeout = System.currentTimeMillis() + client.getConfiguration().getOperationTimeoutMs();
         this.partitionIndex = partitionIndex;
         this.receiverQueueRefillThreshold = conf.getReceiverQueueSize() / 2;
+        this.receiverQueueByteRefillThreshold = conf.getReceiverQueueSizeBytes() / 2;
         this.codecProvider = new CompressionCodecProvider();
         this.priorityLevel = conf.getPriorityLevel();
         this.batchMessageAckTracker = new ConcurrentSkipListMap<>();
@@ -476,9 +495,15 @@ public class ConsumerImpl extends ConsumerBase {
                 }
             } else {
                 // other messages in batch are still pending ack.
+                if (ackType == AckType.Individual && conf.isBatchIndexAckEnabled()) {
+                    addBatchIndexAcknowledge((BatchMessageIdImpl) messageId);
+                }
                 return CompletableFuture.completedFuture(null);
             }
         }
+        if (conf.isBatchIndexAckEnabled()) {
+            removeBatchIndexAcknowledges((MessageIdImpl) messageId, ackType);
+        }
         // if we got a cumulative ack on non batch message, check if any earlier batch messages need to be removed
         // from batch message tracker
         if (ackType == AckType.Cumulative && !(messageId instanceof BatchMessageIdImpl)) {
@@ -487,6 +512,86 @@ public class ConsumerImpl extends ConsumerBase {
         return sendAcknowledge(messageId, ackType, properties);
     }
 
+    /**
+     * Acknowledge a single message of a batch, so that it's skipped if the batch is redelivered. The batch itself is
+     * still acknowledged once all its messages are acknowledged.
+     *
+     * <p/>The indexes are grouped per entry and sent along with the next ack, or after a short delay.
+     */
+    private void addBatchIndexAcknowledge(BatchMessageIdImpl batchMessageId) {
+        MessageIdImpl entryId = new MessageIdImpl(batchMessageId.getLedgerId(), batchMessageId.getEntryId(),
+                batchMessageId.getPartitionIndex());
+        synchronized (pendingBatchIndexAcks) {
+            BitSet ackSet = pendingBatchIndexAcks.get(entryId);
+            if (ackSet == null) {
+                ackSet = new BitSet();
+                pendingBatchIndexAcks.put(entryId, ackSet);
+            }
+            ackSet.set(batchMessageId.getBatchIndex());
+
+            if (batchIndexAckFlushTimeout == null) {
+                batchIndexAckFlushTimeout = client.timer().newTimeout(timeout -> flushBatchIndexAcknowledges(),
+                        BATCH_INDEX_ACK_FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Drop the pending batch index acks of the entries that are acknowledged as a whole.
+     */
+    private void removeBatchIndexAcknowledges(MessageIdImpl messageId, AckType ackType) {
+        MessageIdImpl entryId = new MessageIdImpl(messageId.getLedgerId(), messageId.getEntryId(),
+                messageId.getPartitionIndex());
+        synchronized (pendingBatchIndexAcks) {
+            if (ackType == AckType.Cumulative) {
+                pendingBatchIndexAcks.headMap(entryId, true).clear();
+            } else {
+                pendingBatchIndexAcks.remove(entryId);
+            }
+        }
+    }
+
+    private void flushBatchIndexAcknowledges() {
+        ClientCnx cnx = cnx();
+        if (writeBatchIndexAcknowledges(cnx)) {
+            cnx.ctx().flush();
+        }
+    }
+
+    /**
+     * Write the pending batch index acks to the connection, leaving the flush to the caller.
+     *
+     * @return true if any ack was written
+     */
+    private boolean writeBatchIndexAcknowledges(ClientCnx cnx) {
+        List<Map.Entry<MessageIdImpl, BitSet>> acks;
+        synchronized (pendingBatchIndexAcks) {
+            if (batchIndexAckFlushTimeout != null) {
+                batchIndexAckFlushTimeout.cancel();
+                batchIndexAckFlushTimeout = null;
+            }
+            if (pendingBatchIndexAcks.isEmpty()) {
+                return false;
+            }
+            acks = new ArrayList<>(pendingBatchIndexAcks.entrySet());
+            pendingBatchIndexAcks.clear();
+        }
+
+        // If they can't be sent, the messages are only redelivered with the rest of their batch
+        if (!isConnected() || cnx == null
+                || !Commands.peerSupportsBatchIndexAck(cnx.getRemoteEndpointProtocolVersion())) {
+            return false;
+        }
+
+        for (Map.Entry<MessageIdImpl, BitSet> ack : acks) {
+            MessageIdImpl entryId = ack.getKey();
+            ByteBuf cmd = Commands.newAck(consumerId, entryId.getLedgerId(), entryId.getEntryId(),
+                    ack.getValue().toLongArray(), AckType.Individual, null, Collections.emptyMap());
+            cnx.ctx().write(cmd, cnx.ctx().voidPromise());
+        }
+        return true;
+    }
+
     private CompletableFuture<Void> sendAcknowledge(MessageId messageId, AckType ackType,
                                                     Map<String,Long> properties) {
         MessageIdImpl msgId = (MessageIdImpl) messageId;
@@ -497,7 +602,12 @@ public class ConsumerImpl extends ConsumerBase {
         final CompletableFuture<Void> ackFuture = new CompletableFuture<Void>();
 
         if (isConnected()) {
-            cnx().ctx().writeAndFlush(cmd).addListener(new GenericFutureListener<Future<Void>>() {
+            ClientCnx cnx = cnx();
+            if (conf.isBatchIndexAckEnabled()) {
+                // Flushed along with this ack
+                writeBatchIndexAcknowledges(cnx);
+            }
+            cnx.ctx().writeAndFlush(cmd).addListener(new GenericFutureListener<Future<Void>>() {
                 @Override
                 public void operationComplete(Future<Void> future) throws Exception {
                     if (future.isSuccess()) {
@@ -564,6 +674,25 @@ public class ConsumerImpl extends ConsumerBase {
             builder.recycle();
         }
 
+        if (conf.getSubscriptionType() == SubscriptionType.Key_Shared
+                && cnx.getRemoteEndpointProtocolVersion() < ProtocolVersion.v13.getNumber()) {
+            if (startMessageIdData != null) {
+                startMessageIdData.recycle();
+            }
+            cnx.removeConsumer(consumerId);
+            PulsarClientException e = new PulsarClientException.NotSupportedException(
+                    "Key_Shared subscriptions are not supported by the broker");
+            if (!subscribeFuture.isDone()) {
+                setState(State.Failed);
+                subscribeFuture.completeExceptionally(e);
+                client.cleanupConsumer(this);
+            } else {
+                // Connected to a broker that doesn't support Key_Shared, the topic might be moved to another broker
+                reconnectLater(e);
+            }
+            return;
+        }
+
         ByteBuf request = Commands.newSubscribe(topic, subscription, consumerId, requestId, getSubType(), priorityLevel,
                 consumerName, isDurable, startMessageIdData, metadata, readCompacted);
         if (startMessageIdData != null) {
@@ -577,6 +706,9 @@ public class ConsumerImpl extends ConsumerBase {
                             cnx.channel().remoteAddress(), consumerId);
 
                     AVAILABLE_PERMITS_UPDATER.set(this, 0);
+                    AVAILABLE_BYTE_PERMITS_UPDATER.set(this, 0);
+                    bytePermitsEnabled = conf.getReceiverQueueSizeBytes() > 0 && conf.getReceiverQueueSize() != 0
+                            && Commands.peerSupportsBytePermits(cnx.getRemoteEndpointProtocolVersion());
                     // For zerosize queue : If the connection is reset and someone is waiting for the messages
                     // or queue was not empty: send a flow command
                     if (waitingOnReceiveForZeroQueueSize || (conf.getReceiverQueueSize() == 0 && currentSize > 0)) {
@@ -598,7 +730,7 @@ public class ConsumerImpl extends ConsumerBase {
             // if the consumer is not partitioned or is re-connected and is partitioned, we send the flow
             // command to receive messages
             if (!(firstTimeConnect && partitionIndex > -1) && conf.getReceiverQueueSize() != 0) {
-                sendFlowPermitsToBroker(cnx, conf.getReceiverQueueSize());
+                sendFlowPermitsToBroker(cnx, conf.getReceiverQueueSize(), conf.getReceiverQueueSizeBytes());
             }
         }).exceptionally((e) -> {
             cnx.removeConsumer(consumerId);
@@ -664,12 +796,23 @@ public class ConsumerImpl extends ConsumerBase {
      * send the flow command to have the broker start pushing messages
      */
     void sendFlowPermitsToBroker(ClientCnx cnx, int numMessages) {
+        sendFlowPermitsToBroker(cnx, numMessages, 0);
+    }
+
+    /**
+     * send the flow command to have the broker start pushing messages, the byte permits are only sent when the broker
+     * supports them
+     */
+    void sendFlowPermitsToBroker(ClientCnx cnx, int numMessages, long numBytes) {
         if (cnx != null) {
+            long bytePermits = bytePermitsEnabled ? numBytes : 0;
             if (log.isDebugEnabled()) {
-                log.debug("[{}] [{}] Adding {} additional permits", topic, subscription, numMessages);
+                log.debug("[{}] [{}] Adding {} additional permits, {} bytes", topic, subscription, numMessages,
+                        bytePermits);
             }
 
-            cnx.ctx().writeAndFlush(Commands.newFlow(consumerId, numMessages), cnx.ctx().voidPromise());
+            cnx.ctx().writeAndFlush(Commands.newFlow(consumerId, numMessages, bytePermits),
+                    cnx.ctx().voidPromise());
         }
     }
 
@@ -711,6 +854,7 @@ public class ConsumerImpl extends ConsumerBase {
 
         CompletableFuture<Void> closeFuture = new CompletableFuture<>();
         ClientCnx cnx = cnx();
+        writeBatchIndexAcknowledges(cnx);
         cnx.sendRequestWithId(cmd, requestId).handle((v, exception) -> {
             cnx.removeConsumer(consumerId);
             if (exception == null || !cnx.ctx().channel().isActive()) {
@@ -772,10 +916,13 @@ public class ConsumerImpl extends ConsumerBase {
 
         MessageMetadata msgMetadata = null;
         ByteBuf payload = headersAndPayload;
+        // The size of the entry, as accounted by the broker for the byte permits
+        final int entrySize = headersAndPayload.readableBytes();
 
         if (!verifyChecksum(headersAndPayload, messageId)) {
             // discard message with checksum error
             discardCorruptedMessage(messageId, cnx, ValidationError.ChecksumMismatch);
+            releaseBytePermits(cnx, entrySize);
             return;
         }
 
@@ -783,18 +930,21 @@ public class ConsumerImpl extends ConsumerBase {
             msgMetadata = Commands.parseMessageMetadata(payload);
         } catch (Throwable t) {
             discardCorruptedMessage(messageId, cnx, ValidationError.ChecksumMismatch);
+            releaseBytePermits(cnx, entrySize);
             return;
         }
 
         ByteBuf decryptedPayload = decryptPayloadIfNeeded(messageId, msgMetadata, payload, cnx);
         if (decryptedPayload == null) {
             // Message was discarded or CryptoKeyReader isn't implemented
+            releaseBytePermits(cnx, entrySize);
             return;
         }
         ByteBuf uncompressedPayload = uncompressPayloadIfNeeded(messageId, msgMetadata, decryptedPayload, cnx);
         decryptedPayload.release();
         if (uncompressedPayload == null) {
             // Message was discarded on decompression error
+            releaseBytePermits(cnx, entrySize);
             return;
         }
 
@@ -803,6 +953,7 @@ public class ConsumerImpl extends ConsumerBase {
         if (numMessages == 1 && !msgMetadata.hasNumMessagesInBatch()) {
             final MessageImpl message = new MessageImpl(messageId, msgMetadata, uncompressedPayload,
                     getPartitionIndex(), cnx);
+            message.setEntrySizeShare(entrySize);
             uncompressedPayload.release();
             msgMetadata.recycle();
 
@@ -838,7 +989,7 @@ public class ConsumerImpl extends ConsumerBase {
                 });
             } else {
                 // handle batch message enqueuing; uncompressed payload has all messages in batch
-                receiveIndividualMessagesFromBatch(msgMetadata, uncompressedPayload, messageId, cnx);
+                receiveIndividualMessagesFromBatch(msgMetadata, uncompressedPayload, messageId, cnx, entrySize);
             }
             uncompressedPayload.release();
             msgMetadata.recycle();
@@ -907,7 +1058,7 @@ public class ConsumerImpl extends ConsumerBase {
     }
 
     void receiveIndividualMessagesFromBatch(MessageMetadata msgMetadata, ByteBuf uncompressedPayload,
-            MessageIdData messageId, ClientCnx cnx) {
+            MessageIdData messageId, ClientCnx cnx, int entrySize) {
         int batchSize = msgMetadata.getNumMessagesInBatch();
 
         // create ack tracker for entry aka batch
@@ -915,6 +1066,16 @@ public class ConsumerImpl extends ConsumerBase {
         MessageIdImpl batchMessage = new MessageIdImpl(messageId.getLedgerId(), messageId.getEntryId(),
                 getPartitionIndex());
         bitSet.set(0, batchSize);
+        // The messages of the batch that were already acknowledged, when the batch is redelivered
+        BitSet ackedIndexes = null;
+        if (messageId.getAckSetCount() > 0) {
+            long[] ackSet = new long[messageId.getAckSetCount()];
+            for (int i = 0; i < ackSet.length; i++) {
+                ackSet[i] = messageId.getAckSet(i);
+            }
+            ackedIndexes = BitSet.valueOf(ackSet);
+            bitSet.andNot(ackedIndexes);
+        }
         if (log.isDebugEnabled()) {
             log.debug("[{}] [{}] added bit set for message {}, cardinality {}, length {}", subscription, consumerName,
                     batchMessage, bitSet.cardinality(), bitSet.length());
@@ -923,6 +1084,9 @@ public class ConsumerImpl extends ConsumerBase {
         unAckedMessageTracker.add(batchMessage);
 
         int skippedMessages = 0;
+        // Each message of the batch holds an equal share of the entry size, the bytes of the messages that are not
+        // enqueued are returned to the broker right away
+        long skippedBytes = entrySize;
         try {
             for (int i = 0; i < batchSize; ++i) {
                 if (log.isDebugEnabled()) {
@@ -933,6 +1097,17 @@ public class ConsumerImpl extends ConsumerBase {
                 ByteBuf singleMessagePayload = Commands.deSerializeSingleMessageInBatch(uncompressedPayload,
                         singleMessageMetadataBuilder, i, batchSize);
 
+                if (ackedIndexes != null && ackedIndexes.get(i)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] [{}] Ignoring message {} of batch {} that was already acknowledged",
+                                subscription, consumerName, i, batchMessage);
+                    }
+                    singleMessagePayload.release();
+                    singleMessageMetadataBuilder.recycle();
+                    ++skippedMessages;
+                    continue;
+                }
+
                 if (subscriptionMode == SubscriptionMode.NonDurable && startMessageId != null
                         && messageId.getLedgerId() == startMessageId.getLedgerId()
                         && messageId.getEntryId() == startMessageId.getEntryId()
@@ -952,6 +1127,9 @@ public class ConsumerImpl extends ConsumerBase {
                         messageId.getEntryId(), getPartitionIndex(), i);
                 final MessageImpl message = new MessageImpl(batchMessageIdImpl, msgMetadata,
                         singleMessageMetadataBuilder.build(), singleMessagePayload, cnx);
+                int entrySizeShare = entrySize / batchSize + (i < entrySize % batchSize ? 1 : 0);
+                message.setEntrySizeShare(entrySizeShare);
+                skippedBytes -= entrySizeShare;
                 lock.readLock().lock();
                 try {
                     if (pendingReceives.isEmpty()) {
@@ -976,8 +1154,13 @@ public class ConsumerImpl extends ConsumerBase {
                     consumerName, incomingMessages.size(), incomingMessages.remainingCapacity());
         }
 
-        if (skippedMessages > 0) {
-            increaseAvailablePermits(cnx, skippedMessages);
+        if (skippedMessages > 0 || skippedBytes > 0) {
+            increaseAvailablePermits(cnx, skippedMessages, skippedBytes);
+        }
+
+        if (ackedIndexes != null && bitSet.isEmpty() && batchMessageAckTracker.remove(batchMessage) != null) {
+            // All the messages of the batch were already acknowledged, only the batch itself needs to be
+            sendAcknowledge(batchMessage, AckType.Individual, Collections.emptyMap());
         }
     }
 
@@ -996,7 +1179,7 @@ public class ConsumerImpl extends ConsumerBase {
             return;
         }
 
-        increaseAvailablePermits(currentCnx);
+        increaseAvailablePermits(currentCnx, 1, ((MessageImpl) msg).getEntrySizeShare());
         stats.updateNumMsgsReceived(msg);
 
         if (conf.getAckTimeoutMillis() != 0) {
@@ -1019,8 +1202,27 @@ public class ConsumerImpl extends ConsumerBase {
     }
 
     private void increaseAvailablePermits(ClientCnx currentCnx, int delta) {
+        increaseAvailablePermits(currentCnx, delta, 0);
+    }
+
+    private void increaseAvailablePermits(ClientCnx currentCnx, int delta, long deltaBytes) {
         int available = AVAILABLE_PERMITS_UPDATER.addAndGet(this, delta);
 
+        if (bytePermitsEnabled) {
+            long availableBytes = AVAILABLE_BYTE_PERMITS_UPDATER.addAndGet(this, deltaBytes);
+            if (available < receiverQueueRefillThreshold && availableBytes < receiverQueueByteRefillThreshold) {
+                return;
+            }
+
+            // Either kind of permits can trigger the flow, since the broker might be waiting for any of them
+            int permits = AVAILABLE_PERMITS_UPDATER.getAndSet(this, 0);
+            long bytePermits = AVAILABLE_BYTE_PERMITS_UPDATER.getAndSet(this, 0);
+            if (permits > 0 || bytePermits > 0) {
+                sendFlowPermitsToBroker(currentCnx, permits, bytePermits);
+            }
+            return;
+        }
+
         while (available >= receiverQueueRefillThreshold) {
             if (AVAILABLE_PERMITS_UPDATER.compareAndSet(this, available, 0)) {
                 sendFlowPermitsToBroker(currentCnx, available);
@@ -1122,6 +1324,10 @@ public class ConsumerImpl extends ConsumerBase {
         return true;
     }
 
+    private void releaseBytePermits(ClientCnx currentCnx, int entrySize) {
+        increaseAvailablePermits(currentCnx, 0, entrySize);
+    }
+
     private void discardCorruptedMessage(MessageIdData messageId, ClientCnx currentCnx,
             ValidationError validationError) {
         log.error("[{}][{}] Discarding corrupted message at {}:{}", topic, subscription, messageId.getLedgerId(),
@@ -1166,15 +1372,21 @@ public class ConsumerImpl extends ConsumerBase {
         ClientCnx cnx = cnx();
         if (isConnected() && cnx.getRemoteEndpointProtocolVersion() >= ProtocolVersion.v2.getNumber()) {
             int currentSize = 0;
+            long currentBytes = 0;
             synchronized (this) {
                 currentSize = incomingMessages.size();
+                for (Message msg : incomingMessages) {
+                    currentBytes += ((MessageImpl) msg).getEntrySizeShare();
+                }
                 incomingMessages.clear();
                 unAckedMessageTracker.clear();
                 batchMessageAckTracker.clear();
             }
+            // The redelivered batches skip the messages already acknowledged
+            writeBatchIndexAcknowledges(cnx);
             cnx.ctx().writeAndFlush(Commands.newRedeliverUnacknowledgedMessages(consumerId), cnx.ctx().voidPromise());
             if (currentSize > 0) {
-                increaseAvailablePermits(cnx, currentSize);
+                increaseAvailablePermits(cnx, currentSize, currentBytes);
             }
             if (log.isDebugEnabled()) {
                 log.debug("[{}] [{}] [{}] Redeliver unacked messages and send {} permits", subscription, topic,
@@ -1194,14 +1406,17 @@ public class ConsumerImpl extends ConsumerBase {
     public void redeliverUnacknowledgedMessages(Set<MessageId> messageIds) {
         checkArgument(messageIds.stream().findFirst().get() instanceof MessageIdImpl);
 
-        if (conf.getSubscriptionType() != SubscriptionType.Shared) {
-            // We cannot redeliver single messages if subscription type is not Shared
+        if (conf.getSubscriptionType() != SubscriptionType.Shared
+                && conf.getSubscriptionType() != SubscriptionType.Key_Shared) {
+            // We cannot redeliver single messages if subscription type is not Shared or Key_Shared
             redeliverUnacknowledgedMessages();
             return;
         }
         ClientCnx cnx = cnx();
         if (isConnected() && cnx.getRemoteEndpointProtocolVersion() >= ProtocolVersion.v2.getNumber()) {
             int messagesFromQueue = removeExpiredMessagesFromQueue(messageIds);
+            // The redelivered batches skip the messages already acknowledged
+            writeBatchIndexAcknowledges(cnx);
             Iterable<List<MessageIdImpl>> batches = Iterables.partition(
                 messageIds.stream()
                     .map(messageId -> (MessageIdImpl)messageId)
@@ -1393,9 +1608,11 @@ public class ConsumerImpl extends ConsumerBase {
             }
 
             // try not to remove elements that are added while we remove
+            long bytesFromQueue = 0;
             Message message = incomingMessages.poll();
             while (message != null) {
                 messagesFromQueue++;
+                bytesFromQueue += ((MessageImpl) message).getEntrySizeShare();
                 MessageIdImpl id = getMessageIdImpl(message);
                 if (!messageIds.contains(id)) {
                     messageIds.add(id);
@@ -1403,6 +1620,10 @@ public class ConsumerImpl extends ConsumerBase {
                 }
                 message = incomingMessages.poll();
             }
+            if (bytePermitsEnabled) {
+                // The bytes are sent to the broker along with the message permits returned by the caller
+                AVAILABLE_BYTE_PERMITS_UPDATER.addAndGet(this, bytesFromQueue);
+            }
         }
         return messagesFromQueue;
     }
@@ -23,6 +23,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.pulsar.client.api.Message;
 import org.apache.pulsar.client.api.MessageBuilder;
@@ -95,6 +96,19 @@ public class MessageBuilderImpl implements MessageBuilder {
         return this;
     }
 
+    @Override
+    public MessageBuilder setDeliverAfter(long delay, TimeUnit unit) {
+        checkArgument(delay >= 0, "Invalid delay : '%s'", delay);
+        return setDeliverAt(System.currentTimeMillis() + unit.toMillis(delay));
+    }
+
+    @Override
+    public MessageBuilder setDeliverAt(long timestamp) {
+        checkArgument(timestamp > 0, "Invalid timestamp : '%s'", timestamp);
+        msgMetadataBuilder.setDeliverAtTime(timestamp);
+        return this;
+    }
+
     @Override
     public MessageBuilder setReplicationClusters(List<String> clusters) {
         Preconditions.checkNotNull(clusters);
@@ -49,6 +49,8 @@ public class MessageImpl implements Message {
     private MessageId messageId;
     private ClientCnx cnx;
     private ByteBuf payload;
+    // Share of the size of the entry carrying this message, counted against the byte permits of the consumer
+    private int entrySizeShare = 0;
 
     transient private Map<String, String> properties;
 
@@ -292,4 +294,12 @@ public class MessageImpl implements Message {
     void setMessageId(MessageIdImpl messageId) {
         this.messageId = messageId;
     }
+
+    int getEntrySizeShare() {
+        return entrySizeShare;
+    }
+
+    void setEntrySizeShare(int entrySizeShare) {
+        this.entrySizeShare = entrySizeShare;
+    }
 }
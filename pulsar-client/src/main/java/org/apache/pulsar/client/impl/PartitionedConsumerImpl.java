@@ -129,7 +129,8 @@ public class PartitionedConsumerImpl extends ConsumerBase {
 
     private void starReceivingMessages() throws PulsarClientException {
         for (ConsumerImpl consumer : consumers) {
-            consumer.sendFlowPermitsToBroker(consumer.cnx(), conf.getReceiverQueueSize());
+            consumer.sendFlowPermitsToBroker(consumer.cnx(), conf.getReceiverQueueSize(),
+                    conf.getReceiverQueueSizeBytes());
             receiveMessageFromConsumer(consumer);
         }
     }
@@ -473,8 +474,9 @@ public class PartitionedConsumerImpl extends ConsumerBase {
     @Override
     public void redeliverUnacknowledgedMessages(Set<MessageId> messageIds) {
         checkArgument(messageIds.stream().findFirst().get() instanceof MessageIdImpl);
-        if (conf.getSubscriptionType() != SubscriptionType.Shared) {
-            // We cannot redeliver single messages if subscription type is not Shared
+        if (conf.getSubscriptionType() != SubscriptionType.Shared
+                && conf.getSubscriptionType() != SubscriptionType.Key_Shared) {
+            // We cannot redeliver single messages if subscription type is not Shared or Key_Shared
             redeliverUnacknowledgedMessages();
             return;
         }
@@ -246,11 +246,14 @@ public class ProducerImpl extends ProducerBase implements TimerTask {
         MessageMetadata.Builder msgMetadata = msg.getMessageBuilder();
         ByteBuf payload = msg.getDataBuffer();
 
+        // The delivery time is stored in the batch metadata, so delayed messages are sent on their own
+        boolean addToBatch = isBatchMessagingEnabled() && !msgMetadata.hasDeliverAtTime();
+
         // If compression is enabled, we are compressing, otherwise it will simply use the same buffer
         int uncompressedSize = payload.readableBytes();
         ByteBuf compressedPayload = payload;
         // batch will be compressed when closed
-        if (!isBatchMessagingEnabled()) {
+        if (!addToBatch) {
             compressedPayload = compressor.encode(payload);
             payload.release();
         }
@@ -260,7 +263,7 @@ public class ProducerImpl extends ProducerBase implements TimerTask {
         // batch)
         if (compressedSize > PulsarDecoder.MaxMessageSize) {
             compressedPayload.release();
-            String compressedStr = (!isBatchMessagingEnabled() && conf.getCompressionType() != CompressionType.NONE)
+            String compressedStr = (!addToBatch && conf.getCompressionType() != CompressionType.NONE)
                     ? "Compressed"
                     : "";
             callback.sendComplete(new PulsarClientException.InvalidMessageException(
@@ -297,7 +300,7 @@ public class ProducerImpl extends ProducerBase implements TimerTask {
                     }
                 }
 
-                if (isBatchMessagingEnabled()) {
+                if (addToBatch) {
                     // handle boundary cases where message being added would exceed
                     // batch size and/or max message size
                     if (batchMessageContainer.hasSpaceInBatch(msg)) {
@@ -311,6 +314,10 @@ public class ProducerImpl extends ProducerBase implements TimerTask {
                         doBatchSendAndAdd(msg, callback, payload);
                     }
                 } else {
+                    if (isBatchMessagingEnabled() && !batchMessageContainer.isEmpty()) {
+                        // Send the pending batch first to preserve the ordering
+                        batchMessageAndSend();
+                    }
                     ByteBuf encryptedPayload = encryptMessage(msgMetadata, compressedPayload);
                     ByteBufPair cmd = sendMessage(producerId, sequenceId, 1, msgMetadata.build(), encryptedPayload);
                     msgMetadata.recycle();
@@ -351,6 +358,67 @@ public class ProducerImpl extends ProducerBase implements TimerTask {
         }
     }
 
+    /**
+     * Send a message that was already serialized by another producer, as it was stored by the broker, only marking it
+     * as replicated from the given cluster. The original metadata, batching, compression and encryption are kept.
+     *
+     * @param metadataAndPayload
+     *            the stored [checksum][metadata-size][metadata][payload] of the message, which is not released
+     * @param sequenceId
+     *            the sequence id of the message, as set in its metadata
+     * @param numMessages
+     *            the number of messages in the batch
+     * @param replicatedFrom
+     *            the cluster the message is replicated from
+     */
+    public void sendReplicatedAsync(ByteBuf metadataAndPayload, long sequenceId, int numMessages,
+            String replicatedFrom, SendCallback callback) {
+        if (!isValidProducerState(callback)) {
+            return;
+        }
+
+        if (!canEnqueueRequest(callback)) {
+            return;
+        }
+
+        try {
+            synchronized (this) {
+                if (isBatchMessagingEnabled() && !batchMessageContainer.isEmpty()) {
+                    // Send the pending batch first to preserve the ordering
+                    batchMessageAndSend();
+                }
+                ByteBufPair cmd = Commands.newSendReplicated(producerId, sequenceId, numMessages, metadataAndPayload,
+                        replicatedFrom);
+
+                // The whole batch only took a single permit
+                final OpSendMsg op = OpSendMsg.create((MessageImpl) null, cmd, sequenceId, callback);
+                op.setNumMessagesInBatch(1);
+                op.setBatchSizeByte(cmd.getSecond().readableBytes());
+                pendingMessages.put(op);
+
+                // Read the connection before validating if it's still connected, so that we avoid reading a null value
+                ClientCnx cnx = cnx();
+                if (isConnected()) {
+                    cmd.retain();
+                    cnx.ctx().channel().eventLoop().execute(WriteInEventLoopCallback.create(this, cnx, op));
+                    stats.updateNumMsgsSent(numMessages, op.batchSizeByte);
+                } else {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] [{}] Connection is not ready -- sequenceId {}", topic, producerName,
+                                sequenceId);
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            semaphore.release();
+            callback.sendComplete(new PulsarClientException(ie));
+        } catch (Throwable t) {
+            semaphore.release();
+            callback.sendComplete(new PulsarClientException(t));
+        }
+    }
+
     private ByteBuf encryptMessage(MessageMetadata.Builder msgMetadata, ByteBuf compressedPayload)
             throws PulsarClientException {
 
@@ -784,7 +852,7 @@ public class ProducerImpl extends ProducerBase implements TimerTask {
         void setMessageId(long ledgerId, long entryId, int partitionIndex) {
             if (msg != null) {
                 msg.setMessageId(new MessageIdImpl(ledgerId, entryId, partitionIndex));
-            } else {
+            } else if (msgs != null) {
                 for (int batchIndex = 0; batchIndex < msgs.size(); batchIndex++) {
                     msgs.get(batchIndex)
                             .setMessageId(new BatchMessageIdImpl(ledgerId, entryId, partitionIndex, batchIndex));
@@ -188,7 +188,8 @@ public class TopicsConsumerImpl extends ConsumerBase {
         }
         if (getState() == State.Ready) {
             newConsumers.forEach(consumer -> {
-                consumer.sendFlowPermitsToBroker(consumer.cnx(), conf.getReceiverQueueSize());
+                consumer.sendFlowPermitsToBroker(consumer.cnx(), conf.getReceiverQueueSize(),
+                        conf.getReceiverQueueSizeBytes());
                 receiveMessageFromConsumer(consumer);
             });
         }
@@ -516,8 +517,9 @@ public class TopicsConsumerImpl extends ConsumerBase {
     public void redeliverUnacknowledgedMessages(Set<MessageId> messageIds) {
         checkArgument(messageIds.stream().findFirst().get() instanceof TopicMessageIdImpl);
 
-        if (conf.getSubscriptionType() != SubscriptionType.Shared) {
-            // We cannot redeliver single messages if subscription type is not Shared
+        if (conf.getSubscriptionType() != SubscriptionType.Shared
+                && conf.getSubscriptionType() != SubscriptionType.Key_Shared) {
+            // We cannot redeliver single messages if subscription type is not Shared or Key_Shared
             redeliverUnacknowledgedMessages();
             return;
         }
@@ -55,6 +55,8 @@ public class ConsumerConfigurationData implements Serializable, Cloneable {
 
     private int receiverQueueSize = 1000;
 
+    private long receiverQueueSizeBytes = 0;
+
     private int maxTotalReceiverQueueSizeAcrossPartitions = 50000;
 
     private String consumerName = null;
@@ -72,6 +74,8 @@ public class ConsumerConfigurationData implements Serializable, Cloneable {
 
     private boolean readCompacted = false;
 
+    private boolean batchIndexAckEnabled = false;
+
     @JsonIgnore
     public String getSingleTopic() {
         checkArgument(topicNames.size() == 1);
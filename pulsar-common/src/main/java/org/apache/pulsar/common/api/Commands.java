@@ -22,6 +22,7 @@ import static org.apache.pulsar.checksum.utils.Crc32cChecksum.computeChecksum;
 import static org.apache.pulsar.checksum.utils.Crc32cChecksum.resumeChecksum;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
@@ -319,6 +320,100 @@ public class Commands {
         return res;
     }
 
+    /**
+     * Create a send command that forwards a message as it was stored by the broker, with its original metadata,
+     * batching and compression, only marking it as replicated from the given cluster.
+     *
+     * The replicated_from field is appended to the serialized metadata instead of re-encoding it, which is valid since
+     * protobuf fields can be written in any order. Only the checksum, when present, is computed again. The
+     * metadataAndPayload buffer must not already have replicated_from set and its reader index is left untouched.
+     */
+    public static ByteBufPair newSendReplicated(long producerId, long sequenceId, int numMessages,
+            ByteBuf metadataAndPayload, String replicatedFrom) {
+        // / Wire format
+        // [TOTAL_SIZE] [CMD_SIZE][CMD] [MAGIC_NUMBER][CHECKSUM] [METADATA_SIZE][METADATA][REPLICATED_FROM] [PAYLOAD]
+        int readerIndex = metadataAndPayload.readerIndex();
+        boolean includeChecksum = hasChecksum(metadataAndPayload);
+        if (includeChecksum) {
+            metadataAndPayload.skipBytes(checksumSize);
+        }
+        int msgMetadataSize = (int) metadataAndPayload.readUnsignedInt();
+        ByteBuf metadata = metadataAndPayload.retainedSlice(metadataAndPayload.readerIndex(), msgMetadataSize);
+        metadataAndPayload.skipBytes(msgMetadataSize);
+        ByteBuf payload = metadataAndPayload.retainedSlice();
+        metadataAndPayload.readerIndex(readerIndex);
+
+        CommandSend.Builder sendBuilder = CommandSend.newBuilder();
+        sendBuilder.setProducerId(producerId);
+        sendBuilder.setSequenceId(sequenceId);
+        if (numMessages > 1) {
+            sendBuilder.setNumMessages(numMessages);
+        }
+        CommandSend send = sendBuilder.build();
+        BaseCommand.Builder cmdBuilder = BaseCommand.newBuilder();
+        BaseCommand cmd = cmdBuilder.setType(Type.SEND).setSend(send).build();
+
+        ByteString replicatedFromBytes = ByteString.copyFromUtf8(replicatedFrom);
+        int replicatedFromSize = CodedOutputStream.computeBytesSize(MessageMetadata.REPLICATED_FROM_FIELD_NUMBER,
+                replicatedFromBytes);
+        int cmdSize = cmd.getSerializedSize();
+        int magicAndChecksumLength = includeChecksum ? (2 + 4 /* magic + checksumLength*/) : 0;
+        int headersSize = 4 + 4 + cmdSize + magicAndChecksumLength + 4; // totalSize + cmdLength + cmdSize +
+                                                                        // magicAndChecksumLength + msgMetadataLength
+        int totalSize = headersSize - 4 + msgMetadataSize + replicatedFromSize + payload.readableBytes();
+        int checksumReaderIndex = -1;
+
+        ByteBuf headers = PooledByteBufAllocator.DEFAULT.buffer(headersSize, headersSize);
+        ByteBuf replicatedFromField = PooledByteBufAllocator.DEFAULT.buffer(replicatedFromSize, replicatedFromSize);
+        headers.writeInt(totalSize); // External frame
+
+        try {
+            // Write cmd
+            headers.writeInt(cmdSize);
+
+            ByteBufCodedOutputStream outStream = ByteBufCodedOutputStream.get(headers);
+            cmd.writeTo(outStream);
+            outStream.recycle();
+
+            //Create checksum placeholder
+            if (includeChecksum) {
+                headers.writeShort(magicCrc32c);
+                checksumReaderIndex = headers.writerIndex();
+                headers.writerIndex(headers.writerIndex() + checksumSize); //skip 4 bytes of checksum
+            }
+
+            // The metadata size now accounts for the appended field
+            headers.writeInt(msgMetadataSize + replicatedFromSize);
+
+            outStream = ByteBufCodedOutputStream.get(replicatedFromField);
+            outStream.writeBytes(MessageMetadata.REPLICATED_FROM_FIELD_NUMBER, replicatedFromBytes);
+            outStream.recycle();
+        } catch (IOException e) {
+            // This is in-memory serialization, should not fail
+            throw new RuntimeException(e);
+        } finally {
+            cmd.recycle();
+            cmdBuilder.recycle();
+            send.recycle();
+            sendBuilder.recycle();
+        }
+
+        // write checksum at created checksum-placeholder, resuming it over each of the forwarded buffers to avoid
+        // copying them into a single one
+        if (includeChecksum) {
+            headers.markReaderIndex();
+            headers.readerIndex(checksumReaderIndex + checksumSize);
+            int computedChecksum = computeChecksum(headers);
+            computedChecksum = resumeChecksum(computedChecksum, metadata);
+            computedChecksum = resumeChecksum(computedChecksum, replicatedFromField);
+            computedChecksum = resumeChecksum(computedChecksum, payload);
+            headers.setInt(checksumReaderIndex, computedChecksum);
+            headers.resetReaderIndex();
+        }
+
+        return ByteBufPair.get(headers, Unpooled.wrappedBuffer(metadata, replicatedFromField, payload));
+    }
+
     public static ByteBuf newSubscribe(String topic, String subscription, long consumerId, long requestId,
             SubType subType, int priorityLevel, String consumerName) {
         return newSubscribe(topic, subscription, consumerId, requestId, subType, priorityLevel, consumerName,
@@ -533,12 +628,26 @@ public class Commands {
 
     public static ByteBuf newAck(long consumerId, long ledgerId, long entryId, AckType ackType,
                                  ValidationError validationError, Map<String,Long> properties) {
+        return newAck(consumerId, ledgerId, entryId, null, ackType, validationError, properties);
+    }
+
+    /**
+     * Create an ack command. When {@code ackSet} is set, only the messages of the batch whose index bit is set are
+     * acknowledged.
+     */
+    public static ByteBuf newAck(long consumerId, long ledgerId, long entryId, long[] ackSet, AckType ackType,
+                                 ValidationError validationError, Map<String,Long> properties) {
         CommandAck.Builder ackBuilder = CommandAck.newBuilder();
         ackBuilder.setConsumerId(consumerId);
         ackBuilder.setAckType(ackType);
         MessageIdData.Builder messageIdDataBuilder = MessageIdData.newBuilder();
         messageIdDataBuilder.setLedgerId(ledgerId);
         messageIdDataBuilder.setEntryId(entryId);
+        if (ackSet != null) {
+            for (long word : ackSet) {
+                messageIdDataBuilder.addAckSet(word);
+            }
+        }
         MessageIdData messageIdData = messageIdDataBuilder.build();
         ackBuilder.setMessageId(messageIdData);
         if (validationError != null) {
@@ -559,9 +668,16 @@ public class Commands {
     }
 
     public static ByteBuf newFlow(long consumerId, int messagePermits) {
+        return newFlow(consumerId, messagePermits, 0);
+    }
+
+    public static ByteBuf newFlow(long consumerId, int messagePermits, long bytePermits) {
         CommandFlow.Builder flowBuilder = CommandFlow.newBuilder();
         flowBuilder.setConsumerId(consumerId);
         flowBuilder.setMessagePermits(messagePermits);
+        if (bytePermits > 0) {
+            flowBuilder.setBytePermits(bytePermits);
+        }
         CommandFlow flow = flowBuilder.build();
 
         ByteBuf res = serializeWithSize(BaseCommand.newBuilder().setType(Type.FLOW).setFlow(flowBuilder));
@@ -838,6 +954,30 @@ public class Commands {
             singleMessageMetadataBuilder = singleMessageMetadataBuilder
                     .addAllProperties(msgBuilder.getPropertiesList());
         }
+        return serializeSingleMessageInBatchWithPayload(singleMessageMetadataBuilder, payload, batchBuffer);
+    }
+
+    /**
+     * Append a message already serialized on its own to the payload of a batch, the way
+     * {@link #serializeSingleMessageInBatchWithPayload(PulsarApi.MessageMetadata.Builder, ByteBuf, ByteBuf)} does.
+     */
+    public static ByteBuf serializeSingleMessageInBatchWithPayload(MessageMetadata msgMetadata, ByteBuf payload,
+            ByteBuf batchBuffer) {
+        PulsarApi.SingleMessageMetadata.Builder singleMessageMetadataBuilder = PulsarApi.SingleMessageMetadata
+                .newBuilder();
+        if (msgMetadata.hasPartitionKey()) {
+            singleMessageMetadataBuilder = singleMessageMetadataBuilder.setPartitionKey(msgMetadata.getPartitionKey());
+        }
+        if (msgMetadata.getPropertiesCount() > 0) {
+            singleMessageMetadataBuilder = singleMessageMetadataBuilder
+                    .addAllProperties(msgMetadata.getPropertiesList());
+        }
+        return serializeSingleMessageInBatchWithPayload(singleMessageMetadataBuilder, payload, batchBuffer);
+    }
+
+    private static ByteBuf serializeSingleMessageInBatchWithPayload(
+            PulsarApi.SingleMessageMetadata.Builder singleMessageMetadataBuilder, ByteBuf payload,
+            ByteBuf batchBuffer) {
         int payLoadSize = payload.readableBytes();
         PulsarApi.SingleMessageMetadata singleMessageMetadata = singleMessageMetadataBuilder.setPayloadSize(payLoadSize)
                 .build();
@@ -974,4 +1114,12 @@ public class Commands {
     public static boolean peerSupportsActiveConsumerListener(int peerVersion) {
         return peerVersion >= ProtocolVersion.v12.getNumber();
     }
+
+    public static boolean peerSupportsBatchIndexAck(int peerVersion) {
+        return peerVersion >= ProtocolVersion.v14.getNumber();
+    }
+
+    public static boolean peerSupportsBytePermits(int peerVersion) {
+        return peerVersion >= ProtocolVersion.v15.getNumber();
+    }
 }
@@ -200,6 +200,9 @@ public final class PulsarApi {
     v10(10, 10),
     v11(11, 11),
     v12(12, 12),
+    v13(13, 13),
+    v14(14, 14),
+    v15(15, 15),
     ;
     
     public static final int v0_VALUE = 0;
@@ -215,6 +218,9 @@ public final class PulsarApi {
     public static final int v10_VALUE = 10;
     public static final int v11_VALUE = 11;
     public static final int v12_VALUE = 12;
+    public static final int v13_VALUE = 13;
+    public static final int v14_VALUE = 14;
+    public static final int v15_VALUE = 15;
     
     
     public final int getNumber() { return value; }
@@ -234,6 +240,9 @@ public final class PulsarApi {
         case 10: return v10;
         case 11: return v11;
         case 12: return v12;
+        case 13: return v13;
+        case 14: return v14;
+        case 15: return v15;
         default: return null;
       }
     }
@@ -277,6 +286,11 @@ public final class PulsarApi {
     // optional int32 batch_index = 4 [default = -1];
     boolean hasBatchIndex();
     int getBatchIndex();
+    
+    // repeated int64 ack_set = 5;
+    java.util.List<java.lang.Long> getAckSetList();
+    int getAckSetCount();
+    long getAckSet(int index);
   }
   public static final class MessageIdData extends
       com.google.protobuf.GeneratedMessageLite
@@ -355,11 +369,26 @@ public final class PulsarApi {
       return batchIndex_;
     }
     
+    // repeated int64 ack_set = 5;
+    public static final int ACK_SET_FIELD_NUMBER = 5;
+    private java.util.List<java.lang.Long> ackSet_;
+    public java.util.List<java.lang.Long>
+        getAckSetList() {
+      return ackSet_;
+    }
+    public int getAckSetCount() {
+      return ackSet_.size();
+    }
+    public long getAckSet(int index) {
+      return ackSet_.get(index);
+    }
+    
     private void initFields() {
       ledgerId_ = 0L;
       entryId_ = 0L;
       partition_ = -1;
       batchIndex_ = -1;
+      ackSet_ = java.util.Collections.emptyList();
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -398,6 +427,9 @@ public final class PulsarApi {
       if (((bitField0_ & 0x00000008) == 0x00000008)) {
         output.writeInt32(4, batchIndex_);
       }
+      for (int i = 0; i < ackSet_.size(); i++) {
+        output.writeInt64(5, ackSet_.get(i));
+      }
     }
     
     private int memoizedSerializedSize = -1;
@@ -422,6 +454,15 @@ public final class PulsarApi {
         size += com.google.protobuf.CodedOutputStream
           .computeInt32Size(4, batchIndex_);
       }
+      {
+        int dataSize = 0;
+        for (int i = 0; i < ackSet_.size(); i++) {
+          dataSize += com.google.protobuf.CodedOutputStream
+            .computeInt64SizeNoTag(ackSet_.get(i));
+        }
+        size += dataSize;
+        size += 1 * getAckSetList().size();
+      }
       memoizedSerializedSize = size;
       return size;
     }
@@ -543,6 +584,8 @@ public final class PulsarApi {
         bitField0_ = (bitField0_ & ~0x00000004);
         batchIndex_ = -1;
         bitField0_ = (bitField0_ & ~0x00000008);
+        ackSet_ = java.util.Collections.emptyList();
+        bitField0_ = (bitField0_ & ~0x00000010);
         return this;
       }
       
@@ -592,6 +635,11 @@ public final class PulsarApi {
           to_bitField0_ |= 0x00000008;
         }
         result.batchIndex_ = batchIndex_;
+        if (((bitField0_ & 0x00000010) == 0x00000010)) {
+          ackSet_ = java.util.Collections.unmodifiableList(ackSet_);
+          bitField0_ = (bitField0_ & ~0x00000010);
+        }
+        result.ackSet_ = ackSet_;
         result.bitField0_ = to_bitField0_;
         return result;
       }
@@ -610,6 +658,16 @@ public final class PulsarApi {
         if (other.hasBatchIndex()) {
           setBatchIndex(other.getBatchIndex());
         }
+        if (!other.ackSet_.isEmpty()) {
+          if (ackSet_.isEmpty()) {
+            ackSet_ = other.ackSet_;
+            bitField0_ = (bitField0_ & ~0x00000010);
+          } else {
+            ensureAckSetIsMutable();
+            ackSet_.addAll(other.ackSet_);
+          }
+          
+        }
         return this;
       }
       
@@ -667,6 +725,11 @@ public final class PulsarApi {
               batchIndex_ = input.readInt32();
               break;
             }
+            case 40: {
+              ensureAckSetIsMutable();
+              ackSet_.add(input.readInt64());
+              break;
+            }
           }
         }
       }
@@ -757,6 +820,51 @@ public final class PulsarApi {
         return this;
       }
       
+      // repeated int64 ack_set = 5;
+      private java.util.List<java.lang.Long> ackSet_ = java.util.Collections.emptyList();
+      private void ensureAckSetIsMutable() {
+        if (!((bitField0_ & 0x00000010) == 0x00000010)) {
+          ackSet_ = new java.util.ArrayList<java.lang.Long>(ackSet_);
+          bitField0_ |= 0x00000010;
+         }
+      }
+      public java.util.List<java.lang.Long>
+          getAckSetList() {
+        return java.util.Collections.unmodifiableList(ackSet_);
+      }
+      public int getAckSetCount() {
+        return ackSet_.size();
+      }
+      public long getAckSet(int index) {
+        return ackSet_.get(index);
+      }
+      public Builder setAckSet(
+          int index, long value) {
+        ensureAckSetIsMutable();
+        ackSet_.set(index, value);
+        
+        return this;
+      }
+      public Builder addAckSet(long value) {
+        ensureAckSetIsMutable();
+        ackSet_.add(value);
+        
+        return this;
+      }
+      public Builder addAllAckSet(
+          java.lang.Iterable<? extends java.lang.Long> values) {
+        ensureAckSetIsMutable();
+        super.addAll(values, ackSet_);
+        
+        return this;
+      }
+      public Builder clearAckSet() {
+        ackSet_ = java.util.Collections.emptyList();
+        bitField0_ = (bitField0_ & ~0x00000010);
+        
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:pulsar.proto.MessageIdData)
     }
     
@@ -2326,6 +2434,10 @@ public final class PulsarApi {
     // optional bytes encryption_param = 15;
     boolean hasEncryptionParam();
     com.google.protobuf.ByteString getEncryptionParam();
+    
+    // optional int64 deliver_at_time = 16;
+    boolean hasDeliverAtTime();
+    long getDeliverAtTime();
   }
   public static final class MessageMetadata extends
       com.google.protobuf.GeneratedMessageLite
@@ -2618,6 +2730,16 @@ public final class PulsarApi {
       return encryptionParam_;
     }
     
+    // optional int64 deliver_at_time = 16;
+    public static final int DELIVER_AT_TIME_FIELD_NUMBER = 16;
+    private long deliverAtTime_;
+    public boolean hasDeliverAtTime() {
+      return ((bitField0_ & 0x00000800) == 0x00000800);
+    }
+    public long getDeliverAtTime() {
+      return deliverAtTime_;
+    }
+    
     private void initFields() {
       producerName_ = "";
       sequenceId_ = 0L;
@@ -2633,6 +2755,7 @@ public final class PulsarApi {
       encryptionKeys_ = java.util.Collections.emptyList();
       encryptionAlgo_ = "";
       encryptionParam_ = com.google.protobuf.ByteString.EMPTY;
+      deliverAtTime_ = 0L;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -2717,6 +2840,9 @@ public final class PulsarApi {
       if (((bitField0_ & 0x00000400) == 0x00000400)) {
         output.writeBytes(15, encryptionParam_);
       }
+      if (((bitField0_ & 0x00000800) == 0x00000800)) {
+        output.writeInt64(16, deliverAtTime_);
+      }
     }
     
     private int memoizedSerializedSize = -1;
@@ -2786,6 +2912,10 @@ public final class PulsarApi {
         size += com.google.protobuf.CodedOutputStream
           .computeBytesSize(15, encryptionParam_);
       }
+      if (((bitField0_ & 0x00000800) == 0x00000800)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt64Size(16, deliverAtTime_);
+      }
       memoizedSerializedSize = size;
       return size;
     }
@@ -2927,6 +3057,8 @@ public final class PulsarApi {
         bitField0_ = (bitField0_ & ~0x00001000);
         encryptionParam_ = com.google.protobuf.ByteString.EMPTY;
         bitField0_ = (bitField0_ & ~0x00002000);
+        deliverAtTime_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00004000);
         return this;
       }
       
@@ -3020,6 +3152,10 @@ public final class PulsarApi {
           to_bitField0_ |= 0x00000400;
         }
         result.encryptionParam_ = encryptionParam_;
+        if (((from_bitField0_ & 0x00004000) == 0x00004000)) {
+          to_bitField0_ |= 0x00000800;
+        }
+        result.deliverAtTime_ = deliverAtTime_;
         result.bitField0_ = to_bitField0_;
         return result;
       }
@@ -3089,6 +3225,9 @@ public final class PulsarApi {
         if (other.hasEncryptionParam()) {
           setEncryptionParam(other.getEncryptionParam());
         }
+        if (other.hasDeliverAtTime()) {
+          setDeliverAtTime(other.getDeliverAtTime());
+        }
         return this;
       }
       
@@ -3218,6 +3357,11 @@ public final class PulsarApi {
               encryptionParam_ = input.readBytes();
               break;
             }
+            case 128: {
+              bitField0_ |= 0x00004000;
+              deliverAtTime_ = input.readInt64();
+              break;
+            }
           }
         }
       }
@@ -3755,6 +3899,27 @@ public final class PulsarApi {
         return this;
       }
       
+      // optional int64 deliver_at_time = 16;
+      private long deliverAtTime_ ;
+      public boolean hasDeliverAtTime() {
+        return ((bitField0_ & 0x00004000) == 0x00004000);
+      }
+      public long getDeliverAtTime() {
+        return deliverAtTime_;
+      }
+      public Builder setDeliverAtTime(long value) {
+        bitField0_ |= 0x00004000;
+        deliverAtTime_ = value;
+        
+        return this;
+      }
+      public Builder clearDeliverAtTime() {
+        bitField0_ = (bitField0_ & ~0x00004000);
+        deliverAtTime_ = 0L;
+        
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:pulsar.proto.MessageMetadata)
     }
     
@@ -5881,11 +6046,13 @@ public final class PulsarApi {
       Exclusive(0, 0),
       Shared(1, 1),
       Failover(2, 2),
+      Key_Shared(3, 3),
       ;
       
       public static final int Exclusive_VALUE = 0;
       public static final int Shared_VALUE = 1;
       public static final int Failover_VALUE = 2;
+      public static final int Key_Shared_VALUE = 3;
       
       
       public final int getNumber() { return value; }
@@ -5895,6 +6062,7 @@ public final class PulsarApi {
           case 0: return Exclusive;
           case 1: return Shared;
           case 2: return Failover;
+          case 3: return Key_Shared;
           default: return null;
         }
       }
@@ -14021,6 +14189,10 @@ public final class PulsarApi {
     // required uint32 messagePermits = 2;
     boolean hasMessagePermits();
     int getMessagePermits();
+    
+    // optional uint64 bytePermits = 3;
+    boolean hasBytePermits();
+    long getBytePermits();
   }
   public static final class CommandFlow extends
       com.google.protobuf.GeneratedMessageLite
@@ -14079,9 +14251,20 @@ public final class PulsarApi {
       return messagePermits_;
     }
     
+    // optional uint64 bytePermits = 3;
+    public static final int BYTEPERMITS_FIELD_NUMBER = 3;
+    private long bytePermits_;
+    public boolean hasBytePermits() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    public long getBytePermits() {
+      return bytePermits_;
+    }
+    
     private void initFields() {
       consumerId_ = 0L;
       messagePermits_ = 0;
+      bytePermits_ = 0L;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -14114,6 +14297,9 @@ public final class PulsarApi {
       if (((bitField0_ & 0x00000002) == 0x00000002)) {
         output.writeUInt32(2, messagePermits_);
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeUInt64(3, bytePermits_);
+      }
     }
     
     private int memoizedSerializedSize = -1;
@@ -14130,6 +14316,10 @@ public final class PulsarApi {
         size += com.google.protobuf.CodedOutputStream
           .computeUInt32Size(2, messagePermits_);
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(3, bytePermits_);
+      }
       memoizedSerializedSize = size;
       return size;
     }
@@ -14247,6 +14437,8 @@ public final class PulsarApi {
         bitField0_ = (bitField0_ & ~0x00000001);
         messagePermits_ = 0;
         bitField0_ = (bitField0_ & ~0x00000002);
+        bytePermits_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00000004);
         return this;
       }
       
@@ -14288,6 +14480,10 @@ public final class PulsarApi {
           to_bitField0_ |= 0x00000002;
         }
         result.messagePermits_ = messagePermits_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.bytePermits_ = bytePermits_;
         result.bitField0_ = to_bitField0_;
         return result;
       }
@@ -14300,6 +14496,9 @@ public final class PulsarApi {
         if (other.hasMessagePermits()) {
           setMessagePermits(other.getMessagePermits());
         }
+        if (other.hasBytePermits()) {
+          setBytePermits(other.getBytePermits());
+        }
         return this;
       }
       
@@ -14347,6 +14546,11 @@ public final class PulsarApi {
               messagePermits_ = input.readUInt32();
               break;
             }
+            case 24: {
+              bitField0_ |= 0x00000004;
+              bytePermits_ = input.readUInt64();
+              break;
+            }
           }
         }
       }
@@ -14395,6 +14599,27 @@ public final class PulsarApi {
         return this;
       }
       
+      // optional uint64 bytePermits = 3;
+      private long bytePermits_ ;
+      public boolean hasBytePermits() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      public long getBytePermits() {
+        return bytePermits_;
+      }
+      public Builder setBytePermits(long value) {
+        bitField0_ |= 0x00000004;
+        bytePermits_ = value;
+        
+        return this;
+      }
+      public Builder clearBytePermits() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        bytePermits_ = 0L;
+        
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:pulsar.proto.CommandFlow)
     }
     
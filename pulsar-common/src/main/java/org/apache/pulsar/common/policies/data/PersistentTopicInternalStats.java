@@ -37,6 +37,7 @@ public class PersistentTopicInternalStats {
 
     public String lastConfirmedEntry;
     public String state;
+    public long recoveryTimeMs;
 
     public List<LedgerInfo> ledgers;
     public Map<String, CursorStats> cursors;
@@ -61,6 +62,8 @@ public class PersistentTopicInternalStats {
         public String state;
         public long numberOfEntriesSinceFirstNotAckedMessage;
         public int totalNonContiguousDeletedMessagesRange;
+        public long readAheadHits;
+        public long readAheadMisses;
         
         public Map<String, Long> properties;
     }
@@ -33,11 +33,15 @@ public class Policies {
     public BundlesData bundles = defaultBundle();
     public Map<BacklogQuota.BacklogQuotaType, BacklogQuota> backlog_quota_map = Maps.newHashMap();
     public Map<String, DispatchRate> clusterDispatchRate = Maps.newHashMap();
+    public Map<String, PublishRate> clusterPublishRate = Maps.newHashMap();
     public PersistencePolicies persistence = null;
 
     // If set, it will override the broker settings for enabling deduplication
     public Boolean deduplicationEnabled = null;
 
+    // If set, it will override the broker settings for enabling the broker side batching of published messages
+    public Boolean brokerBatchingEnabled = null;
+
     public Map<String, Integer> latency_stats_sample_rate = Maps.newHashMap();
     public int message_ttl_in_seconds = 0;
     public RetentionPolicies retention_policies = null;
@@ -58,7 +62,9 @@ public class Policies {
                     && Objects.equals(replication_clusters, other.replication_clusters)
                     && Objects.equals(backlog_quota_map, other.backlog_quota_map)
                     && Objects.equals(clusterDispatchRate, other.clusterDispatchRate)
+                    && Objects.equals(clusterPublishRate, other.clusterPublishRate)
                     && Objects.equals(deduplicationEnabled, other.deduplicationEnabled)
+                    && Objects.equals(brokerBatchingEnabled, other.brokerBatchingEnabled)
                     && Objects.equals(persistence, other.persistence) && Objects.equals(bundles, other.bundles)
                     && Objects.equals(latency_stats_sample_rate, other.latency_stats_sample_rate)
                     && message_ttl_in_seconds == other.message_ttl_in_seconds
@@ -86,7 +92,9 @@ public class Policies {
                 .add("replication_clusters", replication_clusters).add("bundles", bundles)
                 .add("backlog_quota_map", backlog_quota_map).add("persistence", persistence)
                 .add("deduplicationEnabled", deduplicationEnabled)
+                .add("brokerBatchingEnabled", brokerBatchingEnabled)
                 .add("clusterDispatchRate", clusterDispatchRate)
+                .add("clusterPublishRate", clusterPublishRate)
                 .add("latency_stats_sample_rate", latency_stats_sample_rate)
                 .add("antiAffinityGroup", antiAffinityGroup)
                 .add("message_ttl_in_seconds", message_ttl_in_seconds).add("retention_policies", retention_policies)
@@ -34,6 +34,12 @@ public class PublisherStats {
     /** Average message size published by this publisher */
     public double averageMsgSize;
 
+    /** Whether the connection of this publisher is currently paused because the topic exceeded its publish-rate */
+    public boolean publishRateThrottled;
+
+    /** Number of publish requests of this publisher that exceeded the publish-rate of the topic */
+    public long publishRateThrottledCount;
+
     /** Id of this publisher */
     public long producerId;
 
@@ -57,6 +63,8 @@ public class PublisherStats {
         this.msgRateIn += stats.msgRateIn;
         this.msgThroughputIn += stats.msgThroughputIn;
         this.averageMsgSize += stats.averageMsgSize;
+        this.publishRateThrottled |= stats.publishRateThrottled;
+        this.publishRateThrottledCount += stats.publishRateThrottledCount;
         return this;
     }
 }
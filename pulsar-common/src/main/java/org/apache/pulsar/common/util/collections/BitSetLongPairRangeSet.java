@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Range set of (key, value) pairs that keeps one bitmap of values for each key.
+ *
+ * <p>
+ * The bitmap of a key is a {@link BitSet}, which grows up to the highest value set for that key: its size is about
+ * (highest value / 8) bytes, whatever the number of items, and does not depend on how fragmented the ranges are. When
+ * the values are bounded, as the entry ids of a ledger are by the max number of entries per ledger, this is much more
+ * compact than a {@link com.google.common.collect.TreeRangeSet} tracking many small holes, as it happens with the
+ * individually acknowledged messages of a subscription. It is not a good fit for a few sparse items with large values.
+ * <p>
+ * Values outside of the range [0, Integer.MAX_VALUE) are ignored, which never happens with entry ids since a ledger
+ * holds at most Integer.MAX_VALUE entries. Ranges never span across different keys: a range (k1:v1,
+ * k2:v2] is stored as the values after v1 already present for k1, plus the values [0, v2] for k2. Since the set
+ * doesn't know the last value of each key, the values of k1 past the last one already present and the values of the
+ * keys between k1 and k2 are not added. Callers that know where each key ends must split such ranges at the key
+ * boundaries, as the managed cursor does when recovering the ranges persisted by the default range set.
+ * <p>
+ * Consecutive ranges on different keys are reported as separate ranges, and {@link #rangeContaining(long, long)} never
+ * crosses a key boundary: callers looking for the end of a contiguous range have to continue on the next key.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class BitSetLongPairRangeSet<T extends Comparable<T>> implements LongPairRangeSet<T> {
+
+    private final NavigableMap<Long, BitSet> rangeBitSetMap = new TreeMap<>();
+    private final LongPairConsumer<T> consumer;
+
+    public BitSetLongPairRangeSet(LongPairConsumer<T> consumer) {
+        this.consumer = checkNotNull(consumer);
+    }
+
+    @Override
+    public void addOpenClosed(long lowerKey, long lowerValueOpen, long upperKey, long upperValue) {
+        if (lowerKey != upperKey) {
+            // The last value of the lower key is not known. Only extend the values of the lower key up to the last one
+            // already set, to avoid adding values that don't exist
+            BitSet lowerSet = rangeBitSetMap.get(lowerKey);
+            if (lowerSet != null && isValid(lowerValueOpen + 1)) {
+                int lastValue = lowerSet.length() - 1;
+                if (lastValue > lowerValueOpen) {
+                    lowerSet.set((int) lowerValueOpen + 1, lastValue + 1);
+                }
+            }
+
+            if (isValid(upperValue)) {
+                getOrCreateBitSet(upperKey).set(0, (int) upperValue + 1);
+            }
+        } else if (isValid(upperValue) && lowerValueOpen < upperValue) {
+            int fromValue = (int) Math.max(0, lowerValueOpen + 1);
+            getOrCreateBitSet(upperKey).set(fromValue, (int) upperValue + 1);
+        }
+    }
+
+    @Override
+    public boolean contains(long key, long value) {
+        BitSet bitSet = rangeBitSetMap.get(key);
+        return bitSet != null && isValid(value) && bitSet.get((int) value);
+    }
+
+    @Override
+    public Range<T> rangeContaining(long key, long value) {
+        BitSet bitSet = rangeBitSetMap.get(key);
+        if (bitSet == null || !isValid(value) || !bitSet.get((int) value)) {
+            return null;
+        }
+
+        int lowerValueOpen = bitSet.previousClearBit((int) value);
+        int upperValue = bitSet.nextClearBit((int) value) - 1;
+        return Range.openClosed(consumer.apply(key, lowerValueOpen), consumer.apply(key, upperValue));
+    }
+
+    @Override
+    public void removeAtMost(long key, long value) {
+        rangeBitSetMap.headMap(key, false).clear();
+
+        BitSet bitSet = rangeBitSetMap.get(key);
+        if (bitSet != null && value >= 0) {
+            bitSet.clear(0, (int) Math.min(value, Integer.MAX_VALUE - 1) + 1);
+            if (bitSet.isEmpty()) {
+                rangeBitSetMap.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return rangeBitSetMap.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        rangeBitSetMap.clear();
+    }
+
+    @Override
+    public Range<T> span() {
+        if (rangeBitSetMap.isEmpty()) {
+            return null;
+        }
+
+        Map.Entry<Long, BitSet> first = rangeBitSetMap.firstEntry();
+        Map.Entry<Long, BitSet> last = rangeBitSetMap.lastEntry();
+        return Range.openClosed(consumer.apply(first.getKey(), first.getValue().nextSetBit(0) - 1),
+                consumer.apply(last.getKey(), last.getValue().length() - 1));
+    }
+
+    @Override
+    public Range<T> firstRange() {
+        if (rangeBitSetMap.isEmpty()) {
+            return null;
+        }
+
+        Map.Entry<Long, BitSet> first = rangeBitSetMap.firstEntry();
+        int lowerValue = first.getValue().nextSetBit(0);
+        int upperValue = first.getValue().nextClearBit(lowerValue) - 1;
+        return Range.openClosed(consumer.apply(first.getKey(), lowerValue - 1),
+                consumer.apply(first.getKey(), upperValue));
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (BitSet bitSet : rangeBitSetMap.values()) {
+            int lowerValue = bitSet.nextSetBit(0);
+            while (lowerValue >= 0) {
+                ++size;
+                lowerValue = bitSet.nextSetBit(bitSet.nextClearBit(lowerValue));
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Collection<Range<T>> asRanges() {
+        List<Range<T>> ranges = Lists.newArrayList();
+        forEach(range -> ranges.add(range));
+        return ranges;
+    }
+
+    @Override
+    public void forEach(RangeProcessor<T> processor) {
+        for (Map.Entry<Long, BitSet> entry : rangeBitSetMap.entrySet()) {
+            long key = entry.getKey();
+            BitSet bitSet = entry.getValue();
+
+            int lowerValue = bitSet.nextSetBit(0);
+            while (lowerValue >= 0) {
+                int upperValue = bitSet.nextClearBit(lowerValue) - 1;
+                Range<T> range = Range.openClosed(consumer.apply(key, lowerValue - 1), consumer.apply(key, upperValue));
+                if (!processor.process(range)) {
+                    return;
+                }
+                lowerValue = bitSet.nextSetBit(upperValue + 1);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return asRanges().toString();
+    }
+
+    private BitSet getOrCreateBitSet(long key) {
+        return rangeBitSetMap.computeIfAbsent(key, k -> new BitSet());
+    }
+
+    private static boolean isValid(long value) {
+        return value >= 0 && value < Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet.LongPair;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet.LongPairConsumer;
+
+/**
+ * Set of (long, long) pairs that iterates over its items in ascending order.
+ *
+ * <p>The second items of each distinct first item are split in chunks of {@value #CHUNK_SIZE} consecutive values, and
+ * each chunk holding at least one item keeps them in a bitmap. A chunk costs at most {@value #CHUNK_SIZE} bits plus
+ * its map entry, so dense runs of pairs take about a bit each while an isolated pair with a large second item doesn't
+ * allocate a bitmap covering all the values below it. A chunk is dropped when it becomes empty. Second items must not
+ * be negative.
+ *
+ * <p>All the methods are synchronized.
+ */
+public class ConcurrentSortedLongPairSet {
+
+    private static final int CHUNK_BITS = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Keyed by (item1, item2 / CHUNK_SIZE), the bitmap holds the values of item2 % CHUNK_SIZE
+    private final NavigableMap<LongPair, BitSet> map = new TreeMap<>();
+    private long size = 0;
+
+    public synchronized boolean add(long item1, long item2) {
+        checkArgument(item2 >= 0, "Invalid item: %s", item2);
+        BitSet bitSet = map.computeIfAbsent(chunk(item1, item2), k -> new BitSet());
+        int bit = bit(item2);
+        if (bitSet.get(bit)) {
+            return false;
+        }
+        bitSet.set(bit);
+        ++size;
+        return true;
+    }
+
+    public synchronized boolean remove(long item1, long item2) {
+        if (item2 < 0) {
+            return false;
+        }
+        LongPair chunk = chunk(item1, item2);
+        BitSet bitSet = map.get(chunk);
+        int bit = bit(item2);
+        if (bitSet == null || !bitSet.get(bit)) {
+            return false;
+        }
+        bitSet.clear(bit);
+        if (bitSet.isEmpty()) {
+            map.remove(chunk);
+        }
+        --size;
+        return true;
+    }
+
+    /**
+     * Removes all the items lower than or equal to the given pair.
+     *
+     * @return number of removed items
+     */
+    public synchronized int removeUpTo(long item1, long item2) {
+        int removed = 0;
+        LongPair chunk = chunk(item1, Math.max(item2, 0));
+        NavigableMap<LongPair, BitSet> lowerChunks = map.headMap(chunk, false);
+        for (BitSet bitSet : lowerChunks.values()) {
+            removed += bitSet.cardinality();
+        }
+        lowerChunks.clear();
+
+        BitSet bitSet = map.get(chunk);
+        if (bitSet != null && item2 >= 0) {
+            int toIndex = bit(item2) + 1;
+            removed += bitSet.get(0, toIndex).cardinality();
+            bitSet.clear(0, toIndex);
+            if (bitSet.isEmpty()) {
+                map.remove(chunk);
+            }
+        }
+
+        size -= removed;
+        return removed;
+    }
+
+    public synchronized boolean contains(long item1, long item2) {
+        if (item2 < 0) {
+            return false;
+        }
+        BitSet bitSet = map.get(chunk(item1, item2));
+        return bitSet != null && bitSet.get(bit(item2));
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        size = 0;
+    }
+
+    /**
+     * Process all the items in ascending order.
+     */
+    public synchronized void forEach(LongPairConsumer processor) {
+        for (Map.Entry<LongPair, BitSet> entry : map.entrySet()) {
+            long item1 = entry.getKey().first;
+            long base = entry.getKey().second << CHUNK_BITS;
+            BitSet bitSet = entry.getValue();
+            for (int bit = bitSet.nextSetBit(0); bit >= 0; bit = bitSet.nextSetBit(bit + 1)) {
+                processor.accept(item1, base + bit);
+            }
+        }
+    }
+
+    /**
+     * @return a new set with the smallest items, up to the provided numberOfItems (makes a copy)
+     */
+    public synchronized NavigableSet<LongPair> items(int numberOfItems) {
+        NavigableSet<LongPair> items = new TreeSet<>();
+        for (Map.Entry<LongPair, BitSet> entry : map.entrySet()) {
+            long item1 = entry.getKey().first;
+            long base = entry.getKey().second << CHUNK_BITS;
+            BitSet bitSet = entry.getValue();
+            for (int bit = bitSet.nextSetBit(0); bit >= 0; bit = bitSet.nextSetBit(bit + 1)) {
+                if (items.size() >= numberOfItems) {
+                    return items;
+                }
+                items.add(new LongPair(item1, base + bit));
+            }
+        }
+        return items;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        forEach((item1, item2) -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append('[').append(item1).append(':').append(item2).append(']');
+        });
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static LongPair chunk(long item1, long item2) {
+        return new LongPair(item1, item2 >>> CHUNK_BITS);
+    }
+
+    private static int bit(long item2) {
+        return (int) (item2 & CHUNK_MASK);
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A set of ranges of items identified by a pair of longs (key, value), eg: (ledgerId, entryId).
+ *
+ * <p>
+ * Ranges are always added as open-closed intervals (lower, upper] and items are materialized, through a
+ * {@link LongPairConsumer}, only when ranges are returned to the caller.
+ * <p>
+ * Implementations are not thread-safe and need external synchronization.
+ */
+public interface LongPairRangeSet<T extends Comparable<T>> {
+
+    /**
+     * Adds the range (lower, upper] to the set.
+     *
+     * @param lowerKey
+     *            key of the open lower endpoint
+     * @param lowerValue
+     *            value of the open lower endpoint
+     * @param upperKey
+     *            key of the closed upper endpoint
+     * @param upperValue
+     *            value of the closed upper endpoint
+     */
+    void addOpenClosed(long lowerKey, long lowerValue, long upperKey, long upperValue);
+
+    /**
+     * @return whether the item (key, value) is contained in any range of the set
+     */
+    boolean contains(long key, long value);
+
+    /**
+     * @return the range that contains the item (key, value) or null if the item is not in the set
+     */
+    Range<T> rangeContaining(long key, long value);
+
+    /**
+     * Removes from the set all the items less than or equal to (key, value).
+     */
+    void removeAtMost(long key, long value);
+
+    boolean isEmpty();
+
+    void clear();
+
+    /**
+     * @return the minimal range that encloses all the ranges in the set, or null if the set is empty
+     */
+    Range<T> span();
+
+    /**
+     * @return the first range of the set, or null if the set is empty
+     */
+    Range<T> firstRange();
+
+    /**
+     * @return the number of disjoint ranges in the set
+     */
+    int size();
+
+    /**
+     * @return a snapshot of the disjoint ranges in the set, in ascending order
+     */
+    Collection<Range<T>> asRanges();
+
+    /**
+     * Iterates over the disjoint ranges of the set in ascending order, until the processor returns false.
+     */
+    void forEach(RangeProcessor<T> processor);
+
+    /**
+     * Converts a (key, value) pair into an item.
+     */
+    interface LongPairConsumer<T> {
+        T apply(long key, long value);
+    }
+
+    /**
+     * Processes a range of the set.
+     */
+    interface RangeProcessor<T extends Comparable<T>> {
+        /**
+         * @return true to continue the iteration, false to stop it
+         */
+        boolean process(Range<T> range);
+    }
+
+    /**
+     * Range set backed by a guava {@link TreeRangeSet}.
+     */
+    class DefaultRangeSet<T extends Comparable<T>> implements LongPairRangeSet<T> {
+
+        private final LongPairConsumer<T> consumer;
+        private final RangeSet<T> set = TreeRangeSet.create();
+
+        public DefaultRangeSet(LongPairConsumer<T> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void addOpenClosed(long lowerKey, long lowerValue, long upperKey, long upperValue) {
+            set.add(Range.openClosed(consumer.apply(lowerKey, lowerValue), consumer.apply(upperKey, upperValue)));
+        }
+
+        @Override
+        public boolean contains(long key, long value) {
+            return set.contains(consumer.apply(key, value));
+        }
+
+        @Override
+        public Range<T> rangeContaining(long key, long value) {
+            return set.rangeContaining(consumer.apply(key, value));
+        }
+
+        @Override
+        public void removeAtMost(long key, long value) {
+            set.remove(Range.atMost(consumer.apply(key, value)));
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return set.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            set.clear();
+        }
+
+        @Override
+        public Range<T> span() {
+            return set.isEmpty() ? null : set.span();
+        }
+
+        @Override
+        public Range<T> firstRange() {
+            Iterator<Range<T>> iterator = set.asRanges().iterator();
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        @Override
+        public int size() {
+            return set.asRanges().size();
+        }
+
+        @Override
+        public Collection<Range<T>> asRanges() {
+            return set.asRanges();
+        }
+
+        @Override
+        public void forEach(RangeProcessor<T> processor) {
+            for (Range<T> range : set.asRanges()) {
+                if (!processor.process(range)) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return set.toString();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import io.netty.util.internal.MathUtil;
+
+/**
+ * A priority queue based on a min heap where values are composed of triplets of longs, compared in order.
+ *
+ * <p>The values are stored inline in a single {@code long[]}, so each item takes 24 bytes and no object is allocated
+ * per item. When the capacity is reached, data is moved to a bigger array.
+ *
+ * <p><b>This class is not thread-safe.</b>
+ */
+public class TripleLongPriorityQueue {
+
+    private static final int ITEMS_COUNT = 3;
+
+    private final int initialCapacity;
+    private long[] data;
+    private int size = 0;
+
+    public TripleLongPriorityQueue() {
+        this(64);
+    }
+
+    public TripleLongPriorityQueue(int initialCapacity) {
+        checkArgument(initialCapacity > 0);
+        this.initialCapacity = MathUtil.findNextPositivePowerOfTwo(initialCapacity);
+        this.data = new long[ITEMS_COUNT * this.initialCapacity];
+    }
+
+    public void add(long n1, long n2, long n3) {
+        if (size == capacity()) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+
+        int idx = size++;
+        put(idx, n1, n2, n3);
+
+        // Swap with parent until parent not larger
+        while (idx > 0 && compare(idx, parent(idx)) < 0) {
+            swap(idx, parent(idx));
+            idx = parent(idx);
+        }
+    }
+
+    /**
+     * Read the first value of the smallest item. The queue must not be empty.
+     */
+    public long peekN1() {
+        checkNotEmpty();
+        return data[0];
+    }
+
+    public long peekN2() {
+        checkNotEmpty();
+        return data[1];
+    }
+
+    public long peekN3() {
+        checkNotEmpty();
+        return data[2];
+    }
+
+    /**
+     * Removes the smallest item from the queue. The queue must not be empty.
+     */
+    public void pop() {
+        checkNotEmpty();
+        --size;
+        if (size > 0) {
+            int last = size * ITEMS_COUNT;
+            put(0, data[last], data[last + 1], data[last + 2]);
+            siftDown(0);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return data.length / ITEMS_COUNT;
+    }
+
+    /**
+     * Removes all the items and releases the memory allocated after the initial capacity.
+     */
+    public void clear() {
+        size = 0;
+        if (capacity() > initialCapacity) {
+            data = new long[ITEMS_COUNT * initialCapacity];
+        }
+    }
+
+    private void checkNotEmpty() {
+        if (size == 0) {
+            throw new IllegalStateException("Priority queue is empty");
+        }
+    }
+
+    private void put(int idx, long n1, long n2, long n3) {
+        int i = idx * ITEMS_COUNT;
+        data[i] = n1;
+        data[i + 1] = n2;
+        data[i + 2] = n3;
+    }
+
+    private void siftDown(int idx) {
+        while (true) {
+            int left = 2 * idx + 1;
+            int right = left + 1;
+            int smallest = idx;
+            if (left < size && compare(left, smallest) < 0) {
+                smallest = left;
+            }
+            if (right < size && compare(right, smallest) < 0) {
+                smallest = right;
+            }
+            if (smallest == idx) {
+                return;
+            }
+            swap(idx, smallest);
+            idx = smallest;
+        }
+    }
+
+    private int compare(int idx1, int idx2) {
+        int i1 = idx1 * ITEMS_COUNT;
+        int i2 = idx2 * ITEMS_COUNT;
+        for (int k = 0; k < ITEMS_COUNT; k++) {
+            int c = Long.compare(data[i1 + k], data[i2 + k]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private void swap(int idx1, int idx2) {
+        int i1 = idx1 * ITEMS_COUNT;
+        int i2 = idx2 * ITEMS_COUNT;
+        for (int k = 0; k < ITEMS_COUNT; k++) {
+            long t = data[i1 + k];
+            data[i1 + k] = data[i2 + k];
+            data[i2 + k] = t;
+        }
+    }
+
+    private static int parent(int idx) {
+        return (idx - 1) / 2;
+    }
+}
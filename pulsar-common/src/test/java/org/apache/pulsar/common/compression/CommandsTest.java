@@ -27,6 +27,7 @@ import org.apache.pulsar.checksum.utils.Crc32cChecksum;
 import org.apache.pulsar.common.api.Commands;
 import org.apache.pulsar.common.api.Commands.ChecksumType;
 import org.apache.pulsar.common.api.ByteBufPair;
+import org.apache.pulsar.common.api.proto.PulsarApi.CompressionType;
 import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 import org.apache.pulsar.common.util.protobuf.ByteBufCodedOutputStream;
 import org.testng.annotations.Test;
@@ -76,6 +77,52 @@ public class CommandsTest {
 
     }
 
+    @Test
+    public void testReplicatedSendCommand() throws Exception {
+        for (ChecksumType checksumType : ChecksumType.values()) {
+            byte[] payload = "replicated-payload".getBytes();
+            MessageMetadata messageMetadata = MessageMetadata.newBuilder().setPublishTime(System.currentTimeMillis())
+                    .setProducerName("prod-name").setSequenceId(5).setNumMessagesInBatch(3)
+                    .setCompression(CompressionType.LZ4).setUncompressedSize(100).build();
+            ByteBuf entry = Commands.serializeMetadataAndPayload(checksumType, messageMetadata,
+                    Unpooled.wrappedBuffer(payload));
+            int entryReaderIndex = entry.readerIndex();
+
+            ByteBufPair clientCommand = Commands.newSendReplicated(1, 5, 3, entry, "local-cluster");
+            // The stored entry is left untouched
+            assertEquals(entry.readerIndex(), entryReaderIndex);
+
+            ByteBuf receivedBuf = ByteBufPair.coalesce(clientCommand);
+            assertEquals(receivedBuf.readInt(), receivedBuf.readableBytes());
+            int cmdSize = (int) receivedBuf.readUnsignedInt();
+            receivedBuf.skipBytes(cmdSize);
+
+            assertEquals(Commands.hasChecksum(receivedBuf), checksumType == ChecksumType.Crc32c);
+            if (checksumType == ChecksumType.Crc32c) {
+                int checksum = Commands.readChecksum(receivedBuf).intValue();
+                assertEquals(checksum, Crc32cChecksum.computeChecksum(receivedBuf));
+            }
+
+            MessageMetadata metadata = Commands.parseMessageMetadata(receivedBuf);
+            assertEquals(metadata.getReplicatedFrom(), "local-cluster");
+            assertEquals(metadata.getProducerName(), "prod-name");
+            assertEquals(metadata.getSequenceId(), 5);
+            assertEquals(metadata.getNumMessagesInBatch(), 3);
+            assertEquals(metadata.getCompression(), CompressionType.LZ4);
+            assertEquals(metadata.getUncompressedSize(), 100);
+            byte[] receivedPayload = new byte[receivedBuf.readableBytes()];
+            receivedBuf.readBytes(receivedPayload);
+            assertEquals(receivedPayload, payload);
+
+            metadata.recycle();
+            messageMetadata.recycle();
+            receivedBuf.release();
+            clientCommand.release();
+            entry.release();
+            assertEquals(entry.refCnt(), 0);
+        }
+    }
+
     private int computeChecksum(MessageMetadata msgMetadata, ByteBuf compressedPayload) throws IOException {
         int metadataSize = msgMetadata.getSerializedSize();
         int metadataFrameSize = 4 + metadataSize;
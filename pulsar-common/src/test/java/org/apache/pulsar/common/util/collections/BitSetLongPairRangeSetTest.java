@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet.LongPair;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+
+public class BitSetLongPairRangeSetTest {
+
+    private final LongPairRangeSet.LongPairConsumer<LongPair> consumer = LongPair::new;
+
+    @Test
+    public void testAddAndContains() {
+        BitSetLongPairRangeSet<LongPair> set = new BitSetLongPairRangeSet<>(consumer);
+        assertTrue(set.isEmpty());
+        assertNull(set.span());
+        assertNull(set.firstRange());
+        assertEquals(set.size(), 0);
+
+        set.addOpenClosed(1, 2, 1, 5);
+        set.addOpenClosed(1, 7, 1, 9);
+        set.addOpenClosed(2, -1, 2, 0);
+
+        assertFalse(set.isEmpty());
+        assertFalse(set.contains(1, 2));
+        assertTrue(set.contains(1, 3));
+        assertTrue(set.contains(1, 5));
+        assertFalse(set.contains(1, 6));
+        assertTrue(set.contains(1, 9));
+        assertTrue(set.contains(2, 0));
+        assertFalse(set.contains(2, 1));
+        assertFalse(set.contains(3, 0));
+        assertFalse(set.contains(1, -1));
+
+        assertEquals(set.size(), 3);
+        assertEquals(set.asRanges(), Lists.newArrayList(range(1, 2, 1, 5), range(1, 7, 1, 9), range(2, -1, 2, 0)));
+        assertEquals(set.firstRange(), range(1, 2, 1, 5));
+        assertEquals(set.span(), range(1, 2, 2, 0));
+
+        assertEquals(set.rangeContaining(1, 4), range(1, 2, 1, 5));
+        assertEquals(set.rangeContaining(1, 8), range(1, 7, 1, 9));
+        assertNull(set.rangeContaining(1, 6));
+        assertNull(set.rangeContaining(5, 0));
+
+        // Fill the hole between the 2 ranges of the first key
+        set.addOpenClosed(1, 5, 1, 7);
+        assertEquals(set.size(), 2);
+        assertEquals(set.rangeContaining(1, 4), range(1, 2, 1, 9));
+    }
+
+    @Test
+    public void testAddAcrossKeys() {
+        BitSetLongPairRangeSet<LongPair> set = new BitSetLongPairRangeSet<>(consumer);
+
+        // The lower key has no values yet: only the values of the upper key are added
+        set.addOpenClosed(1, 5, 2, 3);
+        assertFalse(set.contains(1, 6));
+        assertEquals(set.asRanges(), Lists.newArrayList(range(2, -1, 2, 3)));
+
+        // The lower key is only extended up to its last known value
+        set.addOpenClosed(1, 8, 1, 10);
+        set.addOpenClosed(1, 2, 2, 5);
+        assertFalse(set.contains(1, 2));
+        assertTrue(set.contains(1, 3));
+        assertTrue(set.contains(1, 10));
+        assertFalse(set.contains(1, 11));
+        assertTrue(set.contains(2, 5));
+        assertEquals(set.asRanges(), Lists.newArrayList(range(1, 2, 1, 10), range(2, -1, 2, 5)));
+    }
+
+    @Test
+    public void testRemoveAtMost() {
+        BitSetLongPairRangeSet<LongPair> set = new BitSetLongPairRangeSet<>(consumer);
+        set.addOpenClosed(1, -1, 1, 10);
+        set.addOpenClosed(2, 3, 2, 6);
+        set.addOpenClosed(3, 1, 3, 2);
+
+        set.removeAtMost(2, 4);
+        assertFalse(set.contains(1, 5));
+        assertFalse(set.contains(2, 4));
+        assertTrue(set.contains(2, 5));
+        assertEquals(set.asRanges(), Lists.newArrayList(range(2, 4, 2, 6), range(3, 1, 3, 2)));
+
+        // Keys left without values are dropped
+        set.removeAtMost(2, 6);
+        assertEquals(set.firstRange(), range(3, 1, 3, 2));
+
+        set.removeAtMost(4, 0);
+        assertTrue(set.isEmpty());
+
+        set.addOpenClosed(1, -1, 1, 10);
+        set.clear();
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testForEachStops() {
+        BitSetLongPairRangeSet<LongPair> set = new BitSetLongPairRangeSet<>(consumer);
+        for (int i = 0; i < 10; i++) {
+            set.addOpenClosed(1, i * 3, 1, i * 3 + 1);
+        }
+
+        List<Range<LongPair>> ranges = new ArrayList<>();
+        set.forEach(range -> {
+            ranges.add(range);
+            return ranges.size() < 4;
+        });
+        assertEquals(ranges.size(), 4);
+        assertEquals(ranges.get(3), range(1, 9, 1, 10));
+    }
+
+    @Test
+    public void testCompareWithDefaultRangeSet() {
+        BitSetLongPairRangeSet<LongPair> set = new BitSetLongPairRangeSet<>(consumer);
+        LongPairRangeSet<LongPair> expected = new LongPairRangeSet.DefaultRangeSet<>(consumer);
+
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            long key = random.nextInt(5);
+            long lower = random.nextInt(500) - 1;
+            long upper = lower + 1 + random.nextInt(10);
+            set.addOpenClosed(key, lower, key, upper);
+            expected.addOpenClosed(key, lower, key, upper);
+        }
+
+        assertEquals(set.size(), expected.size());
+        assertEquals(set.asRanges(), new ArrayList<>(expected.asRanges()));
+        assertEquals(set.firstRange(), expected.firstRange());
+        assertEquals(set.span(), expected.span());
+
+        for (long key = 0; key < 5; key++) {
+            for (long value = 0; value < 520; value++) {
+                assertEquals(set.contains(key, value), expected.contains(key, value));
+                assertEquals(set.rangeContaining(key, value), expected.rangeContaining(key, value));
+            }
+        }
+
+        set.removeAtMost(2, 250);
+        expected.removeAtMost(2, 250);
+        assertEquals(set.asRanges(), new ArrayList<>(expected.asRanges()));
+    }
+
+    private static Range<LongPair> range(long lowerKey, long lowerValue, long upperKey, long upperValue) {
+        return Range.openClosed(new LongPair(lowerKey, lowerValue), new LongPair(upperKey, upperValue));
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet.LongPair;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+public class ConcurrentSortedLongPairSetTest {
+
+    @Test
+    public void simpleInsertions() {
+        ConcurrentSortedLongPairSet set = new ConcurrentSortedLongPairSet();
+
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(1, 1));
+        assertFalse(set.isEmpty());
+        assertTrue(set.add(2, 2));
+        assertTrue(set.add(3, 3));
+        assertEquals(set.size(), 3);
+
+        assertTrue(set.contains(1, 1));
+        assertFalse(set.contains(1, 2));
+
+        assertFalse(set.add(1, 1));
+        assertEquals(set.size(), 3);
+
+        assertTrue(set.remove(1, 1));
+        assertFalse(set.remove(1, 1));
+        assertFalse(set.remove(5, 5));
+        assertEquals(set.size(), 2);
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertEquals(set.size(), 0);
+
+        try {
+            set.add(1, -1);
+            fail("should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testOrdering() {
+        ConcurrentSortedLongPairSet set = new ConcurrentSortedLongPairSet();
+        set.add(3, 1);
+        set.add(1, 7);
+        set.add(2, 0);
+        set.add(1, 2);
+        set.add(3, 0);
+
+        List<LongPair> items = Lists.newArrayList();
+        set.forEach((item1, item2) -> items.add(new LongPair(item1, item2)));
+        assertEquals(items, Lists.newArrayList(new LongPair(1, 2), new LongPair(1, 7), new LongPair(2, 0),
+                new LongPair(3, 0), new LongPair(3, 1)));
+
+        assertEquals(Lists.newArrayList(set.items(3)),
+                Lists.newArrayList(new LongPair(1, 2), new LongPair(1, 7), new LongPair(2, 0)));
+        assertEquals(set.items(10).size(), 5);
+        assertEquals(set.toString(), "{[1:2], [1:7], [2:0], [3:0], [3:1]}");
+    }
+
+    @Test
+    public void testRemoveUpTo() {
+        ConcurrentSortedLongPairSet set = new ConcurrentSortedLongPairSet();
+        for (int i = 0; i < 10; i++) {
+            set.add(1, i);
+            set.add(2, i);
+            set.add(3, i);
+        }
+
+        assertEquals(set.removeUpTo(2, 4), 15);
+        assertEquals(set.size(), 15);
+        assertFalse(set.contains(2, 4));
+        assertTrue(set.contains(2, 5));
+
+        assertEquals(set.removeUpTo(2, 100), 5);
+        assertEquals(set.removeUpTo(1, 100), 0);
+        assertEquals(set.size(), 10);
+
+        assertEquals(set.removeUpTo(5, -1), 10);
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testLargeItems() {
+        ConcurrentSortedLongPairSet set = new ConcurrentSortedLongPairSet();
+        long large = Integer.MAX_VALUE + 10L;
+        assertTrue(set.add(1, large));
+        assertTrue(set.add(1, 10_000_000));
+        assertTrue(set.add(1, 3));
+        assertTrue(set.add(1, ConcurrentSortedLongPairSet.CHUNK_SIZE));
+        assertTrue(set.add(1, ConcurrentSortedLongPairSet.CHUNK_SIZE - 1));
+        assertTrue(set.contains(1, large));
+        assertFalse(set.contains(1, large - 1));
+        assertEquals(set.size(), 5);
+
+        // The items are still iterated in order across the chunks
+        assertEquals(Lists.newArrayList(set.items(10)),
+                Lists.newArrayList(new LongPair(1, 3), new LongPair(1, ConcurrentSortedLongPairSet.CHUNK_SIZE - 1),
+                        new LongPair(1, ConcurrentSortedLongPairSet.CHUNK_SIZE), new LongPair(1, 10_000_000),
+                        new LongPair(1, large)));
+
+        assertEquals(set.removeUpTo(1, ConcurrentSortedLongPairSet.CHUNK_SIZE), 3);
+        assertTrue(set.remove(1, large));
+        assertEquals(set.size(), 1);
+        assertEquals(set.toString(), "{[1:10000000]}");
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+public class TripleLongPriorityQueueTest {
+
+    @Test
+    public void testConstructor() {
+        try {
+            new TripleLongPriorityQueue(0);
+            fail("should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testOrdering() {
+        TripleLongPriorityQueue queue = new TripleLongPriorityQueue(4);
+        assertTrue(queue.isEmpty());
+
+        queue.add(3, 1, 1);
+        queue.add(1, 2, 2);
+        queue.add(1, 2, 1);
+        queue.add(1, 1, 5);
+        queue.add(2, 0, 0);
+        assertEquals(queue.size(), 5);
+        assertEquals(queue.capacity(), 8);
+
+        long[][] expected = { { 1, 1, 5 }, { 1, 2, 1 }, { 1, 2, 2 }, { 2, 0, 0 }, { 3, 1, 1 } };
+        for (long[] item : expected) {
+            assertEquals(queue.peekN1(), item[0]);
+            assertEquals(queue.peekN2(), item[1]);
+            assertEquals(queue.peekN3(), item[2]);
+            queue.pop();
+        }
+        assertTrue(queue.isEmpty());
+
+        try {
+            queue.pop();
+            fail("should have thrown exception");
+        } catch (IllegalStateException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testRandomItems() {
+        TripleLongPriorityQueue queue = new TripleLongPriorityQueue();
+        Random random = new Random(0);
+        List<Long> items = Lists.newArrayList();
+        for (int i = 0; i < 10000; i++) {
+            long n = random.nextInt(1000);
+            items.add(n);
+            queue.add(n, i, -i);
+        }
+        Collections.sort(items);
+
+        for (long item : items) {
+            assertFalse(queue.isEmpty());
+            assertEquals(queue.peekN1(), item);
+            queue.pop();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testClear() {
+        TripleLongPriorityQueue queue = new TripleLongPriorityQueue(4);
+        for (int i = 0; i < 100; i++) {
+            queue.add(i, i, i);
+        }
+        assertEquals(queue.capacity(), 128);
+
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertEquals(queue.capacity(), 4);
+
+        queue.add(1, 2, 3);
+        assertEquals(queue.peekN3(), 3);
+    }
+}